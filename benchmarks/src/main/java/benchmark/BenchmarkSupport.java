@@ -0,0 +1,78 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+// 基准共用的工具：临时目录和屏蔽 NameNode、DataNode 在每次操作时打印的日志
+final class BenchmarkSupport {
+    private static PrintStream stdout; // 被替换前的标准输出
+
+    private BenchmarkSupport() {
+    }
+
+    static File createTempDir(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    // 生成 size 字节类似服务日志的文本：时间戳递增，级别、线程、类名和消息模板有限，参数随机，
+    // 压缩率接近实际的日志数据
+    static byte[] logData(int size, long seed) {
+        String[] levels = {"INFO", "INFO", "INFO", "DEBUG", "WARN", "ERROR"};
+        String[] classes = {"server.NameNode", "server.DataNode", "server.ReplicationMonitor", "client.Client"};
+        String[] messages = {"Block %d replicated to dataNode%d", "File /logs/app-%d.log created by dfs",
+                "Heartbeat from dataNode%d, %d blocks pending", "Read of block %d took %d ms"};
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder(size + 256);
+        long time = 1700000000000L;
+        while (text.length() < size) {
+            time += random.nextInt(50);
+            text.append(time).append(' ').append(levels[random.nextInt(levels.length)])
+                    .append(" [worker-").append(random.nextInt(16)).append("] ")
+                    .append(classes[random.nextInt(classes.length)]).append(": ")
+                    .append(String.format(messages[random.nextInt(messages.length)], random.nextInt(1 << 20), random.nextInt(100)))
+                    .append('\n');
+        }
+        byte[] data = new byte[size];
+        System.arraycopy(text.toString().getBytes(StandardCharsets.US_ASCII), 0, data, 0, size);
+        return data;
+    }
+
+    // 丢弃标准输出，避免测到的是控制台打印的开销；返回原来的输出流供报告结果使用
+    static synchronized PrintStream silenceStdout() {
+        if (stdout == null) {
+            stdout = System.out;
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                }
+            }));
+        }
+        return stdout;
+    }
+
+    static synchronized void restoreStdout() {
+        if (stdout != null) {
+            System.setOut(stdout);
+            stdout = null;
+        }
+    }
+}
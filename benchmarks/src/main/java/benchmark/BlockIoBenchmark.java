@@ -0,0 +1,139 @@
+package benchmark;
+
+import common.Config;
+import common.DataTransfer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.DataNode;
+import server.NameNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// 块读写基准：在不同块大小下测量 DataNode.uploadFile/downloadFile，以及经块传输服务的写入和读取。
+// 除每秒操作数外，bytes 一栏给出每秒读写的字节数。每轮迭代使用新的 DataNode 和空的数据目录，
+// 被覆盖的块不会在磁盘上累积；写入的块 ID 不是数字，不会被块汇报给 NameNode
+// 用法：java -jar benchmarks/target/benchmarks.jar BlockIoBenchmark -p blockSize=1048576
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BlockIoBenchmark {
+    private static final int READ_BLOCKS = 16; // 每轮迭代预先写入、供读取基准使用的块数
+    private static final int WRITE_BLOCKS = 64; // 写入基准循环覆盖的块 ID 数
+
+    @Param({"4096", "65536", "1048576", "16777216"})
+    public int blockSize;
+
+    private File dataDir;
+    private File nameDir;
+    private NameNode nameNode;
+    private DataNode dataNode;
+    private SocketChannel channel; // 到块传输服务的连接，在各次操作间复用
+    private String text; // uploadFile 使用的块内容
+    private byte[] data; // 块传输使用的块内容
+    private long next;
+
+    // 每秒读写的字节数
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkSupport.silenceStdout();
+        nameDir = BenchmarkSupport.createTempDir("blockio-name");
+        Config.NAME_DIR = nameDir.getPath();
+        nameNode = new NameNode();
+        // uploadFile 按 UTF-8 编码，用 ASCII 字符使块的字节数等于 blockSize
+        Random random = new Random(42);
+        char[] chars = new char[blockSize];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        text = new String(chars);
+        data = new byte[blockSize];
+        random.nextBytes(data);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        nameNode.stop();
+        BenchmarkSupport.delete(nameDir);
+        BenchmarkSupport.restoreStdout();
+    }
+
+    @Setup(Level.Iteration)
+    public void startDataNode() throws IOException {
+        dataDir = BenchmarkSupport.createTempDir("blockio-data");
+        Config.DATA_DIR = dataDir.getPath();
+        dataNode = new DataNode("benchDataNode", nameNode);
+        for (int i = 0; i < READ_BLOCKS; i++) {
+            dataNode.uploadFile("r" + i, text);
+        }
+        channel = DataTransfer.connect(dataNode.getTransferAddress());
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopDataNode() throws IOException {
+        channel.close();
+        dataNode.stop();
+        BenchmarkSupport.delete(dataDir);
+    }
+
+    private static String readBlockId() {
+        return "r" + ThreadLocalRandom.current().nextInt(READ_BLOCKS);
+    }
+
+    @Benchmark
+    public boolean uploadFile(Bytes bytes) throws IOException {
+        bytes.bytes += blockSize;
+        return dataNode.uploadFile("w" + next++ % WRITE_BLOCKS, text);
+    }
+
+    @Benchmark
+    public String downloadFile(Bytes bytes) throws IOException {
+        bytes.bytes += blockSize;
+        return dataNode.downloadFile(readBlockId());
+    }
+
+    // 经块传输协议写入单副本（没有下游 pipeline 节点），包含校验和计算和校验
+    @Benchmark
+    public void transferWrite(Bytes bytes) throws IOException {
+        DataTransfer.writeBlock(channel, "t" + next++ % WRITE_BLOCKS, ByteBuffer.wrap(data), Collections.emptyList());
+        bytes.bytes += blockSize;
+    }
+
+    @Benchmark
+    public byte[] transferRead(Bytes bytes) throws IOException {
+        bytes.bytes += blockSize;
+        return DataTransfer.readBlock(channel, readBlockId(), 0, blockSize);
+    }
+}
@@ -0,0 +1,120 @@
+package benchmark;
+
+import common.CompressedBlock;
+import common.CompressionCodec;
+import common.Config;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// 块压缩基准：对类似日志的数据比较各编解码器的 CPU 开销和写出的字节数。
+// 每秒操作数反映压缩或解压一个块（随机读时为一次 4KB 读取）的 CPU 开销；
+// rawBytes 与 storedBytes 两栏分别是每秒处理的原始字节数和实际存储、传输的字节数，二者之比即压缩率
+// 用法：java -jar benchmarks/target/benchmarks.jar CompressionBenchmark -p codec=LZ4,DEFLATE
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CompressionBenchmark {
+    private static final int BLOCK_SIZE = 16 * 1024 * 1024;
+    private static final int READ_SIZE = 4096; // 随机读的长度
+
+    @Param({"NONE", "LZ4", "DEFLATE"})
+    public String codec;
+
+    private CompressionCodec compressionCodec; // NONE 时为 null
+    private byte[] data; // 原始块
+    private byte[] stored; // 压缩后的块，NONE 时与原始块相同
+    private CompressedBlock index;
+
+    // 每秒处理的原始字节数和存储、传输的字节数
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long rawBytes;
+        public long storedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rawBytes = 0;
+            storedBytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        compressionCodec = CompressionCodec.byName(codec);
+        data = BenchmarkSupport.logData(BLOCK_SIZE, 42);
+        stored = compress();
+        index = compressionCodec == null ? null : CompressedBlock.parse(stored);
+    }
+
+    // NONE 时复制一次块，作为只有内存拷贝的基线
+    private byte[] compress() {
+        return compressionCodec == null ? data.clone() : CompressedBlock.compress(compressionCodec, data, data.length, Config.COMPRESSION_CHUNK_SIZE);
+    }
+
+    // 写入路径：客户端压缩整个块
+    @Benchmark
+    public byte[] compressBlock(Bytes bytes) {
+        byte[] result = compress();
+        bytes.rawBytes += BLOCK_SIZE;
+        bytes.storedBytes += result.length;
+        return result;
+    }
+
+    // 读取路径：解压整个块
+    @Benchmark
+    public byte[] decompressBlock(Bytes bytes) throws IOException {
+        byte[] result = new byte[BLOCK_SIZE];
+        if (index == null) {
+            System.arraycopy(stored, 0, result, 0, BLOCK_SIZE);
+        } else {
+            for (int chunk = 0; chunk < index.getChunkCount(); chunk++) {
+                index.decompress(chunk, stored, (int) index.storedOffset(chunk), result, chunk * index.getChunkSize());
+            }
+        }
+        bytes.rawBytes += BLOCK_SIZE;
+        bytes.storedBytes += stored.length;
+        return result;
+    }
+
+    // 随机读：只解压覆盖读取区间的分片，storedBytes 为需要从 DataNode 读取的字节数
+    @Benchmark
+    public byte[] randomRead(Bytes bytes) throws IOException {
+        int offset = ThreadLocalRandom.current().nextInt(BLOCK_SIZE - READ_SIZE);
+        byte[] result = new byte[READ_SIZE];
+        if (index == null) {
+            System.arraycopy(stored, offset, result, 0, READ_SIZE);
+            bytes.storedBytes += READ_SIZE;
+        } else {
+            int chunkSize = index.getChunkSize();
+            byte[] chunk = new byte[chunkSize];
+            for (int c = offset / chunkSize; c <= (offset + READ_SIZE - 1) / chunkSize; c++) {
+                index.decompress(c, stored, (int) index.storedOffset(c), chunk, 0);
+                int from = Math.max(offset, c * chunkSize);
+                int to = Math.min(offset + READ_SIZE, (c + 1) * chunkSize);
+                System.arraycopy(chunk, from - c * chunkSize, result, from - offset, to - from);
+                bytes.storedBytes += index.storedOffset(c + 1) - index.storedOffset(c);
+            }
+        }
+        bytes.rawBytes += READ_SIZE;
+        return result;
+    }
+}
@@ -0,0 +1,182 @@
+package benchmark;
+
+import InterFace.DataNodeInter;
+import InterFace.NameNodeInter;
+import client.Client;
+import common.Config;
+import common.Metrics;
+import common.Rpc;
+import server.DataNode;
+import server.NameNode;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 端到端读写基准：在一个进程内启动注册表、NameNode、3 个 DataNode 和客户端，
+// 用多个线程先写入再读出一批文件，报告吞吐、单个文件读写延迟的分位数、进程消耗的 CPU 时间和 DataNode 收发的字节数
+// 用法：java -cp benchmarks/target/benchmarks.jar benchmark.EndToEndBenchmark [文件数] [文件大小] [线程数] [编解码器]
+// 传输方式由 -Ddfs.rpc.transport=rmi|nio 选择。指定编解码器（NONE、LZ4 或 DEFLATE）时写入类似日志的数据并在 /bench 上设置压缩，
+// 否则写入随机数据；客户端与 DataNode 在同一进程，读取走短路读取，DataNode 发出的字节数为 0
+public class EndToEndBenchmark {
+    private static final int DATA_NODES = 3;
+
+    public static void main(String[] args) throws Exception {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int fileSize = args.length > 1 ? Integer.parseInt(args[1]) : 4 * 1024 * 1024;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        String codec = args.length > 3 ? args[3] : null;
+
+        PrintStream out = BenchmarkSupport.silenceStdout();
+        File baseDir = BenchmarkSupport.createTempDir("e2e-bench");
+        Config.NAME_DIR = new File(baseDir, "name").getPath();
+        Config.DATA_DIR = new File(baseDir, "data").getPath();
+
+        NameNode nameNode = new NameNode();
+        Rpc.createRegistry();
+        Rpc.bind("nameNode", nameNode, NameNodeInter.class);
+        List<DataNode> dataNodes = new ArrayList<>();
+        for (int i = 1; i <= DATA_NODES; i++) {
+            DataNode dataNode = new DataNode("dataNode" + i, Rpc.lookup("nameNode", NameNodeInter.class));
+            Rpc.bind("dataNode" + i, dataNode, DataNodeInter.class);
+            dataNodes.add(dataNode);
+        }
+        // DataNode 启动时立即发送第一次心跳，等 NameNode 看到全部节点
+        while (nameNode.getActiveDataNodes().size() < DATA_NODES) {
+            Thread.sleep(10);
+        }
+
+        Client client = new Client();
+        List<String> paths = new ArrayList<>(files);
+        for (int i = 0; i < files; i++) {
+            paths.add("/bench/f" + i);
+        }
+        byte[] data;
+        if (codec != null) {
+            client.createDir("/bench");
+            client.setCompressionCodec("/bench", codec);
+            data = BenchmarkSupport.logData(fileSize, 42);
+        } else {
+            data = new byte[fileSize];
+            new Random(42).nextBytes(data);
+        }
+        client.createFiles(paths);
+
+        out.println("files=" + files + " fileSize=" + fileSize + " threads=" + threads
+                + " blockSize=" + Config.BLOCK_SIZE + " transport=" + Config.RPC_TRANSPORT + (codec != null ? " codec=" + codec : ""));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            report(out, "write", fileSize, run(pool, threads, paths, path -> {
+                if (!client.writeFile(path, new ByteArrayInputStream(data))) {
+                    throw new IllegalStateException("Failed to write " + path);
+                }
+            }));
+            report(out, "read", fileSize, run(pool, threads, paths, path -> {
+                byte[] read = client.read(path, 0, fileSize);
+                if (read == null || read.length != fileSize) {
+                    throw new IllegalStateException("Failed to read " + path);
+                }
+            }));
+        } finally {
+            pool.shutdownNow();
+            for (DataNode dataNode : dataNodes) {
+                dataNode.stop();
+            }
+            nameNode.stop();
+            BenchmarkSupport.delete(baseDir);
+        }
+        // RMI 导出的对象会阻止进程退出
+        System.exit(0);
+    }
+
+    private interface Operation {
+        void apply(String path) throws Exception;
+    }
+
+    // 一个阶段的结果：每个文件的耗时（纳秒）、整个阶段的耗时、进程消耗的 CPU 时间（纳秒）和 DataNode 收发的字节数
+    private static class Result {
+        final long[] latencies;
+        final long elapsed;
+        final long cpuTime;
+        final long bytesIn;
+        final long bytesOut;
+
+        Result(long[] latencies, long elapsed, long cpuTime, long bytesIn, long bytesOut) {
+            this.latencies = latencies;
+            this.elapsed = elapsed;
+            this.cpuTime = cpuTime;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+        }
+    }
+
+    // 由 threads 个线程从共享的序号中领取文件执行 operation
+    private static Result run(ExecutorService pool, int threads, List<String> paths, Operation operation) throws Exception {
+        long[] latencies = new long[paths.size()];
+        AtomicInteger next = new AtomicInteger();
+        List<Future<?>> workers = new ArrayList<>();
+        long cpuStart = processCpuTime();
+        long inStart = dataNodeBytes("bytesIn");
+        long outStart = dataNodeBytes("bytesOut");
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            workers.add(pool.submit(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < paths.size()) {
+                    long begin = System.nanoTime();
+                    operation.apply(paths.get(i));
+                    latencies[i] = System.nanoTime() - begin;
+                }
+                return null;
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        return new Result(latencies, elapsed, processCpuTime() - cpuStart,
+                dataNodeBytes("bytesIn") - inStart, dataNodeBytes("bytesOut") - outStart);
+    }
+
+    // 整个进程（客户端和所有服务端）消耗的 CPU 时间，纳秒
+    private static long processCpuTime() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+    }
+
+    // 所有 DataNode 块传输收到或发出的字节数之和，写入时包含 pipeline 转发的副本
+    private static long dataNodeBytes(String counter) {
+        long sum = 0;
+        for (int i = 1; i <= DATA_NODES; i++) {
+            sum += Metrics.get("dataNode" + i).counter(counter).sum();
+        }
+        return sum;
+    }
+
+    private static void report(PrintStream out, String phase, int fileSize, Result result) {
+        long[] sorted = result.latencies.clone();
+        Arrays.sort(sorted);
+        double seconds = result.elapsed / 1e9;
+        double megabytes = (double) fileSize * sorted.length / (1024 * 1024);
+        out.printf("%-5s %10.1f MB/s %10.1f files/s  p50 %8.2f ms  p90 %8.2f ms  p99 %8.2f ms  max %8.2f ms%n",
+                phase, megabytes / seconds, sorted.length / seconds,
+                percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99), sorted[sorted.length - 1] / 1e6);
+        out.printf("%-5s cpu %8.2f s  %6.2f ms/MB  dataNode in %10.1f MB  out %10.1f MB%n",
+                phase, result.cpuTime / 1e9, result.cpuTime / 1e6 / megabytes,
+                result.bytesIn / (1024.0 * 1024), result.bytesOut / (1024.0 * 1024));
+    }
+
+    // 最近秩法求分位数，单位毫秒
+    private static double percentile(long[] sorted, double p) {
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, rank - 1)] / 1e6;
+    }
+}
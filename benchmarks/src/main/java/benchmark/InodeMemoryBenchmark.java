@@ -0,0 +1,166 @@
+package benchmark;
+
+import common.BlockInfo;
+import common.Config;
+import common.Inode;
+import server.DataNodeManager;
+import server.InodeMap;
+import server.NameCache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+// 命名空间内存基准：分别用旧的 Inode 布局、紧凑布局和小文件打包构造同样的目录树，比较每个 inode 占用的堆内存。
+// 打包时每个目录的文件共用一个容器块，NameNode 只为容器块记录副本位置
+// 用法：java -Xmx4g -cp benchmarks/target/benchmarks.jar benchmark.InodeMemoryBenchmark [文件数] [每个文件的块数]
+public class InodeMemoryBenchmark {
+    private static final int FILES_PER_DIRECTORY = 1000;
+    private static final String[] DATA_NODES = {"DataNode1", "DataNode2", "DataNode3", "DataNode4", "DataNode5"};
+
+    // 旧布局：UUID 字符串 ID、完整路径、冗余文件名、子节点 ID 列表和块对象列表
+    private static class LegacyInode {
+        String id;
+        String name;
+        String fileName;
+        long fileSize;
+        long creationTime;
+        String path;
+        String owner;
+        String group;
+        boolean isDirectory;
+        String parentId;
+        boolean status;
+        List<String> children = new ArrayList<>();
+        List<BlockInfo> blocks = new ArrayList<>();
+    }
+
+    public static void main(String[] args) {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int blocksPerFile = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+        long base = usedMemory();
+        Object legacy = buildLegacy(files, blocksPerFile);
+        long legacyBytes = usedMemory() - base;
+        System.out.println("legacy:  " + legacyBytes / files + " bytes/inode");
+        legacy = null;
+
+        base = usedMemory();
+        Object compact = buildCompact(files, blocksPerFile);
+        long compactBytes = usedMemory() - base;
+        System.out.println("compact: " + compactBytes / files + " bytes/inode, " + (long) files * blocksPerFile + " blocks");
+        compact = null;
+
+        base = usedMemory();
+        Object packed = buildPacked(files);
+        long packedBytes = usedMemory() - base;
+        System.out.println("packed:  " + packedBytes / files + " bytes/inode, " + (files + FILES_PER_DIRECTORY - 1) / FILES_PER_DIRECTORY + " blocks");
+        packed = null;
+    }
+
+    private static Object buildLegacy(int files, int blocksPerFile) {
+        List<LegacyInode> all = new ArrayList<>(files);
+        LegacyInode dir = null;
+        for (int i = 0; i < files; i++) {
+            if (i % FILES_PER_DIRECTORY == 0) {
+                dir = legacyInode("/dir" + i / FILES_PER_DIRECTORY, "dir" + i / FILES_PER_DIRECTORY, true, null);
+                all.add(dir);
+            }
+            String name = "part-" + String.format("%05d", i % FILES_PER_DIRECTORY);
+            LegacyInode file = legacyInode(dir.path + "/" + name, name, false, dir.id);
+            for (int b = 0; b < blocksPerFile; b++) {
+                List<String> replicas = new ArrayList<>(Arrays.asList(DATA_NODES[(i + b) % 5], DATA_NODES[(i + b + 1) % 5], DATA_NODES[(i + b + 2) % 5]));
+                file.blocks.add(new BlockInfo(file.id + "_block_" + b, replicas));
+            }
+            dir.children.add(file.id);
+            all.add(file);
+        }
+        return all;
+    }
+
+    private static LegacyInode legacyInode(String path, String name, boolean isDirectory, String parentId) {
+        LegacyInode inode = new LegacyInode();
+        inode.id = UUID.randomUUID().toString();
+        inode.name = name;
+        inode.fileName = isDirectory ? null : name;
+        inode.fileSize = -1;
+        inode.creationTime = System.currentTimeMillis();
+        inode.path = path;
+        inode.owner = "root";
+        inode.isDirectory = isDirectory;
+        inode.parentId = parentId;
+        return inode;
+    }
+
+    private static Object buildCompact(int files, int blocksPerFile) {
+        InodeMap inodeMap = new InodeMap(1 << 16);
+        NameCache nameCache = new NameCache();
+        DataNodeManager dataNodeManager = new DataNodeManager();
+        long nextId = 1;
+        Inode root = new Inode(nextId++, new byte[0], "root", true, System.currentTimeMillis());
+        inodeMap.put(root);
+        Inode dir = null;
+        for (int i = 0; i < files; i++) {
+            if (i % FILES_PER_DIRECTORY == 0) {
+                dir = new Inode(nextId++, nameCache.get("dir" + i / FILES_PER_DIRECTORY), "root", true, System.currentTimeMillis());
+                root.addChild(dir);
+                inodeMap.put(dir);
+            }
+            String name = "part-" + String.format("%05d", i % FILES_PER_DIRECTORY);
+            Inode file = new Inode(nextId++, nameCache.get(name), "root", false, System.currentTimeMillis());
+            for (int b = 0; b < blocksPerFile; b++) {
+                file.addBlock(dataNodeManager.register(Arrays.asList(DATA_NODES[(i + b) % 5], DATA_NODES[(i + b + 1) % 5], DATA_NODES[(i + b + 2) % 5])), Config.BLOCK_SIZE);
+            }
+            dir.addChild(file);
+            inodeMap.put(file);
+        }
+        return inodeMap;
+    }
+
+    // 每个目录的文件打包进一个容器块，容器文件放在单独的目录下
+    private static Object buildPacked(int files) {
+        InodeMap inodeMap = new InodeMap(1 << 16);
+        NameCache nameCache = new NameCache();
+        DataNodeManager dataNodeManager = new DataNodeManager();
+        long nextId = 1;
+        Inode root = new Inode(nextId++, new byte[0], "root", true, System.currentTimeMillis());
+        inodeMap.put(root);
+        Inode containers = new Inode(nextId++, nameCache.get(".containers"), "root", true, System.currentTimeMillis());
+        root.addChild(containers);
+        inodeMap.put(containers);
+        Inode dir = null;
+        long containerBlock = 0;
+        for (int i = 0; i < files; i++) {
+            if (i % FILES_PER_DIRECTORY == 0) {
+                dir = new Inode(nextId++, nameCache.get("dir" + i / FILES_PER_DIRECTORY), "root", true, System.currentTimeMillis());
+                root.addChild(dir);
+                inodeMap.put(dir);
+                Inode container = new Inode(nextId++, nameCache.get(Long.toString(dir.getId())), "root", false, System.currentTimeMillis());
+                container.addBlock(dataNodeManager.register(Arrays.asList(DATA_NODES[i % 5], DATA_NODES[(i + 1) % 5], DATA_NODES[(i + 2) % 5])), Config.BLOCK_SIZE);
+                containers.addChild(container);
+                inodeMap.put(container);
+                containerBlock = container.getBlockId(0);
+            }
+            String name = "part-" + String.format("%05d", i % FILES_PER_DIRECTORY);
+            Inode file = new Inode(nextId++, nameCache.get(name), "root", false, System.currentTimeMillis());
+            file.setPacked(containerBlock, (i % FILES_PER_DIRECTORY) * 1024, 1024);
+            dir.addChild(file);
+            inodeMap.put(file);
+        }
+        return inodeMap;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
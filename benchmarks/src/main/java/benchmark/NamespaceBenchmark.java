@@ -0,0 +1,167 @@
+package benchmark;
+
+import common.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import server.NameNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 命名空间操作基准：预先建好 files 个文件（每个目录 1000 个）的目录树，在不同树规模下测量
+// create、rename、listFiles、getBlocks、getFileInfo 的吞吐。带 Contended 后缀的变体用 4 个线程，
+// SameDir 表示所有线程操作同一个父目录（竞争父目录写锁），OwnDir 表示每个线程使用自己的目录
+// 用法：java -jar benchmarks/target/benchmarks.jar NamespaceBenchmark -p files=100000
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class NamespaceBenchmark {
+    private static final int FILES_PER_DIRECTORY = 1000;
+    private static final String OWNER = "bench";
+    private static final String HOT_DIR = "/hot"; // 竞争变体共用的父目录
+
+    @Param({"10000", "100000", "1000000"})
+    public int files; // 预先创建的文件数
+
+    private File nameDir;
+    private NameNode nameNode;
+
+    // 每个线程自己的文件序号和重命名用的文件
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private static final AtomicInteger NEXT_ID = new AtomicInteger();
+        private final int id = NEXT_ID.incrementAndGet();
+        private long next; // 本线程下一个新建文件的序号
+        private String ownDir; // 本线程独占的目录
+        private String[] hotNames; // 在 HOT_DIR 中来回重命名的两个路径
+        private String[] ownNames; // 在 ownDir 中来回重命名的两个路径
+        private boolean renamed; // 当前是否处于第二个名字
+
+        @Setup(Level.Trial)
+        public void setUp(NamespaceBenchmark benchmark) {
+            ownDir = "/t" + id;
+            hotNames = new String[]{HOT_DIR + "/r" + id + "-a", HOT_DIR + "/r" + id + "-b"};
+            ownNames = new String[]{ownDir + "/r-a", ownDir + "/r-b"};
+            benchmark.nameNode.create(ownDir, OWNER, true);
+            benchmark.nameNode.create(hotNames[0], OWNER, false);
+            benchmark.nameNode.create(ownNames[0], OWNER, false);
+        }
+
+        // 在 names 的两个名字之间切换一次
+        Object rename(NameNode nameNode, String[] names) throws IOException {
+            String from = names[renamed ? 1 : 0];
+            String to = names[renamed ? 0 : 1];
+            renamed = !renamed;
+            return nameNode.renameFile(from, to.substring(to.lastIndexOf('/') + 1), OWNER);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkSupport.silenceStdout();
+        nameDir = BenchmarkSupport.createTempDir("namespace-bench");
+        Config.NAME_DIR = nameDir.getPath();
+        nameNode = new NameNode();
+        nameNode.create(HOT_DIR, OWNER, true);
+        // 批量创建，每批只等待一次编辑日志落盘
+        List<String> batch = new ArrayList<>(Config.MAX_BATCH_SIZE);
+        for (int i = 0; i < files; i++) {
+            batch.add(path(i));
+            if (batch.size() == Config.MAX_BATCH_SIZE || i == files - 1) {
+                nameNode.createFiles(batch, OWNER);
+                batch.clear();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        nameNode.stop();
+        BenchmarkSupport.delete(nameDir);
+        BenchmarkSupport.restoreStdout();
+    }
+
+    private static String path(int i) {
+        return "/d" + i / FILES_PER_DIRECTORY + "/f" + i % FILES_PER_DIRECTORY;
+    }
+
+    private String randomPath() {
+        return path(ThreadLocalRandom.current().nextInt(files));
+    }
+
+    @Benchmark
+    public Object create(ThreadState state) {
+        return nameNode.create(state.ownDir + "/n" + state.next++, OWNER, false);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object createContendedSameDir(ThreadState state) {
+        return nameNode.create(HOT_DIR + "/n" + state.id + "-" + state.next++, OWNER, false);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object createContendedOwnDir(ThreadState state) {
+        return nameNode.create(state.ownDir + "/n" + state.next++, OWNER, false);
+    }
+
+    @Benchmark
+    public Object rename(ThreadState state) throws IOException {
+        return state.rename(nameNode, state.ownNames);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object renameContendedSameDir(ThreadState state) throws IOException {
+        return state.rename(nameNode, state.hotNames);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object renameContendedOwnDir(ThreadState state) throws IOException {
+        return state.rename(nameNode, state.ownNames);
+    }
+
+    // 分页读出一个满目录（1000 个条目）的第一页
+    @Benchmark
+    public Object listFiles() throws IOException {
+        return nameNode.listFiles("/d" + ThreadLocalRandom.current().nextInt(Math.max(1, files / FILES_PER_DIRECTORY)), null, Config.LIST_LIMIT);
+    }
+
+    @Benchmark
+    public Object getBlocks() throws IOException {
+        return nameNode.getBlocks(randomPath());
+    }
+
+    @Benchmark
+    public Object getFileInfo() throws IOException {
+        return nameNode.getFileInfo(randomPath());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object getFileInfoContended() throws IOException {
+        return nameNode.getFileInfo(randomPath());
+    }
+}
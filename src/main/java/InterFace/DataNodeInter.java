@@ -1,6 +1,9 @@
 package InterFace;
 
 
+import common.BlockLocalPathInfo;
+
+import java.net.InetSocketAddress;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 
@@ -8,4 +11,9 @@ public interface DataNodeInter extends Remote {
     boolean uploadFile(String fileId, String data) throws RemoteException;
     String downloadFile(String fileId) throws RemoteException;
     boolean deleteFile(String fileId) throws RemoteException;
+
+    // 块传输服务的地址，大块数据通过 common.DataTransfer 在该地址上按字节流传输
+    InetSocketAddress getTransferAddress() throws RemoteException;
+    // 同一主机上的客户端请求直接读取块所在的本地文件，块不存在或未开启短路读取时返回 null
+    BlockLocalPathInfo getBlockLocalPathInfo(String blockId) throws RemoteException;
 }
@@ -1,6 +1,9 @@
 package InterFace;
 
 import common.BlockInfo;
+import common.DataNodeCommand;
+import common.DataNodeInfo;
+import common.DirectoryListing;
 import common.Inode;
 
 import java.rmi.Remote;
@@ -8,18 +11,56 @@ import java.rmi.RemoteException;
 import java.util.List;
 
 public interface NameNodeInter extends Remote {
-    boolean heartBeat(String nodeName) throws RemoteException;
-    List<List<String>> allocateBlocks(String filePath, int numBlocks) throws RemoteException;
+    // DataNode 定时上报自身状态，以及上次心跳以来新增和删除的块（增量块汇报）；
+    // NameNode 据此判断节点是否存活、选择块的放置位置并更新块位置，返回需要 DataNode 执行的命令
+    List<DataNodeCommand> heartBeat(DataNodeInfo nodeInfo, long[] receivedBlocks, long[] deletedBlocks) throws RemoteException;
+    // DataNode 上报所持有的全部块（完整块汇报），启动后由 NameNode 通过心跳命令请求，此后定期发送
+    void blockReport(String nodeName, long[] blockIds) throws RemoteException;
+    // DataNode 的块扫描器或客户端发现 nodeName 上的这些副本校验和不符
+    void reportBadBlocks(String nodeName, long[] blockIds) throws RemoteException;
+    // 在文件末尾追加分配 sizes.length 个块，第 i 个块含 sizes[i] 字节文件数据（压缩前），已有的块不变；
+    // 返回新块的ID和副本位置，副本顺序即写入 pipeline 的顺序
+    List<BlockInfo> allocateBlocks(String filePath, long[] sizes) throws RemoteException;
+    // 写入提前结束时把文件最后一个块 blockId 中的文件数据长度改为 size（不超过分配时的长度）
+    boolean completeBlock(String filePath, String blockId, long size) throws RemoteException;
+    // 在纠删码文件末尾分配一个数据长度为 length、含 size 字节文件数据的块组，返回的位置按单元序号排列
+    BlockInfo allocateBlockGroup(String filePath, long length, long size) throws RemoteException;
+    // 设置目录的纠删码策略（如 RS-6-3），之后在其下创建的文件使用该策略；REPLICATION 表示多副本，null 表示继承上级目录
+    boolean setErasureCodingPolicy(String path, String policy) throws RemoteException;
+    // 文件或目录生效的纠删码策略名，多副本返回 null
+    String getErasureCodingPolicy(String path) throws RemoteException;
+    // 设置目录或尚无数据块的文件的压缩编解码器（LZ4 或 DEFLATE），NONE 表示不压缩，null 表示继承上级目录
+    boolean setCompressionCodec(String path, String codec) throws RemoteException;
+    // 文件或目录生效的压缩编解码器名，不压缩返回 null
+    String getCompressionCodec(String path) throws RemoteException;
+    // 为目录 dirPath 的小文件打包分配一个 size 字节的容器块，返回块ID和副本位置
+    BlockInfo allocatePackedBlock(String dirPath, long size) throws RemoteException;
+    // 把容器块中已写入的数据登记为 dirPath 下的文件：第 i 个文件名为 names[i]，数据为 [offsets[i], offsets[i] + lengths[i])；
+    // 结果与 names 一一对应，已存在且有数据的文件为 null
+    List<Inode> addPackedFiles(String dirPath, String blockId, List<String> names, long[] offsets, long[] lengths, String owner) throws RemoteException;
 
     List<BlockInfo> getBlocks(String filePath) throws RemoteException;
+    // 文件中与 [offset, offset + length) 有重叠的块，按在文件中的顺序排列；文件不存在时返回 null
+    List<BlockInfo> getBlocks(String filePath, long offset, long length) throws RemoteException;
+    // 批量获取多个文件的块位置，结果与 filePaths 一一对应，不存在的文件为 null
+    List<List<BlockInfo>> getBlocks(List<String> filePaths) throws RemoteException;
 
     Inode createFile(String path, String owner) throws RemoteException;
+    // 批量创建文件，所有修改一起写入编辑日志；结果与 paths 一一对应，创建失败的为 null
+    List<Inode> createFiles(List<String> paths, String owner) throws RemoteException;
     Inode createDirectory(String path, String owner) throws RemoteException;
     Inode renameFile(String path, String newFileName, String user) throws RemoteException;
 
     // 重命名目录的辅助方法
     Inode renameDirectory(String oldPath, String newDirPath, String user) throws RemoteException;
+    // 删除文件或目录（连同其下的所有内容），只有所有者可以删除；数据块在后台回收
+    boolean delete(String path, String user) throws RemoteException;
+    // 把文件或目录下所有文件的块钉在各副本所在 DataNode 的内存缓存中（pin 为 false 时取消），返回涉及的块数，路径不存在时返回 -1；
+    // 钉住状态不持久化，NameNode 或 DataNode 重启后需要重新设置
+    int cacheFiles(String path, boolean pin) throws RemoteException;
     List<String> listFiles(String path) throws RemoteException;
+    // 分页列目录：返回名字排在 startAfter 之后的最多 limit 个子节点，startAfter 为 null 时从头开始
+    DirectoryListing listFiles(String path, String startAfter, int limit) throws RemoteException;
     String getFileInfo(String path) throws RemoteException;
 
 }
\ No newline at end of file
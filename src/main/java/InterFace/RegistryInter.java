@@ -0,0 +1,13 @@
+package InterFace;
+
+import java.net.InetSocketAddress;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+// NIO RPC 的名字服务，作用相当于 RMI 注册表：记录服务名所在的 RPC 服务器地址
+public interface RegistryInter extends Remote {
+    void rebind(String name, InetSocketAddress address) throws RemoteException;
+
+    // 服务名未注册时返回 null
+    InetSocketAddress lookup(String name) throws RemoteException;
+}
@@ -3,75 +3,984 @@ package client;
 import InterFace.DataNodeInter;
 import InterFace.NameNodeInter;
 import common.BlockInfo;
+import common.BlockLocalPathInfo;
+import common.ChecksumException;
+import common.CompressedBlock;
+import common.CompressionCodec;
 import common.Config;
+import common.DirectoryListing;
+import common.ErasureCodingPolicy;
 import common.Inode;
 
-import java.rmi.Naming;
+import common.DataTransfer;
+import common.Rpc;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class Client {
     private NameNodeInter nameNode;
+    // DataNode 名字到块传输地址，省去每次读写都查注册表和调用 DataNode
+    private final Map<String, InetSocketAddress> transferAddresses = new ConcurrentHashMap<>();
+    private final ConnectionPool connections = new ConnectionPool(); // 到 DataNode 的复用连接
+    // 短路读取：块传输地址是否在本机，以及本机 DataNode 授予的块文件位置（键为 DataNode 名/块ID）
+    private final Map<InetSocketAddress, Boolean> localAddresses = new ConcurrentHashMap<>();
+    private final MetadataCache<String, BlockLocalPathInfo> localBlocks = new MetadataCache<>(Config.CLIENT_CACHE_SIZE, Config.CLIENT_CACHE_TTL);
+    private final ShortCircuitReader shortCircuit = new ShortCircuitReader();
+    // 文件路径到块位置、目录路径到子节点列表的缓存，读取缓存位置失败时失效
+    private final MetadataCache<String, List<BlockInfo>> blockCache = new MetadataCache<>(Config.CLIENT_CACHE_SIZE, Config.CLIENT_CACHE_TTL);
+    private final MetadataCache<String, List<String>> listingCache = new MetadataCache<>(Config.CLIENT_CACHE_SIZE, Config.CLIENT_CACHE_TTL);
+    // 压缩块ID到块头中的分片索引，块写入后不再改变
+    private final MetadataCache<String, CompressedBlock> compressedBlocks = new MetadataCache<>(Config.CLIENT_CACHE_SIZE, Config.CLIENT_CACHE_TTL);
+    // 并行读块和对冲请求使用的线程池
+    private final ExecutorService readPool = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "client-read");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // 写块 pipeline 使用的线程池
+    private final ExecutorService writePool = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "client-write");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public Client() {
         try {
-            this.nameNode = (NameNodeInter) Naming.lookup("//localhost/nameNode");
+            this.nameNode = Rpc.lookup("nameNode", NameNodeInter.class);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    // 读取文件 [offset, offset + len) 区间，超出文件尾的部分被截断
     public String readFile(String path, long offset, int len) {
-        return null;
+        byte[] data = read(path, offset, len);
+        return data == null ? null : new String(data, StandardCharsets.UTF_8);
     }
 
-    public boolean writeFile(String path, String data) {
-        boolean ret = false;
+    public byte[] read(String path, long offset, int len) {
+        if (offset < 0 || len < 0) {
+            return null;
+        }
+        List<BlockInfo> blocks = blockCache.get(path);
+        boolean cached = blocks != null;
+        try {
+            if (!cached) {
+                blocks = getBlockLocations(path, offset, len);
+            }
+            if (blocks == null) {
+                return null;
+            }
+            try {
+                return read(blocks, offset, len);
+            } catch (IOException e) {
+                if (!cached) {
+                    throw e;
+                }
+                // 缓存的块位置可能已过时（副本被迁移或删除），重新向 NameNode 获取后重试一次
+                blockCache.invalidate(path);
+                blocks = getBlockLocations(path, offset, len);
+                return blocks == null ? null : read(blocks, offset, len);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // 从 NameNode 只获取与 [offset, offset + len) 重叠的块；区间覆盖了整个文件时，结果就是文件的全部块，放入缓存
+    private List<BlockInfo> getBlockLocations(String path, long offset, int len) throws RemoteException {
+        List<BlockInfo> blocks = nameNode.getBlocks(path, offset, len);
+        if (blocks != null && offset == 0 && len > 0 && (blocks.isEmpty() || blockEnd(blocks.get(blocks.size() - 1)) < len)) {
+            blockCache.put(path, blocks);
+        }
+        return blocks;
+    }
+
+    private static long blockEnd(BlockInfo block) {
+        return block.getOffset() + block.getSize();
+    }
+
+    // 在按文件偏移排列的块中二分查找包含 offset 的块，没有时返回 blocks.size()
+    private static int findBlock(List<BlockInfo> blocks, long offset) {
+        int low = 0;
+        int high = blocks.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (blockEnd(blocks.get(mid)) <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private byte[] read(List<BlockInfo> blocks, long offset, int len) throws IOException {
+        long end = offset + len;
+
+        // 1. 所有覆盖该区间的块并行读取，块的区间由 NameNode 记录的块长度决定，块可以短于 BLOCK_SIZE
+        List<Future<byte[]>> parts = new ArrayList<>();
+        List<Long> expected = new ArrayList<>();
+        long total = 0; // 区间与文件实际范围的交集，len 超出文件尾时不按 len 分配
+        for (int i = findBlock(blocks, offset); i < blocks.size() && blocks.get(i).getOffset() < end; i++) {
+            BlockInfo block = blocks.get(i);
+            long blockStart = block.getOffset();
+            long from = Math.max(offset, blockStart) - blockStart;
+            long to = Math.min(end, blockEnd(block)) - blockStart;
+            parts.add(readPool.submit(() -> block.isPacked() ? readPacked(block, from, to - from)
+                    : block.isCompressed() ? readCompressed(block, from, to - from) : readStored(block, from, to - from)));
+            expected.add(to - from);
+            total += to - from;
+        }
+
+        // 2. 按顺序拼接，读到的数据比记录的块长度短时（如旧日志中按整块记录的最后一个块）说明已到文件尾
+        byte[] result = new byte[(int) total];
+        int filled = 0;
+        try {
+            for (int i = 0; i < parts.size(); i++) {
+                byte[] data = parts.get(i).get();
+                System.arraycopy(data, 0, result, filled, data.length);
+                filled += data.length;
+                if (data.length < expected.get(i)) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            for (Future<byte[]> part : parts) {
+                part.cancel(true);
+            }
+        }
+        if (filled < result.length) {
+            byte[] trimmed = new byte[filled];
+            System.arraycopy(result, 0, trimmed, 0, filled);
+            return trimmed;
+        }
+        return result;
+    }
+
+    // 读取块中实际存储的字节，压缩块读到的是压缩后的数据
+    private byte[] readStored(BlockInfo block, long offset, long length) throws IOException, InterruptedException {
+        return block.isStriped() ? readBlockGroup(block, offset, length) : readBlock(block, offset, length);
+    }
+
+    // 读取打包文件的 [offset, offset + length)，即容器块中从文件起始位置开始的区间
+    private byte[] readPacked(BlockInfo block, long offset, long length) throws IOException, InterruptedException {
+        long end = Math.min(offset + length, block.getLength());
+        if (offset >= end) {
+            return new byte[0];
+        }
+        return readBlock(block, block.getPackedOffset() + offset, end - offset);
+    }
+
+    // 读取压缩块中原始数据的 [offset, offset + length)：先读块头的分片索引（按块缓存），再只读取并解压覆盖该区间的分片。
+    // 首次读取块头时多读到的数据如果已覆盖这些分片（如小文件的整个块），不再发出第二次读取
+    private byte[] readCompressed(BlockInfo block, long offset, long length) throws IOException, InterruptedException {
+        CompressedBlock index = compressedBlocks.get(block.getBlockId());
+        byte[] prefix = null;
+        if (index == null) {
+            prefix = readStored(block, 0, CompressedBlock.maxHeaderLength(Config.BLOCK_SIZE, Config.COMPRESSION_CHUNK_SIZE));
+            int headerLength = CompressedBlock.headerLength(prefix);
+            if (prefix.length < headerLength) {
+                prefix = readStored(block, 0, headerLength); // 写入时的分片比当前配置小
+            }
+            index = CompressedBlock.parse(prefix);
+            compressedBlocks.put(block.getBlockId(), index);
+        }
+        long end = Math.min(offset + length, index.getRawLength());
+        if (offset >= end) {
+            return new byte[0];
+        }
+        int chunkSize = index.getChunkSize();
+        int firstChunk = (int) (offset / chunkSize);
+        int lastChunk = (int) ((end - 1) / chunkSize);
+        long storedStart = index.storedOffset(firstChunk);
+        long storedEnd = index.storedOffset(lastChunk + 1);
+        byte[] stored;
+        int base;
+        if (prefix != null && prefix.length >= storedEnd) {
+            stored = prefix;
+            base = (int) storedStart;
+        } else {
+            stored = readStored(block, storedStart, storedEnd - storedStart);
+            base = 0;
+            if (stored.length < storedEnd - storedStart) {
+                throw new IOException("Compressed block " + block.getBlockId() + " is shorter than its index");
+            }
+        }
+        byte[] result = new byte[(int) (end - offset)];
+        byte[] chunk = null;
+        for (int c = firstChunk; c <= lastChunk; c++) {
+            long chunkStart = (long) c * chunkSize;
+            int rawChunkLength = index.rawChunkLength(c);
+            int position = base + (int) (index.storedOffset(c) - storedStart);
+            if (chunkStart >= offset && chunkStart + rawChunkLength <= end) {
+                // 整个分片都在区间内，直接解压到结果中
+                index.decompress(c, stored, position, result, (int) (chunkStart - offset));
+                continue;
+            }
+            if (chunk == null) {
+                chunk = new byte[chunkSize];
+            }
+            index.decompress(c, stored, position, chunk, 0);
+            long from = Math.max(offset, chunkStart);
+            long to = Math.min(end, chunkStart + rawChunkLength);
+            System.arraycopy(chunk, (int) (from - chunkStart), result, (int) (from - offset), (int) (to - from));
+        }
+        return result;
+    }
+
+    // 从副本读取一个块的区间；某个副本超过对冲阈值仍未返回时，同时向下一个副本发起请求，取最先成功的结果
+    private byte[] readBlock(BlockInfo block, long offset, long length) throws IOException, InterruptedException {
+        List<String> replicas = block.getLocations();
+        CompletionService<byte[]> completion = new ExecutorCompletionService<>(readPool);
+        List<Future<byte[]>> attempts = new ArrayList<>();
+        IOException failure = null;
+        int next = 0;
+        int outstanding = 0;
+        try {
+            while (next < replicas.size() || outstanding > 0) {
+                if (outstanding == 0) {
+                    String replica = replicas.get(next++);
+                    attempts.add(completion.submit(() -> readFromReplica(replica, block.getBlockId(), offset, length)));
+                    outstanding++;
+                    continue;
+                }
+                Future<byte[]> done = next < replicas.size()
+                        ? completion.poll(Config.HEDGE_THRESHOLD_MS, TimeUnit.MILLISECONDS)
+                        : completion.take();
+                if (done == null) {
+                    // 超过阈值，发出对冲请求
+                    String replica = replicas.get(next++);
+                    attempts.add(completion.submit(() -> readFromReplica(replica, block.getBlockId(), offset, length)));
+                    outstanding++;
+                    continue;
+                }
+                outstanding--;
+                try {
+                    return done.get();
+                } catch (ExecutionException e) {
+                    failure = new IOException("Failed to read block " + block.getBlockId(), e.getCause());
+                }
+            }
+        } finally {
+            for (Future<byte[]> attempt : attempts) {
+                attempt.cancel(true);
+            }
+        }
+        throw failure != null ? failure : new IOException("No replica for block " + block.getBlockId());
+    }
+
+    // 读取纠删码块组的 [offset, offset + length)：单元格轮流分布在 k 个数据单元上，区间落在每个数据单元上的部分是连续的，
+    // 并行读取这些范围后按单元格顺序拼回；读取失败的数据单元由其他单元同一范围的数据解码得到
+    private byte[] readBlockGroup(BlockInfo block, long offset, long length) throws IOException, InterruptedException {
+        ErasureCodingPolicy policy = ErasureCodingPolicy.byName(block.getEcPolicy());
+        if (policy == null) {
+            throw new IOException("Unknown erasure coding policy " + block.getEcPolicy() + " of block group " + block.getBlockId());
+        }
+        int dataUnits = policy.getDataUnits();
+        int cellSize = ErasureCodingPolicy.CELL_SIZE;
+        long end = Math.min(offset + length, block.getLength());
+        if (offset >= end) {
+            return new byte[0];
+        }
+        long firstCell = offset / cellSize;
+        long lastCell = (end - 1) / cellSize;
+
+        // 1. 每个数据单元上需要读取的范围 [from, to)，to 为 0 表示不需要该单元
+        int[] from = new int[dataUnits];
+        int[] to = new int[dataUnits];
+        for (long cell = firstCell; cell <= lastCell; cell++) {
+            int unit = (int) (cell % dataUnits);
+            long cellStart = cell * cellSize;
+            int unitOffset = (int) (cell / dataUnits * cellSize);
+            if (to[unit] == 0) {
+                from[unit] = unitOffset + (int) (Math.max(offset, cellStart) - cellStart);
+            }
+            to[unit] = unitOffset + (int) (Math.min(end, cellStart + cellSize) - cellStart);
+        }
+
+        // 2. 并行读取各数据单元
+        byte[][] data = new byte[dataUnits][];
+        List<Future<byte[]>> reads = new ArrayList<>(dataUnits);
+        for (int unit = 0; unit < dataUnits; unit++) {
+            int u = unit;
+            reads.add(to[u] == 0 ? null : readPool.submit(() -> readUnit(block, u, from[u], to[u] - from[u])));
+        }
+        List<Integer> failed = new ArrayList<>();
         try {
-            // 1. 分块数据
-            int blockSize = 5; // 5 byte 块大小
-            int numBlocks = (int) Math.ceil((double) data.length() / blockSize);
+            for (int unit = 0; unit < dataUnits; unit++) {
+                if (reads.get(unit) == null) {
+                    continue;
+                }
+                try {
+                    data[unit] = reads.get(unit).get();
+                } catch (ExecutionException e) {
+                    System.out.println("Unit " + unit + " of block group " + block.getBlockId() + " unreadable: " + e.getCause().getMessage());
+                }
+                if (data[unit] == null || data[unit].length < to[unit] - from[unit]) {
+                    failed.add(unit);
+                }
+            }
+        } finally {
+            for (Future<byte[]> read : reads) {
+                if (read != null) {
+                    read.cancel(true);
+                }
+            }
+        }
 
-            // 2. 请求 NameNode 分配 DataNode
-            List<List<String>> blockLocations = nameNode.allocateBlocks(path, numBlocks);
+        // 3. 降级读取
+        if (!failed.isEmpty()) {
+            decodeUnits(block, policy, failed, from, to, data);
+        }
 
-            for (int i = 0; i < numBlocks; i++) {
-                // 获取当前块的数据
-                int start = i * blockSize;
-                int end = Math.min((i + 1) * blockSize, data.length());
-                String blockData = data.substring(start, end);
-                String blockId = path + "_block_" + i;
+        // 4. 按单元格顺序拼回
+        byte[] result = new byte[(int) (end - offset)];
+        for (long cell = firstCell; cell <= lastCell; cell++) {
+            int unit = (int) (cell % dataUnits);
+            long cellStart = cell * cellSize;
+            long start = Math.max(offset, cellStart);
+            int unitOffset = (int) (cell / dataUnits * cellSize + (start - cellStart));
+            int n = (int) (Math.min(end, cellStart + cellSize) - start);
+            System.arraycopy(data[unit], unitOffset - from[unit], result, (int) (start - offset), n);
+        }
+        return result;
+    }
+
+    // 降级读取：从其余单元中最先读到的 k 个取出覆盖所有失败单元的同一范围，解码出失败单元在各自范围内的数据；
+    // 起初只读 k 个单元，有读取失败时再补读下一个
+    private void decodeUnits(BlockInfo block, ErasureCodingPolicy policy, List<Integer> failed, int[] from, int[] to, byte[][] data)
+            throws IOException, InterruptedException {
+        int low = Integer.MAX_VALUE;
+        int high = 0;
+        for (int unit : failed) {
+            low = Math.min(low, from[unit]);
+            high = Math.max(high, to[unit]);
+        }
+        int start = low;
+        int size = high - low;
+        byte[][] units = new byte[policy.getTotalUnits()][size]; // 短单元超出末尾的部分保持为 0，与编码时的补齐一致
+        boolean[] present = new boolean[units.length];
+        List<Integer> candidates = new ArrayList<>();
+        for (int unit = 0; unit < units.length; unit++) {
+            if (!failed.contains(unit)) {
+                candidates.add(unit);
+            }
+        }
+        CompletionService<Integer> completion = new ExecutorCompletionService<>(readPool);
+        List<Future<Integer>> attempts = new ArrayList<>();
+        int next = 0;
+        int outstanding = 0;
+        int found = 0;
+        try {
+            while (found < policy.getDataUnits()) {
+                while (outstanding < policy.getDataUnits() - found && next < candidates.size()) {
+                    int unit = candidates.get(next++);
+                    attempts.add(completion.submit(() -> {
+                        byte[] read = readUnit(block, unit, start, size);
+                        System.arraycopy(read, 0, units[unit], 0, read.length);
+                        return unit;
+                    }));
+                    outstanding++;
+                }
+                if (outstanding == 0) {
+                    throw new IOException("Block group " + block.getBlockId() + " has only " + found + " readable units, "
+                            + policy + " needs " + policy.getDataUnits());
+                }
+                Future<Integer> done = completion.take();
+                outstanding--;
+                try {
+                    present[done.get()] = true;
+                    found++;
+                } catch (ExecutionException e) {
+                    // 换下一个单元
+                }
+            }
+        } finally {
+            for (Future<Integer> attempt : attempts) {
+                attempt.cancel(true);
+            }
+        }
+        policy.getCodec().decode(units, present, 0, size);
+        for (int unit : failed) {
+            data[unit] = Arrays.copyOfRange(units[unit], from[unit] - start, to[unit] - start);
+        }
+    }
+
+    // 读取块组中一个单元的区间，该单元没有存放节点时失败
+    private byte[] readUnit(BlockInfo block, int unit, long offset, long length) throws Exception {
+        String location = block.getLocations().get(unit);
+        if (location.isEmpty()) {
+            throw new IOException("Unit " + unit + " of block group " + block.getBlockId() + " has no location");
+        }
+        long unitId = Inode.internalBlockId(Long.parseLong(block.getBlockId()), unit);
+        return readFromReplica(location, Long.toString(unitId), offset, length);
+    }
+
+    // 通过复用的连接从一个副本读取；失败时丢弃该 DataNode 的缓存地址和空闲连接，它可能已重启或下线。
+    // 对冲读取的另一路先完成时本次读取被中断取消，这不说明节点有问题，只关闭这一个连接。
+    // 副本在本机时先尝试短路读取
+    private byte[] readFromReplica(String replica, String blockId, long offset, long length) throws Exception {
+        InetSocketAddress address = transferAddress(replica);
+        if (Config.SHORT_CIRCUIT_READS && isLocal(address)) {
+            byte[] data = readLocal(replica, blockId, offset, length);
+            if (data != null) {
+                return data;
+            }
+        }
+        SocketChannel channel = connections.borrow(address);
+        boolean succeeded = false;
+        try {
+            byte[] data = DataTransfer.readBlock(channel, blockId, offset, length);
+            succeeded = true;
+            return data;
+        } catch (ChecksumException e) {
+            // 副本损坏，上报 NameNode 后由对冲读取改读其他副本
+            System.out.println("Corrupt replica on " + replica + ": " + e.getMessage());
+            nameNode.reportBadBlocks(replica, new long[]{Long.parseLong(blockId)});
+            throw e;
+        } finally {
+            connections.release(address, channel, succeeded);
+            // 中断会关闭通道（ClosedByInterruptException）并保留中断状态
+            if (!succeeded && !Thread.currentThread().isInterrupted()) {
+                forgetDataNode(replica, address);
+            }
+        }
+    }
 
-                // 上传到每个副本对应的 DataNode
-                List<String> replicas = blockLocations.get(i);
-                for (String replicaNode : replicas) {
+    // 由本机 DataNode 授予块文件位置后直接映射读取；DataNode 不授予或读取文件失败时返回 null，改走块传输服务
+    private byte[] readLocal(String replica, String blockId, long offset, long length) throws Exception {
+        String key = replica + "/" + blockId;
+        BlockLocalPathInfo info = localBlocks.get(key);
+        try {
+            if (info == null) {
+                info = Rpc.lookup(replica, DataNodeInter.class).getBlockLocalPathInfo(blockId);
+                if (info == null) {
+                    return null;
+                }
+                localBlocks.put(key, info);
+            }
+            return shortCircuit.read(info, offset, length);
+        } catch (ChecksumException e) {
+            localBlocks.invalidate(key);
+            System.out.println("Corrupt replica on " + replica + ": " + e.getMessage());
+            nameNode.reportBadBlocks(replica, new long[]{Long.parseLong(blockId)});
+            throw e;
+        } catch (IOException e) {
+            // 段文件已被压缩回收等，授予的位置失效
+            localBlocks.invalidate(key);
+            System.out.println("Short-circuit read of block " + blockId + " on " + replica + " failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // 块传输地址是否属于本机的网络接口
+    private boolean isLocal(InetSocketAddress address) {
+        return localAddresses.computeIfAbsent(address, a -> {
+            InetAddress host = a.getAddress();
+            if (host == null) {
+                return false;
+            }
+            if (host.isLoopbackAddress() || host.isAnyLocalAddress()) {
+                return true;
+            }
+            try {
+                return NetworkInterface.getByInetAddress(host) != null;
+            } catch (SocketException e) {
+                return false;
+            }
+        });
+    }
+
+    private InetSocketAddress transferAddress(String dataNodeName) throws Exception {
+        InetSocketAddress address = transferAddresses.get(dataNodeName);
+        if (address == null) {
+            DataNodeInter dataNode = Rpc.lookup(dataNodeName, DataNodeInter.class);
+            address = dataNode.getTransferAddress();
+            transferAddresses.put(dataNodeName, address);
+        }
+        return address;
+    }
+
+    private void forgetDataNode(String dataNodeName, InetSocketAddress address) {
+        transferAddresses.remove(dataNodeName, address);
+        connections.evict(address);
+    }
+
+    public boolean writeFile(String path, String data) {
+        return writeFile(path, new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    // 把输入流按块大小切分后追加到文件末尾，已有的块不会重写，文件尾的短块之后直接接新块。
+    // 多副本且不压缩的文件逐包流式写入，见 streamFile。
+    // 纠删码文件的每个块是一个块组，编码后各单元分别写给不同的 DataNode。
+    // 压缩文件的块在客户端按分片压缩后再写出，DataNode 保存和传输的都是压缩后的数据。
+    // 这两种块需要整块数据才能编码或压缩，按块读入内存，最多 MAX_INFLIGHT_BLOCKS 个块同时在传输
+    public boolean writeFile(String path, InputStream in) {
+        blockCache.invalidate(path); // 文件将追加新块
+        boolean striped;
+        String codec;
+        try {
+            striped = nameNode.getErasureCodingPolicy(path) != null;
+            codec = nameNode.getCompressionCodec(path); // 块组长度取决于压缩后的大小，需在分配前压缩
+        } catch (RemoteException e) {
+            e.printStackTrace();
+            return false;
+        }
+        if (!striped && codec == null) {
+            return streamFile(path, in);
+        }
+        Semaphore inflight = new Semaphore(Config.MAX_INFLIGHT_BLOCKS);
+        List<Future<?>> uploads = new ArrayList<>();
+        boolean ret = true;
+        try {
+            while (true) {
+                inflight.acquire();
+                // 1. 读出下一个块，流结束时返回空数组
+                byte[] blockData = readBlockData(in, Config.BLOCK_SIZE);
+                if (blockData.length == 0) {
+                    inflight.release();
+                    break;
+                }
+                // 2. 请求 NameNode 在文件末尾分配一个块
+                BlockInfo block;
+                byte[] groupData = null;
+                if (striped) {
+                    groupData = codec != null ? compress(codec, blockData) : blockData;
+                    block = nameNode.allocateBlockGroup(path, groupData.length, blockData.length);
+                } else {
+                    List<BlockInfo> allocated = nameNode.allocateBlocks(path, new long[]{blockData.length});
+                    block = allocated == null ? null : allocated.get(0);
+                }
+                if (block != null && !Objects.equals(block.getCodec(), codec)) {
+                    throw new IOException("Compression codec of " + path + " changed while writing");
+                }
+                if (block == null) {
+                    inflight.release();
+                    ret = false;
+                    break;
+                }
+                // 3. 异步压缩并写入 pipeline，完成后归还配额
+                byte[] stored = groupData;
+                uploads.add(writePool.submit(() -> {
                     try {
-                        DataNodeInter dataNode = (DataNodeInter) Naming.lookup("//localhost/" + replicaNode);
-                        ret &= dataNode.uploadFile(blockId, blockData);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        ret = true;
+                        if (block.isStriped()) {
+                            writeBlockGroup(block, stored);
+                        } else {
+                            writeBlock(block, block.isCompressed() ? compress(block.getCodec(), blockData) : blockData);
+                        }
+                    } finally {
+                        inflight.release();
                     }
+                    return null;
+                }));
+                if (blockData.length < Config.BLOCK_SIZE) {
+                    break;
                 }
             }
-        } catch (RemoteException e) {
+        } catch (IOException e) {
             e.printStackTrace();
             ret = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ret = false;
+        }
+        for (Future<?> upload : uploads) {
+            try {
+                upload.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                ret = false;
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+                ret = false;
+            }
         }
         return ret;
     }
 
+    // 多副本且不压缩的文件逐包流式写入：整个文件只用一个包大小的缓冲区，从输入流读满一个包就发给 pipeline，
+    // 块依次写入，每个块只发送一次给第一个 DataNode，由 DataNode 逐包向后转发。
+    // 块的长度要读到流结束或写满一块才知道：分配前先读出块的第一个包，流在这个包内结束时按实际长度分配，
+    // 否则按整块分配，流提前结束时 DataNode 收到空包结束该块，再向 NameNode 登记块的实际长度
+    private boolean streamFile(String path, InputStream in) {
+        ReadableByteChannel source = Channels.newChannel(in);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Math.min(Config.CHUNK_SIZE, Config.BLOCK_SIZE));
+        try {
+            while (true) {
+                buffer.clear();
+                boolean more = DataTransfer.fill(source, buffer);
+                buffer.flip();
+                if (!buffer.hasRemaining()) {
+                    return true;
+                }
+                long size = more ? Config.BLOCK_SIZE : buffer.remaining();
+                List<BlockInfo> allocated = nameNode.allocateBlocks(path, new long[]{size});
+                if (allocated == null) {
+                    return false;
+                }
+                BlockInfo block = allocated.get(0);
+                if (block.isCompressed()) {
+                    throw new IOException("Compression codec of " + path + " changed while writing");
+                }
+                long written = streamBlock(block, size, buffer, source);
+                if (written < size) {
+                    if (!nameNode.completeBlock(path, block.getBlockId(), written)) {
+                        throw new IOException("Failed to complete block " + block.getBlockId() + " of " + path);
+                    }
+                    return true;
+                }
+                if (!more) {
+                    return true;
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // 把 buffer 中已读出的包和输入流的后续数据作为一个至多 maxLength 字节的块写给 pipeline，返回块的实际长度
+    private long streamBlock(BlockInfo block, long maxLength, ByteBuffer buffer, ReadableByteChannel source) throws Exception {
+        List<InetSocketAddress> pipeline = new ArrayList<>();
+        for (String replica : block.getLocations()) {
+            pipeline.add(transferAddress(replica));
+        }
+        InetSocketAddress first = pipeline.get(0);
+        SocketChannel channel = connections.borrow(first);
+        boolean succeeded = false;
+        try {
+            long written = DataTransfer.writeBlock(channel, block.getBlockId(), maxLength, buffer, source, pipeline.subList(1, pipeline.size()));
+            succeeded = true;
+            return written;
+        } finally {
+            connections.release(first, channel, succeeded);
+            if (!succeeded) {
+                forgetDataNode(block.getLocations().get(0), first);
+            }
+        }
+    }
+
+    // 把一批小文件写入目录 dir，键为文件名：不超过 PACK_FILE_THRESHOLD 的文件依次追加到共享的容器块中，
+    // 每个容器块只需一次数据传输和两次 NameNode 调用，NameNode 也只为整个容器块记录副本位置；
+    // 较大的文件按普通方式写入。返回写入成功的文件数
+    public int writePackedFiles(String dir, Map<String, byte[]> files) {
+        int written = 0;
+        List<String> names = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        int packedSize = 0;
+        try {
+            if (nameNode.createDirectory(dir, Config.USER) == null) {
+                return 0;
+            }
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                byte[] data = file.getValue();
+                if (data.length > Config.PACK_FILE_THRESHOLD) {
+                    String path = (dir.endsWith("/") ? dir : dir + "/") + file.getKey();
+                    if (nameNode.createFile(path, Config.USER) != null && writeFile(path, new ByteArrayInputStream(data))) {
+                        written++;
+                    }
+                    continue;
+                }
+                if (packedSize + data.length > Config.BLOCK_SIZE || names.size() == Config.MAX_BATCH_SIZE) {
+                    written += writeContainer(dir, names, contents, packedSize);
+                    names.clear();
+                    contents.clear();
+                    packedSize = 0;
+                }
+                names.add(file.getKey());
+                contents.add(data);
+                packedSize += data.length;
+            }
+            if (!names.isEmpty()) {
+                written += writeContainer(dir, names, contents, packedSize);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            invalidate(dir);
+        }
+        return written;
+    }
+
+    // 把文件内容拼成一个容器块写出，再向 NameNode 登记各文件在块中的位置，返回登记成功的文件数
+    private int writeContainer(String dir, List<String> names, List<byte[]> contents, int size) throws Exception {
+        BlockInfo block = nameNode.allocatePackedBlock(dir, size);
+        if (block == null) {
+            throw new IOException("Failed to allocate a container block for " + dir);
+        }
+        byte[] data = new byte[size];
+        long[] offsets = new long[names.size()];
+        long[] lengths = new long[names.size()];
+        int position = 0;
+        for (int i = 0; i < contents.size(); i++) {
+            byte[] content = contents.get(i);
+            System.arraycopy(content, 0, data, position, content.length);
+            offsets[i] = position;
+            lengths[i] = content.length;
+            position += content.length;
+        }
+        writeBlock(block, data);
+        int added = 0;
+        for (Inode inode : nameNode.addPackedFiles(dir, block.getBlockId(), new ArrayList<>(names), offsets, lengths, Config.USER)) {
+            if (inode != null) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    // 从输入流读满一个块，流结束时返回较短的数组；缓冲区按需增长，小文件不会分配整块内存
+    private static byte[] readBlockData(InputStream in, int blockSize) throws IOException {
+        byte[] buffer = new byte[Math.min(blockSize, Config.CHUNK_SIZE)];
+        int filled = 0;
+        while (filled < blockSize) {
+            if (filled == buffer.length) {
+                buffer = Arrays.copyOf(buffer, (int) Math.min(blockSize, (long) buffer.length * 2));
+            }
+            int n = in.read(buffer, filled, buffer.length - filled);
+            if (n < 0) {
+                break;
+            }
+            filled += n;
+        }
+        return filled == buffer.length ? buffer : Arrays.copyOf(buffer, filled);
+    }
+
+    // 按 COMPRESSION_CHUNK_SIZE 分片压缩一个块
+    private static byte[] compress(String codecName, byte[] data) throws IOException {
+        CompressionCodec codec = CompressionCodec.byName(codecName);
+        if (codec == null) {
+            throw new IOException("Unknown compression codec " + codecName);
+        }
+        return CompressedBlock.compress(codec, data, data.length, Config.COMPRESSION_CHUNK_SIZE);
+    }
+
+    // 把块发给第一个副本，其余副本作为 pipeline 的下游由 DataNode 转发
+    private void writeBlock(BlockInfo block, byte[] data) throws Exception {
+        writeBlock(block.getBlockId(), block.getLocations(), ByteBuffer.wrap(data));
+    }
+
+    private void writeBlock(String blockId, List<String> replicas, ByteBuffer data) throws Exception {
+        List<InetSocketAddress> pipeline = new ArrayList<>();
+        for (String replica : replicas) {
+            pipeline.add(transferAddress(replica));
+        }
+        InetSocketAddress first = pipeline.get(0);
+        SocketChannel channel = connections.borrow(first);
+        boolean succeeded = false;
+        try {
+            DataTransfer.writeBlock(channel, blockId, data, pipeline.subList(1, pipeline.size()));
+            succeeded = true;
+        } finally {
+            connections.release(first, channel, succeeded);
+            if (!succeeded) {
+                forgetDataNode(replicas.get(0), first);
+            }
+        }
+    }
+
+    // 编码一个块组并把 k + m 个单元并行写给各自的 DataNode（长度为 0 的单元也写，块汇报才能与 NameNode 一致）；
+    // 至少 k 个单元写入成功即可读出全部数据，其余单元由 NameNode 安排重建
+    private void writeBlockGroup(BlockInfo block, byte[] data) throws Exception {
+        ErasureCodingPolicy policy = ErasureCodingPolicy.byName(block.getEcPolicy());
+        byte[][] units = policy.encode(data, data.length);
+        long groupId = Long.parseLong(block.getBlockId());
+        List<Future<?>> writes = new ArrayList<>(units.length);
+        for (int unit = 0; unit < units.length; unit++) {
+            String location = block.getLocations().get(unit);
+            if (location.isEmpty()) {
+                continue;
+            }
+            String unitId = Long.toString(Inode.internalBlockId(groupId, unit));
+            ByteBuffer unitData = ByteBuffer.wrap(units[unit], 0, (int) policy.unitLength(data.length, unit));
+            writes.add(writePool.submit(() -> {
+                writeBlock(unitId, Collections.singletonList(location), unitData);
+                return null;
+            }));
+        }
+        int written = 0;
+        Throwable failure = null;
+        for (Future<?> write : writes) {
+            try {
+                write.get();
+                written++;
+            } catch (ExecutionException e) {
+                failure = e.getCause();
+            }
+        }
+        if (written < policy.getDataUnits()) {
+            throw new IOException("Only " + written + " units of block group " + groupId + " written, "
+                    + policy + " needs " + policy.getDataUnits(), failure);
+        }
+    }
+
+    // 列出目录下的文件和子目录，结果会被缓存；超大目录请用 listFiles(path, consumer) 逐页处理
+    public List<String> listFiles(String path) throws RemoteException {
+        List<String> fileList = listingCache.get(path);
+        if (fileList == null) {
+            List<String> entries = new ArrayList<>();
+            listFiles(path, entries::add);
+            fileList = entries;
+            listingCache.put(path, fileList);
+        }
+        return fileList;
+    }
+
+    // 分页列出目录，每页交给 consumer 后即可丢弃，客户端只需容纳一页；返回目录是否存在
+    public boolean listFiles(String path, Consumer<String> consumer) throws RemoteException {
+        String startAfter = null;
+        while (true) {
+            DirectoryListing page = nameNode.listFiles(path, startAfter, Config.LIST_LIMIT);
+            if (page == null) {
+                return false;
+            }
+            page.getEntries().forEach(consumer);
+            if (!page.hasMore()) {
+                return true;
+            }
+            startAfter = page.getLastName();
+        }
+    }
+
+    // 批量创建文件，每批一次 RPC，返回成功创建的个数
+    public int createFiles(List<String> paths) {
+        int created = 0;
+        try {
+            for (int from = 0; from < paths.size(); from += Config.MAX_BATCH_SIZE) {
+                List<String> batch = paths.subList(from, Math.min(paths.size(), from + Config.MAX_BATCH_SIZE));
+                for (Inode inode : nameNode.createFiles(new ArrayList<>(batch), Config.USER)) {
+                    if (inode != null) {
+                        created++;
+                    }
+                }
+                for (String path : batch) {
+                    invalidate(path);
+                }
+            }
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+        return created;
+    }
+
+    // 批量获取块位置并放入缓存，之后读取这些文件时不再逐个访问 NameNode
+    public void prefetchBlocks(List<String> paths) {
+        List<String> missing = new ArrayList<>();
+        for (String path : paths) {
+            if (blockCache.get(path) == null) {
+                missing.add(path);
+            }
+        }
+        try {
+            for (int from = 0; from < missing.size(); from += Config.MAX_BATCH_SIZE) {
+                List<String> batch = new ArrayList<>(missing.subList(from, Math.min(missing.size(), from + Config.MAX_BATCH_SIZE)));
+                List<List<BlockInfo>> blocks = nameNode.getBlocks(batch);
+                for (int i = 0; i < batch.size(); i++) {
+                    if (blocks.get(i) != null) {
+                        blockCache.put(batch.get(i), blocks.get(i));
+                    }
+                }
+            }
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // 设置目录的纠删码策略，如 RS-6-3；REPLICATION 表示多副本，null 表示继承上级目录
+    public boolean setErasureCodingPolicy(String path, String policy) {
+        try {
+            return nameNode.setErasureCodingPolicy(path, policy);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    public String getErasureCodingPolicy(String path) throws RemoteException {
+        return nameNode.getErasureCodingPolicy(path);
+    }
+
+    // 设置目录或尚无数据的文件的压缩编解码器：LZ4 快、DEFLATE 压缩率高；NONE 表示不压缩，null 表示继承上级目录
+    public boolean setCompressionCodec(String path, String codec) {
+        try {
+            return nameNode.setCompressionCodec(path, codec);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    public String getCompressionCodec(String path) throws RemoteException {
+        return nameNode.getCompressionCodec(path);
+    }
+
+    // 路径下的文件或目录被创建、改名或删除后，清除受影响的缓存
+    private void invalidate(String path) {
+        String prefix = path.endsWith("/") ? path : path + "/";
+        blockCache.invalidateIf(key -> key.equals(path) || key.startsWith(prefix));
+        listingCache.invalidateIf(key -> key.equals(path) || key.startsWith(prefix));
+        // 祖先目录的列表可能多了或少了一项（逐级创建目录时不止父目录）
+        for (String parent = getParentPath(path); parent != null; parent = getParentPath(parent)) {
+            listingCache.invalidate(parent);
+        }
+    }
+
+    private static String getParentPath(String path) {
+        int lastSeparatorIndex = path.lastIndexOf('/');
+        if (path.equals("/") || lastSeparatorIndex < 0) {
+            return null;
+        }
+        return lastSeparatorIndex == 0 ? "/" : path.substring(0, lastSeparatorIndex);
+    }
+
     public void ListFiles(String path) {
         try {
-            List<String> fileList = nameNode.listFiles(path);
-            if (fileList.isEmpty()) {
-                System.out.println("No files found.");
-            } else {
-                System.out.println("-------------------------");
-                System.out.println("Files in the system:");
-                for (String file : fileList) {
-                    System.out.println(file);
+            long[] count = new long[1];
+            listFiles(path, file -> {
+                if (count[0]++ == 0) {
+                    System.out.println("-------------------------");
+                    System.out.println("Files in the system:");
                 }
+                System.out.println(file);
+            });
+            if (count[0] == 0) {
+                System.out.println("No files found.");
             }
         } catch (RemoteException e) {
             e.printStackTrace();
@@ -86,6 +995,7 @@ public class Client {
         Inode inode = null;
         try {
             inode = nameNode.createFile(path, Config.USER);
+            invalidate(path);
         } catch (RemoteException e) {
             e.printStackTrace();
         }
@@ -96,6 +1006,7 @@ public class Client {
         Inode inode = null;
         try{
             inode = nameNode.createDirectory(path,Config.USER);
+            invalidate(path);
         }catch(RemoteException e){
             e.printStackTrace();
         }
@@ -106,6 +1017,11 @@ public class Client {
         Inode inode = null;
         try{
             inode = nameNode.renameFile(oldPath, newFileName, Config.USER);
+            invalidate(oldPath);
+            String parent = getParentPath(oldPath);
+            if (parent != null) {
+                invalidate((parent.equals("/") ? "/" : parent + "/") + newFileName);
+            }
         }catch(RemoteException e){
             e.printStackTrace();
         }
@@ -116,17 +1032,36 @@ public class Client {
         Inode inode = null;
         try{
             inode = nameNode.renameDirectory(oldPath, newDirName, Config.USER);
+            invalidate(oldPath);
+            invalidate(newDirName);
         }catch(RemoteException e){
             e.printStackTrace();
         }
         return inode != null;
     }
 
+    // 删除文件或目录（递归），块由 NameNode 在后台通知 DataNode 删除
     public boolean deleteFile(String path) {
         boolean ret = false;
+        try {
+            ret = nameNode.delete(path, Config.USER);
+            invalidate(path);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
         return ret;
     }
 
+    // 把文件或目录下所有文件的块钉在 DataNode 的内存缓存中（pin 为 false 时取消），返回涉及的块数，失败时返回 -1
+    public int cacheFiles(String path, boolean pin) {
+        try {
+            return nameNode.cacheFiles(path, pin);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
     public boolean getLocations(String path) {
         List<BlockInfo> bi = null;
         try{
@@ -149,5 +1084,6 @@ public class Client {
         client.ListFiles("/");
         client.writeFile("/a/b/c/www.txt", "Hello World         ");
         client.getLocations("/a/b/c/www.txt");
+        System.out.println(client.readFile("/a/b/c/www.txt", 3, 9));
     }
 }
\ No newline at end of file
@@ -0,0 +1,82 @@
+package client;
+
+import common.Config;
+import common.DataTransfer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// 到 DataNode 块传输服务的连接池：块传输服务在一个连接上可以顺序处理多个请求，
+// 每个地址保留若干空闲连接供后续读写复用，省去建立 TCP 连接的往返
+public class ConnectionPool {
+    private static class IdleConnection {
+        final SocketChannel channel;
+        final long since;
+
+        IdleConnection(SocketChannel channel, long since) {
+            this.channel = channel;
+            this.since = since;
+        }
+    }
+
+    private final Map<InetSocketAddress, Deque<IdleConnection>> idle = new ConcurrentHashMap<>();
+
+    // 取一个空闲连接，没有可用的空闲连接时新建
+    public SocketChannel borrow(InetSocketAddress address) throws IOException {
+        Deque<IdleConnection> queue = idle.get(address);
+        if (queue != null) {
+            long now = System.currentTimeMillis();
+            synchronized (queue) {
+                IdleConnection connection;
+                // 后进先出，优先复用刚归还的连接
+                while ((connection = queue.pollFirst()) != null) {
+                    if (connection.channel.isOpen() && connection.since + Config.CLIENT_IDLE_TIMEOUT > now) {
+                        return connection.channel;
+                    }
+                    closeQuietly(connection.channel);
+                }
+            }
+        }
+        return DataTransfer.connect(address);
+    }
+
+    // 归还连接；请求失败的连接状态未知，直接关闭
+    public void release(InetSocketAddress address, SocketChannel channel, boolean reusable) {
+        if (reusable && channel.isOpen()) {
+            Deque<IdleConnection> queue = idle.computeIfAbsent(address, k -> new ArrayDeque<>());
+            synchronized (queue) {
+                if (queue.size() < Config.CLIENT_MAX_IDLE_CONNECTIONS) {
+                    queue.offerFirst(new IdleConnection(channel, System.currentTimeMillis()));
+                    return;
+                }
+            }
+        }
+        closeQuietly(channel);
+    }
+
+    // 关闭到某个地址的所有空闲连接，例如 DataNode 重启后
+    public void evict(InetSocketAddress address) {
+        Deque<IdleConnection> queue = idle.remove(address);
+        if (queue != null) {
+            synchronized (queue) {
+                for (IdleConnection connection : queue) {
+                    closeQuietly(connection.channel);
+                }
+                queue.clear();
+            }
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+}
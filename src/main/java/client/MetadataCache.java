@@ -0,0 +1,62 @@
+package client;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+// 有容量上限和过期时间的 LRU 缓存，客户端用它缓存块位置和目录列表，减少 NameNode 往返
+public class MetadataCache<K, V> {
+    private static class CacheEntry<V> {
+        final V value;
+        final long expireAt;
+
+        CacheEntry(V value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+    private final long ttl;
+    private final LinkedHashMap<K, CacheEntry<V>> entries;
+
+    public MetadataCache(int capacity, long ttl) {
+        this.ttl = ttl;
+        // 按访问顺序排列，超出容量时淘汰最久未访问的条目
+        this.entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    // 返回未过期的缓存值，没有时返回 null
+    public synchronized V get(K key) {
+        CacheEntry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expireAt < System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    public synchronized void put(K key, V value) {
+        entries.put(key, new CacheEntry<>(value, System.currentTimeMillis() + ttl));
+    }
+
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    // 删除所有键满足条件的条目
+    public synchronized void invalidateIf(Predicate<K> predicate) {
+        entries.keySet().removeIf(predicate);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,73 @@
+package client;
+
+import common.BlockLocalPathInfo;
+import common.Config;
+import common.DataChecksum;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// 短路读取：按 DataNode 授予的 BlockLocalPathInfo 直接内存映射本地段文件读取块，并用段中存储的校验和校验。
+// 段文件的只读映射在所有读取之间共享，按最近使用保留 CLIENT_MAX_MAPPED_SEGMENTS 个；
+// 活跃段还在增长，需要的区间超出已映射的长度时重新映射
+class ShortCircuitReader {
+    private final Map<String, MappedByteBuffer> segments = new LinkedHashMap<String, MappedByteBuffer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MappedByteBuffer> eldest) {
+            return size() > Config.CLIENT_MAX_MAPPED_SEGMENTS;
+        }
+    };
+
+    // 读取块的 [offset, offset + length)，length 为 -1 时读到块尾，超出块尾的部分被截断
+    byte[] read(BlockLocalPathInfo info, long offset, long length) throws IOException {
+        long available = Math.max(0, info.getLength() - offset);
+        int actual = (int) (length < 0 ? available : Math.min(length, available));
+        byte[] data = new byte[actual];
+        if (actual == 0) {
+            return data;
+        }
+        int bytesPerChecksum = info.getBytesPerChecksum();
+        long dataEnd = info.getOffset() + info.getLength();
+        ByteBuffer segment = map(info.getPath(), bytesPerChecksum > 0
+                ? dataEnd + DataChecksum.checksumLength(info.getLength(), bytesPerChecksum) : dataEnd);
+        if (bytesPerChecksum > 0) {
+            // 校验覆盖读取区间的完整校验块
+            long start = offset - offset % bytesPerChecksum;
+            long end = Math.min(info.getLength(), (offset + actual + bytesPerChecksum - 1) / bytesPerChecksum * bytesPerChecksum);
+            ByteBuffer checksums = slice(segment, dataEnd + start / bytesPerChecksum * DataChecksum.CHECKSUM_SIZE,
+                    DataChecksum.checksumLength(end - start, bytesPerChecksum));
+            DataChecksum.verify(slice(segment, info.getOffset() + start, (int) (end - start)), bytesPerChecksum,
+                    checksums, info.getBlockId(), start);
+        }
+        slice(segment, info.getOffset() + offset, actual).get(data);
+        return data;
+    }
+
+    // 返回段文件的共享映射，至少覆盖前 required 字节
+    private synchronized ByteBuffer map(String path, long required) throws IOException {
+        MappedByteBuffer mapped = segments.get(path);
+        if (mapped == null || mapped.capacity() < required) {
+            try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size < required || size > Integer.MAX_VALUE) {
+                    throw new IOException("Segment " + path + " has " + size + " bytes, block needs " + required);
+                }
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            segments.put(path, mapped);
+        }
+        return mapped.duplicate();
+    }
+
+    private static ByteBuffer slice(ByteBuffer segment, long position, int length) {
+        ByteBuffer view = segment.duplicate();
+        view.limit((int) position + length).position((int) position);
+        return view.slice();
+    }
+}
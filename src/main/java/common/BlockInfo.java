@@ -6,12 +6,38 @@ import java.util.List;
 public class BlockInfo implements java.io.Serializable{
     private String blockId;
     private List<String> locations;
+    private String ecPolicy; // 纠删码块组的策略名，普通块为 null
+    private long length = -1; // 纠删码块组的数据长度或打包文件的长度
+    private String codec; // 块数据的压缩编解码器名，未压缩为 null
+    private long packedOffset = -1; // 打包文件在容器块中的起始位置，此时 length 为文件长度；其他块为 -1
+    private long offset; // 块在文件中的起始偏移
+    private long size = -1; // 块中的文件数据长度（压缩块为压缩前的长度），未知时为 -1
 
     public BlockInfo(String blockId, List<String> locations) {
         this.blockId = blockId;
         this.locations = locations;
     }
 
+    // 纠删码块组，locations 按单元序号排列，空字符串表示该单元暂无可用节点
+    public BlockInfo(String blockId, List<String> locations, String ecPolicy, long length) {
+        this(blockId, locations);
+        this.ecPolicy = ecPolicy;
+        this.length = length;
+    }
+
+    // 压缩块，块内容为 CompressedBlock 格式
+    public BlockInfo(String blockId, List<String> locations, String ecPolicy, long length, String codec) {
+        this(blockId, locations, ecPolicy, length);
+        this.codec = codec;
+    }
+
+    // 打包文件所在的容器块
+    public BlockInfo(String blockId, List<String> locations, long packedOffset, long length) {
+        this(blockId, locations);
+        this.packedOffset = packedOffset;
+        this.length = length;
+    }
+
     public String getBlockId() {
         return blockId;
     }
@@ -19,4 +45,46 @@ public class BlockInfo implements java.io.Serializable{
     public List<String> getLocations() {
         return locations;
     }
-}
\ No newline at end of file
+
+    public String getEcPolicy() {
+        return ecPolicy;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public boolean isCompressed() {
+        return codec != null;
+    }
+
+    public long getPackedOffset() {
+        return packedOffset;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    // 记录块在文件中覆盖的区间 [offset, offset + size)
+    public void setFileRange(long offset, long size) {
+        this.offset = offset;
+        this.size = size;
+    }
+
+    public boolean isPacked() {
+        return packedOffset >= 0;
+    }
+
+    public boolean isStriped() {
+        return ecPolicy != null;
+    }
+}
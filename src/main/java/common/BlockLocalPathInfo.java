@@ -0,0 +1,53 @@
+package common;
+
+import java.io.Serializable;
+
+// DataNode 授予同一主机上客户端的短路读取权限：块数据在本地段文件中的位置，
+// [offset, offset + length) 是数据，紧随其后是每 bytesPerChecksum 字节一个的 CRC32C
+public class BlockLocalPathInfo implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String blockId;
+    private final String path; // 段文件的绝对路径
+    private final long offset;
+    private final long length;
+    private final int bytesPerChecksum; // 0 表示块没有存储校验和
+
+    public BlockLocalPathInfo(String blockId, String path, long offset, long length, int bytesPerChecksum) {
+        this.blockId = blockId;
+        this.path = path;
+        this.offset = offset;
+        this.length = length;
+        this.bytesPerChecksum = bytesPerChecksum;
+    }
+
+    public String getBlockId() {
+        return blockId;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public int getBytesPerChecksum() {
+        return bytesPerChecksum;
+    }
+
+    @Override
+    public String toString() {
+        return "BlockLocalPathInfo{" +
+                "blockId='" + blockId + '\'' +
+                ", path='" + path + '\'' +
+                ", offset=" + offset +
+                ", length=" + length +
+                '}';
+    }
+}
@@ -0,0 +1,25 @@
+package common;
+
+import java.io.IOException;
+
+// 数据与其 CRC32C 校验和不一致
+public class ChecksumException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final String blockId;
+    private final long position; // 出错的校验块在块内的起始偏移
+
+    public ChecksumException(String blockId, long position) {
+        super("Checksum error in block " + blockId + " at offset " + position);
+        this.blockId = blockId;
+        this.position = position;
+    }
+
+    public String getBlockId() {
+        return blockId;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+}
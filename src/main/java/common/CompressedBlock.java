@@ -0,0 +1,127 @@
+package common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// 压缩块的存储格式：[byte 编解码器编号][int 原始长度][int 分片大小][int 分片数][int 每个分片的结束位置 x 分片数][分片数据]。
+// 块数据按分片独立压缩，随机读只需读取并解压涉及的分片；压缩后不比原始数据小的分片原样保存。
+// DataNode 把压缩块当作普通字节保存，校验和覆盖压缩后的数据
+public class CompressedBlock {
+    public static final int HEADER_SIZE = 13; // 分片索引之前的固定部分
+
+    private final CompressionCodec codec;
+    private final int rawLength;
+    private final int chunkSize;
+    private final int[] chunkEnds; // 每个分片在数据区中的结束位置
+
+    private CompressedBlock(CompressionCodec codec, int rawLength, int chunkSize, int[] chunkEnds) {
+        this.codec = codec;
+        this.rawLength = rawLength;
+        this.chunkSize = chunkSize;
+        this.chunkEnds = chunkEnds;
+    }
+
+    // 压缩 data[0, length)，返回完整的压缩块
+    public static byte[] compress(CompressionCodec codec, byte[] data, int length, int chunkSize) {
+        int chunkCount = (length + chunkSize - 1) / chunkSize;
+        int dataStart = HEADER_SIZE + 4 * chunkCount;
+        byte[] out = new byte[dataStart + length];
+        ByteBuffer header = ByteBuffer.wrap(out);
+        header.put(codec.getId()).putInt(length).putInt(chunkSize).putInt(chunkCount);
+        byte[] scratch = new byte[CompressionCodec.maxCompressedLength(chunkSize)];
+        int position = dataStart;
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            int offset = chunk * chunkSize;
+            int n = Math.min(chunkSize, length - offset);
+            int compressed = codec.compress(data, offset, n, scratch);
+            if (compressed < n) {
+                System.arraycopy(scratch, 0, out, position, compressed);
+                position += compressed;
+            } else {
+                System.arraycopy(data, offset, out, position, n);
+                position += n;
+            }
+            header.putInt(position - dataStart);
+        }
+        return Arrays.copyOf(out, position);
+    }
+
+    // 分片大小为 chunkSize 时，blockSize 字节的块的头部最大长度
+    public static int maxHeaderLength(int blockSize, int chunkSize) {
+        return HEADER_SIZE + 4 * ((blockSize + chunkSize - 1) / chunkSize);
+    }
+
+    // 由块开头的至少 HEADER_SIZE 个字节算出头部的完整长度
+    public static int headerLength(byte[] prefix) throws IOException {
+        if (prefix.length < HEADER_SIZE) {
+            throw new IOException("Compressed block header truncated at " + prefix.length + " bytes");
+        }
+        int chunkCount = ByteBuffer.wrap(prefix, 9, 4).getInt();
+        if (chunkCount < 0) {
+            throw new IOException("Corrupt compressed block header");
+        }
+        return HEADER_SIZE + 4 * chunkCount;
+    }
+
+    // 解析块开头的头部，header 须包含完整的分片索引
+    public static CompressedBlock parse(byte[] header) throws IOException {
+        int headerLength = headerLength(header);
+        if (header.length < headerLength) {
+            throw new IOException("Compressed block index truncated at " + header.length + " of " + headerLength + " bytes");
+        }
+        ByteBuffer in = ByteBuffer.wrap(header);
+        byte id = in.get();
+        CompressionCodec codec = CompressionCodec.byId(id);
+        if (codec == null) {
+            throw new IOException("Unknown compression codec " + id);
+        }
+        int rawLength = in.getInt();
+        int chunkSize = in.getInt();
+        int[] chunkEnds = new int[in.getInt()];
+        if (rawLength < 0 || chunkSize <= 0 || (long) chunkEnds.length * chunkSize < rawLength) {
+            throw new IOException("Corrupt compressed block header");
+        }
+        for (int i = 0; i < chunkEnds.length; i++) {
+            chunkEnds[i] = in.getInt();
+        }
+        return new CompressedBlock(codec, rawLength, chunkSize, chunkEnds);
+    }
+
+    public CompressionCodec getCodec() {
+        return codec;
+    }
+
+    public int getRawLength() {
+        return rawLength;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getChunkCount() {
+        return chunkEnds.length;
+    }
+
+    // 第 chunk 个分片在块中的起始位置，chunk 等于分片数时为数据区的结尾
+    public long storedOffset(int chunk) {
+        return HEADER_SIZE + 4L * chunkEnds.length + (chunk == 0 ? 0 : chunkEnds[chunk - 1]);
+    }
+
+    // 第 chunk 个分片解压后的长度
+    public int rawChunkLength(int chunk) {
+        return Math.min(chunkSize, rawLength - chunk * chunkSize);
+    }
+
+    // 解压第 chunk 个分片，其存储的数据从 stored[offset] 开始，结果写入 dst[dstOffset, dstOffset + rawChunkLength(chunk))
+    public void decompress(int chunk, byte[] stored, int offset, byte[] dst, int dstOffset) throws IOException {
+        int length = (int) (storedOffset(chunk + 1) - storedOffset(chunk));
+        int rawChunkLength = rawChunkLength(chunk);
+        if (length == rawChunkLength) {
+            System.arraycopy(stored, offset, dst, dstOffset, length);
+        } else {
+            codec.decompress(stored, offset, length, dst, dstOffset, rawChunkLength);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package common;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// 块压缩编解码器：LZ4 速度快、CPU 开销低，DEFLATE 压缩率高但更耗 CPU。
+// 编解码器以编号持久化到镜像、编辑日志和压缩块的头部，编号不能改变
+public abstract class CompressionCodec {
+    public static final byte UNSET = 0; // 未设置，沿用上级目录的设置
+    public static final byte NONE = 1; // 显式指定不压缩，不再继承上级目录的编解码器
+    public static final String NONE_NAME = "NONE";
+
+    private static final CompressionCodec[] CODECS = {
+            new Lz4Codec(),
+            new DeflateCodec(),
+    };
+
+    private final byte id;
+    private final String name;
+
+    private CompressionCodec(byte id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    // 按名字（如 LZ4）查找，null 或未知名字返回 null
+    public static CompressionCodec byName(String name) {
+        for (CompressionCodec codec : CODECS) {
+            if (codec.name.equalsIgnoreCase(name)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    // 按编号查找，UNSET、NONE 和未知编号返回 null
+    public static CompressionCodec byId(byte id) {
+        for (CompressionCodec codec : CODECS) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    // 长度为 length 的数据压缩后的最大长度，两种编解码器共用
+    public static int maxCompressedLength(int length) {
+        return length + length / 255 + 64;
+    }
+
+    public byte getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // 压缩 src[offset, offset + length) 写入 dst，返回压缩后的长度；dst 须至少有 maxCompressedLength(length) 字节
+    public abstract int compress(byte[] src, int offset, int length, byte[] dst);
+
+    // 把 src[offset, offset + length) 解压到 dst[dstOffset, dstOffset + rawLength)，数据损坏时抛出 IOException
+    public abstract void decompress(byte[] src, int offset, int length, byte[] dst, int dstOffset, int rawLength) throws IOException;
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private static class Lz4Codec extends CompressionCodec {
+        Lz4Codec() {
+            super((byte) 2, "LZ4");
+        }
+
+        @Override
+        public int compress(byte[] src, int offset, int length, byte[] dst) {
+            return Lz4.compress(src, offset, length, dst, 0);
+        }
+
+        @Override
+        public void decompress(byte[] src, int offset, int length, byte[] dst, int dstOffset, int rawLength) throws IOException {
+            Lz4.decompress(src, offset, length, dst, dstOffset, rawLength);
+        }
+    }
+
+    // 不带 zlib 头和 Adler-32 的原始 DEFLATE 流，块数据已有端到端校验和；
+    // Deflater/Inflater 持有本地内存，每个线程复用一个
+    private static class DeflateCodec extends CompressionCodec {
+        private final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Config.DEFLATE_LEVEL, true));
+        private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+        DeflateCodec() {
+            super((byte) 3, "DEFLATE");
+        }
+
+        @Override
+        public int compress(byte[] src, int offset, int length, byte[] dst) {
+            Deflater deflater = deflaters.get();
+            deflater.reset();
+            deflater.setInput(src, offset, length);
+            deflater.finish();
+            int n = 0;
+            while (!deflater.finished() && n < dst.length) {
+                n += deflater.deflate(dst, n, dst.length - n);
+            }
+            if (!deflater.finished()) {
+                throw new IllegalArgumentException("Output buffer too small for " + length + " bytes");
+            }
+            return n;
+        }
+
+        @Override
+        public void decompress(byte[] src, int offset, int length, byte[] dst, int dstOffset, int rawLength) throws IOException {
+            Inflater inflater = inflaters.get();
+            inflater.reset();
+            inflater.setInput(src, offset, length);
+            try {
+                int n = 0;
+                while (n < rawLength && !inflater.finished()) {
+                    int read = inflater.inflate(dst, dstOffset + n, rawLength - n);
+                    if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    n += read;
+                }
+                if (n != rawLength) {
+                    throw new IOException("DEFLATE data decompressed to " + n + " bytes, expected " + rawLength);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt DEFLATE data", e);
+            }
+        }
+    }
+}
@@ -4,4 +4,78 @@ package common;
 public class Config {
     public static String USER = "dfs";
     public static String GROUP = "dfsg";
+
+    // DataNode 块存储
+    public static String DATA_DIR = "data"; // DataNode 数据根目录，每个节点使用其下同名子目录
+    public static long SEGMENT_SIZE = 256L * 1024 * 1024; // 段文件大小
+    public static double COMPACT_LIVE_RATIO = 0.5; // 段内存活数据低于该比例时压缩回收
+    public static boolean SYNC_ON_WRITE = false; // 每次写块后是否 fsync
+    public static long DATANODE_CAPACITY = 0; // DataNode 上报的容量，多个存储卷时平均分给各卷，0 表示使用各卷所在磁盘的总空间
+    public static String DATA_DIRS = ""; // 逗号分隔的多个存储目录，通常每块磁盘一个，每个节点使用其下同名子目录；为空时只用 DATA_DIR
+    public static int VOLUME_IO_THREADS = 4; // 每个存储卷执行磁盘读写、删除和压缩回收的线程数
+    public static long VOLUME_BALANCE_THRESHOLD = 10L * 1024 * 1024 * 1024; // 各卷剩余空间相差不超过该值时轮流写入，否则只写剩余空间多的卷
+
+    // 块传输
+    public static String DATANODE_HOST = "localhost"; // DataNode 块传输服务监听的地址
+    public static int CHUNK_SIZE = 64 * 1024; // 每个传输包的数据大小
+    public static int CONNECT_TIMEOUT = 5000; // 建立传输连接的超时时间，毫秒
+    public static int BYTES_PER_CHECKSUM = 512; // 每个 CRC32C 校验和覆盖的字节数，CHUNK_SIZE 须是它的整数倍
+    public static long SCAN_PERIOD = 7L * 24 * 3600 * 1000; // 后台扫描器校验一遍所有块的周期，毫秒
+    public static long SCAN_BANDWIDTH = 1024L * 1024; // 后台扫描器读取磁盘的带宽上限，字节/秒
+    public static boolean SHORT_CIRCUIT_READS = true; // 客户端与 DataNode 在同一主机时直接映射块文件读取，不经过网络
+
+    // DataNode 热块缓存
+    public static long BLOCK_CACHE_CAPACITY = 64L * 1024 * 1024; // 每个 DataNode 堆外热块缓存的容量，0 表示不缓存
+    public static double BLOCK_CACHE_A1IN_RATIO = 0.25; // 只读过一次的块最多占用的容量比例，其余留给反复读取的热块和钉住的块
+    public static int BLOCK_CACHE_GHOST_ENTRIES = 4096; // 记住最近只读过一次的块ID数，其间再次读到的块作为热块缓存
+
+    // 远程调用
+    public static String RPC_TRANSPORT = System.getProperty("dfs.rpc.transport", "rmi"); // rmi 或 nio
+    public static String RPC_REGISTRY_HOST = "localhost"; // 注册表所在主机
+    public static int RPC_REGISTRY_PORT = 1099; // 注册表端口，nio 传输时 NameNode 的服务也在这个端口
+    public static String RPC_HOST = "localhost"; // nio 传输时本进程 RPC 服务监听的地址
+    public static int RPC_HANDLERS = 2 * Runtime.getRuntime().availableProcessors(); // nio 服务端处理请求的线程数
+    public static int RPC_MAX_FRAME_SIZE = 64 * 1024 * 1024; // 单个请求或应答的最大字节数
+    public static long RPC_TIMEOUT = 60000; // 等待应答的超时时间，毫秒
+
+    // 监控
+    public static String METRICS_HOST = "localhost"; // 指标文本端点监听的地址
+    public static int NAMENODE_METRICS_PORT = 9870; // NameNode 进程的指标端点端口，负数表示不启动
+    public static int DATANODE_METRICS_PORT = 9864; // DataNode 进程的指标端点端口，负数表示不启动
+    public static int LOG_QUEUE_SIZE = 64 * 1024; // 异步日志队列长度，满时丢弃新消息
+
+    // NameNode
+    public static int REPLICATION = 3; // 默认副本数
+    public static String BLOCK_PLACEMENT_POLICY = "server.LoadAwarePlacementPolicy"; // 块副本放置策略的实现类
+    public static double PLACEMENT_LOAD_FACTOR = 2.0; // 负载超过平均值该倍数的节点不参与放置，除非其他节点不够
+    public static long BLOCK_REPORT_INTERVAL = 6 * 3600 * 1000; // DataNode 发送完整块汇报的周期，毫秒
+    public static long REPLICATION_INTERVAL = 3000; // 副本修复的调度周期，毫秒
+    public static int REPLICATION_MAX_STREAMS = 2; // 每个 DataNode 同时作为源进行的复制数上限
+    public static long REPLICATION_TIMEOUT = 5 * 60 * 1000; // 复制超过该时间未完成时重新调度，毫秒
+    public static long REPLICATION_BANDWIDTH = 32L * 1024 * 1024; // DataNode 复制块的总带宽上限，字节/秒
+    public static int NAMESPACE_LOCK_STRIPES = 1024; // 命名空间路径锁的分段数
+    public static String NAME_DIR = "name"; // NameNode 镜像和编辑日志目录
+    public static int NAME_CACHE_SIZE = 1 << 20; // 共享文件名缓存的最大条目数
+    public static int NAME_CACHE_THRESHOLD = 10; // 名字出现多少次后开始共享
+    public static long CHECKPOINT_TXNS = 100000; // 累积多少条编辑日志后写检查点
+    public static long CHECKPOINT_PERIOD = 3600 * 1000; // 距上次检查点超过该时间后写检查点，毫秒
+    public static int LIST_LIMIT = 1000; // 分页列目录时每页最多返回的条目数
+    public static int MAX_BATCH_SIZE = 10000; // 一次批量调用最多包含的路径数
+    public static String CONTAINER_DIR = "/.containers"; // 存放小文件打包容器文件的系统目录
+    public static long DELETION_INTERVAL = 1000; // 后台回收已删除子树的周期，毫秒
+    public static int DELETION_BATCH_SIZE = 100000; // 每轮最多回收的 inode 数
+    public static int INVALIDATE_LIMIT = 1000; // 每次心跳最多通知 DataNode 删除的块数
+
+    // 客户端
+    public static int BLOCK_SIZE = Integer.getInteger("dfs.blocksize", 64 * 1024 * 1024); // 块大小，读写双方需一致
+    public static int MAX_INFLIGHT_BLOCKS = 4; // 写文件时同时在 pipeline 中传输的块数
+    public static long HEDGE_THRESHOLD_MS = 200; // 副本读取超过该时间未返回时向下一个副本发出对冲请求
+    public static int CLIENT_CACHE_SIZE = 10000; // 客户端块位置和目录列表缓存的最大条目数
+    public static long CLIENT_CACHE_TTL = 30000; // 客户端元数据缓存的有效期，毫秒
+    public static int CLIENT_MAX_IDLE_CONNECTIONS = 4; // 客户端到每个 DataNode 保留的空闲连接数
+    public static long CLIENT_IDLE_TIMEOUT = 60000; // 空闲连接超过该时间后不再复用，毫秒
+    public static int CLIENT_MAX_MAPPED_SEGMENTS = 64; // 短路读取时客户端保留映射的本地段文件数
+    public static int COMPRESSION_CHUNK_SIZE = 64 * 1024; // 压缩块中每个独立压缩的分片大小，随机读只解压涉及的分片
+    public static int DEFLATE_LEVEL = 6; // DEFLATE 压缩级别，1 最快，9 压缩率最高
+    public static int PACK_FILE_THRESHOLD = 1024 * 1024; // 打包写入时不超过该大小的文件放入共享的容器块
 }
@@ -0,0 +1,102 @@
+package common;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+// 块数据的端到端校验：数据按 bytesPerChecksum 字节切成校验块，每个校验块一个 4 字节大端序 CRC32C
+// 客户端写入时计算，pipeline 上每个 DataNode 校验后与数据一起落盘，读取时由客户端校验
+//
+// Java 9+ 自带的 java.util.zip.CRC32C 由 JIT 编译为硬件指令，通过方法句柄调用以保持 Java 8 兼容；
+// 没有时退回到 PureJavaCrc32C
+public class DataChecksum {
+    public static final int CHECKSUM_SIZE = 4;
+
+    private static final MethodHandle JDK_CRC32C; // java.util.zip.CRC32C 的构造器，不存在时为 null
+    private static final MethodHandle JDK_UPDATE_BUFFER; // Checksum.update(ByteBuffer)，Java 9 起才有
+
+    static {
+        MethodHandle constructor = null;
+        MethodHandle update = null;
+        try {
+            Class<?> type = Class.forName("java.util.zip.CRC32C");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            constructor = lookup.findConstructor(type, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Checksum.class));
+            update = lookup.findVirtual(Checksum.class, "update", MethodType.methodType(void.class, ByteBuffer.class));
+        } catch (ReflectiveOperationException e) {
+            // Java 8
+        }
+        JDK_CRC32C = constructor;
+        JDK_UPDATE_BUFFER = update;
+    }
+
+    private DataChecksum() {
+    }
+
+    public static Checksum newCrc32C() {
+        if (JDK_CRC32C != null) {
+            try {
+                return (Checksum) JDK_CRC32C.invokeExact();
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return new PureJavaCrc32C();
+    }
+
+    // 长度为 length 的数据需要的校验块个数
+    public static int chunkCount(long length, int bytesPerChecksum) {
+        return (int) ((length + bytesPerChecksum - 1) / bytesPerChecksum);
+    }
+
+    // 长度为 length 的数据的校验和占用的字节数
+    public static int checksumLength(long length, int bytesPerChecksum) {
+        return chunkCount(length, bytesPerChecksum) * CHECKSUM_SIZE;
+    }
+
+    // 计算 data 中 [position, limit) 每个校验块的校验和，依次写入 checksums；data 的位置不变
+    public static void calculate(ByteBuffer data, int bytesPerChecksum, ByteBuffer checksums) {
+        Checksum checksum = newCrc32C();
+        ByteBuffer chunk = data.duplicate();
+        for (int pos = data.position(); pos < data.limit(); pos += bytesPerChecksum) {
+            chunk.limit(Math.min(data.limit(), pos + bytesPerChecksum)).position(pos);
+            checksum.reset();
+            update(checksum, chunk);
+            checksums.putInt((int) checksum.getValue());
+        }
+    }
+
+    // 校验 data 中 [position, limit) 的每个校验块，checksums 从其 position 开始依次对应；两者的位置不变
+    // basePosition 是 data.position() 在块内的偏移，只用于报告出错位置
+    public static void verify(ByteBuffer data, int bytesPerChecksum, ByteBuffer checksums, String blockId, long basePosition) throws ChecksumException {
+        Checksum checksum = newCrc32C();
+        ByteBuffer chunk = data.duplicate();
+        int index = checksums.position();
+        for (int pos = data.position(); pos < data.limit(); pos += bytesPerChecksum, index += CHECKSUM_SIZE) {
+            chunk.limit(Math.min(data.limit(), pos + bytesPerChecksum)).position(pos);
+            checksum.reset();
+            update(checksum, chunk);
+            if (index + CHECKSUM_SIZE > checksums.limit() || (int) checksum.getValue() != checksums.getInt(index)) {
+                throw new ChecksumException(blockId, basePosition + pos - data.position());
+            }
+        }
+    }
+
+    private static void update(Checksum checksum, ByteBuffer buffer) {
+        if (checksum instanceof PureJavaCrc32C) {
+            ((PureJavaCrc32C) checksum).update(buffer);
+        } else if (buffer.hasArray()) {
+            checksum.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        } else {
+            try {
+                JDK_UPDATE_BUFFER.invokeExact(checksum, buffer);
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
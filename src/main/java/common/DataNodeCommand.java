@@ -0,0 +1,112 @@
+package common;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+// NameNode 在心跳应答中下发给 DataNode 的命令
+public class DataNodeCommand implements Serializable {
+    public static final int TRANSFER = 1; // 把本地的块复制到 targets，targets 依次组成写入 pipeline
+    public static final int INVALIDATE = 2; // 删除 blockIds 中的块
+    public static final int BLOCK_REPORT = 3; // 立即发送一次完整块汇报
+    public static final int RECONSTRUCT = 4; // 从 sources 读取纠删码块组的可用单元，解码出 targetUnits 并写到 targets
+    public static final int CACHE = 5; // 把 blockIds 中的块载入热块缓存并钉住
+    public static final int UNCACHE = 6; // 解除 blockIds 中的块的钉住，之后按正常策略淘汰
+
+    private static final long serialVersionUID = 1L;
+
+    private final int action;
+    private final String blockId;
+    private final List<String> targetNames;
+    private final List<InetSocketAddress> targets;
+    private final List<String> blockIds;
+    private final String ecPolicy; // 重建命令：块组的纠删码策略
+    private final long length; // 重建命令：块组的数据长度
+    private final List<InetSocketAddress> sources; // 重建命令：按单元序号排列的可用单元地址，不可用为 null
+    private final List<Integer> targetUnits; // 重建命令：要恢复的单元序号，与 targets 一一对应
+
+    DataNodeCommand(int action, String blockId, List<String> targetNames, List<InetSocketAddress> targets, List<String> blockIds,
+                    String ecPolicy, long length, List<InetSocketAddress> sources, List<Integer> targetUnits) {
+        this.action = action;
+        this.blockId = blockId;
+        this.targetNames = targetNames;
+        this.targets = targets;
+        this.blockIds = blockIds;
+        this.ecPolicy = ecPolicy;
+        this.length = length;
+        this.sources = sources;
+        this.targetUnits = targetUnits;
+    }
+
+    public static DataNodeCommand transfer(String blockId, List<String> targetNames, List<InetSocketAddress> targets) {
+        return new DataNodeCommand(TRANSFER, blockId, targetNames, targets, null, null, -1, null, null);
+    }
+
+    public static DataNodeCommand invalidate(List<String> blockIds) {
+        return new DataNodeCommand(INVALIDATE, null, null, null, blockIds, null, -1, null, null);
+    }
+
+    public static DataNodeCommand cache(List<String> blockIds) {
+        return new DataNodeCommand(CACHE, null, null, null, blockIds, null, -1, null, null);
+    }
+
+    public static DataNodeCommand uncache(List<String> blockIds) {
+        return new DataNodeCommand(UNCACHE, null, null, null, blockIds, null, -1, null, null);
+    }
+
+    public static DataNodeCommand blockReport() {
+        return new DataNodeCommand(BLOCK_REPORT, null, null, null, null, null, -1, null, null);
+    }
+
+    public static DataNodeCommand reconstruct(String groupId, String ecPolicy, long length, List<InetSocketAddress> sources,
+                                              List<Integer> targetUnits, List<String> targetNames, List<InetSocketAddress> targets) {
+        return new DataNodeCommand(RECONSTRUCT, groupId, targetNames, targets, null, ecPolicy, length, sources, targetUnits);
+    }
+
+    public int getAction() {
+        return action;
+    }
+
+    public String getBlockId() {
+        return blockId;
+    }
+
+    public List<String> getTargetNames() {
+        return targetNames;
+    }
+
+    public List<InetSocketAddress> getTargets() {
+        return targets;
+    }
+
+    public List<String> getBlockIds() {
+        return blockIds;
+    }
+
+    public String getEcPolicy() {
+        return ecPolicy;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public List<InetSocketAddress> getSources() {
+        return sources;
+    }
+
+    public List<Integer> getTargetUnits() {
+        return targetUnits;
+    }
+
+    @Override
+    public String toString() {
+        return "DataNodeCommand{" +
+                "action=" + action +
+                ", blockId='" + blockId + '\'' +
+                ", targets=" + targetNames +
+                (targetUnits != null ? ", units=" + targetUnits : "") +
+                ", blockIds=" + blockIds +
+                '}';
+    }
+}
@@ -0,0 +1,87 @@
+package common;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// DataNode 随心跳上报的状态：块传输地址、容量、已用空间、剩余空间、正在进行的块传输数和各存储卷的状态
+public class DataNodeInfo implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final InetSocketAddress transferAddress;
+    private final long capacity;
+    private final long used;
+    private final long remaining;
+    private final int activeTransfers;
+    private final List<StorageReport> storageReports; // 每个存储卷一项，包括已失效的卷
+
+    public DataNodeInfo(String name, InetSocketAddress transferAddress, long capacity, long used, long remaining, int activeTransfers) {
+        this(name, transferAddress, capacity, used, remaining, activeTransfers, Collections.<StorageReport>emptyList());
+    }
+
+    public DataNodeInfo(String name, InetSocketAddress transferAddress, long capacity, long used, long remaining, int activeTransfers,
+                        List<StorageReport> storageReports) {
+        this.name = name;
+        this.transferAddress = transferAddress;
+        this.capacity = capacity;
+        this.used = used;
+        this.remaining = remaining;
+        this.activeTransfers = activeTransfers;
+        this.storageReports = storageReports;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public InetSocketAddress getTransferAddress() {
+        return transferAddress;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getUsed() {
+        return used;
+    }
+
+    public long getRemaining() {
+        return remaining;
+    }
+
+    public int getActiveTransfers() {
+        return activeTransfers;
+    }
+
+    public List<StorageReport> getStorageReports() {
+        return storageReports;
+    }
+
+    // 已失效的存储卷目录
+    public List<String> getFailedStorageDirs() {
+        List<String> failed = new ArrayList<>();
+        for (StorageReport report : storageReports) {
+            if (report.isFailed()) {
+                failed.add(report.getStorageDir());
+            }
+        }
+        return failed;
+    }
+
+    @Override
+    public String toString() {
+        return "DataNodeInfo{" +
+                "name='" + name + '\'' +
+                ", transferAddress=" + transferAddress +
+                ", capacity=" + capacity +
+                ", used=" + used +
+                ", remaining=" + remaining +
+                ", activeTransfers=" + activeTransfers +
+                ", storageReports=" + storageReports +
+                '}';
+    }
+}
@@ -0,0 +1,314 @@
+package common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// DataNode 块传输协议：在 socket 上按固定大小的包流式传输块数据
+//
+// 写请求: [op][blockId][long 长度][下游节点列表][int 每个校验和覆盖的字节数] 之后是若干包，应答 [status]
+// 收到写请求的 DataNode 校验每个包后写入本地并转发给列表中的第一个下游节点，下游应答后才向上游应答
+// 读请求: [op][blockId][long 偏移][long 长度，-1 表示读到块尾]，
+// 应答 [status][long 长度][int 每个校验和覆盖的字节数][int 跳过的字节数][long 发送的字节数] 之后是若干包
+// 校验和按校验块对齐，因此读取从偏移所在校验块的起点开始发送，客户端校验后跳过开头多出的字节
+// 包的格式为 [int 数据长度][每个校验块的 CRC32C][数据]，除最后一个包外数据长度都是校验块大小的整数倍
+// 失败时 status 之后跟一个错误信息字符串
+public class DataTransfer {
+    public static final byte OP_WRITE_BLOCK = 1;
+    public static final byte OP_READ_BLOCK = 2;
+
+    public static final byte STATUS_SUCCESS = 0;
+    public static final byte STATUS_ERROR = 1;
+
+    private DataTransfer() {
+    }
+
+    public static SocketChannel connect(InetSocketAddress address) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        channel.socket().setTcpNoDelay(true);
+        channel.socket().connect(address, Config.CONNECT_TIMEOUT);
+        return channel;
+    }
+
+    // 把内存中的块写到 pipeline 上的第一个 DataNode，由它沿 targets 依次转发
+    public static void writeBlock(InetSocketAddress address, String blockId, byte[] data, List<InetSocketAddress> targets) throws IOException {
+        try (SocketChannel channel = connect(address)) {
+            writeBlock(channel, blockId, ByteBuffer.wrap(data), targets);
+        }
+    }
+
+    public static void writeBlock(SocketChannel channel, String blockId, ByteBuffer data, List<InetSocketAddress> targets) throws IOException {
+        int bytesPerChecksum = Config.BYTES_PER_CHECKSUM;
+        writeFully(channel, writeHeader(blockId, data.remaining(), bytesPerChecksum, targets));
+        ByteBuffer packetHeader = ByteBuffer.allocate(4);
+        ByteBuffer checksums = ByteBuffer.allocate(DataChecksum.checksumLength(Config.CHUNK_SIZE, bytesPerChecksum));
+        ByteBuffer payload = data.duplicate();
+        while (payload.hasRemaining()) {
+            int packetLength = Math.min(Config.CHUNK_SIZE, payload.remaining());
+            payload.limit(payload.position() + packetLength);
+            writePacket(channel, packetHeader, checksums, payload, bytesPerChecksum);
+            payload.limit(data.limit());
+        }
+        readStatus(channel);
+    }
+
+    // 从输入通道流式写一个已知长度的块，只占用一个包大小的缓冲区
+    public static void writeBlock(SocketChannel channel, String blockId, long length, ReadableByteChannel source, List<InetSocketAddress> targets) throws IOException {
+        int bytesPerChecksum = Config.BYTES_PER_CHECKSUM;
+        writeFully(channel, writeHeader(blockId, length, bytesPerChecksum, targets));
+        ByteBuffer packetHeader = ByteBuffer.allocate(4);
+        ByteBuffer checksums = ByteBuffer.allocate(DataChecksum.checksumLength(Config.CHUNK_SIZE, bytesPerChecksum));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Config.CHUNK_SIZE);
+        long remaining = length;
+        while (remaining > 0) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), remaining));
+            readFully(source, buffer);
+            buffer.flip();
+            remaining -= buffer.limit();
+            writePacket(channel, packetHeader, checksums, buffer, bytesPerChecksum);
+        }
+        readStatus(channel);
+    }
+
+    // 从输入通道流式写一个至多 maxLength 字节的块，只占用 buffer 这一个包的缓冲区：buffer 中是调用方已读出的第一个包，
+    // 之后每读满一个包就发出一个包；输入在块写满前结束时发一个空包提前结束块。返回块的实际长度
+    public static long writeBlock(SocketChannel channel, String blockId, long maxLength, ByteBuffer buffer, ReadableByteChannel source, List<InetSocketAddress> targets) throws IOException {
+        int bytesPerChecksum = Config.BYTES_PER_CHECKSUM;
+        writeFully(channel, writeHeader(blockId, maxLength, bytesPerChecksum, targets));
+        ByteBuffer packetHeader = ByteBuffer.allocate(4);
+        ByteBuffer checksums = ByteBuffer.allocate(DataChecksum.checksumLength(buffer.capacity(), bytesPerChecksum));
+        long written = 0;
+        boolean ended = false;
+        while (buffer.hasRemaining()) {
+            written += buffer.remaining();
+            writePacket(channel, packetHeader, checksums, buffer, bytesPerChecksum);
+            if (ended || written == maxLength) {
+                break;
+            }
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), maxLength - written));
+            ended = !fill(source, buffer);
+            buffer.flip();
+        }
+        if (written < maxLength) {
+            packetHeader.clear();
+            packetHeader.putInt(0).flip();
+            writeFully(channel, packetHeader);
+        }
+        readStatus(channel);
+        return written;
+    }
+
+    // 计算 payload 的校验和，与包头一起发送
+    private static void writePacket(SocketChannel channel, ByteBuffer packetHeader, ByteBuffer checksums, ByteBuffer payload, int bytesPerChecksum) throws IOException {
+        packetHeader.clear();
+        packetHeader.putInt(payload.remaining()).flip();
+        checksums.clear();
+        DataChecksum.calculate(payload, bytesPerChecksum, checksums);
+        checksums.flip();
+        writeFully(channel, packetHeader, checksums, payload);
+    }
+
+    public static ByteBuffer writeHeader(String blockId, long length, int bytesPerChecksum, List<InetSocketAddress> targets) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + blockId.length());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(OP_WRITE_BLOCK);
+        out.writeUTF(blockId);
+        out.writeLong(length);
+        out.writeShort(targets.size());
+        for (InetSocketAddress target : targets) {
+            out.writeUTF(target.getHostString());
+            out.writeInt(target.getPort());
+        }
+        out.writeInt(bytesPerChecksum);
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    public static List<InetSocketAddress> readTargets(ReadableByteChannel channel) throws IOException {
+        ByteBuffer count = ByteBuffer.allocate(2);
+        readFully(channel, count);
+        List<InetSocketAddress> targets = new ArrayList<>();
+        ByteBuffer port = ByteBuffer.allocate(4);
+        for (int i = 0; i < count.getShort(0); i++) {
+            String host = readString(channel);
+            port.clear();
+            readFully(channel, port);
+            targets.add(new InetSocketAddress(host, port.getInt(0)));
+        }
+        return targets;
+    }
+
+    // 读取块的 [offset, offset + length) 区间，length 为 -1 时读到块尾
+    public static byte[] readBlock(InetSocketAddress address, String blockId, long offset, long length) throws IOException {
+        try (SocketChannel channel = connect(address)) {
+            return readBlock(channel, blockId, offset, length);
+        }
+    }
+
+    public static byte[] readBlock(SocketChannel channel, String blockId, long offset, long length) throws IOException {
+        ReadResponse response = requestRead(channel, blockId, offset, length);
+        byte[] data = new byte[(int) response.length];
+        ByteBuffer target = ByteBuffer.wrap(data);
+        readPackets(channel, blockId, offset, response, ByteBuffer.allocate(Config.CHUNK_SIZE), packet -> target.put(packet));
+        return data;
+    }
+
+    // 把读取的数据流式写入目标通道，返回读取的字节数
+    public static long readBlock(SocketChannel channel, String blockId, long offset, long length, WritableByteChannel target) throws IOException {
+        ReadResponse response = requestRead(channel, blockId, offset, length);
+        readPackets(channel, blockId, offset, response, ByteBuffer.allocateDirect(Config.CHUNK_SIZE), packet -> writeFully(target, packet));
+        return response.length;
+    }
+
+    // 读应答的头部
+    private static class ReadResponse {
+        long length; // 请求区间内实际可读的字节数
+        int bytesPerChecksum;
+        int skip; // 发送的数据开头多出的、用于对齐校验块的字节数
+        long sent; // 发送的总字节数
+    }
+
+    private interface PacketConsumer {
+        void accept(ByteBuffer packet) throws IOException;
+    }
+
+    private static ReadResponse requestRead(SocketChannel channel, String blockId, long offset, long length) throws IOException {
+        ByteBuffer request = header(OP_READ_BLOCK, blockId, offset);
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(8);
+        lengthBuffer.putLong(length).flip();
+        writeFully(channel, request, lengthBuffer);
+        readStatus(channel);
+        ByteBuffer buffer = ByteBuffer.allocate(24);
+        readFully(channel, buffer);
+        buffer.flip();
+        ReadResponse response = new ReadResponse();
+        response.length = buffer.getLong();
+        response.bytesPerChecksum = buffer.getInt();
+        response.skip = buffer.getInt();
+        response.sent = buffer.getLong();
+        if (response.bytesPerChecksum <= 0 || response.skip < 0 || response.sent < response.skip + response.length) {
+            throw new IOException("Invalid read response for block " + blockId);
+        }
+        return response;
+    }
+
+    // 接收若干包，逐包校验后把请求区间内的部分交给 consumer；数据先读入 buffer 中转
+    private static void readPackets(SocketChannel channel, String blockId, long offset, ReadResponse response,
+                                    ByteBuffer buffer, PacketConsumer consumer) throws IOException {
+        ByteBuffer packetHeader = ByteBuffer.allocate(4);
+        ByteBuffer checksums = ByteBuffer.allocate(DataChecksum.checksumLength(buffer.capacity(), response.bytesPerChecksum));
+        long blockPosition = offset - response.skip; // 下一个包在块内的起始偏移
+        long wantedEnd = offset + response.length;
+        long remaining = response.sent;
+        while (remaining > 0) {
+            packetHeader.clear();
+            readFully(channel, packetHeader);
+            int packetLength = packetHeader.getInt(0);
+            if (packetLength <= 0 || packetLength > remaining || packetLength > buffer.capacity()) {
+                throw new IOException("Invalid packet length " + packetLength);
+            }
+            checksums.clear();
+            checksums.limit(DataChecksum.checksumLength(packetLength, response.bytesPerChecksum));
+            readFully(channel, checksums);
+            checksums.flip();
+            buffer.clear();
+            buffer.limit(packetLength);
+            readFully(channel, buffer);
+            buffer.flip();
+            DataChecksum.verify(buffer, response.bytesPerChecksum, checksums, blockId, blockPosition);
+            // 去掉开头对齐用的字节和末尾超出请求区间的字节
+            buffer.position((int) Math.max(0, offset - blockPosition));
+            buffer.limit((int) Math.max(buffer.position(), Math.min(packetLength, wantedEnd - blockPosition)));
+            if (buffer.hasRemaining()) {
+                consumer.accept(buffer);
+            }
+            blockPosition += packetLength;
+            remaining -= packetLength;
+        }
+    }
+
+    public static ByteBuffer header(byte op, String blockId, long value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + blockId.length());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(op);
+        out.writeUTF(blockId);
+        out.writeLong(value);
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    public static void readStatus(ReadableByteChannel channel) throws IOException {
+        ByteBuffer status = ByteBuffer.allocate(1);
+        readFully(channel, status);
+        if (status.get(0) != STATUS_SUCCESS) {
+            throw new IOException("DataNode error: " + readString(channel));
+        }
+    }
+
+    public static void writeStatus(WritableByteChannel channel, byte status, String message) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        buffer.put(status).flip();
+        if (status == STATUS_SUCCESS) {
+            writeFully(channel, buffer);
+        } else {
+            writeFully(channel, buffer, encodeString(message == null ? "unknown error" : message));
+        }
+    }
+
+    public static ByteBuffer encodeString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(2 + bytes.length);
+        buffer.putShort((short) bytes.length).put(bytes).flip();
+        return buffer;
+    }
+
+    public static String readString(ReadableByteChannel channel) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(2);
+        readFully(channel, length);
+        ByteBuffer bytes = ByteBuffer.allocate(length.getShort(0) & 0xffff);
+        readFully(channel, bytes);
+        return new String(bytes.array(), StandardCharsets.UTF_8);
+    }
+
+    public static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Unexpected end of stream");
+            }
+        }
+    }
+
+    // 从输入通道读满 buffer，输入在读满前结束时返回 false
+    public static boolean fill(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void writeFully(WritableByteChannel channel, ByteBuffer... buffers) throws IOException {
+        if (channel instanceof SocketChannel) {
+            SocketChannel socket = (SocketChannel) channel;
+            while (buffers[buffers.length - 1].hasRemaining()) {
+                socket.write(buffers);
+            }
+            return;
+        }
+        for (ByteBuffer buffer : buffers) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
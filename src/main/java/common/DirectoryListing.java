@@ -0,0 +1,32 @@
+package common;
+
+import java.io.Serializable;
+import java.util.List;
+
+// 目录列表的一页：按名字字节序排列的子节点路径，以及是否还有后续页
+// 下一页以本页最后一个名字作为游标请求，翻页期间目录被修改也不会重复或跳过未改动的项
+public class DirectoryListing implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> entries;
+    private final String lastName; // 本页最后一个子节点的名字，空页为 null
+    private final boolean hasMore;
+
+    public DirectoryListing(List<String> entries, String lastName, boolean hasMore) {
+        this.entries = entries;
+        this.lastName = lastName;
+        this.hasMore = hasMore;
+    }
+
+    public List<String> getEntries() {
+        return entries;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+}
@@ -0,0 +1,100 @@
+package common;
+
+// 纠删码策略 RS-k-m：每个块组的数据按 CELL_SIZE 大小的单元格轮流条带化到 k 个数据单元，
+// 再用 Reed-Solomon 计算 m 个校验单元，k + m 个单元分别存放在不同的 DataNode 上，任意 k 个单元可恢复整组数据。
+// 一个块组最多容纳 BLOCK_SIZE 字节的文件数据，因此纠删码文件中第 i 个块组同样从 i * BLOCK_SIZE 开始
+public class ErasureCodingPolicy {
+    public static final byte UNSET = 0; // 目录未设置，沿用上级目录的策略
+    public static final byte REPLICATION = 1; // 显式指定使用多副本，不再继承上级目录的纠删码策略
+    public static final String REPLICATION_NAME = "REPLICATION";
+    public static final int CELL_SIZE = 1024 * 1024; // 条带单元格大小，写入后不能改变
+
+    private static final ErasureCodingPolicy[] POLICIES = {
+            new ErasureCodingPolicy((byte) 2, 3, 2),
+            new ErasureCodingPolicy((byte) 3, 6, 3),
+            new ErasureCodingPolicy((byte) 4, 10, 4),
+    };
+
+    private final byte id; // 持久化到镜像和编辑日志中的编号
+    private final int dataUnits;
+    private final int parityUnits;
+    private final ReedSolomon codec;
+
+    private ErasureCodingPolicy(byte id, int dataUnits, int parityUnits) {
+        this.id = id;
+        this.dataUnits = dataUnits;
+        this.parityUnits = parityUnits;
+        this.codec = new ReedSolomon(dataUnits, parityUnits);
+    }
+
+    // 按名字（如 RS-6-3）查找，null 或未知名字返回 null
+    public static ErasureCodingPolicy byName(String name) {
+        for (ErasureCodingPolicy policy : POLICIES) {
+            if (policy.getName().equalsIgnoreCase(name)) {
+                return policy;
+            }
+        }
+        return null;
+    }
+
+    // 按编号查找，UNSET、REPLICATION 和未知编号返回 null
+    public static ErasureCodingPolicy byId(byte id) {
+        for (ErasureCodingPolicy policy : POLICIES) {
+            if (policy.id == id) {
+                return policy;
+            }
+        }
+        return null;
+    }
+
+    public byte getId() {
+        return id;
+    }
+
+    public String getName() {
+        return "RS-" + dataUnits + "-" + parityUnits;
+    }
+
+    public int getDataUnits() {
+        return dataUnits;
+    }
+
+    public int getParityUnits() {
+        return parityUnits;
+    }
+
+    public int getTotalUnits() {
+        return dataUnits + parityUnits;
+    }
+
+    public ReedSolomon getCodec() {
+        return codec;
+    }
+
+    // 数据长度为 groupLength 的块组中第 unit 个单元的长度，校验单元与第 0 个数据单元等长
+    public long unitLength(long groupLength, int unit) {
+        long stripeSize = (long) CELL_SIZE * dataUnits;
+        long fullStripes = groupLength / stripeSize;
+        long rest = groupLength % stripeSize;
+        int dataUnit = unit < dataUnits ? unit : 0;
+        return fullStripes * CELL_SIZE + Math.min(CELL_SIZE, Math.max(0, rest - (long) dataUnit * CELL_SIZE));
+    }
+
+    // 把块组数据 data[0, length) 条带化并计算校验，返回 k + m 个等长的单元，
+    // 末尾不足的部分补 0，写入时按 unitLength 截断
+    public byte[][] encode(byte[] data, int length) {
+        int size = (int) unitLength(length, 0);
+        byte[][] units = new byte[getTotalUnits()][size];
+        for (int offset = 0, cell = 0; offset < length; offset += CELL_SIZE, cell++) {
+            int n = Math.min(CELL_SIZE, length - offset);
+            System.arraycopy(data, offset, units[cell % dataUnits], (cell / dataUnits) * CELL_SIZE, n);
+        }
+        codec.encode(units, 0, size);
+        return units;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
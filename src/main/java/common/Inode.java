@@ -1,67 +1,227 @@
 package common;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
-import java.util.UUID;
 
+// 命名空间树的节点：每个节点只保存自己的名字，完整路径沿父节点链计算，
+// 因此重命名目录只需把它从旧父目录摘下挂到新父目录，与子树大小无关
+//
+// 为了让一个 NameNode 能容纳上亿个文件，节点采用紧凑表示：
+// ID 是 long，名字是 UTF-8 字节数组（常见名字由 NameNode 共享同一个数组），
+// 子节点是按名字字节序排好的数组，块只记录每个块的副本所在 DataNode 编号，
+// 块ID由 inode ID 和块序号拼出，不单独存储
+//
+// 纠删码文件的每个块是一个块组：块组ID的编号方式与普通块相同，组内第 u 个单元（内部块）的ID
+// 在最高字节存 u + 1，位置数组按单元序号排列，-1 表示该单元当前没有可用的存放节点
+//
+// 打包写入的小文件没有自己的块，只记录所在容器块的ID和在块中的起始位置，长度即文件大小
+//
+// 文件按块记录累计的结束偏移，块可以短于 BLOCK_SIZE（如追加前的最后一个块），
+// 按文件偏移查找块时二分查找，文件大小即最后一个块的结束偏移
 public class Inode implements Serializable {
+    public static final int BLOCK_INDEX_BITS = 20; // 块ID低位存块在文件中的序号，每个文件最多 2^20 个块
+    public static final int UNIT_SHIFT = 56; // 内部块ID中单元序号所在的位置
+    private static final Inode[] NO_CHILDREN = new Inode[0];
+    private static final int[][] NO_BLOCKS = new int[0][];
+    private static final long GROUP_ID_MASK = (1L << UNIT_SHIFT) - 1;
 
-    private final String id; // 唯一标识符
-    private String fileName;
+    private final long id; // 唯一标识符
+    private byte[] name; // 本节点的名字，根目录为空数组
     private long fileSize;
     private final long creationTime;
-    private String path;
     private String owner;
     private String group;
     private final boolean isDirectory;
-    private String parentId; // 父节点ID
-    private List<String> childrenIds = new ArrayList<>(); // 子节点ID列表
     private boolean status = false;
-    private List<BlockInfo> blocks; // 每个文件的块信息
+    private byte erasureCodingPolicy; // 目录上设置的纠删码策略或文件创建时继承的策略，见 ErasureCodingPolicy
+    private byte compressionCodec; // 目录或文件上设置的压缩编解码器，文件创建时继承目录的设置，见 CompressionCodec
+    private transient long packedBlockId; // 打包文件所在的容器块ID，0 表示不是打包文件
+    private transient int packedOffset; // 打包文件在容器块中的起始位置
+    private transient Inode parent; // 父节点，根目录为 null
+    private transient Inode[] children; // 按名字排序的子节点，只有目录才有
+    private transient int childrenCount;
+    private transient int[][] blockLocations; // 每个块的副本所在 DataNode 编号，只有文件才有
+    private transient long[] blockLengths; // 纠删码文件每个块组的数据长度，普通文件为 null
+    private transient long[] blockEnds; // 每个块在文件中的结束偏移（不含），即到该块为止的累计文件数据长度
+    private transient Inode next; // NameNode ID 哈希表中同一个桶的下一个节点
+    private transient String detachedPath; // 反序列化后（如 RMI 返回给客户端）没有父节点链，使用序列化时的路径
 
-    public Inode(String path, String owner, boolean isDirectory, String parentId) {
-        this.id = UUID.randomUUID().toString(); // 生成唯一ID
-        this.fileName = null;
+    public Inode(long id, byte[] name, String owner, boolean isDirectory, long creationTime) {
+        this.id = id;
+        this.name = name;
         this.fileSize = -1;
-        this.creationTime = System.currentTimeMillis();
-        this.path = path;
+        this.creationTime = creationTime;
         this.owner = owner;
         this.isDirectory = isDirectory;
-        this.parentId = parentId;
-        this.blocks = new ArrayList<>();
-
-        // 是文件的情况下
-        if (!isDirectory) {
-            this.fileName = getFileName(path);
+        if (isDirectory) {
+            this.children = NO_CHILDREN;
+        } else {
+            this.blockLocations = NO_BLOCKS;
         }
     }
 
-    public String getId() {
+    public long getId() {
         return id;
     }
 
-    public void addBlock(BlockInfo block) {
-        this.blocks.add(block);
+    // 块ID = inode ID 左移后拼上块序号
+    public long getBlockId(int index) {
+        return (id << BLOCK_INDEX_BITS) | index;
+    }
+
+    public static long inodeIdOf(long blockId) {
+        return groupIdOf(blockId) >>> BLOCK_INDEX_BITS;
+    }
+
+    // 块组中第 unit 个单元的内部块ID
+    public static long internalBlockId(long groupId, int unit) {
+        return groupId | ((long) (unit + 1) << UNIT_SHIFT);
+    }
+
+    // 内部块所属块组的ID，普通块返回自身
+    public static long groupIdOf(long blockId) {
+        return blockId & GROUP_ID_MASK;
+    }
+
+    // 内部块在块组中的单元序号，普通块返回 -1
+    public static int unitOf(long blockId) {
+        return (int) (blockId >>> UNIT_SHIFT) - 1;
+    }
+
+    public static int blockIndexOf(long blockId) {
+        return (int) (blockId & ((1L << BLOCK_INDEX_BITS) - 1));
+    }
+
+    // 在文件末尾追加一个含 size 字节文件数据的块，返回块序号；已有的块不变
+    public int addBlock(int[] locations, long size) {
+        int index = blockLocations.length;
+        if (index >= 1 << BLOCK_INDEX_BITS) {
+            throw new IllegalStateException("Too many blocks in file " + getPath());
+        }
+        int[][] grown = Arrays.copyOf(blockLocations, index + 1);
+        grown[index] = locations;
+        blockLocations = grown;
+        long end = getBlockOffset(index) + size;
+        blockEnds = blockEnds == null ? new long[index + 1] : Arrays.copyOf(blockEnds, index + 1);
+        blockEnds[index] = end;
+        fileSize = end;
+        return index;
+    }
+
+    // 在纠删码文件末尾追加一个存储长度为 length、含 size 字节文件数据的块组，返回块序号；
+    // 块组压缩时 length 是压缩后的长度
+    public int addBlockGroup(int[] locations, long length, long size) {
+        int index = addBlock(locations, size);
+        blockLengths = blockLengths == null ? new long[index + 1] : Arrays.copyOf(blockLengths, index + 1);
+        blockLengths[index] = length;
+        return index;
+    }
+
+    // 把最后一个块中的文件数据长度改为 size，用于按整块分配、写入时提前结束的块
+    public void setLastBlockSize(long size) {
+        int index = getBlockCount() - 1;
+        blockEnds[index] = getBlockOffset(index) + size;
+        fileSize = blockEnds[index];
+    }
+
+    // 块组的数据长度，普通块返回 -1
+    public long getBlockLength(int index) {
+        return blockLengths != null && index < blockLengths.length ? blockLengths[index] : -1;
     }
 
-    public List<BlockInfo> getBlocks() {
-        return blocks;
+    // 块在文件中的起始偏移
+    public long getBlockOffset(int index) {
+        return index == 0 ? 0 : blockEnds[index - 1];
     }
 
-    // 从路径中获取文件名
-    private String getFileName(String path) {
-        int lastSeparatorIndex = path.lastIndexOf('/');
-        return lastSeparatorIndex == -1 ? path : path.substring(lastSeparatorIndex + 1);
+    // 块中的文件数据长度，压缩块为压缩前的长度
+    public long getBlockSize(int index) {
+        return blockEnds[index] - getBlockOffset(index);
     }
 
+    // 包含文件偏移 offset 的块的序号，offset 不小于文件大小时返回块数
+    public int findBlock(long offset) {
+        int low = 0;
+        int high = getBlockCount();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (blockEnds[mid] <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // 把文件记录为容器块 blockId 中 [offset, offset + length) 的数据
+    public void setPacked(long blockId, int offset, long length) {
+        this.packedBlockId = blockId;
+        this.packedOffset = offset;
+        this.fileSize = length;
+    }
+
+    public boolean isPacked() {
+        return packedBlockId != 0;
+    }
+
+    public long getPackedBlockId() {
+        return packedBlockId;
+    }
+
+    public int getPackedOffset() {
+        return packedOffset;
+    }
+
+    public int getBlockCount() {
+        return blockLocations == null ? 0 : blockLocations.length;
+    }
+
+    public int[] getBlockLocations(int index) {
+        return blockLocations[index];
+    }
+
+    public void setBlockLocations(int index, int[] locations) {
+        blockLocations[index] = locations;
+    }
+
+    public String getName() {
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    public byte[] getNameBytes() {
+        return name;
+    }
+
+    // 文件返回文件名，目录返回 null
     public String getFileName() {
-        return fileName;
+        return isDirectory ? null : getName();
+    }
+
+    // 修改名字，调用方需先把节点从父目录摘下，改名后再挂回去以保持子节点有序
+    public void setName(byte[] name) {
+        this.name = name;
+    }
+
+    public byte getErasureCodingPolicy() {
+        return erasureCodingPolicy;
     }
 
-    // 修改文件名
-    public void setFileName(String fileName) {
-        this.fileName = fileName;
+    public void setErasureCodingPolicy(byte erasureCodingPolicy) {
+        this.erasureCodingPolicy = erasureCodingPolicy;
+    }
+
+    public byte getCompressionCodec() {
+        return compressionCodec;
+    }
+
+    public void setCompressionCodec(byte compressionCodec) {
+        this.compressionCodec = compressionCodec;
     }
 
     public long getFileSize() {
@@ -76,8 +236,16 @@ public class Inode implements Serializable {
         return creationTime;
     }
 
+    // 沿父节点链拼出完整路径
     public String getPath() {
-        return path;
+        if (parent == null) {
+            return detachedPath != null ? detachedPath : "/";
+        }
+        StringBuilder path = new StringBuilder();
+        for (Inode node = this; node.parent != null; node = node.parent) {
+            path.insert(0, node.getName()).insert(0, '/');
+        }
+        return path.toString();
     }
 
     public String getOwner() {
@@ -100,16 +268,102 @@ public class Inode implements Serializable {
         return isDirectory;
     }
 
-    public String getParentId() {
-        return parentId;
+    public long getParentId() {
+        return parent != null ? parent.id : 0;
+    }
+
+    public Inode getParent() {
+        return parent;
+    }
+
+    public Inode getChild(String childName) {
+        return getChild(childName.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Inode getChild(byte[] childName) {
+        if (children == null) {
+            return null;
+        }
+        int index = searchChildren(childName);
+        return index >= 0 ? children[index] : null;
+    }
+
+    // 返回子节点的只读视图，按名字字节序排列
+    public List<Inode> getChildren() {
+        return Arrays.asList(children).subList(0, childrenCount);
     }
 
-    public List<String> getChildrenIds() {
-        return childrenIds;
+    public int getChildrenCount() {
+        return children == null ? 0 : childrenCount;
     }
 
-    public void addChildId(String childId) {
-        this.childrenIds.add(childId);
+    // 把子节点按名字插入本目录，同时更新子节点的父指针
+    public void addChild(Inode child) {
+        int index = searchChildren(child.name);
+        if (index >= 0) {
+            children[index] = child;
+        } else {
+            index = -index - 1;
+            if (childrenCount == children.length) {
+                children = Arrays.copyOf(children, Math.max(4, childrenCount + (childrenCount >> 1)));
+            }
+            System.arraycopy(children, index, children, index + 1, childrenCount - index);
+            children[index] = child;
+            childrenCount++;
+        }
+        child.parent = this;
+    }
+
+    public Inode removeChild(byte[] childName) {
+        int index = searchChildren(childName);
+        if (index < 0) {
+            return null;
+        }
+        Inode removed = children[index];
+        System.arraycopy(children, index + 1, children, index, childrenCount - index - 1);
+        children[--childrenCount] = null;
+        if (childrenCount == 0) {
+            children = NO_CHILDREN;
+        }
+        return removed;
+    }
+
+    // 在子节点中二分查找名字，找不到时返回 -(插入位置) - 1
+    public int searchChildren(byte[] childName) {
+        int low = 0;
+        int high = childrenCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareNames(children[mid].name, childName);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    // 按无符号字节序比较两个名字
+    public static int compareNames(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    public Inode getNext() {
+        return next;
+    }
+
+    public void setNext(Inode next) {
+        this.next = next;
     }
 
     public boolean getStatus() {
@@ -123,34 +377,32 @@ public class Inode implements Serializable {
     @Override
     public String toString() {
         return "FileInfo{" +
-                "id='" + id + '\'' +
-                ", fileName='" + fileName + '\'' +
+                "id=" + id +
+                ", name='" + getName() + '\'' +
                 ", fileSize=" + fileSize +
                 ", creationTime=" + creationTime +
-                ", path='" + path + '\'' +
+                ", path='" + getPath() + '\'' +
                 ", owner='" + owner + '\'' +
                 ", group='" + group + '\'' +
                 ", isDirectory=" + isDirectory +
-                ", parentId='" + parentId + '\'' +
-                ", childrenIds=" + childrenIds +
+                ", parentId=" + getParentId() +
+                ", children=" + getChildrenCount() +
+                ", blocks=" + getBlockCount() +
                 '}';
     }
 
-    private String getParentPath() {
-        int lastSeparatorIndex = path.lastIndexOf('/');
-        if (lastSeparatorIndex == 0) {
-            // 根目录或根文件情况下，父目录设置为空字符串
-            return "";
-        } else if (lastSeparatorIndex == -1) {
-            // 没有父目录，返回空字符串
-            return "";
-        } else {
-            // 返回最后一个'/'之前的子字符串，即父目录路径
-            return path.substring(0, lastSeparatorIndex);
-        }
+    // 在节点树之外重建的节点（如 RPC 返回给客户端）使用传来的路径
+    void setDetachedPath(String path) {
+        this.detachedPath = path;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeUTF(getPath());
     }
 
-    public void setPath(String newPath) {
-        this.path = newPath;
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        detachedPath = in.readUTF();
     }
-}
\ No newline at end of file
+}
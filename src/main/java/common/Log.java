@@ -0,0 +1,62 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+// 异步日志：调用方只把消息放进有界队列，由后台线程写到标准输出，请求路径上没有控制台 I/O。
+// 队列满时丢弃消息并计数，不阻塞调用方；进程退出时打印队列中剩余的消息
+public final class Log {
+    private static final BlockingQueue<String> QUEUE = new ArrayBlockingQueue<>(Config.LOG_QUEUE_SIZE);
+    private static final LongAdder DROPPED = new LongAdder(); // 因队列满而丢弃的消息数
+
+    static {
+        Thread writer = new Thread(Log::run, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+        Metrics metrics = Metrics.get("log");
+        metrics.gauge("queueDepth", QUEUE::size);
+        metrics.gauge("dropped", DROPPED::sum);
+    }
+
+    private Log() {
+    }
+
+    public static void info(String message) {
+        if (!QUEUE.offer(message)) {
+            DROPPED.increment();
+        }
+    }
+
+    private static void run() {
+        List<String> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(QUEUE.take());
+                QUEUE.drainTo(batch);
+                print(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void flush() {
+        List<String> batch = new ArrayList<>();
+        QUEUE.drainTo(batch);
+        print(batch);
+    }
+
+    private static void print(List<String> batch) {
+        StringBuilder text = new StringBuilder();
+        for (String message : batch) {
+            text.append(message).append(System.lineSeparator());
+        }
+        System.out.print(text);
+        System.out.flush();
+    }
+}
@@ -0,0 +1,174 @@
+package common;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// LZ4 块格式的纯 Java 实现：每个序列是 [令牌][字面量长度扩展][字面量][2 字节小端偏移][匹配长度扩展]，
+// 最后一个序列只有字面量。压缩用 4 字节哈希表贪心查找匹配，找不到匹配时逐渐加大步长以快速跳过不可压缩的数据
+public final class Lz4 {
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5; // 最后 5 个字节总是字面量
+    private static final int MF_LIMIT = 12; // 匹配必须在距末尾 12 字节之前开始
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_LOG = 14;
+    private static final ThreadLocal<int[]> HASH_TABLE = ThreadLocal.withInitial(() -> new int[1 << HASH_LOG]);
+
+    private Lz4() {
+    }
+
+    // 长度为 length 的数据压缩后的最大长度
+    public static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    // 压缩 src[offset, offset + length) 写入 dst[dstOffset, ...)，返回压缩后的长度；
+    // dst 须至少有 maxCompressedLength(length) 字节
+    public static int compress(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+        int end = offset + length;
+        int anchor = offset;
+        int dp = dstOffset;
+        if (length >= MF_LIMIT + 1) {
+            int[] table = HASH_TABLE.get();
+            Arrays.fill(table, -1);
+            int matchLimit = end - LAST_LITERALS;
+            int mfLimit = end - MF_LIMIT;
+            int ip = offset;
+            while (ip < mfLimit) {
+                int sequence = readInt(src, ip);
+                int h = hash(sequence);
+                int ref = table[h];
+                table[h] = ip;
+                if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                    ip += 1 + ((ip - anchor) >>> 6); // 连续找不到匹配时加大步长
+                    continue;
+                }
+                // 向前扩展匹配
+                while (ip > anchor && ref > offset && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < matchLimit && src[ref + matchLength] == src[ip + matchLength]) {
+                    matchLength++;
+                }
+                dp = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dst, dp);
+                ip += matchLength;
+                anchor = ip;
+                if (ip - 2 >= offset && ip - 2 < mfLimit) {
+                    table[hash(readInt(src, ip - 2))] = ip - 2;
+                }
+            }
+        }
+        // 最后的字面量
+        int literals = end - anchor;
+        int token = dp++;
+        dst[token] = (byte) (Math.min(literals, 15) << 4);
+        dp = writeLength(literals, dst, dp);
+        System.arraycopy(src, anchor, dst, dp, literals);
+        return dp + literals - dstOffset;
+    }
+
+    // 把 src[offset, offset + length) 解压到 dst[dstOffset, dstOffset + rawLength)，数据损坏时抛出 IOException
+    public static void decompress(byte[] src, int offset, int length, byte[] dst, int dstOffset, int rawLength) throws IOException {
+        int ip = offset;
+        int end = offset + length;
+        int op = dstOffset;
+        int opEnd = dstOffset + rawLength;
+        while (true) {
+            if (ip >= end) {
+                throw new IOException("Truncated LZ4 data");
+            }
+            int token = src[ip++] & 0xff;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    if (ip >= end) {
+                        throw new IOException("Truncated LZ4 literal length");
+                    }
+                    b = src[ip++] & 0xff;
+                    literals += b;
+                } while (b == 255);
+            }
+            if (literals > end - ip || literals > opEnd - op) {
+                throw new IOException("Corrupt LZ4 literals");
+            }
+            System.arraycopy(src, ip, dst, op, literals);
+            ip += literals;
+            op += literals;
+            if (ip == end) {
+                break; // 最后一个序列
+            }
+            if (end - ip < 2) {
+                throw new IOException("Truncated LZ4 offset");
+            }
+            int matchOffset = (src[ip] & 0xff) | ((src[ip + 1] & 0xff) << 8);
+            ip += 2;
+            int ref = op - matchOffset;
+            if (matchOffset == 0 || ref < dstOffset) {
+                throw new IOException("Corrupt LZ4 offset " + matchOffset);
+            }
+            int matchLength = token & 0x0f;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (ip >= end) {
+                        throw new IOException("Truncated LZ4 match length");
+                    }
+                    b = src[ip++] & 0xff;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength > opEnd - op) {
+                throw new IOException("Corrupt LZ4 match length");
+            }
+            if (matchOffset >= matchLength) {
+                System.arraycopy(dst, ref, dst, op, matchLength);
+            } else {
+                // 重叠的匹配逐字节复制，重复前面的短模式
+                for (int i = 0; i < matchLength; i++) {
+                    dst[op + i] = dst[ref + i];
+                }
+            }
+            op += matchLength;
+        }
+        if (op != opEnd) {
+            throw new IOException("LZ4 data decompressed to " + (op - dstOffset) + " bytes, expected " + rawLength);
+        }
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literals, int matchOffset, int matchLength, byte[] dst, int dp) {
+        int token = dp++;
+        int extraMatch = matchLength - MIN_MATCH;
+        dst[token] = (byte) ((Math.min(literals, 15) << 4) | Math.min(extraMatch, 15));
+        dp = writeLength(literals, dst, dp);
+        System.arraycopy(src, literalStart, dst, dp, literals);
+        dp += literals;
+        dst[dp++] = (byte) matchOffset;
+        dst[dp++] = (byte) (matchOffset >>> 8);
+        return writeLength(extraMatch, dst, dp);
+    }
+
+    // 令牌中的 4 位长度为 15 时，剩余部分按每字节 255 继续编码
+    private static int writeLength(int length, byte[] dst, int dp) {
+        if (length < 15) {
+            return dp;
+        }
+        int rest = length - 15;
+        while (rest >= 255) {
+            dst[dp++] = (byte) 255;
+            rest -= 255;
+        }
+        dst[dp++] = (byte) rest;
+        return dp;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8) | ((b[i + 2] & 0xff) << 16) | (b[i + 3] << 24);
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
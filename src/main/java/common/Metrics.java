@@ -0,0 +1,238 @@
+package common;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+// 一个组件（NameNode、某个 DataNode、RPC 服务等）的运行指标：计数器、按操作统计的调用次数、错误数和延迟直方图，
+// 以及读取时才计算的量（队列长度、心跳延迟等）。每个组件在进程内按名字注册一次，
+// 同时导出为 JMX MBean bigData:type=Metrics,name=<名字>，MetricsServer 以文本形式输出所有组件
+public class Metrics {
+    private static final Map<String, Metrics> ALL = new ConcurrentSkipListMap<>(); // 本进程所有组件，按名字排序
+    private static final String DOMAIN = "bigData";
+
+    private final String name;
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final Map<String, Supplier<Map<String, Long>>> gaugeGroups = new ConcurrentHashMap<>(); // 每个成员一个值，如每个 DataNode 的心跳延迟
+
+    // 一种操作的调用次数、失败次数和延迟
+    public static class Operation {
+        private final LongAdder errors = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        public void record(long startNanos, boolean failed) {
+            latency.record(System.nanoTime() - startNanos);
+            if (failed) {
+                errors.increment();
+            }
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+    }
+
+    private Metrics(String name) {
+        this.name = name;
+    }
+
+    // 返回名为 name 的组件指标，不存在时创建并注册 MBean
+    public static Metrics get(String name) {
+        Metrics metrics = ALL.get(name);
+        if (metrics == null) {
+            synchronized (ALL) {
+                metrics = ALL.get(name);
+                if (metrics == null) {
+                    metrics = new Metrics(name);
+                    metrics.registerMBean();
+                    ALL.put(name, metrics);
+                }
+            }
+        }
+        return metrics;
+    }
+
+    // 组件停止时移除，同名组件重新启动后从零开始统计
+    public static void remove(String name) {
+        synchronized (ALL) {
+            Metrics metrics = ALL.remove(name);
+            if (metrics != null) {
+                metrics.unregisterMBean();
+            }
+        }
+    }
+
+    public static List<Metrics> all() {
+        return new ArrayList<>(ALL.values());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LongAdder counter(String key) {
+        return counters.computeIfAbsent(key, k -> new LongAdder());
+    }
+
+    public Operation operation(String key) {
+        return operations.computeIfAbsent(key, k -> new Operation());
+    }
+
+    public void gauge(String key, LongSupplier value) {
+        gauges.put(key, value);
+    }
+
+    // 一组同类的值，key.成员名 -> 值，成员集合在读取时确定
+    public void gauges(String key, Supplier<Map<String, Long>> values) {
+        gaugeGroups.put(key, values);
+    }
+
+    // 包装 impl：经 type 接口的每次调用都记入以方法名命名的操作，抛出异常的调用计为失败
+    public <T> T instrument(T impl, Class<T> type) {
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (self, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(impl, args);
+            }
+            Operation operation = operation(method.getName());
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                Object result = method.invoke(impl, args);
+                failed = false;
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                operation.record(start, failed);
+            }
+        });
+        return type.cast(proxy);
+    }
+
+    // 当前所有指标的值；操作展开为次数、失败数和延迟（微秒）的均值、分位数和最大值
+    public SortedMap<String, Number> snapshot() {
+        SortedMap<String, Number> values = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            values.put(counter.getKey(), counter.getValue().sum());
+        }
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            values.put(gauge.getKey(), gauge.getValue().getAsLong());
+        }
+        for (Map.Entry<String, Supplier<Map<String, Long>>> group : gaugeGroups.entrySet()) {
+            for (Map.Entry<String, Long> member : group.getValue().get().entrySet()) {
+                values.put(group.getKey() + "." + member.getKey(), member.getValue());
+            }
+        }
+        for (Map.Entry<String, Operation> entry : operations.entrySet()) {
+            String key = entry.getKey();
+            LatencyHistogram latency = entry.getValue().getLatency();
+            values.put(key + ".count", latency.getCount());
+            values.put(key + ".errors", entry.getValue().getErrors());
+            values.put(key + ".meanMicros", latency.getMean() / 1000);
+            values.put(key + ".p50Micros", latency.getPercentile(0.50) / 1000.0);
+            values.put(key + ".p90Micros", latency.getPercentile(0.90) / 1000.0);
+            values.put(key + ".p99Micros", latency.getPercentile(0.99) / 1000.0);
+            values.put(key + ".maxMicros", latency.getMax() / 1000.0);
+        }
+        return values;
+    }
+
+    private ObjectName objectName() throws JMException {
+        return new ObjectName(DOMAIN + ":type=Metrics,name=" + ObjectName.quote(name));
+    }
+
+    private void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = objectName();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(new MetricsMBean(), objectName);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void unregisterMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = objectName();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // 只读的动态 MBean，每个指标是一个属性；属性集合随新出现的操作和成员变化
+    private class MetricsMBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) {
+            return snapshot().get(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            SortedMap<String, Number> values = snapshot();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException("No operations on metrics");
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Map.Entry<String, Number> value : snapshot().entrySet()) {
+                attributes.add(new MBeanAttributeInfo(value.getKey(), value.getValue().getClass().getName(),
+                        value.getKey(), true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Metrics of " + name,
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package common;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+// 本进程指标的文本端点：GET http://<METRICS_HOST>:<端口>/metrics 返回所有组件的指标，每行 "组件.指标 值"。
+// 每个进程只启动一个，同一进程中的多个组件（如多个 DataNode）共用
+public class MetricsServer {
+    private static HttpServer server;
+
+    private MetricsServer() {
+    }
+
+    // 在 port 上启动端点，已经启动时不做任何事；port 为负数表示不启动
+    public static synchronized void start(int port) {
+        if (server != null || port < 0) {
+            return;
+        }
+        try {
+            server = HttpServer.create(new InetSocketAddress(Config.METRICS_HOST, port), 0);
+        } catch (IOException e) {
+            System.out.println("Cannot start metrics endpoint on port " + port + ": " + e.getMessage());
+            return;
+        }
+        server.createContext("/metrics", exchange -> {
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        System.out.println("Metrics available at http://" + Config.METRICS_HOST + ":" + server.getAddress().getPort() + "/metrics");
+    }
+
+    public static synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    public static String render() {
+        StringBuilder text = new StringBuilder();
+        for (Metrics metrics : Metrics.all()) {
+            for (Map.Entry<String, Number> value : metrics.snapshot().entrySet()) {
+                text.append(metrics.getName()).append('.').append(value.getKey()).append(' ').append(value.getValue()).append('\n');
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,88 @@
+package common;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+// CRC32C（Castagnoli 多项式）的纯 Java 实现，用于没有 java.util.zip.CRC32C 的 Java 8
+// 采用 slicing-by-8 查表，每次处理 8 个字节
+public class PureJavaCrc32C implements Checksum {
+    private static final int POLY = 0x82F63B78; // 反射形式的 Castagnoli 多项式
+    private static final int[] T = new int[8 * 256]; // 8 张查表依次排开，第 k 张表从 k * 256 开始
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            int c = n;
+            for (int k = 0; k < 8; k++) {
+                c = (c & 1) != 0 ? (c >>> 1) ^ POLY : c >>> 1;
+            }
+            T[n] = c;
+        }
+        for (int n = 0; n < 256; n++) {
+            for (int k = 1; k < 8; k++) {
+                int previous = T[(k - 1) * 256 + n];
+                T[k * 256 + n] = (previous >>> 8) ^ T[previous & 0xff];
+            }
+        }
+    }
+
+    private int crc = 0xffffffff;
+
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ T[(crc ^ b) & 0xff];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int c = crc;
+        int end = off + len;
+        while (end - off >= 8) {
+            c ^= (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+            c = T[7 * 256 + (c & 0xff)] ^ T[6 * 256 + ((c >>> 8) & 0xff)]
+                    ^ T[5 * 256 + ((c >>> 16) & 0xff)] ^ T[4 * 256 + (c >>> 24)]
+                    ^ T[3 * 256 + (b[off + 4] & 0xff)] ^ T[2 * 256 + (b[off + 5] & 0xff)]
+                    ^ T[256 + (b[off + 6] & 0xff)] ^ T[b[off + 7] & 0xff];
+            off += 8;
+        }
+        while (off < end) {
+            c = (c >>> 8) ^ T[(c ^ b[off++]) & 0xff];
+        }
+        crc = c;
+    }
+
+    // 直接从缓冲区（包括直接缓冲区）计算，不复制数据；完成后缓冲区位置移到 limit
+    public void update(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+        int c = crc;
+        int pos = buffer.position();
+        int end = buffer.limit();
+        while (end - pos >= 8) {
+            c ^= (buffer.get(pos) & 0xff) | (buffer.get(pos + 1) & 0xff) << 8
+                    | (buffer.get(pos + 2) & 0xff) << 16 | (buffer.get(pos + 3) & 0xff) << 24;
+            c = T[7 * 256 + (c & 0xff)] ^ T[6 * 256 + ((c >>> 8) & 0xff)]
+                    ^ T[5 * 256 + ((c >>> 16) & 0xff)] ^ T[4 * 256 + (c >>> 24)]
+                    ^ T[3 * 256 + (buffer.get(pos + 4) & 0xff)] ^ T[2 * 256 + (buffer.get(pos + 5) & 0xff)]
+                    ^ T[256 + (buffer.get(pos + 6) & 0xff)] ^ T[buffer.get(pos + 7) & 0xff];
+            pos += 8;
+        }
+        while (pos < end) {
+            c = (c >>> 8) ^ T[(c ^ buffer.get(pos++)) & 0xff];
+        }
+        crc = c;
+        buffer.position(end);
+    }
+
+    @Override
+    public long getValue() {
+        return ~crc & 0xffffffffL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xffffffff;
+    }
+}
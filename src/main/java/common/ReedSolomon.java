@@ -0,0 +1,159 @@
+package common;
+
+import java.util.Arrays;
+
+// GF(2^8) 上的系统 Reed-Solomon 编解码：k 个数据单元原样保存，m 个校验单元由 Cauchy 矩阵生成。
+// 生成矩阵上半部分是单位阵、下半部分是 Cauchy 矩阵，任取 k 行都可逆，因此任意 k 个单元都能恢复全部数据。
+// 编解码按字节位置独立进行，可以只处理单元中的一段区间
+public class ReedSolomon {
+    private static final int PRIMITIVE_POLYNOMIAL = 0x11d;
+    private static final byte[] EXP = new byte[512];
+    private static final int[] LOG = new int[256];
+    private static final byte[][] MUL = new byte[256][256]; // MUL[a][b] = a * b
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = (byte) x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= 256) {
+                x ^= PRIMITIVE_POLYNOMIAL;
+            }
+        }
+        for (int i = 255; i < EXP.length; i++) {
+            EXP[i] = EXP[i - 255];
+        }
+        for (int a = 1; a < 256; a++) {
+            for (int b = 1; b < 256; b++) {
+                MUL[a][b] = EXP[LOG[a] + LOG[b]];
+            }
+        }
+    }
+
+    private final int dataUnits;
+    private final int parityUnits;
+    private final byte[][] matrix; // (k + m) x k 生成矩阵
+
+    public ReedSolomon(int dataUnits, int parityUnits) {
+        if (dataUnits + parityUnits > 256) {
+            throw new IllegalArgumentException("Too many units: " + dataUnits + "+" + parityUnits);
+        }
+        this.dataUnits = dataUnits;
+        this.parityUnits = parityUnits;
+        this.matrix = new byte[dataUnits + parityUnits][dataUnits];
+        for (int i = 0; i < dataUnits; i++) {
+            matrix[i][i] = 1;
+        }
+        // Cauchy 矩阵 1 / (x_i + y_j)，x_i = k + i，y_j = j，两组元素互不相同
+        for (int i = 0; i < parityUnits; i++) {
+            for (int j = 0; j < dataUnits; j++) {
+                matrix[dataUnits + i][j] = inverse((dataUnits + i) ^ j);
+            }
+        }
+    }
+
+    // 由 units[0..k) 的 [offset, offset + length) 计算 units[k..k+m) 的同一区间
+    public void encode(byte[][] units, int offset, int length) {
+        for (int p = 0; p < parityUnits; p++) {
+            byte[] parity = units[dataUnits + p];
+            Arrays.fill(parity, offset, offset + length, (byte) 0);
+            for (int d = 0; d < dataUnits; d++) {
+                mulAdd(matrix[dataUnits + p][d], units[d], parity, offset, length);
+            }
+        }
+    }
+
+    // 用 present 标记的可用单元恢复其余单元的 [offset, offset + length)，至少需要 k 个可用单元；
+    // 所有单元的缓冲区都须已分配，恢复结果写入不可用单元的缓冲区
+    public void decode(byte[][] units, boolean[] present, int offset, int length) {
+        int[] rows = new int[dataUnits];
+        int found = 0;
+        for (int u = 0; u < units.length && found < dataUnits; u++) {
+            if (present[u]) {
+                rows[found++] = u;
+            }
+        }
+        if (found < dataUnits) {
+            throw new IllegalArgumentException("Need " + dataUnits + " units to decode, only " + found + " available");
+        }
+        byte[][] sub = new byte[dataUnits][];
+        for (int i = 0; i < dataUnits; i++) {
+            sub[i] = matrix[rows[i]].clone();
+        }
+        byte[][] inverse = invert(sub);
+        for (int u = 0; u < units.length; u++) {
+            if (present[u]) {
+                continue;
+            }
+            // 目标单元 = 生成矩阵第 u 行 * 逆矩阵 * 选出的 k 个可用单元
+            byte[] coefficients = new byte[dataUnits];
+            for (int j = 0; j < dataUnits; j++) {
+                int sum = 0;
+                for (int i = 0; i < dataUnits; i++) {
+                    sum ^= MUL[matrix[u][i] & 0xff][inverse[i][j] & 0xff];
+                }
+                coefficients[j] = (byte) sum;
+            }
+            Arrays.fill(units[u], offset, offset + length, (byte) 0);
+            for (int j = 0; j < dataUnits; j++) {
+                mulAdd(coefficients[j], units[rows[j]], units[u], offset, length);
+            }
+        }
+    }
+
+    // out ^= coefficient * in
+    private static void mulAdd(byte coefficient, byte[] in, byte[] out, int offset, int length) {
+        if (coefficient == 0) {
+            return;
+        }
+        byte[] table = MUL[coefficient & 0xff];
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            out[i] ^= table[in[i] & 0xff];
+        }
+    }
+
+    private static byte inverse(int a) {
+        return EXP[255 - LOG[a]];
+    }
+
+    // Gauss-Jordan 消元求逆，加法是异或
+    private static byte[][] invert(byte[][] a) {
+        int n = a.length;
+        byte[][] result = new byte[n][n];
+        for (int i = 0; i < n; i++) {
+            result[i][i] = 1;
+        }
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            while (pivot < n && a[pivot][col] == 0) {
+                pivot++;
+            }
+            if (pivot == n) {
+                throw new IllegalStateException("Singular decode matrix");
+            }
+            byte[] swap = a[col];
+            a[col] = a[pivot];
+            a[pivot] = swap;
+            swap = result[col];
+            result[col] = result[pivot];
+            result[pivot] = swap;
+            byte[] scale = MUL[inverse(a[col][col] & 0xff) & 0xff];
+            for (int j = 0; j < n; j++) {
+                a[col][j] = scale[a[col][j] & 0xff];
+                result[col][j] = scale[result[col][j] & 0xff];
+            }
+            for (int row = 0; row < n; row++) {
+                int factor = a[row][col] & 0xff;
+                if (row != col && factor != 0) {
+                    for (int j = 0; j < n; j++) {
+                        a[row][j] ^= MUL[factor][a[col][j] & 0xff];
+                        result[row][j] ^= MUL[factor][result[col][j] & 0xff];
+                    }
+                }
+            }
+        }
+        return result;
+    }
+}
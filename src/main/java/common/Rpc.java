@@ -0,0 +1,107 @@
+package common;
+
+import InterFace.RegistryInter;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.rmi.Naming;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// 导出和查找远程服务的入口，按 Config.RPC_TRANSPORT 选择传输方式：
+// rmi 使用 Java RMI 和 RMI 注册表；nio 使用 RpcServer/RpcClient，名字由注册表进程中的 RegistryInter 服务解析
+public class Rpc {
+    private static final String REGISTRY = "registry";
+
+    private static RpcServer server; // 本进程导出服务用的 NIO 服务器，第一次导出时创建
+
+    private Rpc() {
+    }
+
+    private static boolean useNio() {
+        return "nio".equals(Config.RPC_TRANSPORT);
+    }
+
+    // 在本进程启动注册表
+    public static synchronized void createRegistry() throws RemoteException {
+        if (!useNio()) {
+            LocateRegistry.createRegistry(Config.RPC_REGISTRY_PORT);
+            return;
+        }
+        if (server != null) {
+            throw new RemoteException("Registry must be created before exporting services");
+        }
+        try {
+            server = new RpcServer(new InetSocketAddress(Config.RPC_REGISTRY_HOST, Config.RPC_REGISTRY_PORT));
+        } catch (IOException e) {
+            throw new RemoteException("Cannot start registry on port " + Config.RPC_REGISTRY_PORT, e);
+        }
+        Map<String, InetSocketAddress> names = new ConcurrentHashMap<>();
+        server.register(REGISTRY, RegistryInter.class, new RegistryInter() {
+            @Override
+            public void rebind(String name, InetSocketAddress address) {
+                names.put(name, address);
+            }
+
+            @Override
+            public InetSocketAddress lookup(String name) {
+                return names.get(name);
+            }
+        });
+        server.start();
+    }
+
+    // 导出 impl 并以 name 注册，type 是它实现的远程接口；每个方法的调用次数、失败数和延迟记入组件 name 的指标
+    public static synchronized <T extends Remote> void bind(String name, T impl, Class<T> type) throws RemoteException {
+        impl = Metrics.get(name).instrument(impl, type);
+        if (!useNio()) {
+            try {
+                UnicastRemoteObject.exportObject(impl, 0);
+                Naming.rebind(registryUrl(name), impl);
+            } catch (MalformedURLException e) {
+                throw new RemoteException("Invalid name " + name, e);
+            }
+            return;
+        }
+        try {
+            if (server == null) {
+                server = new RpcServer(new InetSocketAddress(Config.RPC_HOST, 0));
+                server.start();
+            }
+            server.register(name, type, impl);
+            registry().rebind(name, server.getAddress());
+        } catch (IOException e) {
+            throw new RemoteException("Cannot export " + name, e);
+        }
+    }
+
+    // 查找以 name 注册的服务，返回实现 type 接口的代理
+    public static <T extends Remote> T lookup(String name, Class<T> type) throws RemoteException {
+        if (!useNio()) {
+            try {
+                return type.cast(Naming.lookup(registryUrl(name)));
+            } catch (NotBoundException | MalformedURLException e) {
+                throw new RemoteException("Cannot find " + name, e);
+            }
+        }
+        InetSocketAddress address = registry().lookup(name);
+        if (address == null) {
+            throw new RemoteException(name + " is not bound");
+        }
+        return RpcClient.proxy(address, name, type);
+    }
+
+    private static RegistryInter registry() {
+        return RpcClient.proxy(new InetSocketAddress(Config.RPC_REGISTRY_HOST, Config.RPC_REGISTRY_PORT), REGISTRY, RegistryInter.class);
+    }
+
+    private static String registryUrl(String name) {
+        return "//" + Config.RPC_REGISTRY_HOST + ":" + Config.RPC_REGISTRY_PORT + "/" + name;
+    }
+}
@@ -0,0 +1,178 @@
+package common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// NIO RPC 的客户端：到每个对端只建立一个连接，所有线程的调用在这个连接上多路复用，
+// 发出请求后不等待应答即可发送下一个（流水线），由接收线程按调用编号把应答交给等待的调用方
+public class RpcClient {
+    private static final Map<InetSocketAddress, RpcClient> CLIENTS = new ConcurrentHashMap<>(); // 每个对端一个连接
+
+    private final InetSocketAddress address;
+    private final SocketChannel channel;
+    private final Object writeLock = new Object();
+    private final AtomicInteger nextCallId = new AtomicInteger();
+    private final Map<Integer, CompletableFuture<Object>> calls = new ConcurrentHashMap<>(); // 已发出、尚未收到应答的调用
+    private volatile boolean closed;
+
+    private RpcClient(InetSocketAddress address) throws IOException {
+        this.address = address;
+        this.channel = DataTransfer.connect(address);
+        Thread receiver = new Thread(this::receive, "rpc-client-" + address);
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    // 返回到 address 的共享连接，连接断开后下次调用时重新建立
+    public static RpcClient get(InetSocketAddress address) throws IOException {
+        RpcClient client = CLIENTS.get(address);
+        if (client == null || client.closed) {
+            synchronized (CLIENTS) {
+                client = CLIENTS.get(address);
+                if (client == null || client.closed) {
+                    client = new RpcClient(address);
+                    CLIENTS.put(address, client);
+                }
+            }
+        }
+        return client;
+    }
+
+    // 创建实现 type 接口的代理，方法调用转为对 address 上名为 name 的服务的远程调用
+    public static <T> T proxy(InetSocketAddress address, String name, Class<T> type) {
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (self, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return self == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(self);
+                    default:
+                        return "RpcProxy[" + name + "@" + address + "]";
+                }
+            }
+            RpcClient client;
+            try {
+                client = get(address);
+            } catch (IOException e) {
+                throw new RemoteException("Cannot connect to " + name + " at " + address, e);
+            }
+            return client.call(name, type, method, args);
+        });
+        return type.cast(proxy);
+    }
+
+    public Object call(String name, Class<?> type, Method method, Object[] args) throws RemoteException {
+        int callId = nextCallId.incrementAndGet();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0); // 长度占位
+            out.writeInt(callId);
+            RpcCodec.writeString(out, name);
+            out.writeShort(RpcCodec.methodId(type, method));
+            out.writeByte(args == null ? 0 : args.length);
+            if (args != null) {
+                for (Object arg : args) {
+                    RpcCodec.writeValue(out, arg);
+                }
+            }
+        } catch (IOException e) {
+            throw new RemoteException("Cannot encode arguments of " + method.getName(), e);
+        }
+        ByteBuffer request = ByteBuffer.wrap(bytes.toByteArray());
+        request.putInt(0, request.remaining() - 4);
+
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        calls.put(callId, result);
+        try {
+            synchronized (writeLock) {
+                DataTransfer.writeFully(channel, request);
+            }
+            return result.get(Config.RPC_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (IOException e) {
+            close(e);
+            throw new RemoteException("Call " + name + "." + method.getName() + " to " + address + " failed", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RemoteException ? (RemoteException) e.getCause()
+                    : new RemoteException("Call " + name + "." + method.getName() + " failed", e.getCause());
+        } catch (TimeoutException e) {
+            throw new RemoteException("Call " + name + "." + method.getName() + " to " + address + " timed out");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while calling " + name + "." + method.getName());
+        } finally {
+            calls.remove(callId);
+        }
+    }
+
+    // 接收线程：读出应答帧，交给对应的调用
+    private void receive() {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        try {
+            while (true) {
+                header.clear();
+                DataTransfer.readFully(channel, header);
+                int length = header.getInt(0);
+                if (length <= 0 || length > Config.RPC_MAX_FRAME_SIZE) {
+                    throw new IOException("Invalid RPC frame length " + length);
+                }
+                ByteBuffer frame = ByteBuffer.allocate(length);
+                DataTransfer.readFully(channel, frame);
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame.array()));
+                CompletableFuture<Object> call = calls.get(in.readInt());
+                byte status = in.readByte();
+                Object value = RpcCodec.readValue(in);
+                if (call == null) {
+                    continue; // 调用方已超时放弃
+                }
+                if (status == RpcServer.STATUS_SUCCESS) {
+                    call.complete(value);
+                } else {
+                    call.completeExceptionally(new RemoteException("Remote error from " + address + ": " + value));
+                }
+            }
+        } catch (IOException e) {
+            close(e);
+        } catch (RuntimeException | Error e) {
+            // 应答解码失败时连接上的帧已无法对齐，同样断开连接，否则等待中的调用要到超时才返回
+            close(new IOException("Cannot decode RPC response from " + address, e));
+            if (e instanceof Error) {
+                throw e;
+            }
+        }
+    }
+
+    // 连接断开：所有未完成的调用失败，之后的调用重新建立连接
+    private void close(IOException cause) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        CLIENTS.remove(address, this);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 已经断开
+        }
+        for (CompletableFuture<Object> call : calls.values()) {
+            call.completeExceptionally(new RemoteException("Connection to " + address + " closed", cause));
+        }
+    }
+}
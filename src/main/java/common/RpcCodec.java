@@ -0,0 +1,262 @@
+package common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// NIO RPC 的二进制编码：每个值以一个类型字节开头，后面是该类型的紧凑表示，
+// 只支持 NameNodeInter、DataNodeInter 等接口中出现的类型，比 Java 序列化少了类描述和对象图开销
+public class RpcCodec {
+    private static final byte NULL = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte INT = 2;
+    private static final byte LONG = 3;
+    private static final byte STRING = 4;
+    private static final byte LONG_ARRAY = 5;
+    private static final byte LIST = 6;
+    private static final byte ADDRESS = 7;
+    private static final byte BLOCK_INFO = 8;
+    private static final byte INODE = 9;
+    private static final byte DATANODE_INFO = 10;
+    private static final byte DATANODE_COMMAND = 11;
+    private static final byte DIRECTORY_LISTING = 12;
+    private static final byte BLOCK_LOCAL_PATH_INFO = 13;
+    private static final byte STORAGE_REPORT = 14;
+
+    private static final Map<Class<?>, Method[]> METHODS = new ConcurrentHashMap<>();
+
+    private RpcCodec() {
+    }
+
+    // 接口的方法按签名排序后的下标即方法编号，两端对同一个接口算出的编号相同
+    public static Method[] methods(Class<?> type) {
+        return METHODS.computeIfAbsent(type, t -> {
+            Method[] methods = t.getMethods();
+            Arrays.sort(methods, Comparator.comparing(Method::toGenericString));
+            return methods;
+        });
+    }
+
+    public static int methodId(Class<?> type, Method method) {
+        Method[] methods = methods(type);
+        for (int i = 0; i < methods.length; i++) {
+            if (methods[i].equals(method)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(method + " is not a method of " + type.getName());
+    }
+
+    public static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof long[]) {
+            long[] array = (long[]) value;
+            out.writeByte(LONG_ARRAY);
+            out.writeInt(array.length);
+            for (long item : array) {
+                out.writeLong(item);
+            }
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(LIST);
+            out.writeInt(list.size());
+            for (Object item : list) {
+                writeValue(out, item);
+            }
+        } else if (value instanceof InetSocketAddress) {
+            InetSocketAddress address = (InetSocketAddress) value;
+            out.writeByte(ADDRESS);
+            writeString(out, address.getHostString());
+            out.writeInt(address.getPort());
+        } else if (value instanceof BlockInfo) {
+            BlockInfo block = (BlockInfo) value;
+            out.writeByte(BLOCK_INFO);
+            writeString(out, block.getBlockId());
+            writeValue(out, block.getLocations());
+            writeString(out, block.getEcPolicy());
+            out.writeLong(block.getLength());
+            writeString(out, block.getCodec());
+            out.writeLong(block.getPackedOffset());
+            out.writeLong(block.getOffset());
+            out.writeLong(block.getSize());
+        } else if (value instanceof Inode) {
+            Inode inode = (Inode) value;
+            out.writeByte(INODE);
+            out.writeLong(inode.getId());
+            out.writeShort(inode.getNameBytes().length);
+            out.write(inode.getNameBytes());
+            out.writeLong(inode.getFileSize());
+            out.writeLong(inode.getCreationTime());
+            writeString(out, inode.getOwner());
+            writeString(out, inode.getGroup());
+            out.writeBoolean(inode.isDirectory());
+            out.writeBoolean(inode.getStatus());
+            writeString(out, inode.getPath());
+        } else if (value instanceof DataNodeInfo) {
+            DataNodeInfo info = (DataNodeInfo) value;
+            out.writeByte(DATANODE_INFO);
+            writeString(out, info.getName());
+            writeValue(out, info.getTransferAddress());
+            out.writeLong(info.getCapacity());
+            out.writeLong(info.getUsed());
+            out.writeLong(info.getRemaining());
+            out.writeInt(info.getActiveTransfers());
+            writeValue(out, info.getStorageReports());
+        } else if (value instanceof StorageReport) {
+            StorageReport report = (StorageReport) value;
+            out.writeByte(STORAGE_REPORT);
+            writeString(out, report.getStorageDir());
+            out.writeBoolean(report.isFailed());
+            out.writeLong(report.getCapacity());
+            out.writeLong(report.getUsed());
+            out.writeLong(report.getRemaining());
+        } else if (value instanceof DataNodeCommand) {
+            DataNodeCommand command = (DataNodeCommand) value;
+            out.writeByte(DATANODE_COMMAND);
+            out.writeInt(command.getAction());
+            writeString(out, command.getBlockId());
+            writeValue(out, command.getTargetNames());
+            writeValue(out, command.getTargets());
+            writeValue(out, command.getBlockIds());
+            writeString(out, command.getEcPolicy());
+            out.writeLong(command.getLength());
+            writeValue(out, command.getSources());
+            writeValue(out, command.getTargetUnits());
+        } else if (value instanceof DirectoryListing) {
+            DirectoryListing listing = (DirectoryListing) value;
+            out.writeByte(DIRECTORY_LISTING);
+            writeValue(out, listing.getEntries());
+            writeString(out, listing.getLastName());
+            out.writeBoolean(listing.hasMore());
+        } else if (value instanceof BlockLocalPathInfo) {
+            BlockLocalPathInfo info = (BlockLocalPathInfo) value;
+            out.writeByte(BLOCK_LOCAL_PATH_INFO);
+            writeString(out, info.getBlockId());
+            writeString(out, info.getPath());
+            out.writeLong(info.getOffset());
+            out.writeLong(info.getLength());
+            out.writeInt(info.getBytesPerChecksum());
+        } else {
+            throw new IOException("Unsupported RPC value type " + value.getClass().getName());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case BOOLEAN:
+                return in.readBoolean();
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case STRING:
+                return readString(in);
+            case LONG_ARRAY: {
+                long[] array = new long[in.readInt()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readLong();
+                }
+                return array;
+            }
+            case LIST: {
+                int size = in.readInt();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            }
+            case ADDRESS:
+                return new InetSocketAddress(readString(in), in.readInt());
+            case BLOCK_INFO: {
+                String blockId = readString(in);
+                List<String> locations = (List<String>) readValue(in);
+                String ecPolicy = readString(in);
+                long length = in.readLong();
+                String codec = readString(in);
+                long packedOffset = in.readLong();
+                BlockInfo block = packedOffset >= 0 ? new BlockInfo(blockId, locations, packedOffset, length)
+                        : new BlockInfo(blockId, locations, ecPolicy, length, codec);
+                block.setFileRange(in.readLong(), in.readLong());
+                return block;
+            }
+            case INODE: {
+                long id = in.readLong();
+                byte[] name = new byte[in.readUnsignedShort()];
+                in.readFully(name);
+                long fileSize = in.readLong();
+                long creationTime = in.readLong();
+                String owner = readString(in);
+                String group = readString(in);
+                Inode inode = new Inode(id, name, owner, in.readBoolean(), creationTime);
+                inode.setFileSize(fileSize);
+                inode.setGroup(group);
+                inode.setStatus(in.readBoolean());
+                inode.setDetachedPath(readString(in));
+                return inode;
+            }
+            case DATANODE_INFO:
+                return new DataNodeInfo(readString(in), (InetSocketAddress) readValue(in),
+                        in.readLong(), in.readLong(), in.readLong(), in.readInt(), (List<StorageReport>) readValue(in));
+            case STORAGE_REPORT:
+                return new StorageReport(readString(in), in.readBoolean(), in.readLong(), in.readLong(), in.readLong());
+            case DATANODE_COMMAND:
+                return new DataNodeCommand(in.readInt(), readString(in), (List<String>) readValue(in),
+                        (List<InetSocketAddress>) readValue(in), (List<String>) readValue(in), readString(in),
+                        in.readLong(), (List<InetSocketAddress>) readValue(in), (List<Integer>) readValue(in));
+            case DIRECTORY_LISTING:
+                return new DirectoryListing((List<String>) readValue(in), readString(in), in.readBoolean());
+            case BLOCK_LOCAL_PATH_INFO:
+                return new BlockLocalPathInfo(readString(in), readString(in), in.readLong(), in.readLong(), in.readInt());
+            default:
+                throw new IOException("Unknown RPC value type " + type);
+        }
+    }
+
+    // 可以为 null 的字符串，长度 -1 表示 null
+    public static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
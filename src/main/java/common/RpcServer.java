@@ -0,0 +1,274 @@
+package common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// 基于 NIO selector 的 RPC 服务端：一个线程负责所有连接的读写，请求交给处理线程池并发执行，
+// 同一连接上的多个请求可以同时在处理中，应答按完成顺序写回，由调用编号与请求对应
+//
+// 请求帧: [int 长度][int 调用编号][服务名][short 方法编号][byte 参数个数][参数...]
+// 应答帧: [int 长度][int 调用编号][byte 状态][返回值或错误信息]，值的编码见 RpcCodec
+public class RpcServer {
+    public static final byte STATUS_SUCCESS = 0;
+    public static final byte STATUS_ERROR = 1;
+
+    private final Map<String, Service> services = new ConcurrentHashMap<>(); // 服务名到实现的映射
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final ThreadPoolExecutor handlers;
+    private final Metrics metrics = Metrics.get("rpcServer"); // 每个进程只有一个 RPC 服务器
+    private final LongAdder bytesIn = metrics.counter("bytesIn");
+    private final LongAdder bytesOut = metrics.counter("bytesOut");
+    private final Metrics.Operation callQueue = metrics.operation("callQueue"); // 请求读完到开始处理的等待时间
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>(); // 有应答待写出的连接
+
+    // 一个导出的对象及其远程接口
+    private static class Service {
+        final Class<?> type;
+        final Object impl;
+
+        Service(Class<?> type, Object impl) {
+            this.type = type;
+            this.impl = impl;
+        }
+    }
+
+    private class Connection {
+        final SocketChannel channel;
+        final SelectionKey key;
+        final ByteBuffer header = ByteBuffer.allocate(4);
+        ByteBuffer frame; // 正在读取的请求帧，读完长度后分配
+        final Queue<ByteBuffer> writes = new ArrayDeque<>(); // 待写出的应答，由 this 锁保护
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        void send(ByteBuffer response) {
+            synchronized (this) {
+                writes.add(response);
+            }
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+    }
+
+    public RpcServer(InetSocketAddress address) throws IOException {
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(address);
+        this.serverChannel.configureBlocking(false);
+        this.selector = Selector.open();
+        this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.handlers = new ThreadPoolExecutor(Config.RPC_HANDLERS, Config.RPC_HANDLERS, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "rpc-handler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        metrics.gauge("handlerQueue", () -> handlers.getQueue().size());
+        metrics.gauge("activeHandlers", handlers::getActiveCount);
+    }
+
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    public void register(String name, Class<?> type, Object impl) {
+        services.put(name, new Service(type, impl));
+    }
+
+    public void start() {
+        Thread thread = new Thread(this::run, "rpc-selector-" + serverChannel.socket().getLocalPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() throws IOException {
+        selector.close();
+        serverChannel.close();
+        handlers.shutdownNow();
+    }
+
+    private void run() {
+        while (selector.isOpen()) {
+            try {
+                selector.select();
+                Connection pending;
+                while ((pending = pendingWrites.poll()) != null) {
+                    if (pending.key.isValid()) {
+                        pending.key.interestOps(pending.key.interestOps() | SelectionKey.OP_WRITE);
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            Connection connection = (Connection) key.attachment();
+                            if (key.isReadable()) {
+                                read(connection);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(connection);
+                            }
+                        }
+                    } catch (IOException e) {
+                        // 对端断开或连接出错，关闭该连接
+                        key.cancel();
+                        key.channel().close();
+                    }
+                }
+            } catch (IOException e) {
+                if (selector.isOpen()) {
+                    e.printStackTrace();
+                }
+            } catch (RuntimeException e) {
+                if (selector.isOpen()) {
+                    e.printStackTrace();
+                } else {
+                    return; // 服务已关闭
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+    // 读出所有已到达的完整请求帧，逐个交给处理线程
+    private void read(Connection connection) throws IOException {
+        while (true) {
+            if (connection.frame == null) {
+                if (connection.channel.read(connection.header) < 0) {
+                    throw new IOException("Connection closed");
+                }
+                if (connection.header.hasRemaining()) {
+                    return;
+                }
+                int length = connection.header.getInt(0);
+                if (length <= 0 || length > Config.RPC_MAX_FRAME_SIZE) {
+                    throw new IOException("Invalid RPC frame length " + length);
+                }
+                connection.frame = ByteBuffer.allocate(length);
+            }
+            if (connection.channel.read(connection.frame) < 0) {
+                throw new IOException("Connection closed");
+            }
+            if (connection.frame.hasRemaining()) {
+                return;
+            }
+            byte[] request = connection.frame.array();
+            connection.frame = null;
+            connection.header.clear();
+            bytesIn.add(4 + request.length);
+            long received = System.nanoTime();
+            handlers.execute(() -> {
+                callQueue.record(received, false);
+                handle(connection, request);
+            });
+        }
+    }
+
+    private void write(Connection connection) throws IOException {
+        synchronized (connection) {
+            while (!connection.writes.isEmpty()) {
+                ByteBuffer buffer = connection.writes.peek();
+                connection.channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    return; // 发送缓冲区已满，等下次可写
+                }
+                connection.writes.poll();
+            }
+            connection.key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    // 在处理线程中解码请求、调用实现并写回应答
+    private void handle(Connection connection, byte[] request) {
+        int callId = 0;
+        byte status;
+        Object result;
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(request));
+            callId = in.readInt();
+            String name = RpcCodec.readString(in);
+            int methodId = in.readUnsignedShort();
+            Object[] args = new Object[in.readUnsignedByte()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = RpcCodec.readValue(in);
+            }
+            Service service = services.get(name);
+            if (service == null) {
+                throw new IOException("Service " + name + " is not bound");
+            }
+            Method[] methods = RpcCodec.methods(service.type);
+            if (methodId >= methods.length) {
+                throw new IOException("Unknown method " + methodId + " of " + name);
+            }
+            result = methods[methodId].invoke(service.impl, args);
+            status = STATUS_SUCCESS;
+        } catch (InvocationTargetException e) {
+            status = STATUS_ERROR;
+            result = String.valueOf(e.getCause());
+        } catch (Exception e) {
+            status = STATUS_ERROR;
+            result = String.valueOf(e);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0); // 长度占位
+            out.writeInt(callId);
+            try {
+                ByteArrayOutputStream value = new ByteArrayOutputStream(256);
+                RpcCodec.writeValue(new DataOutputStream(value), result);
+                out.writeByte(status);
+                value.writeTo(out);
+            } catch (IOException e) {
+                // 返回值无法编码
+                out.writeByte(STATUS_ERROR);
+                RpcCodec.writeValue(out, String.valueOf(e));
+            }
+        } catch (IOException e) {
+            // 写入内存缓冲区不会失败
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer response = ByteBuffer.wrap(bytes.toByteArray());
+        response.putInt(0, response.remaining() - 4);
+        bytesOut.add(response.remaining());
+        connection.send(response);
+    }
+}
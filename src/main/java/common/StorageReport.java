@@ -0,0 +1,47 @@
+package common;
+
+import java.io.Serializable;
+
+// DataNode 一个存储卷的状态，随心跳上报：卷所在目录、是否已失效，以及容量、已用空间和剩余空间
+public class StorageReport implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String storageDir;
+    private final boolean failed;
+    private final long capacity;
+    private final long used;
+    private final long remaining;
+
+    public StorageReport(String storageDir, boolean failed, long capacity, long used, long remaining) {
+        this.storageDir = storageDir;
+        this.failed = failed;
+        this.capacity = capacity;
+        this.used = used;
+        this.remaining = remaining;
+    }
+
+    public String getStorageDir() {
+        return storageDir;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getUsed() {
+        return used;
+    }
+
+    public long getRemaining() {
+        return remaining;
+    }
+
+    @Override
+    public String toString() {
+        return storageDir + (failed ? "{failed}" : "{capacity=" + capacity + ", used=" + used + ", remaining=" + remaining + "}");
+    }
+}
@@ -0,0 +1,364 @@
+package server;
+
+import common.DataChecksum;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+// DataNode 的堆外热块缓存，缓存已校验过的块数据及其校验和，命中时不再读盘和校验。
+// 内存按 PAGE_SIZE 大小的页从直接内存的大块中分配，用到时才申请，淘汰的页放回空闲列表复用，不依赖 GC 释放。
+// 淘汰采用 2Q：第一次读到的块进入 FIFO 队列 a1in，从 a1in 淘汰后只在 a1out 中留下块ID；
+// 块ID仍在 a1out 中时再次读到，说明是反复读取的热块，进入 LRU 队列 am。
+// 一次大的顺序扫描只会在 a1in 中轮转，不会冲掉 am 中的热块。钉住的块不参与淘汰，直到解除钉住
+public class BlockCache {
+    static final int PAGE_SIZE = 64 * 1024;
+    private static final int PAGES_PER_SLAB = 64; // 每次向直接内存申请 4MB
+
+    // 缓存的一个块：[数据][校验和] 依次存放在若干页中
+    public static class Entry {
+        final String blockId;
+        final int length; // 数据长度
+        final int bytesPerChecksum;
+        final int storedLength; // 数据和校验和一共占用的字节数
+        final ByteBuffer[] pages;
+        int refs; // 正在读取的读者数，由缓存的锁保护
+        boolean evicted; // 已从缓存移除，读者都释放后归还页
+        boolean pinned;
+
+        Entry(String blockId, int length, int bytesPerChecksum, int storedLength, ByteBuffer[] pages) {
+            this.blockId = blockId;
+            this.length = length;
+            this.bytesPerChecksum = bytesPerChecksum;
+            this.storedLength = storedLength;
+            this.pages = pages;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public int getBytesPerChecksum() {
+            return bytesPerChecksum;
+        }
+
+        // 把 [position, position + count) 复制到 dst，position 是相对于存储内容起点的偏移
+        void copy(long position, ByteBuffer dst, int count) {
+            while (count > 0) {
+                int page = (int) (position / PAGE_SIZE);
+                int offset = (int) (position % PAGE_SIZE);
+                int n = Math.min(count, PAGE_SIZE - offset);
+                ByteBuffer src = pages[page].duplicate();
+                src.position(offset).limit(offset + n);
+                dst.put(src);
+                position += n;
+                count -= n;
+            }
+        }
+
+        // 读出数据的 [position, position + count) 写入 dst
+        public void readData(long position, ByteBuffer dst, int count) {
+            copy(position, dst, count);
+        }
+
+        // 数据 [position, position + count) 所在各页的视图，用于直接写往 socket
+        public ByteBuffer[] dataSlices(long position, int count) {
+            int first = (int) (position / PAGE_SIZE);
+            int last = (int) ((position + count - 1) / PAGE_SIZE);
+            ByteBuffer[] slices = new ByteBuffer[last - first + 1];
+            for (int page = first; page <= last; page++) {
+                ByteBuffer slice = pages[page].duplicate();
+                long start = Math.max(position, (long) page * PAGE_SIZE) - (long) page * PAGE_SIZE;
+                long end = Math.min(position + count, (long) (page + 1) * PAGE_SIZE) - (long) page * PAGE_SIZE;
+                slice.limit((int) end).position((int) start);
+                slices[page - first] = slice;
+            }
+            return slices;
+        }
+
+        // 覆盖数据 [position, position + count) 的校验和，position 须是校验块的起点
+        public ByteBuffer readChecksums(long position, long count) {
+            int chunks = DataChecksum.chunkCount(count, bytesPerChecksum);
+            ByteBuffer checksums = ByteBuffer.allocate(chunks * DataChecksum.CHECKSUM_SIZE);
+            copy(length + position / bytesPerChecksum * DataChecksum.CHECKSUM_SIZE, checksums, checksums.capacity());
+            checksums.flip();
+            return checksums;
+        }
+    }
+
+    private final long capacity;
+    private final long a1inCapacity; // a1in 最多占用的字节数
+    private final int ghostEntries; // a1out 最多记录的块ID数
+    private final LinkedHashMap<String, Entry> a1in = new LinkedHashMap<>(); // 插入顺序
+    private final LinkedHashMap<String, Entry> am = new LinkedHashMap<>(16, 0.75f, true); // 访问顺序
+    private final LinkedHashSet<String> a1out = new LinkedHashSet<>();
+    private final Map<String, Entry> pinned = new HashMap<>();
+    private final Deque<ByteBuffer> freePages = new ArrayDeque<>();
+    private long allocatedPages; // 已从直接内存申请的页数
+    private long a1inBytes;
+    private long usedBytes; // 所有未淘汰条目占用的页的字节数
+    private long pinnedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public BlockCache(long capacity, double a1inRatio, int ghostEntries) {
+        this.capacity = capacity / PAGE_SIZE * PAGE_SIZE;
+        this.a1inCapacity = (long) (this.capacity * a1inRatio);
+        this.ghostEntries = ghostEntries;
+    }
+
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    // 查找块，命中时增加引用，读完后须调用 release；未命中返回 null
+    public synchronized Entry get(String blockId) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Entry entry = pinned.get(blockId);
+        if (entry == null) {
+            entry = am.get(blockId); // 同时移到 LRU 队尾
+        }
+        if (entry == null) {
+            entry = a1in.get(blockId); // 2Q 中 a1in 的命中不改变顺序
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        entry.refs++;
+        return entry;
+    }
+
+    public synchronized void release(Entry entry) {
+        entry.refs--;
+        if (entry.evicted && entry.refs == 0) {
+            freePages(entry);
+        }
+    }
+
+    // 放入一个已校验过的块及其校验和，块ID在 a1out 中时直接进入 am，pin 为 true 时钉住；
+    // 放不下时淘汰未钉住的块，仍放不下时不缓存，返回 false
+    public synchronized boolean put(String blockId, int bytesPerChecksum, ByteBuffer data, ByteBuffer checksums, boolean pin) {
+        if (!isEnabled()) {
+            return false;
+        }
+        Entry existing = lookup(blockId);
+        if (existing != null) {
+            if (pin && !existing.pinned) {
+                pinEntry(existing);
+            }
+            return true;
+        }
+        int length = data.remaining();
+        int storedLength = length + checksums.remaining();
+        long needed = pageCount(storedLength) * (long) PAGE_SIZE;
+        if (needed > capacity - pinnedBytes) {
+            return false;
+        }
+        boolean hot = a1out.remove(blockId);
+        while (usedBytes + needed > capacity && evictOne()) {
+            // 淘汰直到放得下
+        }
+        if (usedBytes + needed > capacity) {
+            return false;
+        }
+        ByteBuffer[] pages = new ByteBuffer[pageCount(storedLength)];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = allocatePage();
+        }
+        fill(pages, 0, data.duplicate());
+        fill(pages, length, checksums.duplicate());
+        Entry entry = new Entry(blockId, length, bytesPerChecksum, storedLength, pages);
+        usedBytes += needed;
+        if (pin) {
+            entry.pinned = true;
+            pinned.put(blockId, entry);
+            pinnedBytes += needed;
+        } else if (hot) {
+            am.put(blockId, entry);
+        } else {
+            a1in.put(blockId, entry);
+            a1inBytes += needed;
+        }
+        return true;
+    }
+
+    // 解除钉住，块作为热块留在 am 中，之后按 LRU 淘汰
+    public synchronized boolean unpin(String blockId) {
+        Entry entry = pinned.remove(blockId);
+        if (entry == null) {
+            return false;
+        }
+        entry.pinned = false;
+        pinnedBytes -= pageCount(entry.storedLength) * (long) PAGE_SIZE;
+        am.put(blockId, entry);
+        return true;
+    }
+
+    public synchronized boolean isPinned(String blockId) {
+        return pinned.containsKey(blockId);
+    }
+
+    // 块被删除或覆盖后移除缓存的内容
+    public synchronized void invalidate(String blockId) {
+        a1out.remove(blockId);
+        Entry entry = pinned.remove(blockId);
+        if (entry != null) {
+            pinnedBytes -= pageCount(entry.storedLength) * (long) PAGE_SIZE;
+        } else if ((entry = am.remove(blockId)) == null && (entry = a1in.remove(blockId)) != null) {
+            a1inBytes -= pageCount(entry.storedLength) * (long) PAGE_SIZE;
+        }
+        if (entry != null) {
+            remove(entry);
+        }
+    }
+
+    // 流式读取整个块未命中时调用：块ID已在 a1out 中（近期读过）时返回 true，调用方应把它载入缓存，
+    // 否则只记入 a1out。只读一次的块不复制进缓存，顺序扫描不增加额外的读盘和校验
+    public synchronized boolean shouldAdmit(String blockId) {
+        if (!isEnabled() || lookup(blockId) != null) {
+            return false;
+        }
+        if (a1out.contains(blockId)) {
+            return true;
+        }
+        addGhost(blockId);
+        return false;
+    }
+
+    // 把 src 从第 position 个字节起写入各页
+    private static void fill(ByteBuffer[] pages, long position, ByteBuffer src) {
+        while (src.hasRemaining()) {
+            int page = (int) (position / PAGE_SIZE);
+            int offset = (int) (position % PAGE_SIZE);
+            int n = Math.min(src.remaining(), PAGE_SIZE - offset);
+            ByteBuffer chunk = src.duplicate();
+            chunk.limit(chunk.position() + n);
+            ByteBuffer dst = pages[page].duplicate();
+            dst.clear();
+            dst.position(offset);
+            dst.put(chunk);
+            src.position(src.position() + n);
+            position += n;
+        }
+    }
+
+    private void addGhost(String blockId) {
+        a1out.add(blockId);
+        if (a1out.size() > ghostEntries) {
+            Iterator<String> ghosts = a1out.iterator();
+            ghosts.next();
+            ghosts.remove();
+        }
+    }
+
+    private Entry lookup(String blockId) {
+        Entry entry = pinned.get(blockId);
+        if (entry == null) {
+            entry = am.containsKey(blockId) ? am.get(blockId) : a1in.get(blockId);
+        }
+        return entry;
+    }
+
+    private void pinEntry(Entry entry) {
+        long bytes = pageCount(entry.storedLength) * (long) PAGE_SIZE;
+        if (am.remove(entry.blockId) == null && a1in.remove(entry.blockId) != null) {
+            a1inBytes -= bytes;
+        }
+        entry.pinned = true;
+        pinned.put(entry.blockId, entry);
+        pinnedBytes += bytes;
+    }
+
+    // 淘汰一个块：a1in 超过配额或 am 为空时淘汰 a1in 最早进入的块并记入 a1out，否则淘汰 am 最久未用的块
+    private boolean evictOne() {
+        Entry victim;
+        if (!a1in.isEmpty() && (a1inBytes > a1inCapacity || am.isEmpty())) {
+            Iterator<Entry> it = a1in.values().iterator();
+            victim = it.next();
+            it.remove();
+            a1inBytes -= pageCount(victim.storedLength) * (long) PAGE_SIZE;
+            addGhost(victim.blockId);
+        } else if (!am.isEmpty()) {
+            Iterator<Entry> it = am.values().iterator();
+            victim = it.next();
+            it.remove();
+        } else {
+            return false;
+        }
+        evictions++;
+        remove(victim);
+        return true;
+    }
+
+    private void remove(Entry entry) {
+        usedBytes -= pageCount(entry.storedLength) * (long) PAGE_SIZE;
+        entry.evicted = true;
+        if (entry.refs == 0) {
+            freePages(entry);
+        }
+    }
+
+    private void freePages(Entry entry) {
+        for (ByteBuffer page : entry.pages) {
+            freePages.push(page);
+        }
+    }
+
+    private ByteBuffer allocatePage() {
+        if (freePages.isEmpty()) {
+            // 正在被读者引用的已淘汰条目尚未归还页，此时临时多申请，读者释放后进入空闲列表
+            ByteBuffer slab = ByteBuffer.allocateDirect(PAGE_SIZE * PAGES_PER_SLAB);
+            for (int i = 0; i < PAGES_PER_SLAB; i++) {
+                slab.limit((i + 1) * PAGE_SIZE).position(i * PAGE_SIZE);
+                freePages.push(slab.slice());
+            }
+            allocatedPages += PAGES_PER_SLAB;
+        }
+        return freePages.pop();
+    }
+
+    private static int pageCount(int storedLength) {
+        return Math.max(1, (storedLength + PAGE_SIZE - 1) / PAGE_SIZE);
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized long getPinnedBytes() {
+        return pinnedBytes;
+    }
+
+    // 已从直接内存申请的字节数
+    public synchronized long getAllocatedBytes() {
+        return allocatedPages * PAGE_SIZE;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    // 命中率百分比，没有访问时为 0
+    public synchronized long getHitRatioPercent() {
+        long total = hits + misses;
+        return total == 0 ? 0 : hits * 100 / total;
+    }
+}
@@ -0,0 +1,11 @@
+package server;
+
+import java.util.List;
+import java.util.Set;
+
+// 块副本放置策略，由 Config.BLOCK_PLACEMENT_POLICY 指定实现类
+public interface BlockPlacementPolicy {
+    // 从 candidates 中为一个块选出最多 replication 个互不相同的 DataNode，跳过 excluded 中的节点；
+    // 返回顺序即写入 pipeline 的顺序，可用节点不足时返回的节点数少于 replication
+    List<DataNodeDescriptor> chooseTargets(int replication, List<DataNodeDescriptor> candidates, Set<String> excluded);
+}
@@ -0,0 +1,72 @@
+package server;
+
+import common.ChecksumException;
+import common.Config;
+import common.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+// 后台块扫描器：每隔 SCAN_PERIOD 用存储的校验和把本节点的所有块校验一遍，读盘速度受 SCAN_BANDWIDTH 限制，
+// 发现损坏的副本后立即上报，让 NameNode 在客户端读到坏数据之前从其他副本补齐
+public class BlockScanner {
+    private final String name;
+    private final BlockStore blockStore;
+    private final Consumer<String> corruptBlock; // 发现损坏的块后的回调，参数为块ID
+    private final Throttler throttler = new Throttler(Config.SCAN_BANDWIDTH);
+    private final Thread thread;
+
+    public BlockScanner(String name, BlockStore blockStore, Consumer<String> corruptBlock) {
+        this.name = name;
+        this.blockStore = blockStore;
+        this.corruptBlock = corruptBlock;
+        this.thread = new Thread(this::run, name + "-block-scanner");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public void stop() {
+        thread.interrupt();
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long start = System.currentTimeMillis();
+                scan();
+                Thread.sleep(Math.max(0, start + Config.SCAN_PERIOD - System.currentTimeMillis()));
+            }
+        } catch (InterruptedException | InterruptedIOException e) {
+            // 节点关闭
+        }
+    }
+
+    // 校验一遍当前的所有块；扫描期间新写入的块留到下一轮
+    private void scan() throws InterruptedIOException {
+        long start = System.currentTimeMillis();
+        List<String> blockIds = blockStore.listBlocks();
+        int corrupt = 0;
+        for (String blockId : blockIds) {
+            try {
+                blockStore.verify(blockId, throttler);
+            } catch (ChecksumException e) {
+                corrupt++;
+                Log.info("Block scanner on " + name + " found a corrupt replica: " + e.getMessage());
+                corruptBlock.accept(blockId);
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (!blockIds.isEmpty()) {
+            Log.info("Block scanner on " + name + " verified " + blockIds.size() + " blocks, " + corrupt
+                    + " corrupt, in " + (System.currentTimeMillis() - start) + " ms.");
+        }
+    }
+}
@@ -0,0 +1,654 @@
+package server;
+
+import common.BlockLocalPathInfo;
+import common.Config;
+import common.DataChecksum;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 基于磁盘的块存储：块顺序追加到大的段文件中，读取走内存映射，索引以追加日志的形式落盘
+// 每个块的 CRC32C 校验和紧跟在块数据之后存放，与数据一起写入、压缩和删除
+public class BlockStore implements Closeable {
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+    private static final byte OP_PUT_CHECKSUMMED = 3; // 带校验和的块，比 OP_PUT 多记录每个校验和覆盖的字节数
+    private static final String INDEX_FILE = "index.log";
+
+    private final File dir;
+    private final long segmentSize;
+    private final long capacity; // 0 表示使用所在磁盘的总空间
+    private final Map<String, BlockLocation> index = new ConcurrentHashMap<>(); // 块ID到存储位置的映射
+    private final Map<Integer, Segment> segments = new ConcurrentHashMap<>(); // 段编号到段文件的映射
+    private final Object allocLock = new Object(); // 保护活跃段的空间分配
+    private Segment active; // 当前追加写入的段
+    private DataOutputStream indexOut; // 索引日志输出流
+
+    public BlockStore(File dir) throws IOException {
+        this(dir, Config.SEGMENT_SIZE);
+    }
+
+    public BlockStore(File dir, long segmentSize) throws IOException {
+        this(dir, segmentSize, Config.DATANODE_CAPACITY);
+    }
+
+    public BlockStore(File dir, long segmentSize, long capacity) throws IOException {
+        if (segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment size must fit in a single mapping: " + segmentSize);
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.capacity = capacity;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create storage directory " + dir);
+        }
+        openSegments();
+        loadIndex();
+        rewriteIndex();
+        rollSegment();
+    }
+
+    // 块在段文件中的位置：[offset, offset + length) 是数据，之后是校验和
+    public static class BlockLocation {
+        final int segmentId;
+        final long offset;
+        final int length;
+        final int bytesPerChecksum; // 0 表示旧版本写入的没有校验和的块
+
+        BlockLocation(int segmentId, long offset, int length, int bytesPerChecksum) {
+            this.segmentId = segmentId;
+            this.offset = offset;
+            this.length = length;
+            this.bytesPerChecksum = bytesPerChecksum;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public boolean hasChecksums() {
+            return bytesPerChecksum > 0;
+        }
+
+        // 没有存储校验和的块按默认大小现场计算
+        public int getBytesPerChecksum() {
+            return hasChecksums() ? bytesPerChecksum : Config.BYTES_PER_CHECKSUM;
+        }
+
+        // 数据和校验和一共占用的字节数
+        int storedLength() {
+            return hasChecksums() ? length + DataChecksum.checksumLength(length, bytesPerChecksum) : length;
+        }
+    }
+
+    // 单个段文件，写入走 FileChannel，读取走只读内存映射
+    static class Segment {
+        final int id;
+        final File file;
+        final FileChannel channel;
+        final AtomicLong liveBytes = new AtomicLong(); // 仍被索引引用的字节数
+        long writePosition; // 下一次分配的起始位置，由 allocLock 保护
+        int writers; // 已在段中预留空间、尚未发布或放弃的写入数，由 allocLock 保护；不为 0 时不压缩
+        long reservedBytes; // 这些写入预留的字节数，由 allocLock 保护
+        private volatile MappedByteBuffer mapped;
+
+        Segment(int id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+            this.writePosition = channel.size();
+        }
+
+        // 返回覆盖 [offset, offset + length) 的映射视图，必要时重新映射到当前文件大小
+        ByteBuffer slice(long offset, int length) throws IOException {
+            MappedByteBuffer m = mapped;
+            if (m == null || offset + length > m.capacity()) {
+                synchronized (this) {
+                    m = mapped;
+                    if (m == null || offset + length > m.capacity()) {
+                        m = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                        mapped = m;
+                    }
+                }
+            }
+            ByteBuffer view = m.duplicate();
+            view.position((int) offset);
+            view.limit((int) offset + length);
+            return view.slice();
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // 写入一个块并计算其校验和；同ID的旧数据变为垃圾，由 compact 回收
+    public void put(String blockId, byte[] data) throws IOException {
+        int bytesPerChecksum = Config.BYTES_PER_CHECKSUM;
+        ByteBuffer stored = ByteBuffer.allocate(data.length + DataChecksum.checksumLength(data.length, bytesPerChecksum));
+        stored.put(data);
+        DataChecksum.calculate(ByteBuffer.wrap(data), bytesPerChecksum, stored);
+        stored.flip();
+        BlockLocation location = write(stored, data.length, bytesPerChecksum);
+        try {
+            synchronized (this) {
+                publish(blockId, location);
+            }
+        } finally {
+            unpin(location);
+        }
+    }
+
+    // 把数据及其后的校验和追加到活跃段，返回其位置，此时尚未对读者可见；段仍被钉住，调用方发布后 unpin
+    private BlockLocation write(ByteBuffer stored, int length, int bytesPerChecksum) throws IOException {
+        BlockLocation location = allocate(length, bytesPerChecksum);
+        boolean written = false;
+        try {
+            Segment segment = segments.get(location.segmentId);
+            long pos = location.offset;
+            while (stored.hasRemaining()) {
+                pos += segment.channel.write(stored, pos);
+            }
+            if (Config.SYNC_ON_WRITE) {
+                segment.channel.force(false);
+            }
+            written = true;
+            return location;
+        } finally {
+            if (!written) {
+                unpin(location);
+            }
+        }
+    }
+
+    // 在活跃段中为数据和校验和预留一段连续空间，并钉住该段直到 unpin，期间段不会被压缩删除
+    private BlockLocation allocate(long length, int bytesPerChecksum) throws IOException {
+        long storedLength = bytesPerChecksum > 0 ? length + DataChecksum.checksumLength(length, bytesPerChecksum) : length;
+        if (storedLength > segmentSize) {
+            throw new IOException("Block of " + length + " bytes exceeds segment size " + segmentSize);
+        }
+        synchronized (allocLock) {
+            if (active.writePosition + storedLength > segmentSize && active.writePosition > 0) {
+                rollSegment();
+            }
+            long offset = active.writePosition;
+            active.writePosition += storedLength;
+            active.writers++;
+            active.reservedBytes += storedLength;
+            return new BlockLocation(active.id, offset, (int) length, bytesPerChecksum);
+        }
+    }
+
+    // 写入发布或放弃后解除 allocate 对段的钉住
+    private void unpin(BlockLocation location) {
+        synchronized (allocLock) {
+            Segment segment = segments.get(location.segmentId);
+            segment.writers--;
+            segment.reservedBytes -= location.storedLength();
+        }
+    }
+
+    // 流式写入一个已知长度的块，数据和校验和写完并 commit 后才对读者可见
+    public BlockWriter openWriter(String blockId, long length, int bytesPerChecksum) throws IOException {
+        return new BlockWriter(blockId, allocate(length, bytesPerChecksum));
+    }
+
+    public class BlockWriter {
+        private final String blockId;
+        private final BlockLocation location;
+        private final FileChannel channel;
+        private long written;
+        private long checksumsWritten;
+        private boolean closed; // 已提交或放弃，段已解除钉住
+
+        BlockWriter(String blockId, BlockLocation location) {
+            this.blockId = blockId;
+            this.location = location;
+            this.channel = segments.get(location.segmentId).channel;
+        }
+
+        // 写入下一段数据及其校验和，调用方需已校验过两者一致
+        public void write(ByteBuffer src, ByteBuffer checksums) throws IOException {
+            if (closed) {
+                throw new IOException("Block " + blockId + " is already closed");
+            }
+            if (written + src.remaining() > location.length
+                    || location.length + checksumsWritten + checksums.remaining() > location.storedLength()) {
+                throw new IOException("Block " + blockId + " overflows its declared length " + location.length);
+            }
+            while (src.hasRemaining()) {
+                written += channel.write(src, location.offset + written);
+            }
+            while (checksums.hasRemaining()) {
+                checksumsWritten += channel.write(checksums, location.offset + location.length + checksumsWritten);
+            }
+        }
+
+        public void commit() throws IOException {
+            commit(location.length);
+        }
+
+        // 提交一个 length 字节的块，length 可以比预留的短（发送方提前结束了块）：
+        // 校验和移到实际数据之后，多预留的空间成为垃圾，由 compact 回收
+        public void commit(long length) throws IOException {
+            if (closed) {
+                throw new IOException("Block " + blockId + " is already closed");
+            }
+            try {
+                commitPinned(length);
+            } finally {
+                abort();
+            }
+        }
+
+        // 放弃未提交的块，预留的空间成为垃圾；已提交或放弃时什么也不做
+        public void abort() {
+            if (!closed) {
+                closed = true;
+                unpin(location);
+            }
+        }
+
+        private void commitPinned(long length) throws IOException {
+            if (length > location.length) {
+                throw new IOException("Block " + blockId + " overflows its declared length " + location.length);
+            }
+            BlockLocation committed = length == location.length ? location
+                    : new BlockLocation(location.segmentId, location.offset, (int) length, location.bytesPerChecksum);
+            if (written != committed.length || committed.length + checksumsWritten != committed.storedLength()) {
+                throw new IOException("Block " + blockId + " is incomplete: " + written + " of " + committed.length);
+            }
+            if (committed != location && checksumsWritten > 0) {
+                ByteBuffer checksums = ByteBuffer.allocate((int) checksumsWritten);
+                long source = location.offset + location.length;
+                while (checksums.hasRemaining()) {
+                    if (channel.read(checksums, source + checksums.position()) < 0) {
+                        throw new EOFException("Checksums of block " + blockId + " are truncated");
+                    }
+                }
+                checksums.flip();
+                long target = committed.offset + committed.length;
+                while (checksums.hasRemaining()) {
+                    target += channel.write(checksums, target);
+                }
+            }
+            if (committed != location) {
+                synchronized (allocLock) {
+                    // 之后没有别的分配时，把多预留的空间直接还给活跃段
+                    Segment segment = segments.get(location.segmentId);
+                    if (segment == active && segment.writePosition == location.offset + location.storedLength()) {
+                        segment.writePosition = committed.offset + committed.storedLength();
+                    }
+                }
+            }
+            if (Config.SYNC_ON_WRITE) {
+                channel.force(false);
+            }
+            synchronized (BlockStore.this) {
+                publish(blockId, committed);
+            }
+        }
+    }
+
+    // 把块的 [position, position + count) 区间零拷贝发送到目标通道
+    public void transferTo(BlockLocation location, long position, long count, WritableByteChannel target) throws IOException {
+        Segment segment = segments.get(location.segmentId);
+        if (segment == null) {
+            throw new ClosedChannelException();
+        }
+        long start = location.offset + position;
+        long end = start + count;
+        while (start < end) {
+            start += segment.channel.transferTo(start, end - start, target);
+        }
+    }
+
+    // 返回覆盖块内 [position, position + count) 的校验和，position 须是校验块的起点；
+    // 没有存储校验和的旧块现场计算
+    public ByteBuffer readChecksums(BlockLocation location, long position, long count) throws IOException {
+        Segment segment = segments.get(location.segmentId);
+        if (segment == null) {
+            throw new ClosedChannelException();
+        }
+        int bytesPerChecksum = location.getBytesPerChecksum();
+        int chunks = DataChecksum.chunkCount(count, bytesPerChecksum);
+        if (location.hasChecksums()) {
+            long first = location.offset + location.length + position / bytesPerChecksum * DataChecksum.CHECKSUM_SIZE;
+            return segment.slice(first, chunks * DataChecksum.CHECKSUM_SIZE);
+        }
+        ByteBuffer checksums = ByteBuffer.allocate(chunks * DataChecksum.CHECKSUM_SIZE);
+        DataChecksum.calculate(segment.slice(location.offset + position, (int) count), bytesPerChecksum, checksums);
+        checksums.flip();
+        return checksums;
+    }
+
+    // 用存储的校验和校验整个块，每读取一个传输包大小的数据前经过 throttler 限速（为 null 时不限速）；
+    // 块不存在或没有校验和时视为完好，数据损坏时抛出 ChecksumException
+    public void verify(String blockId, Throttler throttler) throws IOException {
+        BlockLocation location = index.get(blockId);
+        if (location == null || !location.hasChecksums()) {
+            return;
+        }
+        Segment segment = segments.get(location.segmentId);
+        if (segment == null) {
+            return; // 刚被压缩回收
+        }
+        int bytesPerChecksum = location.bytesPerChecksum;
+        int step = Math.max(bytesPerChecksum, Config.CHUNK_SIZE / bytesPerChecksum * bytesPerChecksum);
+        for (long position = 0; position < location.length; position += step) {
+            int count = (int) Math.min(step, location.length - position);
+            if (throttler != null) {
+                try {
+                    throttler.throttle(count);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while verifying block " + blockId);
+                }
+            }
+            try {
+                DataChecksum.verify(segment.slice(location.offset + position, count), bytesPerChecksum,
+                        readChecksums(location, position, count), blockId, position);
+            } catch (ClosedChannelException e) {
+                return; // 校验期间段被压缩关闭，块已复制到新位置
+            }
+        }
+    }
+
+    // 记录索引并对读者可见，调用方需持有 this 锁
+    private void publish(String blockId, BlockLocation location) throws IOException {
+        appendIndex(location.hasChecksums() ? OP_PUT_CHECKSUMMED : OP_PUT, blockId, location);
+        segments.get(location.segmentId).liveBytes.addAndGet(location.storedLength());
+        release(index.put(blockId, location));
+    }
+
+    // 读取整个块，返回只读的映射视图；块不存在时返回 null
+    public ByteBuffer read(String blockId) throws IOException {
+        while (true) {
+            BlockLocation location = index.get(blockId);
+            if (location == null) {
+                return null;
+            }
+            Segment segment = segments.get(location.segmentId);
+            if (segment != null) {
+                try {
+                    return segment.slice(location.offset, location.length).asReadOnlyBuffer();
+                } catch (ClosedChannelException e) {
+                    // 读取期间段被压缩关闭
+                }
+            }
+            // 段刚被压缩回收，索引已指向新位置，重试
+        }
+    }
+
+    public byte[] readBytes(String blockId) throws IOException {
+        ByteBuffer buffer = read(blockId);
+        if (buffer == null) {
+            return null;
+        }
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+    public boolean contains(String blockId) {
+        return index.containsKey(blockId);
+    }
+
+    public BlockLocation getLocation(String blockId) {
+        return index.get(blockId);
+    }
+
+    // 块在本地段文件中的位置，供同一主机上的客户端直接映射读取；块不存在时返回 null。
+    // 段文件只追加，压缩回收时整体删除，已映射的客户端读到的仍是完整的旧数据
+    public BlockLocalPathInfo getLocalPathInfo(String blockId) {
+        BlockLocation location = index.get(blockId);
+        if (location == null) {
+            return null;
+        }
+        Segment segment = segments.get(location.segmentId);
+        if (segment == null) {
+            return null;
+        }
+        return new BlockLocalPathInfo(blockId, segment.file.getAbsolutePath(), location.offset, location.length, location.bytesPerChecksum);
+    }
+
+    // 已用空间：存活块加上正在写入的块预留的空间。等待压缩回收的垃圾不计入，
+    // 流式写入提前结束的块多预留的空间不会让容量报告偏高，磁盘实际可用空间由 getRemaining 另外约束
+    public long getUsedSpace() {
+        synchronized (allocLock) {
+            long used = 0;
+            for (Segment segment : segments.values()) {
+                used += segment.liveBytes.get() + segment.reservedBytes;
+            }
+            return used;
+        }
+    }
+
+    // 可用容量：构造时指定了容量时以它为准，否则为所在磁盘的总空间
+    public long getCapacity() {
+        return capacity > 0 ? capacity : dir.getTotalSpace();
+    }
+
+    // 剩余空间：不超过容量余量，也不超过磁盘实际可用空间
+    public long getRemaining() {
+        return Math.max(0, Math.min(getCapacity() - getUsedSpace(), dir.getUsableSpace()));
+    }
+
+    public List<String> listBlocks() {
+        return new ArrayList<>(index.keySet());
+    }
+
+    public boolean delete(String blockId) throws IOException {
+        synchronized (this) {
+            BlockLocation location = index.remove(blockId);
+            if (location == null) {
+                return false;
+            }
+            appendIndex(OP_DELETE, blockId, null);
+            release(location);
+            return true;
+        }
+    }
+
+    // 回收存活比例低于阈值的已封存段：把存活块复制到活跃段后删除旧段。
+    // 仍有写入钉住的段不压缩；新的空间只在活跃段中分配，选中的段此后不会再有块发布进来
+    public void compact() throws IOException {
+        List<Segment> candidates = new ArrayList<>();
+        synchronized (allocLock) {
+            for (Segment segment : segments.values()) {
+                if (segment != active && segment.writers == 0 && segment.writePosition > 0
+                        && segment.liveBytes.get() < segment.writePosition * Config.COMPACT_LIVE_RATIO) {
+                    candidates.add(segment);
+                }
+            }
+        }
+        for (Segment segment : candidates) {
+            // 重复扫描直到索引中没有块指向该段，才能删除段文件
+            while (moveLiveBlocks(segment) > 0) {
+            }
+            synchronized (this) {
+                segments.remove(segment.id);
+            }
+            segment.close();
+            if (!segment.file.delete()) {
+                System.out.println("Failed to delete compacted segment " + segment.file);
+            }
+        }
+        if (!candidates.isEmpty()) {
+            synchronized (this) {
+                rewriteIndex();
+            }
+        }
+    }
+
+    // 把索引中仍指向 segment 的块复制到活跃段，返回复制的块数
+    private int moveLiveBlocks(Segment segment) throws IOException {
+        int moved = 0;
+        for (Map.Entry<String, BlockLocation> entry : index.entrySet()) {
+            BlockLocation location = entry.getValue();
+            if (location.segmentId == segment.id) {
+                ByteBuffer data = segment.slice(location.offset, location.storedLength());
+                ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+                copy.put(data).flip();
+                BlockLocation copied = write(copy, location.length, location.bytesPerChecksum);
+                try {
+                    synchronized (this) {
+                        // 复制期间块可能已被删除或覆盖，此时新写入的副本直接作废
+                        if (index.get(entry.getKey()) == location) {
+                            publish(entry.getKey(), copied);
+                        }
+                    }
+                } finally {
+                    unpin(copied);
+                }
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            indexOut.close();
+        }
+        for (Segment segment : segments.values()) {
+            segment.channel.force(true);
+            segment.close();
+        }
+    }
+
+    private void release(BlockLocation location) {
+        if (location != null) {
+            Segment old = segments.get(location.segmentId);
+            if (old != null) {
+                old.liveBytes.addAndGet(-location.storedLength());
+            }
+        }
+    }
+
+    private void openSegments() throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith("segment_") && name.endsWith(".dat")) {
+                if (file.length() == 0) {
+                    // 上次运行留下的空段
+                    file.delete();
+                    continue;
+                }
+                int id = Integer.parseInt(name.substring("segment_".length(), name.length() - ".dat".length()));
+                segments.put(id, new Segment(id, file));
+            }
+        }
+    }
+
+    // 启动时顺序回放索引日志，丢弃指向未完整写入数据的记录
+    private void loadIndex() throws IOException {
+        File file = new File(dir, INDEX_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    String blockId = in.readUTF();
+                    if (op == OP_PUT || op == OP_PUT_CHECKSUMMED) {
+                        BlockLocation location = new BlockLocation(in.readInt(), in.readLong(), in.readInt(),
+                                op == OP_PUT_CHECKSUMMED ? in.readInt() : 0);
+                        Segment segment = segments.get(location.segmentId);
+                        if (segment != null && location.offset + location.storedLength() <= segment.writePosition) {
+                            release(index.put(blockId, location));
+                            segment.liveBytes.addAndGet(location.storedLength());
+                        }
+                    } else if (op == OP_DELETE) {
+                        release(index.remove(blockId));
+                    }
+                } catch (EOFException e) {
+                    // 最后一条记录写了一半，忽略
+                    break;
+                }
+            }
+        }
+    }
+
+    // 把当前索引写成一份紧凑的新日志，替换旧日志
+    private void rewriteIndex() throws IOException {
+        if (indexOut != null) {
+            indexOut.close();
+        }
+        File tmp = new File(dir, INDEX_FILE + ".tmp");
+        Map<String, BlockLocation> snapshot = new TreeMap<>(index);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            for (Map.Entry<String, BlockLocation> entry : snapshot.entrySet()) {
+                writeRecord(out, entry.getValue().hasChecksums() ? OP_PUT_CHECKSUMMED : OP_PUT, entry.getKey(), entry.getValue());
+            }
+        }
+        File file = new File(dir, INDEX_FILE);
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Cannot replace index " + file);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Cannot rename " + tmp + " to " + file);
+        }
+        indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    private void appendIndex(byte op, String blockId, BlockLocation location) throws IOException {
+        writeRecord(indexOut, op, blockId, location);
+        indexOut.flush();
+    }
+
+    private static void writeRecord(DataOutputStream out, byte op, String blockId, BlockLocation location) throws IOException {
+        out.writeByte(op);
+        out.writeUTF(blockId);
+        if (op == OP_PUT || op == OP_PUT_CHECKSUMMED) {
+            out.writeInt(location.segmentId);
+            out.writeLong(location.offset);
+            out.writeInt(location.length);
+        }
+        if (op == OP_PUT_CHECKSUMMED) {
+            out.writeInt(location.bytesPerChecksum);
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        int nextId = 0;
+        for (Integer id : segments.keySet()) {
+            nextId = Math.max(nextId, id + 1);
+        }
+        Segment segment = new Segment(nextId, new File(dir, String.format("segment_%08d.dat", nextId)));
+        segments.put(nextId, segment);
+        active = segment;
+    }
+}
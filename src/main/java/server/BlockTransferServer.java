@@ -0,0 +1,279 @@
+package server;
+
+import common.Config;
+import common.DataChecksum;
+import common.DataTransfer;
+import common.Metrics;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// DataNode 的块传输服务：每个连接一个处理线程，连接上可以顺序发送多个请求
+public class BlockTransferServer {
+    private final String name;
+    private final VolumeSet volumes;
+    private final BlockCache cache;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService workers;
+    private final AtomicInteger activeTransfers = new AtomicInteger(); // 正在处理的读写请求数
+    private final Consumer<String> blockReceived; // 块写入并应答后的回调，参数为块ID
+    private final Metrics metrics;
+    private final LongAdder bytesIn; // 从连接收到的块数据字节数
+    private final LongAdder bytesOut; // 向连接发出的块数据字节数
+
+    public BlockTransferServer(String name, VolumeSet volumes, BlockCache cache, Consumer<String> blockReceived) throws IOException {
+        this.name = name;
+        this.volumes = volumes;
+        this.cache = cache;
+        this.blockReceived = blockReceived;
+        this.metrics = Metrics.get(name);
+        this.bytesIn = metrics.counter("bytesIn");
+        this.bytesOut = metrics.counter("bytesOut");
+        metrics.gauge("activeTransfers", activeTransfers::get);
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(Config.DATANODE_HOST, 0)); // 由系统分配端口
+        this.workers = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, name + "-transfer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    public int getActiveTransfers() {
+        return activeTransfers.get();
+    }
+
+    public void start() {
+        Thread acceptor = new Thread(() -> {
+            while (serverChannel.isOpen()) {
+                try {
+                    SocketChannel channel = serverChannel.accept();
+                    channel.socket().setTcpNoDelay(true);
+                    workers.execute(() -> serve(channel));
+                } catch (IOException e) {
+                    if (serverChannel.isOpen()) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }, name + "-transfer-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public void stop() throws IOException {
+        serverChannel.close();
+        workers.shutdownNow();
+    }
+
+    private void serve(SocketChannel channel) {
+        try (SocketChannel ch = channel) {
+            ByteBuffer op = ByteBuffer.allocate(1);
+            while (true) {
+                op.clear();
+                if (ch.read(op) < 0) {
+                    return; // 对端关闭连接
+                }
+                DataTransfer.readFully(ch, op);
+                String blockId = DataTransfer.readString(ch);
+                ByteBuffer value = ByteBuffer.allocate(8);
+                DataTransfer.readFully(ch, value);
+                activeTransfers.incrementAndGet();
+                Metrics.Operation operation = null;
+                long start = System.nanoTime();
+                boolean failed = true;
+                try {
+                    switch (op.get(0)) {
+                        case DataTransfer.OP_WRITE_BLOCK:
+                            operation = metrics.operation("writeBlock");
+                            receiveBlock(ch, blockId, value.getLong(0));
+                            break;
+                        case DataTransfer.OP_READ_BLOCK:
+                            operation = metrics.operation("readBlock");
+                            sendBlock(ch, blockId, value.getLong(0));
+                            break;
+                        default:
+                            DataTransfer.writeStatus(ch, DataTransfer.STATUS_ERROR, "Unknown op " + op.get(0));
+                            return;
+                    }
+                    failed = false;
+                } finally {
+                    activeTransfers.decrementAndGet();
+                    if (operation != null) {
+                        operation.record(start, failed);
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            // 对端在请求中途断开
+        } catch (IOException e) {
+            if (serverChannel.isOpen()) {
+                e.printStackTrace(); // 服务停止时被中断的连接不必报告
+            }
+        }
+    }
+
+    // 接收写请求：逐包读入复用的直接缓冲区并校验，先转发给下游再把数据和校验和写入本地段文件；
+    // 本地提交且下游应答成功后才向上游应答，应答因此沿 pipeline 逆向传回客户端。
+    // 头部的长度是块长度的上限，发送方可以用一个长度为 0 的包提前结束块
+    private void receiveBlock(SocketChannel channel, String blockId, long length) throws IOException {
+        List<InetSocketAddress> targets = DataTransfer.readTargets(channel);
+        ByteBuffer bytesPerChecksumBuffer = ByteBuffer.allocate(4);
+        DataTransfer.readFully(channel, bytesPerChecksumBuffer);
+        int bytesPerChecksum = bytesPerChecksumBuffer.getInt(0);
+        SocketChannel downstream = null;
+        BlockStore.BlockWriter writer = null;
+        try {
+            if (bytesPerChecksum <= 0 || Config.CHUNK_SIZE % bytesPerChecksum != 0) {
+                throw new IOException("Unsupported checksum chunk size " + bytesPerChecksum + " for block " + blockId);
+            }
+            if (!targets.isEmpty()) {
+                downstream = DataTransfer.connect(targets.get(0));
+                DataTransfer.writeFully(downstream, DataTransfer.writeHeader(blockId, length, bytesPerChecksum, targets.subList(1, targets.size())));
+            }
+            writer = volumes.openWriter(blockId, length, bytesPerChecksum); // 按剩余空间选择卷
+            ByteBuffer packetHeader = ByteBuffer.allocate(4);
+            ByteBuffer checksums = ByteBuffer.allocate(DataChecksum.checksumLength(Config.CHUNK_SIZE, bytesPerChecksum));
+            ByteBuffer buffer = ByteBuffer.allocateDirect(Config.CHUNK_SIZE);
+            long received = 0;
+            while (received < length) {
+                packetHeader.clear();
+                DataTransfer.readFully(channel, packetHeader);
+                int packetLength = packetHeader.getInt(0);
+                if (packetLength == 0) {
+                    // 发送方的数据提前结束，块比头部声明的短；空包同样转发给下游
+                    if (downstream != null) {
+                        packetHeader.flip();
+                        DataTransfer.writeFully(downstream, packetHeader);
+                    }
+                    break;
+                }
+                // 每个包都从校验块的边界开始，只有最后一个包可以不是整数个校验块
+                if (packetLength < 0 || packetLength > buffer.capacity() || packetLength > length - received
+                        || received % bytesPerChecksum != 0) {
+                    throw new IOException("Invalid packet length " + packetLength + " for block " + blockId);
+                }
+                checksums.clear();
+                checksums.limit(DataChecksum.checksumLength(packetLength, bytesPerChecksum));
+                DataTransfer.readFully(channel, checksums);
+                checksums.flip();
+                buffer.clear();
+                buffer.limit(packetLength);
+                DataTransfer.readFully(channel, buffer);
+                buffer.flip();
+                // 损坏的数据不落盘也不向下游转发
+                DataChecksum.verify(buffer, bytesPerChecksum, checksums, blockId, received);
+                if (downstream != null) {
+                    packetHeader.flip();
+                    DataTransfer.writeFully(downstream, packetHeader, checksums.duplicate(), buffer.duplicate());
+                }
+                writer.write(buffer, checksums);
+                bytesIn.add(packetLength);
+                received += packetLength;
+            }
+            writer.commit(received);
+            if (downstream != null) {
+                DataTransfer.readStatus(downstream);
+            }
+        } catch (IOException e) {
+            DataTransfer.writeStatus(channel, DataTransfer.STATUS_ERROR, name + ": " + e.getMessage());
+            if (writer != null) {
+                volumes.checkVolumes(); // 可能是写盘出错
+            }
+            throw e;
+        } finally {
+            if (writer != null) {
+                writer.abort(); // 未提交时解除对段的钉住，段才能被压缩
+            }
+            if (downstream != null) {
+                downstream.close();
+            }
+        }
+        DataTransfer.writeStatus(channel, DataTransfer.STATUS_SUCCESS, null);
+        blockReceived.accept(blockId);
+    }
+
+    // 处理读请求：从偏移所在的校验块起点开始发送，每个包先发包头和存储的校验和，
+    // 数据直接用 FileChannel.transferTo 把段文件内容发往 socket；块在缓存中时从缓存的页直接聚集写出
+    private void sendBlock(SocketChannel channel, String blockId, long offset) throws IOException {
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(8);
+        DataTransfer.readFully(channel, lengthBuffer);
+        long length = lengthBuffer.getLong(0);
+
+        BlockCache.Entry cached = cache.get(blockId);
+        try {
+            BlockStore blockStore = null;
+            BlockStore.BlockLocation location = null;
+            if (cached == null) {
+                blockStore = volumes.storeOf(blockId);
+                location = blockStore == null ? null : blockStore.getLocation(blockId);
+                if (location == null) {
+                    DataTransfer.writeStatus(channel, DataTransfer.STATUS_ERROR, "Block " + blockId + " not found on " + name);
+                    return;
+                }
+            }
+            if (offset < 0) {
+                DataTransfer.writeStatus(channel, DataTransfer.STATUS_ERROR, "Offset " + offset + " out of range for block " + blockId);
+                return;
+            }
+            long blockLength = cached != null ? cached.getLength() : location.getLength();
+            int bytesPerChecksum = cached != null ? cached.getBytesPerChecksum() : location.getBytesPerChecksum();
+            long available = Math.max(0, blockLength - offset); // 超出块尾时返回空数据
+            long actual = length < 0 ? available : Math.min(length, available);
+            long start = offset; // 没有数据可读时不发送数据包，跳过的字节数为 0
+            long end = offset;
+            if (actual > 0) {
+                start = offset - offset % bytesPerChecksum;
+                end = Math.min(blockLength, (offset + actual + bytesPerChecksum - 1) / bytesPerChecksum * bytesPerChecksum);
+            }
+            ByteBuffer response = ByteBuffer.allocate(25);
+            response.put(DataTransfer.STATUS_SUCCESS).putLong(actual).putInt(bytesPerChecksum)
+                    .putInt((int) (offset - start)).putLong(end - start).flip();
+            DataTransfer.writeFully(channel, response);
+
+            ByteBuffer packetHeader = ByteBuffer.allocate(4);
+            int packetSize = Math.max(bytesPerChecksum, Config.CHUNK_SIZE / bytesPerChecksum * bytesPerChecksum);
+            long position = start;
+            while (position < end) {
+                int packetLength = (int) Math.min(packetSize, end - position);
+                packetHeader.clear();
+                packetHeader.putInt(packetLength).flip();
+                if (cached != null) {
+                    ByteBuffer[] slices = cached.dataSlices(position, packetLength);
+                    ByteBuffer[] buffers = new ByteBuffer[slices.length + 2];
+                    buffers[0] = packetHeader;
+                    buffers[1] = cached.readChecksums(position, packetLength);
+                    System.arraycopy(slices, 0, buffers, 2, slices.length);
+                    DataTransfer.writeFully(channel, buffers);
+                } else {
+                    DataTransfer.writeFully(channel, packetHeader, blockStore.readChecksums(location, position, packetLength));
+                    blockStore.transferTo(location, position, packetLength, channel);
+                }
+                bytesOut.add(packetLength);
+                position += packetLength;
+            }
+            // 从磁盘读完整个块，且块最近被完整读过一次时才载入缓存，一次性的顺序扫描不会挤掉热块
+            if (cached == null && start == 0 && end == blockLength && blockLength > 0 && cache.shouldAdmit(blockId)) {
+                volumes.cacheAsync(blockId, cache, false);
+            }
+        } finally {
+            if (cached != null) {
+                cache.release(cached);
+            }
+        }
+    }
+}
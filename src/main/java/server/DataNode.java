@@ -2,75 +2,539 @@ package server;
 
 import InterFace.DataNodeInter;
 import InterFace.NameNodeInter;
+import common.BlockLocalPathInfo;
+import common.ChecksumException;
+import common.Config;
+import common.DataNodeCommand;
+import common.DataNodeInfo;
+import common.DataTransfer;
+import common.ErasureCodingPolicy;
+import common.Inode;
+import common.Log;
+import common.Metrics;
+import common.MetricsServer;
+import common.Rpc;
+import common.StorageReport;
 
-import java.rmi.Naming;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.rmi.RemoteException;
-import java.rmi.server.UnicastRemoteObject;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
-public class DataNode extends UnicastRemoteObject implements DataNodeInter {
+public class DataNode implements DataNodeInter {
     private NameNodeInter nameNode;
     private final String name;
-    private Map<String, String> fileStorage; // 模拟存储块
+    private final VolumeSet volumes; // 各磁盘上的存储卷
+    private final BlockCache blockCache = new BlockCache(Config.BLOCK_CACHE_CAPACITY, Config.BLOCK_CACHE_A1IN_RATIO,
+            Config.BLOCK_CACHE_GHOST_ENTRIES); // 堆外热块缓存
+    private final BlockTransferServer transferServer; // 块传输服务
+    private final ThreadPoolExecutor replicationPool; // 执行 NameNode 下发的复制命令
+    private final Metrics metrics; // 本节点的运行指标
+    private final Throttler replicationThrottler = new Throttler(Config.REPLICATION_BANDWIDTH); // 复制流量限速
+    private final List<Long> receivedBlocks = new ArrayList<>(); // 上次心跳以来新增的块，随下次心跳汇报
+    private final List<Long> deletedBlocks = new ArrayList<>(); // 上次心跳以来删除的块
     private Timer timer; // 用于定时任务
 
     public DataNode(String name, NameNodeInter nameNode) throws RemoteException {
-        super();
         this.name = name;
         this.nameNode = nameNode; // 假设在构造函数中传入NameNodeInter的实现
-        this.fileStorage = new HashMap<>();
+        this.metrics = Metrics.get(name);
+        try {
+            this.volumes = new VolumeSet(name, VolumeSet.storageDirs(name), this::reportCorrupt, this::reportLost);
+            this.transferServer = new BlockTransferServer(name, volumes, blockCache, this::reportReceived);
+        } catch (IOException e) {
+            throw new RemoteException("Cannot open block store for " + name, e);
+        }
+        this.transferServer.start();
+        this.replicationPool = new ThreadPoolExecutor(Config.REPLICATION_MAX_STREAMS, Config.REPLICATION_MAX_STREAMS,
+                0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, name + "-replication");
+            thread.setDaemon(true);
+            return thread;
+        });
+        registerGauges();
         this.timer = new Timer(); // 初始化定时器
         scheduleHeartBeat(); // 启动定时心跳任务
+        scheduleBlockReport(); // 启动定时完整块汇报任务
+        scheduleCompaction(); // 启动定时段压缩任务
+    }
+
+    private void registerGauges() {
+        metrics.gauge("replicationQueue", () -> replicationPool.getQueue().size());
+        metrics.gauge("pendingReceivedBlocks", () -> size(receivedBlocks));
+        metrics.gauge("pendingDeletedBlocks", () -> size(deletedBlocks));
+        metrics.gauge("usedSpace", volumes::getUsedSpace);
+        metrics.gauge("remaining", volumes::getRemaining);
+        metrics.gauge("failedVolumes", volumes::getFailedCount);
+        metrics.gauge("cacheHits", blockCache::getHits);
+        metrics.gauge("cacheMisses", blockCache::getMisses);
+        metrics.gauge("cacheHitRatioPercent", blockCache::getHitRatioPercent);
+        metrics.gauge("cacheEvictions", blockCache::getEvictions);
+        metrics.gauge("cacheUsed", blockCache::getUsedBytes);
+        metrics.gauge("cachePinned", blockCache::getPinnedBytes);
+        metrics.gauge("cacheAllocated", blockCache::getAllocatedBytes);
+        // 每个存储卷的剩余空间和排队的磁盘操作数，失效的卷剩余空间为 0
+        metrics.gauges("volumeRemaining", () -> {
+            Map<String, Long> remaining = new TreeMap<>();
+            for (StorageReport report : volumes.getStorageReports()) {
+                remaining.put(report.getStorageDir(), report.getRemaining());
+            }
+            return remaining;
+        });
+        metrics.gauges("volumeQueuedTasks", () -> {
+            Map<String, Long> queued = new TreeMap<>();
+            for (Volume volume : volumes.getVolumes()) {
+                queued.put(volume.getDir().getPath(), (long) volume.getQueuedTasks());
+            }
+            return queued;
+        });
+    }
+
+    private static int size(List<Long> blocks) {
+        synchronized (blocks) {
+            return blocks.size();
+        }
+    }
+
+    // 定时检查各存储卷是否仍可读写，并回收段文件中被删除或覆盖的块占用的空间，各卷在自己的线程池中进行
+    private void scheduleCompaction() {
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                volumes.checkVolumes();
+                volumes.compact();
+            }
+        }, 60000, 60000); // 每60秒执行一次
     }
 
-    // 定时心跳任务
+    // 定时心跳任务，同时带上增量块汇报
     private void scheduleHeartBeat() {
         timer.schedule(new TimerTask() {
             @Override
             public void run() {
+                long[] received = drain(receivedBlocks);
+                long[] deleted = drain(deletedBlocks);
+                Metrics.Operation operation = metrics.operation("heartbeat");
+                long start = System.nanoTime();
                 try {
-                    boolean heartBeatResult = nameNode.heartBeat(name);
-                    if (!heartBeatResult) {
-                        System.out.println("Heartbeat failed, trying to reconnect...");
+                    DataNodeInfo info = new DataNodeInfo(name, transferServer.getAddress(), volumes.getCapacity(),
+                            volumes.getUsedSpace(), volumes.getRemaining(), transferServer.getActiveTransfers(), volumes.getStorageReports());
+                    List<DataNodeCommand> commands = nameNode.heartBeat(info, received, deleted);
+                    operation.record(start, commands == null);
+                    if (commands == null) {
+                        Log.info("Heartbeat failed, trying to reconnect...");
                         // 这里可以添加重连逻辑
+                        return;
+                    }
+                    for (DataNodeCommand command : commands) {
+                        processCommand(command);
                     }
-                } catch (RemoteException e) {
+                } catch (IOException e) {
+                    // 汇报失败，放回队列随下次心跳重发
+                    restore(receivedBlocks, received);
+                    restore(deletedBlocks, deleted);
+                    operation.record(start, true);
                     e.printStackTrace();
                 }
             }
         }, 0, 10000); // 每10秒执行一次
     }
 
+    // 定时完整块汇报；与心跳在同一个定时器线程中执行，汇报之间不会交错
+    private void scheduleBlockReport() {
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                sendBlockReport();
+            }
+        }, Config.BLOCK_REPORT_INTERVAL, Config.BLOCK_REPORT_INTERVAL);
+    }
+
+    private void processCommand(DataNodeCommand command) {
+        switch (command.getAction()) {
+            case DataNodeCommand.TRANSFER:
+                replicationPool.execute(() -> transferBlock(command));
+                break;
+            case DataNodeCommand.RECONSTRUCT:
+                replicationPool.execute(() -> reconstructBlockGroup(command));
+                break;
+            case DataNodeCommand.INVALIDATE:
+                // 删除在各卷的线程池中异步进行，不阻塞心跳线程
+                for (String blockId : command.getBlockIds()) {
+                    volumes.deleteAsync(blockId, this::reportDeleted);
+                }
+                break;
+            case DataNodeCommand.CACHE:
+                for (String blockId : command.getBlockIds()) {
+                    volumes.cacheAsync(blockId, blockCache, true);
+                }
+                break;
+            case DataNodeCommand.UNCACHE:
+                for (String blockId : command.getBlockIds()) {
+                    blockCache.unpin(blockId);
+                }
+                break;
+            case DataNodeCommand.BLOCK_REPORT:
+                sendBlockReport();
+                break;
+            default:
+                Log.info("Unknown command " + command);
+        }
+    }
+
+    // 把本地所有由 NameNode 分配的块上报给 NameNode。先列出各卷上的块，再取出尚未发出的增量汇报：
+    // 与列表一致的变化已包含在完整汇报中；不一致的（列出之后才收到或删除的块）放回队列，随下次心跳增量汇报
+    private void sendBlockReport() {
+        List<String> blockIds = volumes.listBlocks();
+        long[] report = new long[blockIds.size()];
+        int count = 0;
+        for (String blockId : blockIds) {
+            long id = parseBlockId(blockId);
+            if (id >= 0) {
+                report[count++] = id;
+            }
+        }
+        report = Arrays.copyOf(report, count);
+        Arrays.sort(report);
+        long[] received = filter(drain(receivedBlocks), report, false);
+        long[] deleted = drain(deletedBlocks);
+        Arrays.sort(received);
+        // 列出之后收到又删除的块，删除也要随收到一起汇报
+        long[] pendingDeleted = filter(deleted, report, true);
+        long[] receivedThenDeleted = filter(deleted, received, true);
+        long[] requeued = Arrays.copyOf(pendingDeleted, pendingDeleted.length + receivedThenDeleted.length);
+        System.arraycopy(receivedThenDeleted, 0, requeued, pendingDeleted.length, receivedThenDeleted.length);
+        restore(receivedBlocks, received);
+        restore(deletedBlocks, requeued);
+        try {
+            nameNode.blockReport(name, report);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // 取出 blocks 中在有序数组 sorted 中（listed 为 true）或不在其中（listed 为 false）的块
+    private static long[] filter(long[] blocks, long[] sorted, boolean listed) {
+        long[] kept = new long[blocks.length];
+        int count = 0;
+        for (long id : blocks) {
+            if ((Arrays.binarySearch(sorted, id) >= 0) == listed) {
+                kept[count++] = id;
+            }
+        }
+        return Arrays.copyOf(kept, count);
+    }
+
+    // 块经 pipeline 写入并提交后，记入下次心跳的增量汇报
+    private void reportReceived(String blockId) {
+        blockCache.invalidate(blockId); // 同ID的块被覆盖
+        record(receivedBlocks, blockId);
+    }
+
+    private void reportDeleted(String blockId) {
+        blockCache.invalidate(blockId);
+        record(deletedBlocks, blockId);
+    }
+
+    // 卷失效后其上的块都已不可读，随下次心跳作为已删除的块汇报，由 NameNode 从其他副本补齐
+    private void reportLost(List<String> blockIds) {
+        for (String blockId : blockIds) {
+            blockCache.invalidate(blockId);
+            record(deletedBlocks, blockId);
+        }
+    }
+
+    // 本地副本校验和不符，上报 NameNode 由它决定是否删除并重新复制
+    private void reportCorrupt(String blockId) {
+        long id = parseBlockId(blockId);
+        if (id < 0) {
+            return;
+        }
+        try {
+            nameNode.reportBadBlocks(name, new long[]{id});
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // allocateBlocks 分配的块ID是数字，其他块（如通过 uploadFile 写入的）不参与块汇报，返回 -1
+    private static long parseBlockId(String blockId) {
+        try {
+            return Long.parseLong(blockId);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void record(List<Long> blocks, String blockId) {
+        long id = parseBlockId(blockId);
+        if (id >= 0) {
+            synchronized (blocks) {
+                blocks.add(id);
+            }
+        }
+    }
+
+    private static long[] drain(List<Long> blocks) {
+        synchronized (blocks) {
+            long[] drained = new long[blocks.size()];
+            for (int i = 0; i < drained.length; i++) {
+                drained[i] = blocks.get(i);
+            }
+            blocks.clear();
+            return drained;
+        }
+    }
+
+    private static void restore(List<Long> blocks, long[] drained) {
+        synchronized (blocks) {
+            List<Long> restored = new ArrayList<>(drained.length);
+            for (long id : drained) {
+                restored.add(id);
+            }
+            blocks.addAll(0, restored);
+        }
+    }
+
+    // 执行复制命令：把本地的块经 pipeline 写给目标节点，发送速度受 REPLICATION_BANDWIDTH 限制
+    private void transferBlock(DataNodeCommand command) {
+        String blockId = command.getBlockId();
+        try {
+            ByteBuffer data = volumes.read(blockId);
+            if (data == null) {
+                Log.info("Block " + blockId + " to replicate not found on " + name);
+                return;
+            }
+            // 不把损坏的数据复制出去：发送时会按读到的数据重新计算校验和，因此先用存储的校验和检查
+            volumes.verify(blockId, null);
+            List<InetSocketAddress> targets = command.getTargets();
+            long length = data.remaining();
+            try (SocketChannel channel = DataTransfer.connect(targets.get(0))) {
+                DataTransfer.writeBlock(channel, blockId, length, throttled(data), targets.subList(1, targets.size()));
+            }
+            metrics.counter("replicatedBytes").add(length);
+            Log.info("Block " + blockId + " replicated from " + name + " to " + command.getTargetNames());
+        } catch (ChecksumException e) {
+            Log.info("Not replicating corrupt block " + blockId + " from " + name + ": " + e.getMessage());
+            reportCorrupt(blockId);
+        } catch (IOException e) {
+            Log.info("Failed to replicate block " + blockId + " from " + name + ": " + e.getMessage());
+        }
+    }
+
+    // 执行重建命令：从其他节点读取纠删码块组的任意 k 个单元，解码出缺失的单元后写给各目标节点，
+    // 写出速度同样受 REPLICATION_BANDWIDTH 限制。读取时校验失败的单元视为不可用
+    private void reconstructBlockGroup(DataNodeCommand command) {
+        long groupId = Long.parseLong(command.getBlockId());
+        ErasureCodingPolicy policy = ErasureCodingPolicy.byName(command.getEcPolicy());
+        if (policy == null) {
+            Log.info("Unknown erasure coding policy in " + command);
+            return;
+        }
+        long length = command.getLength();
+        int unitLength = (int) policy.unitLength(length, 0);
+        byte[][] units = new byte[policy.getTotalUnits()][];
+        boolean[] present = new boolean[units.length];
+        int found = 0;
+        List<InetSocketAddress> sources = command.getSources();
+        for (int unit = 0; unit < units.length && found < policy.getDataUnits(); unit++) {
+            InetSocketAddress source = sources.get(unit);
+            if (source == null) {
+                continue;
+            }
+            String unitId = Long.toString(Inode.internalBlockId(groupId, unit));
+            try {
+                units[unit] = Arrays.copyOf(DataTransfer.readBlock(source, unitId, 0, -1), unitLength); // 短单元补 0
+                present[unit] = true;
+                found++;
+            } catch (IOException e) {
+                Log.info("Cannot read unit " + unitId + " from " + source + ": " + e.getMessage());
+            }
+        }
+        if (found < policy.getDataUnits()) {
+            Log.info("Block group " + groupId + " cannot be reconstructed on " + name + ": only " + found + " units readable.");
+            return;
+        }
+        for (int unit = 0; unit < units.length; unit++) {
+            if (units[unit] == null) {
+                units[unit] = new byte[unitLength];
+            }
+        }
+        policy.getCodec().decode(units, present, 0, unitLength);
+        List<Integer> targetUnits = command.getTargetUnits();
+        List<InetSocketAddress> targets = command.getTargets();
+        for (int i = 0; i < targetUnits.size(); i++) {
+            int unit = targetUnits.get(i);
+            String unitId = Long.toString(Inode.internalBlockId(groupId, unit));
+            int size = (int) policy.unitLength(length, unit);
+            try (SocketChannel channel = DataTransfer.connect(targets.get(i))) {
+                DataTransfer.writeBlock(channel, unitId, size, throttled(ByteBuffer.wrap(units[unit], 0, size)),
+                        Collections.<InetSocketAddress>emptyList());
+                metrics.counter("reconstructedBytes").add(size);
+            } catch (IOException e) {
+                Log.info("Failed to write reconstructed unit " + unitId + " to " + command.getTargetNames().get(i) + ": " + e.getMessage());
+            }
+        }
+        Log.info("Block group " + groupId + " units " + targetUnits + " reconstructed on " + name + " to " + command.getTargetNames());
+    }
+
+    // 从 data 读取数据的通道，每次读取前先经过复制限速
+    private ReadableByteChannel throttled(ByteBuffer data) {
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                if (!data.hasRemaining()) {
+                    return -1;
+                }
+                int length = Math.min(dst.remaining(), data.remaining());
+                try {
+                    replicationThrottler.throttle(length);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while replicating");
+                }
+                ByteBuffer chunk = data.duplicate();
+                chunk.limit(chunk.position() + length);
+                dst.put(chunk);
+                data.position(chunk.position());
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
     @Override
     public boolean uploadFile(String blockId, String data) throws RemoteException {
-        fileStorage.put(blockId, data);
-        System.out.println("Block " + blockId + " uploaded to " + name);
+        try {
+            byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+            volumes.put(blockId, bytes);
+            blockCache.invalidate(blockId);
+            metrics.counter("bytesIn").add(bytes.length);
+            record(receivedBlocks, blockId);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        Log.info("Block " + blockId + " uploaded to " + name);
         return true;
     }
 
     @Override
     public String downloadFile(String blockId) throws RemoteException {
-        return fileStorage.get(blockId);
+        try {
+            byte[] data = readCached(blockId);
+            if (data == null) {
+                data = volumes.readVerified(blockId, blockCache);
+            }
+            if (data == null) {
+                return null;
+            }
+            metrics.counter("bytesOut").add(data.length);
+            return new String(data, StandardCharsets.UTF_8);
+        } catch (ChecksumException e) {
+            reportCorrupt(blockId);
+            throw new RemoteException("Corrupt block " + blockId + " on " + name, e);
+        } catch (IOException e) {
+            throw new RemoteException("Failed to read block " + blockId, e);
+        }
+    }
+
+    // 从缓存读出整个块，未命中时返回 null
+    private byte[] readCached(String blockId) {
+        BlockCache.Entry cached = blockCache.get(blockId);
+        if (cached == null) {
+            return null;
+        }
+        try {
+            byte[] data = new byte[cached.getLength()];
+            cached.readData(0, ByteBuffer.wrap(data), data.length);
+            return data;
+        } finally {
+            blockCache.release(cached);
+        }
     }
 
     @Override
     public boolean deleteFile(String fileId) throws RemoteException {
-        fileStorage.remove(fileId);
+        return deleteBlock(fileId);
+    }
+
+    private boolean deleteBlock(String blockId) {
+        try {
+            if (volumes.delete(blockId)) {
+                reportDeleted(blockId);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
         return true;
     }
 
+    @Override
+    public InetSocketAddress getTransferAddress() throws RemoteException {
+        try {
+            return transferServer.getAddress();
+        } catch (IOException e) {
+            throw new RemoteException("Transfer service of " + name + " is not available", e);
+        }
+    }
+
+    // 短路读取只交出块的位置，数据由客户端自己映射读取并校验，DataNode 不参与传输
+    @Override
+    public BlockLocalPathInfo getBlockLocalPathInfo(String blockId) throws RemoteException {
+        if (!Config.SHORT_CIRCUIT_READS) {
+            return null;
+        }
+        BlockLocalPathInfo info = volumes.getLocalPathInfo(blockId);
+        if (info != null) {
+            metrics.counter("shortCircuitGrants").increment();
+        }
+        return info;
+    }
+
+    // 停止定时任务和后台线程，关闭块传输服务和块存储
+    public void stop() throws IOException {
+        timer.cancel();
+        transferServer.stop();
+        replicationPool.shutdownNow();
+        volumes.close();
+        Metrics.remove(name);
+    }
+
     public static void main(String[] args) {
         try {
-            NameNodeInter nameNode = (NameNodeInter) Naming.lookup("//localhost/nameNode"); // 假设NameNodeInter的实现已经在RMI注册
+            NameNodeInter nameNode = Rpc.lookup("nameNode", NameNodeInter.class); // 假设NameNodeInter的实现已经注册
+            MetricsServer.start(Config.DATANODE_METRICS_PORT); // 本进程所有 DataNode 共用一个指标端点
             DataNode dataNode1 = new DataNode("dataNode1", nameNode);
             DataNode dataNode2 = new DataNode("dataNode2", nameNode);
             DataNode dataNode3 = new DataNode("dataNode3", nameNode);
-            Naming.rebind("//localhost/dataNode1", dataNode1);
-            Naming.rebind("//localhost/dataNode2", dataNode2);
-            Naming.rebind("//localhost/dataNode3", dataNode3);
+            Rpc.bind("dataNode1", dataNode1, DataNodeInter.class);
+            Rpc.bind("dataNode2", dataNode2, DataNodeInter.class);
+            Rpc.bind("dataNode3", dataNode3, DataNodeInter.class);
             System.out.println("DataNode is ready.");
         } catch (Exception e) {
             e.printStackTrace();
@@ -0,0 +1,232 @@
+package server;
+
+import common.Config;
+import common.DataNodeCommand;
+import common.DataNodeInfo;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// NameNode 眼中的一个活跃 DataNode：最近一次心跳上报的状态，加上此后分配给它、尚未反映在心跳中的块数
+public class DataNodeDescriptor {
+    private final String name;
+    private final int index; // DataNodeManager 分配的编号
+    private volatile DataNodeInfo info;
+    private volatile long lastHeartbeat;
+    private final AtomicInteger blocksScheduled = new AtomicInteger(); // 上次心跳后新分配的块数
+    private final AtomicInteger replicationsInProgress = new AtomicInteger(); // 以本节点为源、尚未完成的复制数
+    private final Queue<DataNodeCommand> commands = new ConcurrentLinkedQueue<>(); // 等待随心跳下发的命令
+    private long[] reportedBlocks; // 最近一次完整块汇报中的块，有序；尚未收到汇报时为 null
+    private final Set<Long> addedSinceReport = new HashSet<>(); // 此后增量汇报新增的块
+    private final Set<Long> removedSinceReport = new HashSet<>(); // 此后增量汇报删除的块
+    private boolean reporting; // 正在处理完整块汇报，期间块的变化在汇报结束后保留
+    private final Set<Long> addedDuringReport = new HashSet<>();
+    private final Set<Long> removedDuringReport = new HashSet<>();
+    // 串行化同一节点的块汇报处理。处理汇报时要加路径锁，而分配块时在路径锁内调用本对象的同步方法，
+    // 因此不能用本对象的监视器串行化汇报，否则两者加锁顺序相反会死锁
+    private final Object reportLock = new Object();
+    private long reportRequestTime; // 最近一次请求完整块汇报的时间
+    private final Set<Long> corruptBlocks = new HashSet<>(); // 已通知删除的损坏副本，删除前不作为复制目标
+    private final Set<Long> invalidateBlocks = new LinkedHashSet<>(); // 所属文件已删除、等待随心跳分批下发删除的块
+
+    DataNodeDescriptor(String name, int index) {
+        this.name = name;
+        this.index = index;
+    }
+
+    // 收到心跳时更新状态，之前分配的块已体现在新上报的已用空间和传输数中
+    void update(DataNodeInfo info, long now) {
+        this.info = info;
+        this.lastHeartbeat = now;
+        blocksScheduled.set(0);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public DataNodeInfo getInfo() {
+        return info;
+    }
+
+    public InetSocketAddress getTransferAddress() {
+        return info.getTransferAddress();
+    }
+
+    public long getLastHeartbeat() {
+        return lastHeartbeat;
+    }
+
+    public void incrementBlocksScheduled() {
+        blocksScheduled.incrementAndGet();
+    }
+
+    // 尚未收到完整块汇报、且距上次请求已超过 retryInterval 时需要（再次）请求
+    synchronized boolean shouldRequestBlockReport(long now, long retryInterval) {
+        if (reportedBlocks != null || reportRequestTime + retryInterval > now) {
+            return false;
+        }
+        reportRequestTime = now;
+        return true;
+    }
+
+    Object getReportLock() {
+        return reportLock;
+    }
+
+    synchronized void blockAdded(long blockId) {
+        if (reportedBlocks != null) {
+            removedSinceReport.remove(blockId);
+            addedSinceReport.add(blockId);
+        }
+        if (reporting) {
+            removedDuringReport.remove(blockId);
+            addedDuringReport.add(blockId);
+        }
+    }
+
+    synchronized void blockRemoved(long blockId) {
+        corruptBlocks.remove(blockId);
+        if (reportedBlocks != null) {
+            addedSinceReport.remove(blockId);
+            removedSinceReport.add(blockId);
+        }
+        if (reporting) {
+            addedDuringReport.remove(blockId);
+            removedDuringReport.add(blockId);
+        }
+    }
+
+    synchronized void markCorrupt(long blockId) {
+        corruptBlocks.add(blockId);
+    }
+
+    synchronized boolean isCorrupt(long blockId) {
+        return corruptBlocks.contains(blockId);
+    }
+
+    // 最近一次完整汇报叠加此后的增量汇报，即 NameNode 认为该节点持有的块，有序；尚未收到完整汇报时返回 null
+    synchronized long[] getKnownBlocks() {
+        if (reportedBlocks == null) {
+            return null;
+        }
+        long[] added = new long[addedSinceReport.size()];
+        int count = 0;
+        for (long blockId : addedSinceReport) {
+            added[count++] = blockId;
+        }
+        Arrays.sort(added);
+        long[] known = new long[reportedBlocks.length + added.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < reportedBlocks.length || j < added.length) {
+            long next;
+            if (j >= added.length || (i < reportedBlocks.length && reportedBlocks[i] <= added[j])) {
+                next = reportedBlocks[i++];
+            } else {
+                next = added[j++];
+            }
+            if (!removedSinceReport.contains(next) && (size == 0 || known[size - 1] != next)) {
+                known[size++] = next;
+            }
+        }
+        return Arrays.copyOf(known, size);
+    }
+
+    // 开始处理完整块汇报，返回此时已知的块（同 getKnownBlocks）；此后的块变化在 setReportedBlocks 后保留
+    synchronized long[] startReport() {
+        reporting = true;
+        addedDuringReport.clear();
+        removedDuringReport.clear();
+        return getKnownBlocks();
+    }
+
+    // 完整块汇报处理完毕，汇报开始后分配或汇报的块变化叠加在新汇报之上
+    synchronized void setReportedBlocks(long[] blocks) {
+        reportedBlocks = blocks;
+        addedSinceReport.clear();
+        removedSinceReport.clear();
+        addedSinceReport.addAll(addedDuringReport);
+        removedSinceReport.addAll(removedDuringReport);
+        addedDuringReport.clear();
+        removedDuringReport.clear();
+        reporting = false;
+    }
+
+    public AtomicInteger getReplicationsInProgress() {
+        return replicationsInProgress;
+    }
+
+    public void addCommand(DataNodeCommand command) {
+        commands.add(command);
+    }
+
+    // 取出等待下发的命令
+    public List<DataNodeCommand> pollCommands() {
+        List<DataNodeCommand> polled = new ArrayList<>();
+        DataNodeCommand command;
+        while ((command = commands.poll()) != null) {
+            polled.add(command);
+        }
+        return polled;
+    }
+
+    public int getPendingCommands() {
+        return commands.size();
+    }
+
+    // 登记需要删除的块，由心跳按每次最多 INVALIDATE_LIMIT 个分批下发
+    synchronized void addInvalidates(List<Long> blockIds) {
+        invalidateBlocks.addAll(blockIds);
+    }
+
+    // 取出最多 limit 个等待删除的块
+    synchronized List<String> pollInvalidates(int limit) {
+        List<String> polled = new ArrayList<>(Math.min(limit, invalidateBlocks.size()));
+        Iterator<Long> it = invalidateBlocks.iterator();
+        while (it.hasNext() && polled.size() < limit) {
+            polled.add(Long.toString(it.next()));
+            it.remove();
+        }
+        return polled;
+    }
+
+    public synchronized int getPendingInvalidates() {
+        return invalidateBlocks.size();
+    }
+
+    // 扣除已分配但尚未写入的块后的剩余空间
+    public long getRemaining() {
+        return info.getRemaining() - (long) blocksScheduled.get() * Config.BLOCK_SIZE;
+    }
+
+    // 当前负载：正在进行的传输数加上新分配的块数
+    public int getLoad() {
+        return info.getActiveTransfers() + blocksScheduled.get();
+    }
+
+    // 已用空间占容量的比例
+    public double getUsedRatio() {
+        long capacity = info.getCapacity();
+        return capacity <= 0 ? 1.0 : 1.0 - (double) getRemaining() / capacity;
+    }
+
+    @Override
+    public String toString() {
+        return name + "{load=" + getLoad() + ", remaining=" + getRemaining() + "}";
+    }
+}
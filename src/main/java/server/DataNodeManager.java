@@ -0,0 +1,133 @@
+package server;
+
+import common.DataNodeInfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// DataNode 管理：维护 DataNode 编号表和活跃节点的心跳状态。
+// Inode 中的块副本位置只存 int 编号，这里维护编号与名字的双向映射，编号一经分配不再改变。
+// 纠删码块组的位置中 -1 表示该单元没有存放节点，对应的名字是空字符串
+public class DataNodeManager {
+    public static final int NO_NODE = -1;
+
+    private final Map<String, Integer> indexByName = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[0];
+    private final Map<String, DataNodeDescriptor> liveNodes = new ConcurrentHashMap<>(); // 活跃节点
+
+    // 返回 DataNode 的编号，第一次出现时分配新编号
+    public int register(String name) {
+        Integer index = indexByName.get(name);
+        if (index != null) {
+            return index;
+        }
+        synchronized (this) {
+            index = indexByName.get(name);
+            if (index == null) {
+                index = names.length;
+                String[] grown = Arrays.copyOf(names, index + 1);
+                grown[index] = name;
+                names = grown;
+                indexByName.put(name, index);
+            }
+            return index;
+        }
+    }
+
+    public String nameOf(int index) {
+        return names[index];
+    }
+
+    // 按编号顺序返回所有名字
+    public String[] snapshot() {
+        return names.clone();
+    }
+
+    public List<String> namesOf(int[] indices) {
+        String[] snapshot = names;
+        List<String> result = new ArrayList<>(indices.length);
+        for (int index : indices) {
+            result.add(index == NO_NODE ? "" : snapshot[index]);
+        }
+        return result;
+    }
+
+    public int[] register(List<String> nodeNames) {
+        int[] indices = new int[nodeNames.size()];
+        for (int i = 0; i < indices.length; i++) {
+            String name = nodeNames.get(i);
+            indices[i] = name.isEmpty() ? NO_NODE : register(name);
+        }
+        return indices;
+    }
+
+    // 处理一次心跳，节点第一次出现或超时后重新出现时加入活跃节点
+    public DataNodeDescriptor heartbeat(DataNodeInfo info) {
+        long now = System.currentTimeMillis();
+        return liveNodes.compute(info.getName(), (name, node) -> {
+            if (node == null) {
+                node = new DataNodeDescriptor(name, register(name));
+            }
+            node.update(info, now);
+            return node;
+        });
+    }
+
+    public DataNodeDescriptor getLiveNode(String name) {
+        return liveNodes.get(name);
+    }
+
+    // 编号对应的节点活跃时返回其状态，否则返回 null
+    public DataNodeDescriptor getLiveNode(int index) {
+        String[] snapshot = names;
+        return index >= 0 && index < snapshot.length ? liveNodes.get(snapshot[index]) : null;
+    }
+
+    public static boolean contains(int[] locations, int index) {
+        for (int location : locations) {
+            if (location == index) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 统计 locations 中活跃节点的个数
+    public int countLive(int[] locations) {
+        int live = 0;
+        for (int location : locations) {
+            if (getLiveNode(location) != null) {
+                live++;
+            }
+        }
+        return live;
+    }
+
+    public List<DataNodeDescriptor> getLiveNodes() {
+        return new ArrayList<>(liveNodes.values());
+    }
+
+    public List<String> getLiveNodeNames() {
+        return new ArrayList<>(liveNodes.keySet());
+    }
+
+    // 移除超过 timeout 毫秒没有心跳的节点，返回被移除的节点名
+    public List<String> removeDeadNodes(long timeout) {
+        long now = System.currentTimeMillis();
+        List<String> removed = new ArrayList<>();
+        for (String name : liveNodes.keySet()) {
+            // 在 computeIfPresent 中判断，避免移除刚刚收到心跳的节点
+            liveNodes.computeIfPresent(name, (k, node) -> {
+                if (node.getLastHeartbeat() + timeout < now) {
+                    removed.add(k);
+                    return null;
+                }
+                return node;
+            });
+        }
+        return removed;
+    }
+}
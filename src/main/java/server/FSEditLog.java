@@ -0,0 +1,278 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+// NameNode 的预写编辑日志。修改操作在持有路径锁时调用 log 写入内存缓冲区并获得事务号，
+// 释放锁后调用 logSync 等待落盘。同一时刻只有一个线程执行 fsync，它把此前所有线程缓冲的记录一起刷盘，
+// 其余线程等待这次 fsync 覆盖自己的事务号即可返回（group commit）
+//
+// 日志按段存放在 edits_<起始事务号> 文件中，每条记录为 [int 长度][long 事务号][byte 操作][参数][int CRC32]
+public class FSEditLog {
+    public static final byte OP_CREATE = 1;
+    public static final byte OP_RENAME = 2;
+    public static final byte OP_DELETE = 3;
+    public static final byte OP_ADD_BLOCK = 4;
+    public static final byte OP_SET_REPLICAS = 5;
+    public static final byte OP_SET_EC_POLICY = 6;
+    public static final byte OP_ADD_BLOCK_GROUP = 7;
+    public static final byte OP_SET_COMPRESSION = 8;
+    public static final byte OP_SET_PACKED = 9;
+    public static final byte OP_APPEND_BLOCK = 10; // 带块中文件数据长度的 OP_ADD_BLOCK
+    public static final byte OP_APPEND_BLOCK_GROUP = 11; // 带块组中文件数据长度的 OP_ADD_BLOCK_GROUP
+    public static final byte OP_SET_LAST_BLOCK_SIZE = 12; // 流式写入提前结束时记录最后一个块的实际长度
+
+    private static final String EDITS_PREFIX = "edits_";
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    // 回放时把每条记录交给 NameNode 应用
+    public interface Applier {
+        void apply(byte op, DataInputStream in) throws IOException;
+    }
+
+    private final File dir;
+    private FileChannel channel; // 当前日志段
+    private long lastTxId; // 最后分配的事务号
+    private long syncedTxId; // 已落盘的最大事务号
+    private boolean syncRunning; // 是否有线程正在 fsync
+    private IOException failure; // 刷盘失败的原因：缓冲区已交换、未落盘的记录无法补写，此后拒绝所有记录
+    private ByteArrayOutputStream current = new ByteArrayOutputStream(64 * 1024); // 等待刷盘的记录
+    private ByteArrayOutputStream flushing = new ByteArrayOutputStream(64 * 1024); // 正在刷盘的记录
+    private final ThreadLocal<Long> myTxId = ThreadLocal.withInitial(() -> 0L); // 当前线程最后写入的事务号
+
+    // 打开一个从 nextTxId 开始的新日志段
+    public FSEditLog(File dir, long nextTxId) throws IOException {
+        this.dir = dir;
+        this.lastTxId = nextTxId - 1;
+        this.syncedTxId = lastTxId;
+        openSegment(nextTxId);
+    }
+
+    // 追加一条记录，返回事务号；调用方需随后调用 logSync
+    public synchronized long log(byte op, Object... args) {
+        if (failure != null) {
+            throw new IllegalStateException("Edit log failed, rejecting further edits", failure);
+        }
+        long txId = ++lastTxId;
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeLong(txId);
+            out.writeByte(op);
+            for (Object arg : args) {
+                writeArg(out, arg);
+            }
+            byte[] bytes = body.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length);
+            DataOutputStream record = new DataOutputStream(current);
+            record.writeInt(bytes.length);
+            record.write(bytes);
+            record.writeInt((int) crc.getValue());
+        } catch (IOException e) {
+            // 写入内存缓冲区不会失败
+            throw new IllegalStateException(e);
+        }
+        myTxId.set(txId);
+        return txId;
+    }
+
+    // 等待当前线程写入的记录落盘
+    public void logSync() throws IOException {
+        long txId = myTxId.get();
+        long target;
+        ByteArrayOutputStream toFlush;
+        synchronized (this) {
+            while (txId > syncedTxId && syncRunning) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for edit log sync", e);
+                }
+            }
+            if (txId <= syncedTxId) {
+                return; // 已被其他线程的 fsync 覆盖
+            }
+            if (failure != null) {
+                throw new IOException("Edit log failed, transaction " + txId + " is not durable", failure);
+            }
+            // 由本线程负责刷盘，把此前所有缓冲的记录一起带走
+            syncRunning = true;
+            target = lastTxId;
+            toFlush = current;
+            current = flushing;
+            flushing = toFlush;
+        }
+        boolean synced = false;
+        IOException error = null;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(toFlush.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            toFlush.reset();
+            synced = true;
+        } catch (IOException e) {
+            error = e;
+            throw e;
+        } finally {
+            synchronized (this) {
+                syncRunning = false;
+                if (synced) {
+                    syncedTxId = Math.max(syncedTxId, target);
+                } else {
+                    // 写入了多少无法确定，日志不再可信；等待中的线程醒来后同样失败
+                    failure = error != null ? error : new IOException("Edit log sync up to transaction " + target + " did not complete");
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    public synchronized long getLastTxId() {
+        return lastTxId;
+    }
+
+    // 把已有记录落盘后切换到新日志段，返回旧段的最后一个事务号；调用方需保证期间没有新的修改
+    public long rollSegment() throws IOException {
+        long last;
+        synchronized (this) {
+            last = lastTxId;
+            myTxId.set(last);
+        }
+        logSync();
+        synchronized (this) {
+            while (syncRunning) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while rolling edit log", e);
+                }
+            }
+            channel.close();
+            openSegment(last + 1);
+        }
+        return last;
+    }
+
+    // 删除所有事务号都不大于 txId 的旧日志段
+    public synchronized void purgeSegmentsUpTo(long txId) {
+        TreeMap<Long, File> segments = listSegments(dir);
+        List<Long> starts = new ArrayList<>(segments.keySet());
+        for (int i = 0; i + 1 < starts.size(); i++) {
+            if (starts.get(i + 1) - 1 <= txId) {
+                segments.get(starts.get(i)).delete();
+            }
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    // 按顺序回放 dir 中事务号大于 afterTxId 的记录，返回最后回放的事务号；末尾写了一半的记录被忽略
+    public static long replay(File dir, long afterTxId, Applier applier) throws IOException {
+        long last = afterTxId;
+        for (File file : listSegments(dir).values()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+                while (true) {
+                    byte[] bytes;
+                    int checksum;
+                    try {
+                        int length = in.readInt();
+                        if (length < 0 || length > MAX_RECORD_SIZE) {
+                            System.out.println("Invalid edit log record length in " + file + ", ignoring the rest of the segment.");
+                            break;
+                        }
+                        bytes = new byte[length];
+                        in.readFully(bytes);
+                        checksum = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    CRC32 crc = new CRC32();
+                    crc.update(bytes, 0, bytes.length);
+                    if ((int) crc.getValue() != checksum) {
+                        System.out.println("Corrupt edit log record in " + file + ", ignoring the rest of the segment.");
+                        break;
+                    }
+                    DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+                    long txId = record.readLong();
+                    byte op = record.readByte();
+                    if (txId > last) {
+                        applier.apply(op, record);
+                        last = txId;
+                    }
+                }
+            }
+        }
+        return last;
+    }
+
+    private static TreeMap<Long, File> listSegments(File dir) {
+        TreeMap<Long, File> segments = new TreeMap<>();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(EDITS_PREFIX)) {
+                    segments.put(Long.parseLong(file.getName().substring(EDITS_PREFIX.length())), file);
+                }
+            }
+        }
+        return segments;
+    }
+
+    private void openSegment(long startTxId) throws IOException {
+        File file = new File(dir, EDITS_PREFIX + String.format("%019d", startTxId));
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        // 同名段只可能是上次启动后尚无有效记录的段，清掉其中可能残留的半条记录
+        channel.truncate(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeArg(DataOutputStream out, Object arg) throws IOException {
+        if (arg instanceof String) {
+            out.writeUTF((String) arg);
+        } else if (arg instanceof Boolean) {
+            out.writeBoolean((Boolean) arg);
+        } else if (arg instanceof Long) {
+            out.writeLong((Long) arg);
+        } else if (arg instanceof Integer) {
+            out.writeInt((Integer) arg);
+        } else if (arg instanceof List) {
+            List<String> list = (List<String>) arg;
+            out.writeInt(list.size());
+            for (String item : list) {
+                out.writeUTF(item);
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported edit log argument " + arg);
+        }
+    }
+
+    public static List<String> readStringList(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<String> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(in.readUTF());
+        }
+        return list;
+    }
+}
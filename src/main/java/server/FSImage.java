@@ -0,0 +1,197 @@
+package server;
+
+import common.Config;
+import common.Inode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// 命名空间的二进制检查点 fsimage_<事务号>：先写 DataNode 编号表，再按先序遍历写出整棵 Inode 树。
+// 块副本位置以编号表中的序号保存（纠删码块组中缺失的单元为 -1），块ID由 inode ID 推出，不写入镜像。
+// 打包文件写出所在容器块的ID和起始位置。
+// 启动时加载最新的镜像，再回放其后的编辑日志
+public class FSImage {
+    // "FSI" 加版本号：FSI3 增加纠删码策略和块组长度，FSI4 增加压缩编解码器，FSI5 增加打包文件的位置，FSI6 增加每个块的文件数据长度
+    private static final int MAGIC_PREFIX = 0x46534900;
+    private static final int VERSION = '6';
+    private static final int MIN_VERSION = '2';
+    private static final String IMAGE_PREFIX = "fsimage_";
+
+    private FSImage() {
+    }
+
+    // 加载结果：根目录、镜像对应的最后事务号和最后分配的 inode ID
+    public static class Loaded {
+        public final Inode root;
+        public final long txId;
+        public final long lastInodeId;
+
+        Loaded(Inode root, long txId, long lastInodeId) {
+            this.root = root;
+            this.txId = txId;
+            this.lastInodeId = lastInodeId;
+        }
+    }
+
+    // 保存镜像：先写临时文件并 fsync，再原子地改名，最后删除更旧的镜像
+    public static void save(File dir, Inode root, long txId, long lastInodeId, DataNodeManager dataNodeManager) throws IOException {
+        File tmp = new File(dir, IMAGE_PREFIX + "ckpt.tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(MAGIC_PREFIX | VERSION);
+            out.writeLong(txId);
+            out.writeLong(lastInodeId);
+            String[] dataNodes = dataNodeManager.snapshot();
+            out.writeInt(dataNodes.length);
+            for (String dataNode : dataNodes) {
+                out.writeUTF(dataNode);
+            }
+            writeInode(out, root);
+            out.flush();
+            file.getFD().sync();
+        }
+        File image = imageFile(dir, txId);
+        if (!tmp.renameTo(image)) {
+            throw new IOException("Cannot rename " + tmp + " to " + image);
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File old : files) {
+                if (old.getName().startsWith(IMAGE_PREFIX) && !old.equals(image)) {
+                    old.delete();
+                }
+            }
+        }
+    }
+
+    // 加载最新的镜像，没有镜像时返回 null；加载出的节点放入 inodes，原有内容被清空
+    public static Loaded loadLatest(File dir, InodeMap inodes, NameCache nameCache, DataNodeManager dataNodeManager) throws IOException {
+        File latest = null;
+        long latestTxId = -1;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(IMAGE_PREFIX) && !name.endsWith(".tmp")) {
+                    long txId = Long.parseLong(name.substring(IMAGE_PREFIX.length()));
+                    if (txId > latestTxId) {
+                        latest = file;
+                        latestTxId = txId;
+                    }
+                }
+            }
+        }
+        if (latest == null) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(latest), 1 << 16))) {
+            int magic = in.readInt();
+            int version = magic & 0xff;
+            if ((magic & ~0xff) != MAGIC_PREFIX || version < MIN_VERSION || version > VERSION) {
+                throw new IOException("Bad image file " + latest);
+            }
+            long txId = in.readLong();
+            long lastInodeId = in.readLong();
+            // 镜像中的编号映射到本次启动的编号
+            int[] dataNodeIndex = new int[in.readInt()];
+            for (int i = 0; i < dataNodeIndex.length; i++) {
+                dataNodeIndex[i] = dataNodeManager.register(in.readUTF());
+            }
+            inodes.clear();
+            Inode root = readInode(in, inodes, nameCache, dataNodeIndex, version);
+            return new Loaded(root, txId, lastInodeId);
+        }
+    }
+
+    private static File imageFile(File dir, long txId) {
+        return new File(dir, IMAGE_PREFIX + String.format("%019d", txId));
+    }
+
+    private static void writeInode(DataOutputStream out, Inode inode) throws IOException {
+        out.writeLong(inode.getId());
+        byte[] name = inode.getNameBytes();
+        out.writeShort(name.length);
+        out.write(name);
+        out.writeUTF(inode.getOwner());
+        out.writeBoolean(inode.isDirectory());
+        out.writeLong(inode.getCreationTime());
+        out.writeLong(inode.getFileSize());
+        out.writeByte(inode.getErasureCodingPolicy());
+        out.writeByte(inode.getCompressionCodec());
+        if (inode.isDirectory()) {
+            out.writeInt(inode.getChildrenCount());
+            for (Inode child : inode.getChildren()) {
+                writeInode(out, child);
+            }
+        } else {
+            out.writeLong(inode.getPackedBlockId());
+            if (inode.isPacked()) {
+                out.writeInt(inode.getPackedOffset());
+            }
+            out.writeInt(inode.getBlockCount());
+            for (int i = 0; i < inode.getBlockCount(); i++) {
+                int[] locations = inode.getBlockLocations(i);
+                out.writeByte(locations.length);
+                for (int location : locations) {
+                    out.writeInt(location);
+                }
+                out.writeLong(inode.getBlockLength(i));
+                out.writeLong(inode.getBlockSize(i));
+            }
+        }
+    }
+
+    private static Inode readInode(DataInputStream in, InodeMap inodes, NameCache nameCache, int[] dataNodeIndex,
+                                   int version) throws IOException {
+        boolean erasureCoded = version >= '3';
+        long id = in.readLong();
+        byte[] name = new byte[in.readUnsignedShort()];
+        in.readFully(name);
+        String owner = in.readUTF().intern();
+        boolean isDirectory = in.readBoolean();
+        Inode inode = new Inode(id, nameCache.get(new String(name, StandardCharsets.UTF_8)), owner, isDirectory, in.readLong());
+        inode.setFileSize(in.readLong());
+        if (erasureCoded) {
+            inode.setErasureCodingPolicy(in.readByte());
+        }
+        if (version >= '4') {
+            inode.setCompressionCodec(in.readByte());
+        }
+        if (!isDirectory && version >= '5') {
+            long packedBlockId = in.readLong();
+            if (packedBlockId != 0) {
+                inode.setPacked(packedBlockId, in.readInt(), inode.getFileSize());
+            }
+        }
+        int count = in.readInt();
+        if (isDirectory) {
+            for (int i = 0; i < count; i++) {
+                inode.addChild(readInode(in, inodes, nameCache, dataNodeIndex, version));
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                int[] locations = new int[in.readUnsignedByte()];
+                for (int r = 0; r < locations.length; r++) {
+                    int location = in.readInt();
+                    locations[r] = location == DataNodeManager.NO_NODE ? location : dataNodeIndex[location];
+                }
+                long length = erasureCoded ? in.readLong() : -1;
+                long size = version >= '6' ? in.readLong() : Config.BLOCK_SIZE; // 旧镜像没有块长度，按整块计
+                if (length >= 0) {
+                    inode.addBlockGroup(locations, length, size);
+                } else {
+                    inode.addBlock(locations, size);
+                }
+            }
+        }
+        inodes.put(inode);
+        return inode;
+    }
+}
@@ -0,0 +1,202 @@
+package server;
+
+import common.Inode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+// inode ID 到 Inode 的哈希表。链表指针直接存放在 Inode 中（侵入式），
+// 每个条目只占用一个数组槽位，不像 HashMap 那样为每个条目额外分配节点和装箱的 Long。
+// 表按 ID 的哈希分成 SEGMENTS 段，每段有自己的桶数组和读写锁，不同路径上的创建、删除和回收只在落到同一段时互斥
+public class InodeMap {
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public InodeMap(int initialCapacity) {
+        int segmentCapacity = Math.max(16, initialCapacity / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+    }
+
+    public Inode get(long id) {
+        long h = hash(id);
+        return segmentFor(h).get(id, h);
+    }
+
+    public void put(Inode inode) {
+        long h = hash(inode.getId());
+        segmentFor(h).put(inode, h);
+    }
+
+    public Inode remove(long id) {
+        long h = hash(id);
+        return segmentFor(h).remove(id, h);
+    }
+
+    // 各段大小之和，并发修改时是近似值
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    // 遍历所有节点。每次只在一段的读锁下处理一批桶，遍历期间不会长时间阻塞修改；
+    // 遍历中途扩容时节点只会移到更靠后的桶，因此不会漏掉遍历开始前已存在的节点，但可能重复访问
+    public void forEach(Consumer<Inode> action) {
+        for (Segment segment : segments) {
+            segment.forEach(action);
+        }
+    }
+
+    private Segment segmentFor(long h) {
+        return segments[(int) (h >>> (64 - SEGMENT_BITS))];
+    }
+
+    private static long hash(long id) {
+        return id * 0x9E3779B97F4A7C15L; // 打散连续分配的ID
+    }
+
+    // 段内的桶取哈希的中间位，与选择段用的高位不重叠
+    private static int indexFor(long h, int length) {
+        return (int) (h >>> 24) & (length - 1);
+    }
+
+    private static class Segment {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private Inode[] table;
+        private int size;
+
+        Segment(int initialCapacity) {
+            table = new Inode[Integer.highestOneBit(Math.max(16, initialCapacity - 1)) << 1];
+        }
+
+        Inode get(long id, long h) {
+            lock.readLock().lock();
+            try {
+                for (Inode inode = table[indexFor(h, table.length)]; inode != null; inode = inode.getNext()) {
+                    if (inode.getId() == id) {
+                        return inode;
+                    }
+                }
+                return null;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void put(Inode inode, long h) {
+            lock.writeLock().lock();
+            try {
+                removeLocked(inode.getId(), h);
+                if (size >= table.length - (table.length >> 2)) {
+                    resize();
+                }
+                int index = indexFor(h, table.length);
+                inode.setNext(table[index]);
+                table[index] = inode;
+                size++;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        Inode remove(long id, long h) {
+            lock.writeLock().lock();
+            try {
+                return removeLocked(id, h);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        int size() {
+            lock.readLock().lock();
+            try {
+                return size;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void clear() {
+            lock.writeLock().lock();
+            try {
+                Arrays.fill(table, null);
+                size = 0;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void forEach(Consumer<Inode> action) {
+            int position = 0;
+            while (true) {
+                List<Inode> batch = new ArrayList<>();
+                lock.readLock().lock();
+                try {
+                    if (position >= table.length) {
+                        return;
+                    }
+                    int end = Math.min(table.length, position + 4096);
+                    for (; position < end; position++) {
+                        for (Inode inode = table[position]; inode != null; inode = inode.getNext()) {
+                            batch.add(inode);
+                        }
+                    }
+                } finally {
+                    lock.readLock().unlock();
+                }
+                for (Inode inode : batch) {
+                    action.accept(inode);
+                }
+            }
+        }
+
+        private Inode removeLocked(long id, long h) {
+            int index = indexFor(h, table.length);
+            Inode previous = null;
+            for (Inode inode = table[index]; inode != null; previous = inode, inode = inode.getNext()) {
+                if (inode.getId() == id) {
+                    if (previous == null) {
+                        table[index] = inode.getNext();
+                    } else {
+                        previous.setNext(inode.getNext());
+                    }
+                    inode.setNext(null);
+                    size--;
+                    return inode;
+                }
+            }
+            return null;
+        }
+
+        private void resize() {
+            Inode[] grown = new Inode[table.length << 1];
+            for (Inode head : table) {
+                Inode inode = head;
+                while (inode != null) {
+                    Inode next = inode.getNext();
+                    int index = indexFor(hash(inode.getId()), grown.length);
+                    inode.setNext(grown[index]);
+                    grown[index] = inode;
+                    inode = next;
+                }
+            }
+            table = grown;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package server;
+
+import common.ErasureCodingPolicy;
+import common.Inode;
+import common.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// 后台回收已删除的子树。删除操作只在锁内把子树从父目录摘下，之后由本类分批遍历子树：
+// 把 inode 从 ID 映射中移除，并把其中文件的块按所在 DataNode 归并，随各节点的下一次心跳批量下发删除命令。
+// 已摘下的子树无法再通过路径访问，遍历时不需要路径锁。
+// 目录和打包文件回收后通知 NameNode，由它在容器文件不再被引用时删除容器文件，容器块随之回收
+public class InodeReclaimer {
+    private final InodeMap inodeMap;
+    private final DataNodeManager dataNodeManager;
+    private final Consumer<Inode> removed; // 目录或打包文件回收后的回调
+    private final Deque<Inode> pending = new ArrayDeque<>(); // 待回收的 inode，目录的子节点在处理目录时压入
+    private long reclaimedInodes;
+    private long reclaimedBlocks;
+
+    public InodeReclaimer(InodeMap inodeMap, DataNodeManager dataNodeManager, Consumer<Inode> removed) {
+        this.inodeMap = inodeMap;
+        this.dataNodeManager = dataNodeManager;
+        this.removed = removed;
+    }
+
+    // 登记一棵已从命名空间摘下的子树，由 reclaim 在后台回收
+    public synchronized void add(Inode root) {
+        pending.push(root);
+    }
+
+    // 立即回收整棵子树，不下发删除命令；用于回放编辑日志，此时还没有 DataNode 注册，残留的块由完整块汇报清理
+    public void reclaimNow(Inode root) {
+        Deque<Inode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            remove(stack.pop(), stack, null, null);
+        }
+    }
+
+    // 回收最多 limit 个 inode，返回本次回收的数量；由定时任务调用，未处理完的留到下一轮
+    public int reclaim(int limit) {
+        Map<Integer, List<Long>> invalidates = new HashMap<>(); // DataNode 编号到要删除的块
+        List<Inode> notify = new ArrayList<>(); // 本次回收的目录和打包文件
+        int count = 0;
+        synchronized (this) {
+            while (count < limit && !pending.isEmpty()) {
+                remove(pending.pop(), pending, invalidates, notify);
+                count++;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        // 在本类的锁外回调，NameNode 删除容器文件时会再调用 add
+        for (Inode inode : notify) {
+            removed.accept(inode);
+        }
+        long blocks = 0;
+        for (Map.Entry<Integer, List<Long>> entry : invalidates.entrySet()) {
+            blocks += entry.getValue().size();
+            DataNodeDescriptor node = dataNodeManager.getLiveNode(entry.getKey());
+            if (node != null) {
+                node.addInvalidates(entry.getValue());
+            }
+            // 不活跃的节点重新上线后，完整块汇报中这些块已没有所属文件，会被通知删除
+        }
+        synchronized (this) {
+            reclaimedInodes += count;
+            reclaimedBlocks += blocks;
+        }
+        Log.info("Reclaimed " + count + " deleted inodes, " + blocks + " replicas scheduled for deletion.");
+        return count;
+    }
+
+    // 移除一个 inode：目录的子节点压入 stack，目录和打包文件记入 notify，文件的块按所在节点记入 invalidates（为 null 时都不记录）
+    private void remove(Inode inode, Deque<Inode> stack, Map<Integer, List<Long>> invalidates, List<Inode> notify) {
+        inodeMap.remove(inode.getId());
+        if (notify != null && (inode.isDirectory() || inode.isPacked())) {
+            notify.add(inode);
+        }
+        if (inode.isDirectory()) {
+            if (inode.getChildrenCount() > 0) {
+                for (Inode child : inode.getChildren()) {
+                    stack.push(child);
+                }
+            }
+            return;
+        }
+        if (invalidates != null) {
+            // 打包文件没有自己的块，数据留在容器块中
+            groupReplicas(inode, invalidates);
+        }
+    }
+
+    // 把文件各块的副本（纠删码文件为各内部块）按所在 DataNode 编号归并到 replicas
+    static void groupReplicas(Inode file, Map<Integer, List<Long>> replicas) {
+        boolean striped = ErasureCodingPolicy.byId(file.getErasureCodingPolicy()) != null;
+        for (int i = 0; i < file.getBlockCount(); i++) {
+            int[] locations = file.getBlockLocations(i);
+            for (int unit = 0; unit < locations.length; unit++) {
+                if (locations[unit] < 0) {
+                    continue;
+                }
+                long blockId = striped ? Inode.internalBlockId(file.getBlockId(i), unit) : file.getBlockId(i);
+                replicas.computeIfAbsent(locations[unit], k -> new ArrayList<>()).add(blockId);
+            }
+        }
+    }
+
+    // 待回收的 inode 数，目录的子节点在遍历到该目录后才计入
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public synchronized long getReclaimedInodes() {
+        return reclaimedInodes;
+    }
+
+    public synchronized long getReclaimedBlocks() {
+        return reclaimedBlocks;
+    }
+}
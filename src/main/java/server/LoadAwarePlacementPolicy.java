@@ -0,0 +1,73 @@
+package server;
+
+import common.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+// 默认放置策略：跳过剩余空间不足一个块的节点，以及负载远高于平均值的节点；
+// 每个副本随机取两个候选节点，选负载更低的，负载相同时选已用比例更低的。
+// 随机两选一既能避开热点，又不会让所有并发分配同时挤向同一个最空闲的节点
+public class LoadAwarePlacementPolicy implements BlockPlacementPolicy {
+
+    @Override
+    public List<DataNodeDescriptor> chooseTargets(int replication, List<DataNodeDescriptor> candidates, Set<String> excluded) {
+        List<DataNodeDescriptor> good = new ArrayList<>();
+        List<DataNodeDescriptor> busy = new ArrayList<>();
+        double averageLoad = averageLoad(candidates);
+        for (DataNodeDescriptor node : candidates) {
+            if (excluded.contains(node.getName()) || node.getRemaining() < Config.BLOCK_SIZE) {
+                continue;
+            }
+            if (node.getLoad() > Config.PLACEMENT_LOAD_FACTOR * averageLoad + 1) {
+                busy.add(node);
+            } else {
+                good.add(node);
+            }
+        }
+        List<DataNodeDescriptor> chosen = new ArrayList<>(replication);
+        choose(good, replication, chosen);
+        // 负载正常的节点不够时才使用繁忙节点
+        choose(busy, replication, chosen);
+        return chosen;
+    }
+
+    // 从 nodes 中选节点直到 chosen 达到 replication 个，选中的节点从 nodes 中移除
+    private void choose(List<DataNodeDescriptor> nodes, int replication, List<DataNodeDescriptor> chosen) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (chosen.size() < replication && !nodes.isEmpty()) {
+            int first = random.nextInt(nodes.size());
+            int picked = first;
+            if (nodes.size() > 1) {
+                int second = random.nextInt(nodes.size() - 1);
+                if (second >= first) {
+                    second++;
+                }
+                if (compare(nodes.get(second), nodes.get(first)) < 0) {
+                    picked = second;
+                }
+            }
+            chosen.add(nodes.get(picked));
+            nodes.set(picked, nodes.get(nodes.size() - 1));
+            nodes.remove(nodes.size() - 1);
+        }
+    }
+
+    private int compare(DataNodeDescriptor a, DataNodeDescriptor b) {
+        int cmp = Integer.compare(a.getLoad(), b.getLoad());
+        return cmp != 0 ? cmp : Double.compare(a.getUsedRatio(), b.getUsedRatio());
+    }
+
+    private double averageLoad(List<DataNodeDescriptor> nodes) {
+        if (nodes.isEmpty()) {
+            return 0;
+        }
+        long total = 0;
+        for (DataNodeDescriptor node : nodes) {
+            total += node.getLoad();
+        }
+        return (double) total / nodes.size();
+    }
+}
@@ -0,0 +1,41 @@
+package server;
+
+import common.Config;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 文件名字节数组的共享缓存：同一个名字出现的次数达到阈值后，所有 Inode 共享同一个数组，
+// 像 part-00000、_SUCCESS 这样大量重复的名字只占一份内存
+public class NameCache {
+    private final Map<String, byte[]> cache = new ConcurrentHashMap<>(); // 已共享的名字
+    private final Map<String, AtomicInteger> candidates = new ConcurrentHashMap<>(); // 尚未达到阈值的名字及出现次数
+
+    public byte[] get(String name) {
+        byte[] cached = cache.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (cache.size() >= Config.NAME_CACHE_SIZE) {
+            return bytes;
+        }
+        AtomicInteger count = candidates.computeIfAbsent(name, k -> new AtomicInteger());
+        if (count.incrementAndGet() >= Config.NAME_CACHE_THRESHOLD) {
+            candidates.remove(name);
+            byte[] previous = cache.putIfAbsent(name, bytes);
+            return previous != null ? previous : bytes;
+        }
+        if (candidates.size() > Config.NAME_CACHE_SIZE) {
+            // 候选表只用于发现高频名字，过大时清空重新统计
+            candidates.clear();
+        }
+        return bytes;
+    }
+
+    public int size() {
+        return cache.size();
+    }
+}
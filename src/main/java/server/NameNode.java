@@ -2,87 +2,1005 @@ package server;
 
 import InterFace.NameNodeInter;
 import common.BlockInfo;
+import common.CompressedBlock;
+import common.CompressionCodec;
+import common.Config;
+import common.DataNodeCommand;
+import common.DataNodeInfo;
+import common.DirectoryListing;
+import common.ErasureCodingPolicy;
 import common.Inode;
+import common.Log;
+import common.Metrics;
+import common.MetricsServer;
+import common.Rpc;
 
-import java.rmi.Naming;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
-import java.rmi.server.UnicastRemoteObject;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
 
-public class NameNode extends UnicastRemoteObject implements NameNodeInter {
-    private Map<String, Inode> idToInodeMap; // ID到Inode的映射
-    private Map<String, Inode> pathToInodeMap; // 路径到Inode的映射
-    private List<String> dataNodes; // 存储活跃的DataNode名称
-    private Map<String, Long> lastHeartbeatTime; // 存储每个DataNode的最后一次心跳时间
+// 命名空间是一棵以 root 为根的 Inode 树，路径逐级从根目录解析。
+// 并发模型：ID哈希表自带锁，Inode 内部状态（子节点表、块列表）由 PathLockManager 的路径锁保护。
+// 修改操作对被修改的路径（以及子节点列表会变化的父目录）加写锁，对祖先加读锁；只读操作只加读锁。
+// 持久化：修改操作在持锁时写编辑日志，释放锁后等待 group commit 落盘再返回；定期写出检查点镜像
+// try-with-resources 只用来持有路径锁，锁句柄在块内不被引用
+@SuppressWarnings("try")
+public class NameNode implements NameNodeInter {
+    private static final long ROOT_ID = 1; // 根目录的 inode ID
+    private final InodeMap inodeMap = new InodeMap(1 << 16); // ID到Inode的映射
+    private final AtomicLong lastInodeId = new AtomicLong(ROOT_ID); // 最后分配的 inode ID
+    private final NameCache nameCache = new NameCache(); // 共享的文件名字节数组
+    private final DataNodeManager dataNodeManager = new DataNodeManager(); // DataNode 编号表
+    private final PathLockManager locks = new PathLockManager(Config.NAMESPACE_LOCK_STRIPES); // 命名空间路径锁，RPC 入口先规范化路径再加锁和写日志
+    private final BlockPlacementPolicy placementPolicy = createPlacementPolicy(); // 块副本放置策略
+    private final ReplicationMonitor replicationMonitor = new ReplicationMonitor(inodeMap, locks, dataNodeManager, placementPolicy); // 副本修复
+    private final Map<Long, Integer> packedFileCounts = new HashMap<>(); // 容器文件的 inode ID 到引用它的打包文件数
+    private final InodeReclaimer reclaimer = new InodeReclaimer(inodeMap, dataNodeManager, this::inodeReclaimed); // 后台回收已删除的子树
     private static final long HEARTBEAT_TIMEOUT = 30000; // 心跳超时时间，30秒
     private Inode root; // 根目录
     private Timer timer; // 定时器
+    private final File nameDir = new File(Config.NAME_DIR); // 镜像和编辑日志所在目录
+    private FSEditLog editLog; // 编辑日志，加载完成前为 null，此时的修改不记录日志
+    private volatile long lastCheckpointTxId; // 最近一次检查点对应的事务号
+    private volatile long lastCheckpointTime = System.currentTimeMillis(); // 最近一次检查点的时间
+    private final Metrics metrics = Metrics.get("nameNode"); // 运行指标，RPC 调用的次数和延迟由 Rpc.bind 记录在同一组件下
 
     public NameNode() throws RemoteException {
         super();
-        idToInodeMap = new HashMap<>();
-        pathToInodeMap = new HashMap<>();
-        dataNodes = new ArrayList<>();
-        lastHeartbeatTime = new HashMap<>();
         root = createDirectory("/", "root");
+        try {
+            loadNamespace();
+        } catch (IOException e) {
+            throw new RemoteException("Cannot load namespace from " + nameDir, e);
+        }
+        countPackedFiles();
         timer = new Timer(); // 初始化定时器
         scheduleRemoveInactiveDataNodes(); // 启动定时任务
+        scheduleReplicationMonitor(); // 启动定时副本修复任务
+        scheduleCheckpoint(); // 启动定时检查点任务
+        scheduleReclaimer(); // 启动定时回收已删除子树的任务
+        registerGauges();
+    }
+
+    private void registerGauges() {
+        metrics.gauge("inodes", inodeMap::size);
+        metrics.gauge("liveDataNodes", () -> dataNodeManager.getLiveNodes().size());
+        metrics.gauge("underReplicatedBlocks", replicationMonitor::getUnderReplicatedCount);
+        metrics.gauge("pendingReplications", replicationMonitor::getPendingCount);
+        metrics.gauge("missingBlocks", replicationMonitor::getMissingCount);
+        metrics.gauge("uncheckpointedTxns", () -> editLog.getLastTxId() - lastCheckpointTxId);
+        metrics.gauge("pendingDeletionInodes", reclaimer::getPendingCount);
+        metrics.gauge("reclaimedInodes", reclaimer::getReclaimedInodes);
+        metrics.gauge("reclaimedBlocks", reclaimer::getReclaimedBlocks);
+        // 每个活跃 DataNode 距上次心跳的毫秒数和等待随心跳下发的命令数
+        metrics.gauges("heartbeatLagMillis", () -> {
+            long now = System.currentTimeMillis();
+            Map<String, Long> lags = new TreeMap<>();
+            for (DataNodeDescriptor node : dataNodeManager.getLiveNodes()) {
+                lags.put(node.getName(), now - node.getLastHeartbeat());
+            }
+            return lags;
+        });
+        metrics.gauges("pendingCommands", () -> {
+            Map<String, Long> pending = new TreeMap<>();
+            for (DataNodeDescriptor node : dataNodeManager.getLiveNodes()) {
+                pending.put(node.getName(), (long) node.getPendingCommands());
+            }
+            return pending;
+        });
+        metrics.gauges("failedVolumes", () -> {
+            Map<String, Long> failed = new TreeMap<>();
+            for (DataNodeDescriptor node : dataNodeManager.getLiveNodes()) {
+                failed.put(node.getName(), (long) node.getInfo().getFailedStorageDirs().size());
+            }
+            return failed;
+        });
+        metrics.gauges("pendingInvalidates", () -> {
+            Map<String, Long> pending = new TreeMap<>();
+            for (DataNodeDescriptor node : dataNodeManager.getLiveNodes()) {
+                pending.put(node.getName(), (long) node.getPendingInvalidates());
+            }
+            return pending;
+        });
+    }
+
+    // 加载最新镜像并回放其后的编辑日志，然后打开新的日志段
+    private void loadNamespace() throws IOException {
+        if (!nameDir.isDirectory() && !nameDir.mkdirs()) {
+            throw new IOException("Cannot create " + nameDir);
+        }
+        long imageTxId = 0;
+        FSImage.Loaded image = FSImage.loadLatest(nameDir, inodeMap, nameCache, dataNodeManager);
+        if (image != null) {
+            root = image.root;
+            imageTxId = image.txId;
+            lastInodeId.set(image.lastInodeId);
+        }
+        long lastTxId = FSEditLog.replay(nameDir, imageTxId, this::applyEdit);
+        System.out.println("Loaded namespace: image at txid " + imageTxId + ", " + (lastTxId - imageTxId) + " edits replayed.");
+        lastCheckpointTxId = imageTxId;
+        editLog = new FSEditLog(nameDir, lastTxId + 1);
+    }
+
+    // 回放一条编辑日志，启动时单线程执行，无需加锁
+    private void applyEdit(byte op, DataInputStream in) throws IOException {
+        switch (op) {
+            case FSEditLog.OP_CREATE: {
+                long id = in.readLong();
+                String path = in.readUTF();
+                String owner = in.readUTF().intern();
+                boolean isDirectory = in.readBoolean();
+                Inode inode = new Inode(id, nameCache.get(getFileName(path)), owner, isDirectory, in.readLong());
+                Inode parentInode = getInode(getParentPath(path));
+                if (!isDirectory) {
+                    inode.setErasureCodingPolicy(effectivePolicy(parentInode));
+                    inode.setCompressionCodec(effectiveCodec(parentInode));
+                }
+                parentInode.addChild(inode);
+                inodeMap.put(inode);
+                lastInodeId.set(Math.max(lastInodeId.get(), id));
+                break;
+            }
+            case FSEditLog.OP_RENAME: {
+                String oldPath = in.readUTF();
+                String newPath = in.readUTF();
+                moveInode(getInode(oldPath), getInode(getParentPath(newPath)), getFileName(newPath));
+                break;
+            }
+            case FSEditLog.OP_DELETE: {
+                Inode inode = getInode(in.readUTF());
+                detachInode(inode);
+                reclaimer.reclaimNow(inode);
+                break;
+            }
+            case FSEditLog.OP_ADD_BLOCK: {
+                // 旧格式的日志没有块长度，按整块计，文件尾的短块在读取时由短读识别
+                Inode fileInode = getInode(in.readUTF());
+                fileInode.addBlock(dataNodeManager.register(FSEditLog.readStringList(in)), Config.BLOCK_SIZE);
+                break;
+            }
+            case FSEditLog.OP_APPEND_BLOCK: {
+                Inode fileInode = getInode(in.readUTF());
+                long size = in.readLong();
+                fileInode.addBlock(dataNodeManager.register(FSEditLog.readStringList(in)), size);
+                break;
+            }
+            case FSEditLog.OP_SET_LAST_BLOCK_SIZE: {
+                Inode fileInode = getInode(in.readUTF());
+                fileInode.setLastBlockSize(in.readLong());
+                break;
+            }
+            case FSEditLog.OP_SET_REPLICAS: {
+                Inode fileInode = getInode(in.readUTF());
+                int index = in.readInt();
+                fileInode.setBlockLocations(index, dataNodeManager.register(FSEditLog.readStringList(in)));
+                break;
+            }
+            case FSEditLog.OP_SET_EC_POLICY: {
+                Inode inode = getInode(in.readUTF());
+                inode.setErasureCodingPolicy((byte) in.readInt());
+                break;
+            }
+            case FSEditLog.OP_SET_COMPRESSION: {
+                Inode inode = getInode(in.readUTF());
+                inode.setCompressionCodec((byte) in.readInt());
+                break;
+            }
+            case FSEditLog.OP_SET_PACKED: {
+                Inode fileInode = getInode(in.readUTF());
+                fileInode.setPacked(in.readLong(), in.readInt(), in.readLong());
+                break;
+            }
+            case FSEditLog.OP_ADD_BLOCK_GROUP: {
+                Inode fileInode = getInode(in.readUTF());
+                long length = in.readLong();
+                fileInode.addBlockGroup(dataNodeManager.register(FSEditLog.readStringList(in)), length, Config.BLOCK_SIZE);
+                break;
+            }
+            case FSEditLog.OP_APPEND_BLOCK_GROUP: {
+                Inode fileInode = getInode(in.readUTF());
+                long length = in.readLong();
+                long size = in.readLong();
+                fileInode.addBlockGroup(dataNodeManager.register(FSEditLog.readStringList(in)), length, size);
+                break;
+            }
+            default:
+                throw new IOException("Unknown edit log op " + op);
+        }
+    }
+
+    // 记录一条编辑日志，调用方持有相应的路径锁
+    private void logEdit(byte op, Object... args) {
+        if (editLog != null) {
+            editLog.log(op, args);
+        }
+    }
+
+    // 在释放路径锁之后调用，等待本线程的编辑日志落盘
+    private void logSync() {
+        if (editLog != null) {
+            try {
+                editLog.logSync();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to sync edit log", e);
+            }
+        }
+    }
+
+    // 写出检查点：暂停所有修改，切换日志段，把命名空间写成镜像后删除已被镜像覆盖的日志段；只读操作不受影响
+    public void saveNamespace() throws IOException {
+        try (PathLockManager.Locked ignored = locks.lockAllForRead()) {
+            long txId = editLog.rollSegment();
+            FSImage.save(nameDir, root, txId, lastInodeId.get(), dataNodeManager);
+            editLog.purgeSegmentsUpTo(txId);
+            lastCheckpointTxId = txId;
+            lastCheckpointTime = System.currentTimeMillis();
+            Log.info("Saved namespace image at txid " + txId);
+        }
+    }
+
+    // 停止定时任务并关闭编辑日志，用于同一进程内重复启动 NameNode（如基准测试）
+    public void stop() throws IOException {
+        timer.cancel();
+        editLog.close();
+        Metrics.remove("nameNode");
+    }
+
+    // 定时检查是否需要写检查点：日志条数或距上次检查点的时间超过阈值
+    private void scheduleCheckpoint() {
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                long pending = editLog.getLastTxId() - lastCheckpointTxId;
+                boolean expired = System.currentTimeMillis() - lastCheckpointTime >= Config.CHECKPOINT_PERIOD;
+                if (pending >= Config.CHECKPOINT_TXNS || (pending > 0 && expired)) {
+                    try {
+                        saveNamespace();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }, 60000, 60000); // 每60秒检查一次
     }
 
     @Override
-    public boolean heartBeat(String nodeName) throws RemoteException {
-        synchronized (this) {
-            long currentTime = System.currentTimeMillis();
-            // 更新心跳时间
-            lastHeartbeatTime.put(nodeName, currentTime);
-            // 打印回显信息
-//            System.out.println("Received heartbeat from DataNode: " + nodeName + " at " + new Date(currentTime));
+    public List<DataNodeCommand> heartBeat(DataNodeInfo nodeInfo, long[] receivedBlocks, long[] deletedBlocks) throws RemoteException {
+        DataNodeDescriptor previous = dataNodeManager.getLiveNode(nodeInfo.getName());
+        boolean added = previous == null;
+        int failedVolumes = nodeInfo.getFailedStorageDirs().size();
+        if (failedVolumes > (added ? 0 : previous.getInfo().getFailedStorageDirs().size())) {
+            // 失效卷上的块由节点随本次心跳作为已删除的块汇报，之后按副本不足修复
+            Log.info("DataNode " + nodeInfo.getName() + " reported failed volumes " + nodeInfo.getFailedStorageDirs()
+                    + " of " + nodeInfo.getStorageReports().size());
+        }
+        // 更新心跳时间和节点状态，新节点加入活跃集合
+        DataNodeDescriptor node = dataNodeManager.heartbeat(nodeInfo);
+        if (added) {
+            replicationMonitor.nodeAdded();
+        }
+        // 打印回显信息
+//        System.out.println("Received heartbeat from DataNode: " + nodeInfo);
+        processIncrementalReport(node, receivedBlocks, deletedBlocks);
+        if (node.shouldRequestBlockReport(System.currentTimeMillis(), HEARTBEAT_TIMEOUT)) {
+            // 新加入的节点（包括 NameNode 重启后第一次心跳的节点）先做一次完整块汇报
+            node.addCommand(DataNodeCommand.blockReport());
+        }
+        // 已删除文件的块，每次心跳最多下发 INVALIDATE_LIMIT 个，避免一次大删除拖慢节点
+        List<String> invalidates = node.pollInvalidates(Config.INVALIDATE_LIMIT);
+        if (!invalidates.isEmpty()) {
+            node.addCommand(DataNodeCommand.invalidate(invalidates));
+        }
+        return node.pollCommands();
+    }
 
-            // 添加到活跃DataNode集合
-            if (!dataNodes.contains(nodeName)) {
-                dataNodes.add(nodeName);
+    // 增量块汇报：只处理上次心跳以来新增和删除的副本，开销与变化的块数成正比
+    private void processIncrementalReport(DataNodeDescriptor node, long[] receivedBlocks, long[] deletedBlocks) {
+        if (receivedBlocks.length == 0 && deletedBlocks.length == 0) {
+            return;
+        }
+        List<String> invalid = new ArrayList<>();
+        synchronized (node.getReportLock()) {
+            for (long blockId : receivedBlocks) {
+                node.blockAdded(blockId);
+                if (!addReplica(node, blockId)) {
+                    invalid.add(Long.toString(blockId));
+                }
             }
-            return true;
+            for (long blockId : deletedBlocks) {
+                node.blockRemoved(blockId);
+                removeReplica(node, blockId);
+            }
+        }
+        if (!invalid.isEmpty()) {
+            node.addCommand(DataNodeCommand.invalidate(invalid)); // 所属文件已删除的块
         }
+        logSync();
     }
 
+    // 完整块汇报：与 NameNode 已知的该节点的块做有序归并，只对两边不一致的块访问命名空间
     @Override
-    public List<List<String>> allocateBlocks(String filePath, int numBlocks) throws RemoteException {
-        List<List<String>> blocks = new ArrayList<>();
-        Inode fileInode = pathToInodeMap.get(filePath); // 获取文件的 inode
+    public void blockReport(String nodeName, long[] blockIds) throws RemoteException {
+        DataNodeDescriptor node = dataNodeManager.getLiveNode(nodeName);
+        if (node == null) {
+            Log.info("Ignoring block report from unregistered DataNode " + nodeName);
+            return;
+        }
+        long start = System.currentTimeMillis();
+        long[] report = blockIds.clone();
+        Arrays.sort(report);
+        List<String> invalid = new ArrayList<>();
+        int added = 0;
+        int removed = 0;
+        synchronized (node.getReportLock()) {
+            long[] known = node.startReport();
+            if (known == null) {
+                // 第一次汇报，从命名空间找出记录在该节点上的块
+                List<Long> recorded = new ArrayList<>();
+                replicationMonitor.scanBlocks(node.getIndex(), (locations, blockId) -> recorded.add(blockId));
+                known = new long[recorded.size()];
+                for (int k = 0; k < known.length; k++) {
+                    known[k] = recorded.get(k);
+                }
+                Arrays.sort(known);
+            }
+            int i = 0;
+            int j = 0;
+            while (i < report.length || j < known.length) {
+                if (j >= known.length || (i < report.length && report[i] < known[j])) {
+                    if (addReplica(node, report[i])) {
+                        added++;
+                    } else {
+                        invalid.add(Long.toString(report[i]));
+                    }
+                    i++;
+                } else if (i >= report.length || report[i] > known[j]) {
+                    removeReplica(node, known[j]);
+                    removed++;
+                    j++;
+                } else {
+                    i++;
+                    j++;
+                }
+            }
+            node.setReportedBlocks(report);
+        }
+        if (!invalid.isEmpty()) {
+            node.addCommand(DataNodeCommand.invalidate(invalid));
+        }
+        logSync();
+        Log.info("Block report from " + nodeName + ": " + report.length + " blocks, " + added + " added, "
+                + removed + " removed, " + invalid.size() + " invalid, processed in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    // 损坏的副本还有其他副本可替代时，从块的位置中去掉并通知节点删除，副本修复会从完好的副本补齐；
+    // 损坏的是唯一的副本时保留，坏数据总比没有数据好。节点删除后的增量汇报会把它从已知块中去掉。
+    // 纠删码块组的单元同理：其余可用单元仍不少于 k 个时才去掉损坏的单元，由重建补齐
+    @Override
+    public void reportBadBlocks(String nodeName, long[] blockIds) throws RemoteException {
+        DataNodeDescriptor node = dataNodeManager.getLiveNode(nodeName);
+        if (node == null) {
+            Log.info("Ignoring corrupt block report for unregistered DataNode " + nodeName);
+            return;
+        }
+        List<String> invalid = new ArrayList<>();
+        synchronized (node.getReportLock()) {
+            for (long blockId : blockIds) {
+                boolean[] removed = new boolean[1];
+                boolean[] reported = new boolean[1];
+                int unit = Inode.unitOf(blockId);
+                int live = updateReplicas(blockId, (fileInode, locations) -> {
+                    if (unit >= 0) {
+                        if (unit >= locations.length || locations[unit] != node.getIndex()) {
+                            return null;
+                        }
+                        reported[0] = true;
+                        ErasureCodingPolicy policy = ErasureCodingPolicy.byId(fileInode.getErasureCodingPolicy());
+                        if (policy == null || dataNodeManager.countLive(locations) <= policy.getDataUnits()) {
+                            return null;
+                        }
+                        removed[0] = true;
+                        int[] updated = locations.clone();
+                        updated[unit] = DataNodeManager.NO_NODE;
+                        return updated;
+                    }
+                    if (!DataNodeManager.contains(locations, node.getIndex())) {
+                        return null; // 已处理过
+                    }
+                    reported[0] = true;
+                    if (dataNodeManager.countLive(locations) <= 1) {
+                        return null;
+                    }
+                    removed[0] = true;
+                    int[] updated = new int[locations.length - 1];
+                    int size = 0;
+                    for (int location : locations) {
+                        if (location != node.getIndex()) {
+                            updated[size++] = location;
+                        }
+                    }
+                    return updated;
+                });
+                if (removed[0]) {
+                    node.markCorrupt(blockId);
+                    replicationMonitor.replicaRemoved(Inode.groupIdOf(blockId), live);
+                    invalid.add(Long.toString(blockId));
+                    Log.info("Corrupt replica of block " + blockId + " on " + nodeName + " removed, " + live + " live replicas left.");
+                } else if (reported[0]) {
+                    Log.info("Corrupt replica of block " + blockId + " on " + nodeName + " kept: "
+                            + (unit >= 0 ? "too few other live units to rebuild it." : "no other live replica."));
+                }
+            }
+        }
+        if (!invalid.isEmpty()) {
+            node.addCommand(DataNodeCommand.invalidate(invalid));
+        }
+        logSync();
+    }
+
+    // 记录节点持有块的一个副本，同时去掉已失联节点上的旧副本；块已不属于任何文件时返回 false。
+    // 纠删码单元记录在它的单元序号上，该位置已由另一个活跃节点持有时多出来的这份也返回 false
+    private boolean addReplica(DataNodeDescriptor node, long blockId) {
+        if (node.isCorrupt(blockId)) {
+            return true; // 损坏的副本已通知删除，迟到的汇报不能把它加回去
+        }
+        int unit = Inode.unitOf(blockId);
+        boolean[] duplicate = new boolean[1];
+        int live = updateReplicas(blockId, (fileInode, locations) -> {
+            if (unit >= 0) {
+                if (unit >= locations.length || (locations[unit] != node.getIndex() && dataNodeManager.getLiveNode(locations[unit]) != null)) {
+                    duplicate[0] = true;
+                    return null;
+                }
+                if (locations[unit] == node.getIndex()) {
+                    return null;
+                }
+                int[] updated = locations.clone();
+                updated[unit] = node.getIndex();
+                return updated;
+            }
+            if (DataNodeManager.contains(locations, node.getIndex())) {
+                return null;
+            }
+            int[] updated = new int[locations.length + 1];
+            int size = 0;
+            for (int location : locations) {
+                if (dataNodeManager.getLiveNode(location) != null) {
+                    updated[size++] = location;
+                }
+            }
+            updated[size++] = node.getIndex();
+            return Arrays.copyOf(updated, size);
+        });
+        if (live < 0 || duplicate[0]) {
+            return false;
+        }
+        replicationMonitor.replicaAdded(Inode.groupIdOf(blockId), node.getName(), live);
+        return true;
+    }
+
+    // 节点上的副本已不存在，从块的副本位置中去掉该节点
+    private void removeReplica(DataNodeDescriptor node, long blockId) {
+        int unit = Inode.unitOf(blockId);
+        int live = updateReplicas(blockId, (fileInode, locations) -> {
+            if (unit >= 0) {
+                if (unit >= locations.length || locations[unit] != node.getIndex()) {
+                    return null;
+                }
+                int[] updated = locations.clone();
+                updated[unit] = DataNodeManager.NO_NODE;
+                return updated;
+            }
+            if (!DataNodeManager.contains(locations, node.getIndex())) {
+                return null;
+            }
+            int[] updated = new int[locations.length - 1];
+            int size = 0;
+            for (int location : locations) {
+                if (location != node.getIndex()) {
+                    updated[size++] = location;
+                }
+            }
+            return updated;
+        });
+        if (live >= 0) {
+            replicationMonitor.replicaRemoved(Inode.groupIdOf(blockId), live);
+        }
+    }
+
+    // 对块所属的文件加写锁后用 update 修改块的副本位置（返回 null 表示不修改），
+    // 返回修改后的活跃副本数；块已不属于任何文件时返回 -1。纠删码单元修改的是所属块组的位置。调用方随后需调用 logSync
+    private int updateReplicas(long blockId, BiFunction<Inode, int[], int[]> update) {
+        int index = Inode.blockIndexOf(blockId);
+        while (true) {
+            Inode fileInode = inodeMap.get(Inode.inodeIdOf(blockId));
+            if (fileInode == null || fileInode.isDirectory()) {
+                return -1;
+            }
+            String path = fileInode.getPath();
+            try (PathLockManager.Locked ignored = locks.lockForWrite(path)) {
+                if (!path.equals(fileInode.getPath())) {
+                    continue; // 加锁前被改名，按新路径重试
+                }
+                if (getInode(path) != fileInode || index >= fileInode.getBlockCount()) {
+                    return -1; // 文件已被删除，已摘下但尚未回收的子树仍在 ID 映射中
+                }
+                int[] locations = fileInode.getBlockLocations(index);
+                int[] updated = update.apply(fileInode, locations);
+                if (updated != null) {
+                    fileInode.setBlockLocations(index, updated);
+                    logEdit(FSEditLog.OP_SET_REPLICAS, path, index, dataNodeManager.namesOf(updated));
+                    locations = updated;
+                }
+                return dataNodeManager.countLive(locations);
+            }
+        }
+    }
 
-        if (fileInode == null) {
-            System.out.println("File " + filePath + " does not exist.");
+    private static BlockPlacementPolicy createPlacementPolicy() {
+        try {
+            return (BlockPlacementPolicy) Class.forName(Config.BLOCK_PLACEMENT_POLICY).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot create block placement policy " + Config.BLOCK_PLACEMENT_POLICY, e);
+        }
+    }
+
+    @Override
+    public List<BlockInfo> allocateBlocks(String filePath, long[] sizes) throws RemoteException {
+        filePath = PathLockManager.normalize(filePath);
+        for (long size : sizes) {
+            if (size <= 0 || size > Config.BLOCK_SIZE) {
+                throw new RemoteException("Invalid block size " + size);
+            }
+        }
+        int numBlocks = sizes.length;
+        List<BlockInfo> blocks = new ArrayList<>();
+        List<DataNodeDescriptor> nodes = dataNodeManager.getLiveNodes(); // 本次分配使用的DataNode快照
+        if (nodes.isEmpty()) {
+            Log.info("No active DataNode to allocate blocks for " + filePath);
             return null;
         }
+        try (PathLockManager.Locked ignored = locks.lockForWrite(filePath)) {
+            Inode fileInode = getInode(filePath); // 获取文件的 inode
 
-        for (int i = 0; i < numBlocks; i++) {
-            List<String> replicas = new ArrayList<>();
-            for (int r = 0; r < 3; r++) { // 默认副本数为 3
-                String dataNode = dataNodes.get((i + r) % dataNodes.size());
-                replicas.add(dataNode);
+            if (fileInode == null) {
+                Log.info("File " + filePath + " does not exist.");
+                return null;
+            }
+            if (ErasureCodingPolicy.byId(fileInode.getErasureCodingPolicy()) != null) {
+                Log.info("File " + filePath + " is erasure coded, allocate block groups instead.");
+                return null;
+            }
+            if (fileInode.isPacked()) {
+                Log.info("File " + filePath + " is packed into a container block.");
+                return null;
             }
-            String blockId = fileInode.getId() + "_block_" + i;
 
-            // 创建块信息并关联到文件
-            BlockInfo blockInfo = new BlockInfo(blockId, replicas);
-            fileInode.addBlock(blockInfo);
+            for (int i = 0; i < numBlocks; i++) {
+                int index = fileInode.getBlockCount(); // 块在文件中的序号，新块追加在末尾
+                List<DataNodeDescriptor> targets = placementPolicy.chooseTargets(Config.REPLICATION, nodes, Collections.<String>emptySet());
+                if (targets.isEmpty()) {
+                    Log.info("No DataNode has space for a new block of " + filePath);
+                    break;
+                }
+                if (targets.size() < Config.REPLICATION) {
+                    Log.info("Only " + targets.size() + " DataNodes available for block " + index + " of " + filePath);
+                }
+                List<String> replicas = new ArrayList<>(targets.size());
+                int[] locations = new int[targets.size()];
+                for (int r = 0; r < locations.length; r++) {
+                    DataNodeDescriptor target = targets.get(r);
+                    target.incrementBlocksScheduled(); // 下次心跳前的分配也要考虑这个块
+                    replicas.add(target.getName());
+                    locations[r] = target.getIndex();
+                }
+
+                // 把副本位置以 DataNode 编号记录到文件，块的区间接在文件末尾
+                fileInode.addBlock(locations, sizes[i]);
+                for (DataNodeDescriptor target : targets) {
+                    // 计入节点已知持有的块，写入失败时下次完整块汇报会把它去掉
+                    target.blockAdded(fileInode.getBlockId(index));
+                }
+                logEdit(FSEditLog.OP_APPEND_BLOCK, filePath, sizes[i], replicas);
+                if (locations.length < Config.REPLICATION) {
+                    replicationMonitor.update(fileInode.getBlockId(index), locations.length);
+                }
 
-            blocks.add(replicas);
+                blocks.add(toBlockInfo(fileInode, index));
+            }
         }
-        return blocks;
+        logSync();
+        return blocks.isEmpty() && numBlocks > 0 ? null : blocks;
     }
 
+    // 流式写入的块按整块分配，输入提前结束时客户端用实际长度 size 结束文件的最后一个块，只能改短
     @Override
-    public List<BlockInfo> getBlocks(String filePath) throws RemoteException {
-        Inode fileInode = pathToInodeMap.get(filePath);
-        if (fileInode == null) {
-            System.out.println("File " + filePath + " does not exist.");
+    public boolean completeBlock(String filePath, String blockId, long size) throws RemoteException {
+        filePath = PathLockManager.normalize(filePath);
+        try (PathLockManager.Locked ignored = locks.lockForWrite(filePath)) {
+            Inode fileInode = getInode(filePath);
+            if (fileInode == null || fileInode.isDirectory() || fileInode.getBlockCount() == 0) {
+                Log.info("File " + filePath + " has no block to complete.");
+                return false;
+            }
+            int index = fileInode.getBlockCount() - 1;
+            if (!Long.toString(fileInode.getBlockId(index)).equals(blockId) || fileInode.getBlockLength(index) >= 0) {
+                Log.info("Block " + blockId + " is not the last replicated block of " + filePath);
+                return false;
+            }
+            if (size <= 0 || size > fileInode.getBlockSize(index)) {
+                throw new RemoteException("Invalid block size " + size);
+            }
+            fileInode.setLastBlockSize(size);
+            logEdit(FSEditLog.OP_SET_LAST_BLOCK_SIZE, filePath, size);
+        }
+        logSync();
+        return true;
+    }
+
+    // 在纠删码文件末尾分配一个数据长度为 length、含 size 字节文件数据的块组：k + m 个单元放在不同的 DataNode 上，
+    // 可用节点不足 k + m 但不少于 k 个时先分配，缺少的单元之后由重建补齐
+    @Override
+    public BlockInfo allocateBlockGroup(String filePath, long length, long size) throws RemoteException {
+        filePath = PathLockManager.normalize(filePath);
+        if (length <= 0) {
+            throw new RemoteException("Invalid block group length " + length);
+        }
+        if (size <= 0 || size > Config.BLOCK_SIZE) {
+            throw new RemoteException("Invalid block size " + size);
+        }
+        List<DataNodeDescriptor> nodes = dataNodeManager.getLiveNodes();
+        BlockInfo block;
+        try (PathLockManager.Locked ignored = locks.lockForWrite(filePath)) {
+            Inode fileInode = getInode(filePath);
+            if (fileInode == null || fileInode.isDirectory()) {
+                Log.info("File " + filePath + " does not exist.");
+                return null;
+            }
+            ErasureCodingPolicy policy = ErasureCodingPolicy.byId(fileInode.getErasureCodingPolicy());
+            if (policy == null) {
+                Log.info("File " + filePath + " is not erasure coded.");
+                return null;
+            }
+            if (fileInode.isPacked()) {
+                Log.info("File " + filePath + " is packed into a container block.");
+                return null;
+            }
+            // 压缩块的长度是压缩后的长度，不可压缩的数据会多出块头
+            long maxLength = Config.BLOCK_SIZE + (CompressionCodec.byId(fileInode.getCompressionCodec()) != null
+                    ? CompressedBlock.maxHeaderLength(Config.BLOCK_SIZE, Config.COMPRESSION_CHUNK_SIZE) : 0);
+            if (length > maxLength) {
+                throw new RemoteException("Invalid block group length " + length);
+            }
+            List<DataNodeDescriptor> targets = placementPolicy.chooseTargets(policy.getTotalUnits(), nodes, Collections.<String>emptySet());
+            if (targets.size() < policy.getDataUnits()) {
+                Log.info("Only " + targets.size() + " DataNodes available, " + policy + " needs at least " + policy.getDataUnits());
+                return null;
+            }
+            int index = fileInode.getBlockCount();
+            long groupId = fileInode.getBlockId(index);
+            int[] locations = new int[policy.getTotalUnits()];
+            Arrays.fill(locations, DataNodeManager.NO_NODE);
+            for (int unit = 0; unit < targets.size(); unit++) {
+                DataNodeDescriptor target = targets.get(unit);
+                target.incrementBlocksScheduled();
+                target.blockAdded(Inode.internalBlockId(groupId, unit));
+                locations[unit] = target.getIndex();
+            }
+            fileInode.addBlockGroup(locations, length, size);
+            logEdit(FSEditLog.OP_APPEND_BLOCK_GROUP, filePath, length, size, dataNodeManager.namesOf(locations));
+            if (targets.size() < locations.length) {
+                Log.info("Only " + targets.size() + " DataNodes available for block group " + index + " of " + filePath);
+                replicationMonitor.update(groupId, targets.size());
+            }
+            block = toBlockInfo(fileInode, index);
+        }
+        logSync();
+        return block;
+    }
+
+    // 小文件打包：每个目录的容器块都是 CONTAINER_DIR 下以目录 inode ID 命名的容器文件的块，
+    // 像普通块一样复制、汇报和修复。容器目录固定使用多副本且不压缩，打包文件按区间直接读取容器块
+    @Override
+    public BlockInfo allocatePackedBlock(String dirPath, long size) throws RemoteException {
+        dirPath = PathLockManager.normalize(dirPath);
+        long dirId;
+        try (PathLockManager.Locked ignored = locks.lockForRead(dirPath)) {
+            Inode dir = getInode(dirPath);
+            if (dir == null || !dir.isDirectory()) {
+                Log.info("Directory " + dirPath + " does not exist.");
+                return null;
+            }
+            dirId = dir.getId();
+        }
+        Inode containerDir = createNoSync(Config.CONTAINER_DIR, Config.USER, true);
+        if (containerDir == null) {
             return null;
         }
-        return fileInode.getBlocks();
+        if (containerDir.getCompressionCodec() == CompressionCodec.UNSET) {
+            // 首次使用时设置，压缩编解码器最后设置，作为已初始化的标志
+            setErasureCodingPolicy(Config.CONTAINER_DIR, ErasureCodingPolicy.REPLICATION_NAME);
+            setCompressionCodec(Config.CONTAINER_DIR, CompressionCodec.NONE_NAME);
+        }
+        String containerPath = Config.CONTAINER_DIR + "/" + dirId;
+        if (createNoSync(containerPath, Config.USER, false) == null) {
+            return null;
+        }
+        List<BlockInfo> blocks = allocateBlocks(containerPath, new long[]{size});
+        return blocks == null ? null : blocks.get(0);
+    }
+
+    @Override
+    public List<Inode> addPackedFiles(String dirPath, String blockId, List<String> names, long[] offsets, long[] lengths, String owner) throws RemoteException {
+        dirPath = PathLockManager.normalize(dirPath);
+        checkBatchSize(names);
+        if (offsets.length != names.size() || lengths.length != names.size()) {
+            throw new RemoteException("Got " + names.size() + " names, " + offsets.length + " offsets and " + lengths.length + " lengths");
+        }
+        long containerBlockId;
+        try {
+            containerBlockId = Long.parseLong(blockId);
+        } catch (NumberFormatException e) {
+            throw new RemoteException("Invalid block ID " + blockId);
+        }
+        Inode container = inodeMap.get(Inode.inodeIdOf(containerBlockId));
+        if (container == null || Inode.unitOf(containerBlockId) >= 0 || Inode.blockIndexOf(containerBlockId) >= container.getBlockCount()
+                || !Config.CONTAINER_DIR.equals(getParentPath(container.getPath()))) {
+            throw new RemoteException("Block " + blockId + " is not a container block");
+        }
+        for (int i = 0; i < offsets.length; i++) {
+            if (offsets[i] < 0 || lengths[i] < 0 || offsets[i] + lengths[i] > Config.BLOCK_SIZE || names.get(i).indexOf('/') >= 0) {
+                throw new RemoteException("Invalid packed file " + names.get(i) + " at " + offsets[i] + "+" + lengths[i]);
+            }
+        }
+        String prefix = dirPath.endsWith("/") ? dirPath : dirPath + "/";
+        List<Inode> result = new ArrayList<>(names.size());
+        int added = 0;
+        for (int i = 0; i < names.size(); i++) {
+            String path = prefix + names.get(i);
+            Inode inode = createNoSync(path, owner, false);
+            if (inode != null) {
+                try (PathLockManager.Locked ignored = locks.lockForWrite(path)) {
+                    inode = getInode(path);
+                    if (inode == null || inode.isDirectory() || inode.isPacked() || inode.getBlockCount() > 0) {
+                        Log.info("File " + path + " already has data, not packed.");
+                        inode = null;
+                    } else {
+                        inode.setPacked(containerBlockId, (int) offsets[i], lengths[i]);
+                        packedFileAdded(container.getId());
+                        logEdit(FSEditLog.OP_SET_PACKED, path, containerBlockId, (int) offsets[i], lengths[i]);
+                        added++;
+                    }
+                }
+            }
+            result.add(inode);
+        }
+        // 整批只等待一次落盘
+        logSync();
+        Log.info(added + " files packed into block " + blockId + " under " + dirPath);
+        return result;
+    }
+
+    // 设置目录的纠删码策略，之后在其下创建的文件使用该策略；policy 为 null 或空时恢复继承上级目录，
+    // REPLICATION 表示使用多副本。已有文件不受影响
+    @Override
+    public boolean setErasureCodingPolicy(String path, String policy) throws RemoteException {
+        path = PathLockManager.normalize(path);
+        byte id;
+        if (policy == null || policy.isEmpty()) {
+            id = ErasureCodingPolicy.UNSET;
+        } else if (policy.equalsIgnoreCase(ErasureCodingPolicy.REPLICATION_NAME)) {
+            id = ErasureCodingPolicy.REPLICATION;
+        } else {
+            ErasureCodingPolicy ecPolicy = ErasureCodingPolicy.byName(policy);
+            if (ecPolicy == null) {
+                throw new RemoteException("Unknown erasure coding policy " + policy);
+            }
+            id = ecPolicy.getId();
+        }
+        try (PathLockManager.Locked ignored = locks.lockForWrite(path)) {
+            Inode inode = getInode(path);
+            if (inode == null || !inode.isDirectory()) {
+                Log.info("Directory " + path + " does not exist.");
+                return false;
+            }
+            inode.setErasureCodingPolicy(id);
+            logEdit(FSEditLog.OP_SET_EC_POLICY, path, (int) id);
+        }
+        logSync();
+        Log.info("Erasure coding policy of " + path + " set to " + (policy == null || policy.isEmpty() ? "inherited" : policy));
+        return true;
+    }
+
+    // 文件返回创建时确定的策略，目录返回在其下新建文件将使用的策略；多副本返回 null
+    @Override
+    public String getErasureCodingPolicy(String path) throws RemoteException {
+        path = PathLockManager.normalize(path);
+        try (PathLockManager.Locked ignored = locks.lockForRead(path)) {
+            Inode inode = getInode(path);
+            if (inode == null) {
+                return null;
+            }
+            ErasureCodingPolicy policy = ErasureCodingPolicy.byId(inode.isDirectory() ? effectivePolicy(inode) : inode.getErasureCodingPolicy());
+            return policy != null ? policy.getName() : null;
+        }
+    }
+
+    // 从 dir 向上找到第一个设置了策略的目录，都没有设置时使用多副本；调用方持有 dir 及其祖先的锁
+    private static byte effectivePolicy(Inode dir) {
+        for (Inode node = dir; node != null; node = node.getParent()) {
+            byte id = node.getErasureCodingPolicy();
+            if (id != ErasureCodingPolicy.UNSET) {
+                return id == ErasureCodingPolicy.REPLICATION ? ErasureCodingPolicy.UNSET : id;
+            }
+        }
+        return ErasureCodingPolicy.UNSET;
+    }
+
+    // 设置目录或尚无数据块的文件的压缩编解码器。目录上的设置在其下新建文件时继承；
+    // codec 为 null 或空时恢复继承上级目录，NONE 表示不压缩。已有数据块的文件不能再改变
+    @Override
+    public boolean setCompressionCodec(String path, String codec) throws RemoteException {
+        path = PathLockManager.normalize(path);
+        byte id;
+        if (codec == null || codec.isEmpty()) {
+            id = CompressionCodec.UNSET;
+        } else if (codec.equalsIgnoreCase(CompressionCodec.NONE_NAME)) {
+            id = CompressionCodec.NONE;
+        } else {
+            CompressionCodec compressionCodec = CompressionCodec.byName(codec);
+            if (compressionCodec == null) {
+                throw new RemoteException("Unknown compression codec " + codec);
+            }
+            id = compressionCodec.getId();
+        }
+        try (PathLockManager.Locked ignored = locks.lockForWrite(path)) {
+            Inode inode = getInode(path);
+            if (inode == null) {
+                Log.info("Path " + path + " does not exist.");
+                return false;
+            }
+            if (!inode.isDirectory()) {
+                if (inode.getBlockCount() > 0) {
+                    Log.info("File " + path + " already has blocks, compression codec unchanged.");
+                    return false;
+                }
+                // 文件上的 UNSET 重新继承所在目录的设置
+                id = id == CompressionCodec.UNSET ? effectiveCodec(inode.getParent()) : id;
+            }
+            inode.setCompressionCodec(id);
+            logEdit(FSEditLog.OP_SET_COMPRESSION, path, (int) id);
+        }
+        logSync();
+        Log.info("Compression codec of " + path + " set to " + (codec == null || codec.isEmpty() ? "inherited" : codec));
+        return true;
+    }
+
+    // 文件返回写入时使用的编解码器，目录返回在其下新建文件将使用的编解码器；不压缩返回 null
+    @Override
+    public String getCompressionCodec(String path) throws RemoteException {
+        path = PathLockManager.normalize(path);
+        try (PathLockManager.Locked ignored = locks.lockForRead(path)) {
+            Inode inode = getInode(path);
+            if (inode == null) {
+                return null;
+            }
+            CompressionCodec codec = CompressionCodec.byId(inode.isDirectory() ? effectiveCodec(inode) : inode.getCompressionCodec());
+            return codec != null ? codec.getName() : null;
+        }
+    }
+
+    // 从 dir 向上找到第一个设置了编解码器的目录，都没有设置时不压缩；调用方持有 dir 及其祖先的锁
+    private static byte effectiveCodec(Inode dir) {
+        for (Inode node = dir; node != null; node = node.getParent()) {
+            byte id = node.getCompressionCodec();
+            if (id != CompressionCodec.UNSET) {
+                return id == CompressionCodec.NONE ? CompressionCodec.UNSET : id;
+            }
+        }
+        return CompressionCodec.UNSET;
+    }
+
+    @Override
+    public List<BlockInfo> getBlocks(String filePath) throws RemoteException {
+        filePath = PathLockManager.normalize(filePath);
+        try (PathLockManager.Locked ignored = locks.lockForRead(filePath)) {
+            Inode fileInode = getInode(filePath);
+            if (fileInode == null) {
+                Log.info("File " + filePath + " does not exist.");
+                return null;
+            }
+            return toBlockInfos(fileInode);
+        }
+    }
+
+    // 二分查找覆盖 [offset, offset + length) 的第一个块，之后顺序取到区间末尾，与文件的块数无关
+    @Override
+    public List<BlockInfo> getBlocks(String filePath, long offset, long length) throws RemoteException {
+        filePath = PathLockManager.normalize(filePath);
+        if (offset < 0 || length < 0) {
+            throw new RemoteException("Invalid range " + offset + "+" + length);
+        }
+        try (PathLockManager.Locked ignored = locks.lockForRead(filePath)) {
+            Inode fileInode = getInode(filePath);
+            if (fileInode == null || fileInode.isDirectory()) {
+                Log.info("File " + filePath + " does not exist.");
+                return null;
+            }
+            if (length == 0) {
+                return Collections.emptyList();
+            }
+            if (fileInode.isPacked()) {
+                return offset < fileInode.getFileSize() ? toBlockInfos(fileInode) : Collections.<BlockInfo>emptyList();
+            }
+            long end = offset + length;
+            List<BlockInfo> blocks = new ArrayList<>();
+            for (int i = fileInode.findBlock(offset); i < fileInode.getBlockCount() && fileInode.getBlockOffset(i) < end; i++) {
+                blocks.add(toBlockInfo(fileInode, i));
+            }
+            return blocks;
+        }
+    }
+
+    @Override
+    public List<List<BlockInfo>> getBlocks(List<String> filePaths) throws RemoteException {
+        checkBatchSize(filePaths);
+        List<List<BlockInfo>> result = new ArrayList<>(filePaths.size());
+        for (String path : filePaths) {
+            String filePath = PathLockManager.normalize(path);
+            // 逐个文件加读锁，避免一次持有大量锁
+            try (PathLockManager.Locked ignored = locks.lockForRead(filePath)) {
+                Inode fileInode = getInode(filePath);
+                result.add(fileInode != null && !fileInode.isDirectory() ? toBlockInfos(fileInode) : null);
+            }
+        }
+        return result;
+    }
+
+    private static void checkBatchSize(List<String> paths) throws RemoteException {
+        if (paths.size() > Config.MAX_BATCH_SIZE) {
+            throw new RemoteException("Batch of " + paths.size() + " paths exceeds the limit of " + Config.MAX_BATCH_SIZE);
+        }
+    }
+
+    // 把文件的块转换成返回给客户端的 BlockInfo
+    private List<BlockInfo> toBlockInfos(Inode fileInode) {
+        if (fileInode.isPacked()) {
+            // 打包文件返回所在容器块，容器文件已被删除时文件没有数据
+            long blockId = fileInode.getPackedBlockId();
+            Inode container = inodeMap.get(Inode.inodeIdOf(blockId));
+            int index = Inode.blockIndexOf(blockId);
+            if (container == null || index >= container.getBlockCount()) {
+                return Collections.emptyList();
+            }
+            BlockInfo block = new BlockInfo(Long.toString(blockId),
+                    dataNodeManager.namesOf(container.getBlockLocations(index)), fileInode.getPackedOffset(), fileInode.getFileSize());
+            block.setFileRange(0, fileInode.getFileSize());
+            return Collections.singletonList(block);
+        }
+        List<BlockInfo> blocks = new ArrayList<>(fileInode.getBlockCount());
+        for (int i = 0; i < fileInode.getBlockCount(); i++) {
+            blocks.add(toBlockInfo(fileInode, i));
+        }
+        return blocks;
+    }
+
+    private BlockInfo toBlockInfo(Inode fileInode, int index) {
+        String blockId = Long.toString(fileInode.getBlockId(index));
+        List<String> locations = dataNodeManager.namesOf(fileInode.getBlockLocations(index));
+        ErasureCodingPolicy policy = ErasureCodingPolicy.byId(fileInode.getErasureCodingPolicy());
+        CompressionCodec codec = CompressionCodec.byId(fileInode.getCompressionCodec());
+        BlockInfo block = policy == null && codec == null ? new BlockInfo(blockId, locations)
+                : new BlockInfo(blockId, locations, policy != null ? policy.getName() : null,
+                fileInode.getBlockLength(index), codec != null ? codec.getName() : null);
+        block.setFileRange(fileInode.getBlockOffset(index), fileInode.getBlockSize(index));
+        return block;
     }
 
     @Override
@@ -90,6 +1008,18 @@ public class NameNode extends UnicastRemoteObject implements NameNodeInter {
         return create(path, owner, false);
     }
 
+    @Override
+    public List<Inode> createFiles(List<String> paths, String owner) throws RemoteException {
+        checkBatchSize(paths);
+        List<Inode> result = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            result.add(createNoSync(path, owner, false));
+        }
+        // 整批只等待一次落盘
+        logSync();
+        return result;
+    }
+
     @Override
     public Inode createDirectory(String path, String owner) throws RemoteException {
         return create(path, owner, true);
@@ -98,9 +1028,10 @@ public class NameNode extends UnicastRemoteObject implements NameNodeInter {
     // 重命名文件
     @Override
     public Inode renameFile(String path, String newFileName, String user) throws RemoteException {
+        path = PathLockManager.normalize(path);
         // 构造新的路径
         String parentPath = getParentPath(path); // 获取原文件的父目录路径
-        String newFilePath = parentPath + newFileName; // 构造新的完整路径
+        String newFilePath = (parentPath.equals("/") ? "/" : parentPath + "/") + newFileName; // 构造新的完整路径
 
         // 调用rename方法进行重命名
         return rename(path, newFilePath, user);
@@ -109,13 +1040,15 @@ public class NameNode extends UnicastRemoteObject implements NameNodeInter {
     // 重命名目录的辅助方法
     @Override
     public Inode renameDirectory(String oldPath, String newDirPath, String user) throws RemoteException {
+        oldPath = PathLockManager.normalize(oldPath);
+        newDirPath = PathLockManager.normalize(newDirPath);
         // 检查新路径是否合法，即不包含文件名，只有目录路径
         if (newDirPath.contains("/") && !newDirPath.endsWith("/")) {
             String fileName = getFileName(newDirPath);
             String dirPath = getParentPath(newDirPath);
             return rename(oldPath, dirPath + "/" + fileName, user);
         } else {
-            System.out.println("Invalid new directory path. The new path must be a full path including the directory name.");
+            Log.info("Invalid new directory path. The new path must be a full path including the directory name.");
             return null;
         }
     }
@@ -123,13 +1056,14 @@ public class NameNode extends UnicastRemoteObject implements NameNodeInter {
     // 输入文件夹的路径，返回该文件夹下所有文件和文件夹
     @Override
     public List<String> listFiles(String path) throws RemoteException {
+        path = PathLockManager.normalize(path);
         List<String> fileList = new ArrayList<>();
-        Inode inode = getInode(path);
-        if (inode != null && inode.isDirectory()) {
-            for (String childId : inode.getChildrenIds()) {
-                Inode childInode = idToInodeMap.get(childId);
-                if (childInode != null) {
-                    fileList.add(childInode.getPath());
+        try (PathLockManager.Locked ignored = locks.lockForRead(path)) {
+            Inode inode = getInode(path);
+            if (inode != null && inode.isDirectory()) {
+                String prefix = path.endsWith("/") ? path : path + "/";
+                for (Inode childInode : inode.getChildren()) {
+                    fileList.add(prefix + childInode.getName());
                 }
             }
         }
@@ -137,11 +1071,42 @@ public class NameNode extends UnicastRemoteObject implements NameNodeInter {
         return fileList;
     }
 
+    @Override
+    public DirectoryListing listFiles(String path, String startAfter, int limit) throws RemoteException {
+        path = PathLockManager.normalize(path);
+        limit = limit <= 0 ? Config.LIST_LIMIT : Math.min(limit, Config.LIST_LIMIT);
+        List<String> entries = new ArrayList<>(limit);
+        try (PathLockManager.Locked ignored = locks.lockForRead(path)) {
+            Inode inode = getInode(path);
+            if (inode == null || !inode.isDirectory()) {
+                return null;
+            }
+            // 子节点按名字有序，二分找到游标之后的第一个位置
+            int start = 0;
+            if (startAfter != null) {
+                int index = inode.searchChildren(startAfter.getBytes(StandardCharsets.UTF_8));
+                start = index >= 0 ? index + 1 : -index - 1;
+            }
+            List<Inode> children = inode.getChildren();
+            int end = Math.min(children.size(), start + limit);
+            String prefix = path.endsWith("/") ? path : path + "/";
+            String lastName = null;
+            for (int i = start; i < end; i++) {
+                lastName = children.get(i).getName();
+                entries.add(prefix + lastName);
+            }
+            return new DirectoryListing(entries, lastName, end < children.size());
+        }
+    }
+
     @Override
     public String getFileInfo(String path) throws RemoteException {
-        Inode inode = getInode(path);
-        if (inode != null) {
-            return inode.toString();
+        path = PathLockManager.normalize(path);
+        try (PathLockManager.Locked ignored = locks.lockForRead(path)) {
+            Inode inode = getInode(path);
+            if (inode != null) {
+                return inode.toString();
+            }
         }
         return null;
     }
@@ -157,90 +1122,100 @@ public class NameNode extends UnicastRemoteObject implements NameNodeInter {
         }, HEARTBEAT_TIMEOUT, HEARTBEAT_TIMEOUT); // 每30秒执行一次
     }
 
-    // 移除不活跃的DataNode
-    private void removeInactiveDataNodes() {
-        long now = System.currentTimeMillis();
-        synchronized (this) {
-            Iterator<Map.Entry<String, Long>> iterator = lastHeartbeatTime.entrySet().iterator();
-            while (iterator.hasNext()) {
-                Map.Entry<String, Long> entry = iterator.next();
-                String nodeName = entry.getKey();
-                long lastHeartbeat = entry.getValue();
-                if (lastHeartbeat + HEARTBEAT_TIMEOUT < now) {
-                    dataNodes.remove(nodeName);
-                    iterator.remove();
-                    System.out.println("DataNode " + nodeName + " has been marked as inactive.");
+    // 定时回收已删除的子树
+    private void scheduleReclaimer() {
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    reclaimer.reclaim(Config.DELETION_BATCH_SIZE);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, Config.DELETION_INTERVAL, Config.DELETION_INTERVAL);
+    }
+
+    // 定时为副本不足的块安排复制
+    private void scheduleReplicationMonitor() {
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    replicationMonitor.computeReplicationWork();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
                 }
             }
+        }, Config.REPLICATION_INTERVAL, Config.REPLICATION_INTERVAL);
+    }
+
+    // 移除不活跃的DataNode
+    private void removeInactiveDataNodes() {
+        for (String nodeName : dataNodeManager.removeDeadNodes(HEARTBEAT_TIMEOUT)) {
+            Log.info("DataNode " + nodeName + " has been marked as inactive.");
+            replicationMonitor.nodeLost(nodeName);
         }
     }
 
     // 获取活跃的DataNode列表
     public List<String> getActiveDataNodes() {
-        synchronized (this) {
-            return new ArrayList<>(dataNodes);
-        }
+        return dataNodeManager.getLiveNodeNames();
     }
 
     // 重命名文件或目录
     public Inode rename(String oldPath, String newPath, String user) throws RemoteException {
+        oldPath = PathLockManager.normalize(oldPath);
+        newPath = PathLockManager.normalize(newPath);
+        if (newPath.startsWith(oldPath + "/")) {
+            Log.info("Cannot move " + oldPath + " into its own subtree " + newPath);
+            return null;
+        }
+        // 旧路径会被整棵子树移走，新旧父目录的子节点列表都会变化
+        Inode inode;
+        try (PathLockManager.Locked ignored = locks.lockForWrite(oldPath, getParentPath(oldPath), newPath, getParentPath(newPath))) {
+            inode = renameLocked(oldPath, newPath, user);
+        }
+        logSync();
+        return inode;
+    }
+
+    private Inode renameLocked(String oldPath, String newPath, String user) {
         Inode inode = getInode(oldPath);
-        if (inode != null) {
+        if (inode != null && inode != root) {
             if (inode.getOwner().equals(user)) {
-                if (!pathToInodeMap.containsKey(newPath)) { // 检查新路径是否已存在
+                if (getInode(newPath) == null) { // 检查新路径是否已存在
                     Inode parentInode = getInode(getParentPath(newPath)); // 获取新路径的父目录Inode
-                    if (parentInode != null) {
-                        // 更新Inode的路径和名称
-                        inode.setPath(newPath);
-                        if(!inode.isDirectory()) {
-                            inode.setFileName(getFileName(newPath));
-                        }
-                        // 从旧路径映射中移除
-                        pathToInodeMap.remove(oldPath);
-                        // 在新路径映射中添加
-                        pathToInodeMap.put(newPath, inode);
-                        // 更新父目录的子节点列表
-                        if(!parentInode.getChildrenIds().contains(inode.getId())) {
-                            parentInode.getChildrenIds().add(inode.getId());
-                        }
-                        // 如果旧路径和新路径的父目录不同，则从旧父目录的子节点列表中移除
-                        Inode oldParentInode = getInode(getParentPath(oldPath));
-                        if (oldParentInode != null && !oldParentInode.getId().equals(parentInode.getId())) {
-                            oldParentInode.getChildrenIds().remove(inode.getId());
-                        }
-                        // 递归更新所有子文件和子文件夹的路径
-                        renameChildren(inode, oldPath, newPath);
-                        System.out.println("Renamed " + oldPath + " to " + newPath);
+                    if (parentInode != null && parentInode.isDirectory()) {
+                        moveInode(inode, parentInode, getFileName(newPath));
+                        logEdit(FSEditLog.OP_RENAME, oldPath, newPath);
+                        Log.info("Renamed " + oldPath + " to " + newPath);
                         return inode;
                     } else {
-                        System.out.println("Parent directory for new path does not exist.");
+                        Log.info("Parent directory for new path does not exist.");
                     }
                 } else {
-                    System.out.println("A file or directory with the target name already exists.");
+                    Log.info("A file or directory with the target name already exists.");
                 }
             } else {
-                System.out.println("Permission denied. You are not the owner of " + oldPath);
+                Log.info("Permission denied. You are not the owner of " + oldPath);
             }
         } else {
-            System.out.println("File/Directory " + oldPath + " not found.");
+            Log.info("File/Directory " + oldPath + " not found.");
         }
         return null;
     }
 
-    // 递归更新所有子文件和子文件夹的路径
-    private void renameChildren(Inode inode, String oldParentPath, String newParentPath) {
-        List<String> childrenIds = inode.getChildrenIds();
-        for (String childId : childrenIds) {
-            Inode childInode = idToInodeMap.get(childId);
-            if (childInode != null) {
-                String oldChildPath = childInode.getPath();
-                String newChildPath = oldChildPath.replace(oldParentPath, newParentPath);
-                childInode.setPath(newChildPath);
-                pathToInodeMap.put(newChildPath, childInode); // 更新路径映射
-                pathToInodeMap.remove(oldChildPath); // 移除旧路径映射
-                renameChildren(childInode, oldParentPath, newParentPath); // 递归更新子文件和子文件夹的路径
-            }
-        }
+    // 从旧父目录摘下，改名后挂到新父目录，子树随之移动
+    private void moveInode(Inode inode, Inode newParent, String newName) {
+        inode.getParent().removeChild(inode.getNameBytes());
+        inode.setName(nameCache.get(newName));
+        newParent.addChild(inode);
+    }
+
+    // 把子树从父目录摘下，之后无法再通过路径访问；子树中的 inode 和块由 reclaimer 回收
+    private void detachInode(Inode inode) {
+        inode.getParent().removeChild(inode.getNameBytes());
     }
 
     // 从路径中获取文件名
@@ -249,72 +1224,268 @@ public class NameNode extends UnicastRemoteObject implements NameNodeInter {
         return lastSeparatorIndex == -1 ? path : path.substring(lastSeparatorIndex + 1);
     }
 
-    // 获取文件或目录信息
+    // 获取文件或目录信息：从根目录逐级解析路径，任意一级不存在时返回 null
     public Inode getInode(String path) {
-        return pathToInodeMap.get(path);
+        if (path == null || !path.startsWith("/") || root == null) {
+            return null;
+        }
+        Inode node = root;
+        int start = 1;
+        while (node != null && start < path.length()) {
+            int end = path.indexOf('/', start);
+            if (end == -1) {
+                end = path.length();
+            }
+            if (end > start) {
+                node = node.getChild(path.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return node;
     }
 
     // 获取文件或目录信息
-    public Inode getInodeById(String id) {
-        return idToInodeMap.get(id);
+    public Inode getInodeById(long id) {
+        return inodeMap.get(id);
     }
 
-    // 删除文件或目录
+    // 删除文件或目录：锁内只把子树从父目录摘下并写日志，与子树大小无关；
+    // 子树中的 inode 和块由后台任务回收，块随 DataNode 的心跳分批通知删除
+    @Override
     public boolean delete(String path, String user) {
-        if (pathToInodeMap.containsKey(path)) {
-            Inode inode = pathToInodeMap.get(path);
+        path = PathLockManager.normalize(path);
+        boolean deleted;
+        try (PathLockManager.Locked ignored = locks.lockForWrite(path, getParentPath(path))) {
+            deleted = deleteLocked(path, user);
+        }
+        logSync();
+        return deleted;
+    }
+
+    // 通知副本所在的 DataNode 把子树中文件的块载入并钉在缓存中，或者取消钉住；打包文件钉住所在的容器块
+    @Override
+    public int cacheFiles(String path, boolean pin) {
+        path = PathLockManager.normalize(path);
+        Map<Integer, List<Long>> replicas = new HashMap<>(); // DataNode 编号到块ID
+        try (PathLockManager.Locked ignored = locks.lockForRead(path)) {
+            Inode inode = getInode(path);
+            if (inode == null) {
+                Log.info("File/Directory " + path + " not found.");
+                return -1;
+            }
+            Set<Long> containers = new HashSet<>();
+            Deque<Inode> stack = new ArrayDeque<>();
+            stack.push(inode);
+            while (!stack.isEmpty()) {
+                Inode current = stack.pop();
+                if (current.isDirectory()) {
+                    if (current.getChildrenCount() > 0) {
+                        for (Inode child : current.getChildren()) {
+                            stack.push(child);
+                        }
+                    }
+                } else if (current.isPacked()) {
+                    containers.add(current.getPackedBlockId());
+                } else {
+                    InodeReclaimer.groupReplicas(current, replicas);
+                }
+            }
+            for (long blockId : containers) {
+                Inode container = inodeMap.get(Inode.inodeIdOf(blockId));
+                int index = Inode.blockIndexOf(blockId);
+                if (container != null && index < container.getBlockCount()) {
+                    for (int location : container.getBlockLocations(index)) {
+                        if (location >= 0) {
+                            replicas.computeIfAbsent(location, k -> new ArrayList<>()).add(blockId);
+                        }
+                    }
+                }
+            }
+        }
+        Set<Long> blocks = new HashSet<>();
+        for (Map.Entry<Integer, List<Long>> entry : replicas.entrySet()) {
+            blocks.addAll(entry.getValue());
+            DataNodeDescriptor node = dataNodeManager.getLiveNode(entry.getKey());
+            if (node != null) {
+                List<String> blockIds = new ArrayList<>(entry.getValue().size());
+                for (long blockId : entry.getValue()) {
+                    blockIds.add(Long.toString(blockId));
+                }
+                node.addCommand(pin ? DataNodeCommand.cache(blockIds) : DataNodeCommand.uncache(blockIds));
+            }
+        }
+        Log.info((pin ? "Caching " : "Uncaching ") + blocks.size() + " blocks under " + path);
+        return blocks.size();
+    }
+
+    // 目录或打包文件回收后，检查相关的容器文件是否可以删除
+    private void inodeReclaimed(Inode inode) {
+        if (inode.isDirectory()) {
+            deleteContainerIfUnused(inode.getId());
+            return;
+        }
+        long containerId = Inode.inodeIdOf(inode.getPackedBlockId());
+        synchronized (packedFileCounts) {
+            Integer count = packedFileCounts.get(containerId);
+            if (count == null || count > 1) {
+                if (count != null) {
+                    packedFileCounts.put(containerId, count - 1);
+                }
+                return;
+            }
+            packedFileCounts.remove(containerId);
+        }
+        Inode container = inodeMap.get(containerId);
+        if (container != null) {
+            try {
+                deleteContainerIfUnused(Long.parseLong(container.getName()));
+            } catch (NumberFormatException e) {
+                // 不是容器文件
+            }
+        }
+    }
+
+    private void packedFileAdded(long containerId) {
+        synchronized (packedFileCounts) {
+            packedFileCounts.merge(containerId, 1, Integer::sum);
+        }
+    }
+
+    // 目录 directoryId 已被回收、且没有打包文件（包括被重命名到其他目录的）引用它的容器文件时，删除容器文件，
+    // 容器块随容器文件在后台回收
+    private void deleteContainerIfUnused(long directoryId) {
+        if (inodeMap.get(directoryId) != null) {
+            return; // 目录仍存在，或已删除但尚未回收
+        }
+        String containerPath = Config.CONTAINER_DIR + "/" + directoryId;
+        try (PathLockManager.Locked ignored = locks.lockForWrite(containerPath, Config.CONTAINER_DIR)) {
+            Inode container = getInode(containerPath);
+            if (container == null) {
+                return;
+            }
+            synchronized (packedFileCounts) {
+                if (packedFileCounts.containsKey(container.getId())) {
+                    return;
+                }
+            }
+            detachInode(container);
+            logEdit(FSEditLog.OP_DELETE, containerPath);
+            reclaimer.add(container);
+        }
+        logSync();
+        Log.info("Container " + containerPath + " is no longer referenced, scheduled for deletion.");
+    }
+
+    // 启动时统计各容器文件被多少打包文件引用，并删除已不再使用的容器文件：
+    // 目录或打包文件的删除与容器文件的删除是不同的日志，两者之间宕机会留下容器文件
+    private void countPackedFiles() {
+        Deque<Inode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Inode inode = stack.pop();
+            if (inode.isDirectory()) {
+                if (inode.getChildrenCount() > 0) {
+                    for (Inode child : inode.getChildren()) {
+                        stack.push(child);
+                    }
+                }
+            } else if (inode.isPacked()) {
+                packedFileAdded(Inode.inodeIdOf(inode.getPackedBlockId()));
+            }
+        }
+        Inode containerDir = getInode(Config.CONTAINER_DIR);
+        if (containerDir == null || !containerDir.isDirectory() || containerDir.getChildrenCount() == 0) {
+            return;
+        }
+        List<Long> directories = new ArrayList<>();
+        for (Inode container : containerDir.getChildren()) {
+            try {
+                directories.add(Long.parseLong(container.getName()));
+            } catch (NumberFormatException e) {
+                // 不是容器文件
+            }
+        }
+        for (long directoryId : directories) {
+            deleteContainerIfUnused(directoryId);
+        }
+    }
+
+    private boolean deleteLocked(String path, String user) {
+        Inode inode = getInode(path);
+        if (inode != null && inode != root) {
             String owner = inode.getOwner();
             if (owner.equals(user)) {
-                // 删除文件或目录
-                Inode parentInode = idToInodeMap.get(inode.getParentId());
-                if (parentInode != null) {
-                    parentInode.getChildrenIds().remove(inode.getId());
-                }
-                pathToInodeMap.remove(path);
-                idToInodeMap.remove(inode.getId());
+                detachInode(inode);
+                logEdit(FSEditLog.OP_DELETE, path);
+                reclaimer.add(inode);
                 return true;
             } else {
-                System.out.println("Permission denied. You are not the owner of " + path);
+                Log.info("Permission denied. You are not the owner of " + path);
             }
         } else {
-            System.out.println("File/Directory " + path + " not found.");
+            Log.info("File/Directory " + path + " not found.");
         }
         return false;
     }
 
 
-    // 创建文件或目录
+    // 创建文件或目录，父目录不存在时先逐级创建父目录
     public Inode create(String path, String owner, boolean isDirectory) {
-        Inode inode = null;
-        Inode parentInode = null;
-
-        if (!pathToInodeMap.containsKey(path)) {
-            String parentPath = getParentPath(path);
-
-            // 根目录的父目录应该是空
-            if (!path.equals("/")) {
-                if (!pathToInodeMap.containsKey(parentPath)) {
-                    System.out.println("Parent directory " + parentPath + " does not exist.");
-                    // 递归创建父目录
-                    parentInode = create(parentPath, owner, true);
-                } else {
-                    // 如果父路径存在，则直接获取父目录的inode
-                    parentInode = pathToInodeMap.get(parentPath);
+        Inode inode = createNoSync(path, owner, isDirectory);
+        logSync();
+        return inode;
+    }
+
+    // 创建节点并写入编辑日志缓冲区，调用方负责 logSync
+    private Inode createNoSync(String path, String owner, boolean isDirectory) {
+        path = PathLockManager.normalize(path);
+        if (path.equals("/")) {
+            // 根目录没有父目录，只在构造时创建一次
+            if (root == null) {
+                root = new Inode(ROOT_ID, new byte[0], owner, true, System.currentTimeMillis());
+                inodeMap.put(root);
+            }
+            return root;
+        }
+        String parentPath = getParentPath(path);
+        while (true) {
+            Inode created;
+            // 新节点加入父目录的子节点列表，因此父目录需要写锁
+            try (PathLockManager.Locked ignored = locks.lockForWrite(parentPath, path)) {
+                Inode inode = getInode(path);
+                if (inode != null) {
+                    Log.info((isDirectory ? "Directory" : "File") + " " + path + " already exists.");
+                    return inode;
                 }
+                Inode parentInode = getInode(parentPath);
+                if (parentInode != null && !parentInode.isDirectory()) {
+                    Log.info("Parent " + parentPath + " is not a directory.");
+                    return null;
+                }
+                created = parentInode != null ? createLocked(path, owner, isDirectory, parentInode) : null;
             }
-
-            // 创建新inode
-            inode = new Inode(path, owner, isDirectory, parentInode != null ? parentInode.getId() : null);
-            idToInodeMap.put(inode.getId(), inode); // 将新inode加入ID映射
-            pathToInodeMap.put(path, inode); // 将新inode加入路径映射
-            if (parentInode != null) {
-                parentInode.addChildId(inode.getId());
+            if (created != null) {
+                return created;
             }
-            System.out.println((isDirectory ? "Directory" : "File") + " " + path + " created by " + owner);
-        } else {
-            System.out.println((isDirectory ? "Directory" : "File") + " " + path + " already exists.");
-            inode = pathToInodeMap.get(path);
+            Log.info("Parent directory " + parentPath + " does not exist.");
+            // 在锁外递归创建父目录，然后重试
+            if (createNoSync(parentPath, owner, true) == null) {
+                return null;
+            }
+        }
+    }
+
+    private Inode createLocked(String path, String owner, boolean isDirectory, Inode parentInode) {
+        // 创建新inode并挂到父目录下
+        Inode inode = new Inode(lastInodeId.incrementAndGet(), nameCache.get(getFileName(path)), owner.intern(), isDirectory, System.currentTimeMillis());
+        if (!isDirectory) {
+            inode.setErasureCodingPolicy(effectivePolicy(parentInode)); // 文件创建时确定策略，之后不随目录改变
+            inode.setCompressionCodec(effectiveCodec(parentInode));
         }
+        inodeMap.put(inode); // 将新inode加入ID映射
+        parentInode.addChild(inode);
+        logEdit(FSEditLog.OP_CREATE, inode.getId(), path, owner, isDirectory, inode.getCreationTime());
+        Log.info((isDirectory ? "Directory" : "File") + " " + path + " created by " + owner);
         return inode;
     }
 
@@ -339,9 +1510,10 @@ public class NameNode extends UnicastRemoteObject implements NameNodeInter {
     public static void main(String[] args) {
         try {
             NameNode nameNode = new NameNode();
+            MetricsServer.start(Config.NAMENODE_METRICS_PORT);
             // 这里启动了一个rpc的服务器
-            Registry registry = LocateRegistry.createRegistry(1099);
-            Naming.rebind("//localhost/nameNode", nameNode);
+            Rpc.createRegistry();
+            Rpc.bind("nameNode", nameNode, NameNodeInter.class);
             System.out.println("NameNode is ready.");
         } catch (Exception e) {
             e.printStackTrace();
@@ -0,0 +1,115 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// 命名空间的分段路径锁：每个路径按哈希落到固定数量的读写锁之一。
+// 一次操作对要修改的路径加写锁，对它们的所有祖先路径加读锁，
+// 所有锁按分段编号从小到大获取，因此不会死锁；不同子树上的操作互不阻塞
+public class PathLockManager {
+    private final ReentrantReadWriteLock[] stripes;
+
+    public PathLockManager(int stripeCount) {
+        stripes = new ReentrantReadWriteLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    // 已获取的一组锁，close 时按相反顺序释放
+    public static class Locked implements AutoCloseable {
+        private final List<Lock> locks;
+
+        Locked(List<Lock> locks) {
+            this.locks = locks;
+        }
+
+        @Override
+        public void close() {
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.get(i).unlock();
+            }
+        }
+    }
+
+    // 对 path 及其所有祖先加读锁
+    public Locked lockForRead(String... paths) {
+        return lock(paths, new String[0]);
+    }
+
+    // 对 paths 加写锁，对它们的祖先加读锁
+    public Locked lockForWrite(String... paths) {
+        return lock(new String[0], paths);
+    }
+
+    // 对整个命名空间加读锁，期间没有任何修改操作能进行
+    public Locked lockAllForRead() {
+        List<Lock> acquired = new ArrayList<>(stripes.length);
+        for (ReentrantReadWriteLock stripe : stripes) {
+            stripe.readLock().lock();
+            acquired.add(stripe.readLock());
+        }
+        return new Locked(acquired);
+    }
+
+    public Locked lock(String[] readPaths, String[] writePaths) {
+        // 分段编号到是否需要写锁，TreeMap 保证按编号顺序获取
+        TreeMap<Integer, Boolean> modes = new TreeMap<>();
+        for (String path : readPaths) {
+            markWithAncestors(modes, path, false);
+        }
+        for (String path : writePaths) {
+            markWithAncestors(modes, path, true);
+        }
+        List<Lock> acquired = new ArrayList<>(modes.size());
+        for (Map.Entry<Integer, Boolean> entry : modes.entrySet()) {
+            ReentrantReadWriteLock stripe = stripes[entry.getKey()];
+            Lock lock = entry.getValue() ? stripe.writeLock() : stripe.readLock();
+            lock.lock();
+            acquired.add(lock);
+        }
+        return new Locked(acquired);
+    }
+
+    // 规范化路径：合并连续的 '/'，去掉末尾的 '/'（根目录除外）。锁按路径字符串的哈希选择分段，
+    // /a/、//a 和 /a 必须是同一个字符串才会锁住同一个分段；已规范化的路径原样返回，不分配新字符串
+    public static String normalize(String path) {
+        if (path == null || (path.indexOf("//") < 0 && (path.length() <= 1 || !path.endsWith("/")))) {
+            return path;
+        }
+        StringBuilder normalized = new StringBuilder(path.length());
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c != '/' || normalized.length() == 0 || normalized.charAt(normalized.length() - 1) != '/') {
+                normalized.append(c);
+            }
+        }
+        if (normalized.length() > 1 && normalized.charAt(normalized.length() - 1) == '/') {
+            normalized.setLength(normalized.length() - 1);
+        }
+        return normalized.toString();
+    }
+
+    private void markWithAncestors(Map<Integer, Boolean> modes, String path, boolean write) {
+        path = normalize(path); // NameNode 在 RPC 入口已规范化，这里只是防御
+        mark(modes, path, write);
+        String ancestor = path;
+        while (!ancestor.isEmpty() && !ancestor.equals("/")) {
+            int lastSeparatorIndex = ancestor.lastIndexOf('/');
+            ancestor = lastSeparatorIndex <= 0 ? "/" : ancestor.substring(0, lastSeparatorIndex);
+            mark(modes, ancestor, false);
+        }
+    }
+
+    private void mark(Map<Integer, Boolean> modes, String path, boolean write) {
+        int index = (path.hashCode() & 0x7fffffff) % stripes.length;
+        Boolean current = modes.get(index);
+        if (current == null || (write && !current)) {
+            modes.put(index, write);
+        }
+    }
+}
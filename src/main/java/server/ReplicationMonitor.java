@@ -0,0 +1,426 @@
+package server;
+
+import common.Config;
+import common.DataNodeCommand;
+import common.ErasureCodingPolicy;
+import common.Inode;
+import common.Log;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ObjLongConsumer;
+
+// 副本修复：DataNode 失联后找出副本不足的块，按紧急程度排队，
+// 由 NameNode 通过心跳应答让仍持有副本的 DataNode 把块直接复制给选出的新节点。
+// 每个源节点同时进行的复制数受 REPLICATION_MAX_STREAMS 限制，DataNode 端再按 REPLICATION_BANDWIDTH 限速，
+// 避免修复流量挤占客户端读写；超过 REPLICATION_TIMEOUT 未完成的复制重新排队，保证修复时间有界。
+// 纠删码块组以块组ID排队，可用单元不足 k + m 时让一个新节点读取任意 k 个单元、解码出缺失的单元并写到新节点上
+public class ReplicationMonitor {
+    static final int PRIORITY_HIGHEST = 0; // 只剩一个副本，或纠删码块组只剩 k 个单元
+    static final int PRIORITY_VERY_UNDER_REPLICATED = 1; // 副本数不到目标的三分之一
+    static final int PRIORITY_UNDER_REPLICATED = 2; // 其他副本不足的块
+    private static final int LEVELS = 3;
+
+    // 已下发、尚未完成的一次复制或重建，重建的 source 是执行解码的节点
+    private static class PendingReplication {
+        final DataNodeDescriptor source;
+        final Set<String> targets;
+        final long startTime;
+
+        PendingReplication(DataNodeDescriptor source, Set<String> targets, long startTime) {
+            this.source = source;
+            this.targets = targets;
+            this.startTime = startTime;
+        }
+    }
+
+    // 一次节点失联引发的修复，队列清空时打印耗时
+    private static class RecoveryEvent {
+        final String nodeName;
+        final long startTime;
+        final int blocks;
+
+        RecoveryEvent(String nodeName, long startTime, int blocks) {
+            this.nodeName = nodeName;
+            this.startTime = startTime;
+            this.blocks = blocks;
+        }
+    }
+
+    private final InodeMap inodeMap;
+    private final PathLockManager locks;
+    private final DataNodeManager dataNodeManager;
+    private final BlockPlacementPolicy placementPolicy;
+    private final List<LinkedHashSet<Long>> queues = new ArrayList<>(LEVELS); // 按优先级排列的待修复块
+    private final Set<Long> missing = new HashSet<>(); // 没有任何活跃副本的块，只能等节点恢复
+    private final Map<Long, PendingReplication> pending = new HashMap<>();
+    private final List<RecoveryEvent> recoveries = new ArrayList<>();
+    private long replicatedBlocks; // 累计修复完成的块数
+
+    public ReplicationMonitor(InodeMap inodeMap, PathLockManager locks, DataNodeManager dataNodeManager, BlockPlacementPolicy placementPolicy) {
+        this.inodeMap = inodeMap;
+        this.locks = locks;
+        this.dataNodeManager = dataNodeManager;
+        this.placementPolicy = placementPolicy;
+        for (int i = 0; i < LEVELS; i++) {
+            queues.add(new LinkedHashSet<>());
+        }
+    }
+
+    static int priority(int live, int expected) {
+        if (live == 1) {
+            return PRIORITY_HIGHEST;
+        }
+        return live * 3 < expected ? PRIORITY_VERY_UNDER_REPLICATED : PRIORITY_UNDER_REPLICATED;
+    }
+
+    // 纠删码块组按可用单元比 k 多出的个数归类，与多副本块比 1 多出的副本数对应
+    static int priority(int live, ErasureCodingPolicy policy) {
+        if (policy == null) {
+            return priority(live, Config.REPLICATION);
+        }
+        return priority(live - policy.getDataUnits() + 1, policy.getParityUnits() + 1);
+    }
+
+    // 块组所属文件的纠删码策略，多副本块或文件已删除时返回 null
+    private ErasureCodingPolicy policyOf(long blockId) {
+        Inode inode = inodeMap.get(Inode.inodeIdOf(blockId));
+        return inode == null ? null : ErasureCodingPolicy.byId(inode.getErasureCodingPolicy());
+    }
+
+    // 根据块当前的活跃副本数（纠删码块组为可用单元数）把它放入对应队列，副本已足够时移出队列
+    public synchronized void update(long blockId, int live) {
+        remove(blockId);
+        ErasureCodingPolicy policy = policyOf(blockId);
+        int expected = policy == null ? Config.REPLICATION : policy.getTotalUnits();
+        int minimum = policy == null ? 1 : policy.getDataUnits(); // 能读出数据所需的最少副本或单元数
+        if (live >= expected) {
+            return;
+        }
+        if (live < minimum) {
+            missing.add(blockId);
+        } else {
+            queues.get(priority(live, policy)).add(blockId);
+        }
+    }
+
+    // 某个节点收到了块的副本
+    public synchronized void replicaAdded(long blockId, String nodeName, int live) {
+        PendingReplication replication = pending.get(blockId);
+        if (replication != null && replication.targets.remove(nodeName)) {
+            replicatedBlocks++;
+            if (replication.targets.isEmpty()) {
+                pending.remove(blockId);
+                replication.source.getReplicationsInProgress().decrementAndGet();
+            }
+        }
+        if (!pending.containsKey(blockId)) {
+            update(blockId, live);
+        }
+    }
+
+    // 节点失联：扫描命名空间找出它持有的块并按剩余副本数排队，以它为源或目标的复制重新排队
+    public void nodeLost(String nodeName) {
+        long start = System.currentTimeMillis();
+        List<long[]> affected = new ArrayList<>();
+        scanBlocks(dataNodeManager.register(nodeName),
+                (locations, blockId) -> affected.add(new long[]{Inode.groupIdOf(blockId), dataNodeManager.countLive(locations)}));
+        synchronized (this) {
+            for (long[] block : affected) {
+                if (!pending.containsKey(block[0])) {
+                    update(block[0], (int) block[1]);
+                }
+            }
+            Iterator<Map.Entry<Long, PendingReplication>> it = pending.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Long, PendingReplication> entry = it.next();
+                PendingReplication replication = entry.getValue();
+                if (replication.source.getName().equals(nodeName) || replication.targets.contains(nodeName)) {
+                    it.remove();
+                    replication.source.getReplicationsInProgress().decrementAndGet();
+                    queues.get(PRIORITY_HIGHEST).add(entry.getKey()); // 调度时会按实际副本数重新归类
+                }
+            }
+            recoveries.add(new RecoveryEvent(nodeName, start, affected.size()));
+        }
+        Log.info("DataNode " + nodeName + " lost: " + affected.size() + " blocks affected, scanned in "
+                + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    // 扫描命名空间，对副本位置中包含该节点的每个块调用 visitor，纠删码块组传入该节点上单元的内部块ID。
+    // 扫描不持有路径锁，读到的块列表可能稍旧，使用方修改前需在锁内重新检查
+    void scanBlocks(int nodeIndex, ObjLongConsumer<int[]> visitor) {
+        inodeMap.forEach(inode -> {
+            if (inode.isDirectory()) {
+                return;
+            }
+            boolean striped = ErasureCodingPolicy.byId(inode.getErasureCodingPolicy()) != null;
+            for (int i = 0; i < inode.getBlockCount(); i++) {
+                int[] locations = inode.getBlockLocations(i);
+                if (!striped) {
+                    if (DataNodeManager.contains(locations, nodeIndex)) {
+                        visitor.accept(locations, inode.getBlockId(i));
+                    }
+                    continue;
+                }
+                for (int unit = 0; unit < locations.length; unit++) {
+                    if (locations[unit] == nodeIndex) {
+                        visitor.accept(locations, Inode.internalBlockId(inode.getBlockId(i), unit));
+                    }
+                }
+            }
+        });
+    }
+
+    // 某个节点上的副本被删除或丢失
+    public synchronized void replicaRemoved(long blockId, int live) {
+        if (!pending.containsKey(blockId)) {
+            update(blockId, live);
+        }
+    }
+
+    // 节点重新上线后，之前因没有活跃副本而搁置的块可能又可以修复了
+    public synchronized void nodeAdded() {
+        for (Long blockId : missing) {
+            queues.get(PRIORITY_HIGHEST).add(blockId);
+        }
+        missing.clear();
+    }
+
+    public synchronized int getUnderReplicatedCount() {
+        int count = 0;
+        for (Set<Long> queue : queues) {
+            count += queue.size();
+        }
+        return count;
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public synchronized int getMissingCount() {
+        return missing.size();
+    }
+
+    public synchronized long getReplicatedBlocks() {
+        return replicatedBlocks;
+    }
+
+    // 一轮调度：先把超时的复制重新排队，再按优先级为待修复块下发复制命令
+    public void computeReplicationWork() {
+        long now = System.currentTimeMillis();
+        List<DataNodeDescriptor> liveNodes = dataNodeManager.getLiveNodes();
+        int budget = liveNodes.size() * Config.REPLICATION_MAX_STREAMS; // 本轮最多下发的复制数
+        List<long[]> candidates = new ArrayList<>(); // [块ID, 所在队列]
+        synchronized (this) {
+            Iterator<Map.Entry<Long, PendingReplication>> it = pending.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Long, PendingReplication> entry = it.next();
+                if (entry.getValue().startTime + Config.REPLICATION_TIMEOUT < now) {
+                    it.remove();
+                    entry.getValue().source.getReplicationsInProgress().decrementAndGet();
+                    queues.get(PRIORITY_HIGHEST).add(entry.getKey());
+                    Log.info("Replication of block " + entry.getKey() + " timed out, rescheduling.");
+                }
+            }
+            // 每轮最多检查预算两倍的块，暂时无法调度的块移到队尾，下一轮先看后面的块
+            for (int level = 0; level < LEVELS; level++) {
+                Iterator<Long> blocks = queues.get(level).iterator();
+                while (blocks.hasNext() && candidates.size() < budget * 2) {
+                    candidates.add(new long[]{blocks.next(), level});
+                    blocks.remove();
+                }
+            }
+        }
+        int scheduled = 0;
+        for (long[] candidate : candidates) {
+            if (scheduled >= budget) {
+                requeue(candidate[0], (int) candidate[1]);
+            } else if (scheduleReplication(candidate[0], liveNodes, now)) {
+                scheduled++;
+            }
+        }
+        checkRecoveries(now);
+    }
+
+    // 为一个块下发复制命令；块已删除或副本已足够时直接丢弃，暂时无法调度时放回队尾
+    @SuppressWarnings("try") // 路径锁句柄在块内不被引用
+    private boolean scheduleReplication(long blockId, List<DataNodeDescriptor> liveNodes, long now) {
+        Inode inode = inodeMap.get(Inode.inodeIdOf(blockId));
+        int index = Inode.blockIndexOf(blockId);
+        if (inode == null || inode.isDirectory()) {
+            return false;
+        }
+        String path = inode.getPath();
+        try (PathLockManager.Locked ignored = locks.lockForRead(path)) {
+            if (inodeMap.get(inode.getId()) != inode || !path.equals(inode.getPath())) {
+                // 加锁前被删除或改名，下一轮再处理
+                requeue(blockId, PRIORITY_UNDER_REPLICATED);
+                return false;
+            }
+            if (index >= inode.getBlockCount()) {
+                return false;
+            }
+            ErasureCodingPolicy policy = ErasureCodingPolicy.byId(inode.getErasureCodingPolicy());
+            if (policy != null) {
+                return scheduleReconstruction(blockId, inode, index, policy, liveNodes, now);
+            }
+            int[] locations = inode.getBlockLocations(index);
+            List<DataNodeDescriptor> holders = new ArrayList<>();
+            Set<String> excluded = new HashSet<>();
+            for (int location : locations) {
+                DataNodeDescriptor holder = dataNodeManager.getLiveNode(location);
+                if (holder != null) {
+                    holders.add(holder);
+                }
+                excluded.add(dataNodeManager.nameOf(location));
+            }
+            // 损坏的副本删除之前，不能把新副本写到同一个节点上，否则随后的删除会删掉新副本
+            for (DataNodeDescriptor node : liveNodes) {
+                if (node.isCorrupt(blockId)) {
+                    excluded.add(node.getName());
+                }
+            }
+            int needed = Config.REPLICATION - holders.size();
+            synchronized (this) {
+                if (pending.containsKey(blockId) || needed <= 0) {
+                    return false;
+                }
+                if (holders.isEmpty()) {
+                    missing.add(blockId);
+                    Log.info("Block " + blockId + " of " + path + " has no live replica.");
+                    return false;
+                }
+            }
+            // 选当前复制任务最少的持有者作为源
+            DataNodeDescriptor source = null;
+            for (DataNodeDescriptor holder : holders) {
+                int inProgress = holder.getReplicationsInProgress().get();
+                if (inProgress < Config.REPLICATION_MAX_STREAMS
+                        && (source == null || inProgress < source.getReplicationsInProgress().get())) {
+                    source = holder;
+                }
+            }
+            List<DataNodeDescriptor> targets = source == null ? new ArrayList<>()
+                    : placementPolicy.chooseTargets(needed, liveNodes, excluded);
+            if (targets.isEmpty()) {
+                requeue(blockId, priority(holders.size(), Config.REPLICATION));
+                return false;
+            }
+            List<String> targetNames = new ArrayList<>(targets.size());
+            List<InetSocketAddress> targetAddresses = new ArrayList<>(targets.size());
+            for (DataNodeDescriptor target : targets) {
+                target.incrementBlocksScheduled();
+                targetNames.add(target.getName());
+                targetAddresses.add(target.getTransferAddress());
+            }
+            synchronized (this) {
+                pending.put(blockId, new PendingReplication(source, new HashSet<>(targetNames), now));
+            }
+            source.getReplicationsInProgress().incrementAndGet();
+            source.addCommand(DataNodeCommand.transfer(Long.toString(blockId), targetNames, targetAddresses));
+            return true;
+        }
+    }
+
+    // 为一个纠删码块组下发重建命令，调用方持有文件的读锁。执行解码的节点是目标之一，
+    // 它从其他节点读取 k 个可用单元，解码出的单元写给包括自己在内的所有目标
+    private boolean scheduleReconstruction(long groupId, Inode inode, int index, ErasureCodingPolicy policy,
+                                           List<DataNodeDescriptor> liveNodes, long now) {
+        int[] locations = inode.getBlockLocations(index);
+        List<InetSocketAddress> sources = new ArrayList<>(locations.length);
+        List<Integer> missingUnits = new ArrayList<>();
+        Set<String> excluded = new HashSet<>();
+        int live = 0;
+        for (int unit = 0; unit < locations.length; unit++) {
+            DataNodeDescriptor holder = dataNodeManager.getLiveNode(locations[unit]);
+            if (holder != null) {
+                live++;
+                sources.add(holder.getTransferAddress());
+            } else {
+                sources.add(null);
+                missingUnits.add(unit);
+            }
+            if (locations[unit] != DataNodeManager.NO_NODE) {
+                excluded.add(dataNodeManager.nameOf(locations[unit]));
+            }
+        }
+        for (DataNodeDescriptor node : liveNodes) {
+            for (int unit = 0; unit < locations.length; unit++) {
+                if (node.isCorrupt(Inode.internalBlockId(groupId, unit))) {
+                    excluded.add(node.getName());
+                }
+            }
+        }
+        synchronized (this) {
+            if (pending.containsKey(groupId) || missingUnits.isEmpty()) {
+                return false;
+            }
+            if (live < policy.getDataUnits()) {
+                missing.add(groupId);
+                Log.info("Block group " + groupId + " of " + inode.getPath() + " has only " + live + " live units, "
+                        + policy + " needs " + policy.getDataUnits() + ".");
+                return false;
+            }
+        }
+        List<DataNodeDescriptor> targets = placementPolicy.chooseTargets(missingUnits.size(), liveNodes, excluded);
+        // 选当前任务最少的目标执行解码
+        DataNodeDescriptor worker = null;
+        for (DataNodeDescriptor target : targets) {
+            int inProgress = target.getReplicationsInProgress().get();
+            if (inProgress < Config.REPLICATION_MAX_STREAMS
+                    && (worker == null || inProgress < worker.getReplicationsInProgress().get())) {
+                worker = target;
+            }
+        }
+        if (worker == null) {
+            requeue(groupId, priority(live, policy));
+            return false;
+        }
+        List<String> targetNames = new ArrayList<>(targets.size());
+        List<InetSocketAddress> targetAddresses = new ArrayList<>(targets.size());
+        for (DataNodeDescriptor target : targets) {
+            target.incrementBlocksScheduled();
+            targetNames.add(target.getName());
+            targetAddresses.add(target.getTransferAddress());
+        }
+        synchronized (this) {
+            pending.put(groupId, new PendingReplication(worker, new HashSet<>(targetNames), now));
+        }
+        worker.getReplicationsInProgress().incrementAndGet();
+        worker.addCommand(DataNodeCommand.reconstruct(Long.toString(groupId), policy.getName(), inode.getBlockLength(index),
+                sources, new ArrayList<>(missingUnits.subList(0, targets.size())), targetNames, targetAddresses));
+        return true;
+    }
+
+    private synchronized void requeue(long blockId, int priority) {
+        queues.get(priority).add(blockId);
+    }
+
+    // 待修复和进行中的复制都清空后，报告每次节点失联的修复耗时
+    private synchronized void checkRecoveries(long now) {
+        if (recoveries.isEmpty() || getUnderReplicatedCount() > 0 || !pending.isEmpty()) {
+            return;
+        }
+        for (RecoveryEvent event : recoveries) {
+            Log.info("Re-replication after loss of " + event.nodeName + " finished: " + event.blocks
+                    + " blocks in " + (now - event.startTime) + " ms" + (missing.isEmpty() ? "." : ", " + missing.size() + " blocks missing."));
+        }
+        recoveries.clear();
+    }
+
+    private synchronized void remove(long blockId) {
+        for (Set<Long> queue : queues) {
+            queue.remove(blockId);
+        }
+        missing.remove(blockId);
+    }
+}
@@ -0,0 +1,28 @@
+package server;
+
+// 带宽限制器：多个线程共享同一个速率上限，传输方每发送一段数据调用一次 throttle
+public class Throttler {
+    private final long bytesPerSecond;
+    private long nextFree = System.nanoTime(); // 按速率上限，已登记的数据最早在这个时刻发完
+
+    public Throttler(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    // 登记即将发送的 bytes 字节，超出速率时阻塞到允许发送为止
+    public void throttle(long bytes) throws InterruptedException {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long start = Math.max(nextFree, now); // 之前登记的数据发完后才轮到这次
+            nextFree = start + bytes * 1000000000L / bytesPerSecond;
+            wait = start - now;
+        }
+        if (wait > 0) {
+            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+        }
+    }
+}
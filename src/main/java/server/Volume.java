@@ -0,0 +1,143 @@
+package server;
+
+import common.Config;
+import common.Log;
+import common.StorageReport;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+// DataNode 的一个存储卷，通常对应一块磁盘：自己的块存储、执行磁盘操作的线程池和后台扫描器。
+// 每个卷的磁盘操作排在自己的线程池里，一块慢盘只会堆积它自己的队列，不会占住其他卷的线程
+public class Volume {
+    private final File dir;
+    private final BlockStore store;
+    private final ThreadPoolExecutor ioPool;
+    private final BlockScanner scanner;
+    private final AtomicBoolean compacting = new AtomicBoolean(); // 上一轮压缩回收是否尚未结束
+    private volatile boolean failed;
+
+    Volume(String name, File dir, long capacity, int ioThreads, Consumer<String> corruptBlock) throws IOException {
+        this.dir = dir;
+        this.store = new BlockStore(dir, Config.SEGMENT_SIZE, capacity);
+        this.ioPool = new ThreadPoolExecutor(ioThreads, ioThreads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, name + "-io-" + dir.getPath());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scanner = new BlockScanner(name + "[" + dir.getPath() + "]", store, corruptBlock);
+        this.scanner.start();
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    public BlockStore getStore() {
+        return store;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    // 在本卷的线程池中执行 task 并等待结果，task 抛出的 IOException 原样抛出
+    <T> T call(Callable<T> task) throws IOException {
+        try {
+            return ioPool.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + dir);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Volume " + dir + " is no longer available", e);
+        }
+    }
+
+    // 在本卷的线程池中异步执行 task
+    void execute(Runnable task) {
+        try {
+            ioPool.execute(task);
+        } catch (RejectedExecutionException e) {
+            // 卷已失效或节点正在关闭
+        }
+    }
+
+    // 在本卷的线程池中压缩回收，上一轮尚未结束时跳过；出错时调用 onError
+    void compactAsync(Runnable onError) {
+        if (!compacting.compareAndSet(false, true)) {
+            return;
+        }
+        execute(() -> {
+            try {
+                store.compact();
+            } catch (IOException e) {
+                Log.info("Compaction failed on " + dir + ": " + e.getMessage());
+                onError.run();
+            } finally {
+                compacting.set(false);
+            }
+        });
+    }
+
+    public int getQueuedTasks() {
+        return ioPool.getQueue().size();
+    }
+
+    // 检查目录是否仍然可以读写：能在其中创建并删除一个文件
+    boolean check() {
+        if (!dir.isDirectory() || !dir.canWrite()) {
+            return false;
+        }
+        try {
+            File probe = File.createTempFile("check", null, dir);
+            return probe.delete();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // 标记为失效：停止线程池和扫描器并尽量关闭块存储，此后不再读写本卷
+    void fail() {
+        failed = true;
+        scanner.stop();
+        ioPool.shutdownNow();
+        try {
+            store.close();
+        } catch (IOException e) {
+            // 磁盘已损坏，关闭失败不影响其他卷
+        }
+    }
+
+    void close() throws IOException {
+        scanner.stop();
+        ioPool.shutdownNow();
+        if (!failed) {
+            store.close();
+        }
+    }
+
+    StorageReport getReport() {
+        if (failed) {
+            return new StorageReport(dir.getPath(), true, 0, 0, 0);
+        }
+        return new StorageReport(dir.getPath(), false, store.getCapacity(), store.getUsedSpace(), store.getRemaining());
+    }
+}
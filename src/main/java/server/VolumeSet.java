@@ -0,0 +1,339 @@
+package server;
+
+import common.BlockLocalPathInfo;
+import common.ChecksumException;
+import common.Config;
+import common.DataChecksum;
+import common.Log;
+import common.StorageReport;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// DataNode 管理的全部存储卷。新块按剩余空间选择卷写入，已有的块在持有它的卷上读写；
+// 读写出错时检查各卷目录，不能再读写的卷标记为失效，其上的块通过回调作为已删除的块汇报给 NameNode 重新复制
+public class VolumeSet implements Closeable {
+    private final String name;
+    private final List<Volume> volumes = new ArrayList<>();
+    private final Consumer<List<String>> volumeFailed; // 卷失效后的回调，参数为卷上的块ID
+    private int nextVolume; // 剩余空间相近的卷之间轮流选择
+
+    public VolumeSet(String name, List<File> dirs, Consumer<String> corruptBlock, Consumer<List<String>> volumeFailed) throws IOException {
+        this.name = name;
+        this.volumeFailed = volumeFailed;
+        long capacity = Config.DATANODE_CAPACITY > 0 ? Config.DATANODE_CAPACITY / dirs.size() : 0;
+        for (File dir : dirs) {
+            try {
+                volumes.add(new Volume(name, dir, capacity, Config.VOLUME_IO_THREADS, corruptBlock));
+            } catch (IOException e) {
+                Log.info("Cannot open volume " + dir + " on " + name + ": " + e.getMessage());
+            }
+        }
+        if (volumes.isEmpty()) {
+            throw new IOException("No usable volume among " + dirs);
+        }
+    }
+
+    // 存储目录：DATA_DIRS 中的每个目录（为空时为 DATA_DIR）下与节点同名的子目录
+    public static List<File> storageDirs(String name) {
+        List<File> dirs = new ArrayList<>();
+        for (String dir : Config.DATA_DIRS.split(",")) {
+            if (!dir.trim().isEmpty()) {
+                dirs.add(new File(dir.trim(), name));
+            }
+        }
+        if (dirs.isEmpty()) {
+            dirs.add(new File(Config.DATA_DIR, name));
+        }
+        return dirs;
+    }
+
+    // 持有该块的卷，没有时返回 null
+    public Volume volumeOf(String blockId) {
+        for (Volume volume : volumes) {
+            if (!volume.isFailed() && volume.getStore().contains(blockId)) {
+                return volume;
+            }
+        }
+        return null;
+    }
+
+    // 持有该块的卷的块存储，没有时返回 null
+    public BlockStore storeOf(String blockId) {
+        Volume volume = volumeOf(blockId);
+        return volume == null ? null : volume.getStore();
+    }
+
+    // 为 length 字节的新块选择卷：只在剩余空间与最多的卷相差不超过 VOLUME_BALANCE_THRESHOLD 的卷之间轮流，
+    // 卷之间大体均衡时分散写入负载，不均衡时新块都写到空闲的卷上，直到追平。已有同ID的块时写回原来的卷
+    public Volume choose(String blockId, long length) throws IOException {
+        Volume existing = volumeOf(blockId);
+        if (existing != null) {
+            return existing;
+        }
+        List<Volume> live = new ArrayList<>(volumes.size());
+        List<Long> remaining = new ArrayList<>(volumes.size());
+        long max = 0;
+        for (Volume volume : volumes) {
+            if (!volume.isFailed()) {
+                long r = volume.getStore().getRemaining();
+                live.add(volume);
+                remaining.add(r);
+                max = Math.max(max, r);
+            }
+        }
+        List<Volume> candidates = new ArrayList<>(live.size());
+        for (int i = 0; i < live.size(); i++) {
+            long r = remaining.get(i);
+            if (r >= length && r >= max - Config.VOLUME_BALANCE_THRESHOLD) {
+                candidates.add(live.get(i));
+            }
+        }
+        if (candidates.isEmpty()) {
+            throw new IOException("No volume on " + name + " has " + length + " bytes available");
+        }
+        synchronized (this) {
+            return candidates.get(nextVolume++ % candidates.size());
+        }
+    }
+
+    // 在选中卷的线程池中写入一个块
+    public void put(String blockId, byte[] data) throws IOException {
+        Volume volume = choose(blockId, data.length);
+        try {
+            volume.call(() -> {
+                volume.getStore().put(blockId, data);
+                return null;
+            });
+        } catch (IOException e) {
+            checkVolumes();
+            throw e;
+        }
+    }
+
+    // 流式写入的新块：数据由调用方的传输线程写入，卷由剩余空间决定
+    public BlockStore.BlockWriter openWriter(String blockId, long length, int bytesPerChecksum) throws IOException {
+        return choose(blockId, length).getStore().openWriter(blockId, length, bytesPerChecksum);
+    }
+
+    // 读取整个块的映射视图，块不存在时返回 null
+    public ByteBuffer read(String blockId) throws IOException {
+        BlockStore store = storeOf(blockId);
+        return store == null ? null : store.read(blockId);
+    }
+
+    // 在持有块的卷的线程池中读出整个块并校验，同时放入缓存，块不存在时返回 null；数据损坏时抛出 ChecksumException
+    public byte[] readVerified(String blockId, BlockCache cache) throws IOException {
+        Volume volume = volumeOf(blockId);
+        if (volume == null) {
+            return null;
+        }
+        try {
+            return volume.call(() -> {
+                ByteBuffer data = load(volume.getStore(), blockId, cache, false);
+                if (data == null) {
+                    return null;
+                }
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                return bytes;
+            });
+        } catch (ChecksumException e) {
+            throw e;
+        } catch (IOException e) {
+            checkVolumes();
+            throw e;
+        }
+    }
+
+    // 在持有块的卷的线程池中把块载入缓存，pin 为 true 时钉住，不等待完成
+    public void cacheAsync(String blockId, BlockCache cache, boolean pin) {
+        Volume volume = volumeOf(blockId);
+        if (volume == null) {
+            return;
+        }
+        volume.execute(() -> {
+            try {
+                load(volume.getStore(), blockId, cache, pin);
+            } catch (IOException e) {
+                Log.info("Cannot cache block " + blockId + " from " + volume.getDir() + ": " + e.getMessage());
+            }
+        });
+    }
+
+    // 读出块的数据和校验和，校验后放入缓存（放不下时不缓存），返回数据的只读视图；块不存在时返回 null。
+    // 用读到的校验和校验读到的数据，期间块被压缩移动或覆盖也不会缓存不一致的内容
+    private static ByteBuffer load(BlockStore store, String blockId, BlockCache cache, boolean pin) throws IOException {
+        BlockStore.BlockLocation location = store.getLocation(blockId);
+        if (location == null) {
+            return null;
+        }
+        ByteBuffer checksums = store.readChecksums(location, 0, location.getLength());
+        ByteBuffer data = store.read(blockId);
+        if (data == null || data.remaining() != location.getLength()) {
+            // 读取期间块被覆盖，按新内容校验，不缓存
+            store.verify(blockId, null);
+            return store.read(blockId);
+        }
+        DataChecksum.verify(data.duplicate(), location.getBytesPerChecksum(), checksums.duplicate(), blockId, 0);
+        cache.put(blockId, location.getBytesPerChecksum(), data, checksums, pin);
+        return data;
+    }
+
+    public void verify(String blockId, Throttler throttler) throws IOException {
+        BlockStore store = storeOf(blockId);
+        if (store != null) {
+            store.verify(blockId, throttler);
+        }
+    }
+
+    // 在持有块的各个卷的线程池中异步删除，删除成功后回调 deleted；不等待磁盘操作完成
+    public void deleteAsync(String blockId, Consumer<String> deleted) {
+        for (Volume volume : volumes) {
+            if (!volume.isFailed() && volume.getStore().contains(blockId)) {
+                volume.execute(() -> {
+                    try {
+                        if (volume.getStore().delete(blockId)) {
+                            deleted.accept(blockId);
+                        }
+                    } catch (IOException e) {
+                        Log.info("Failed to delete block " + blockId + " from " + volume.getDir() + ": " + e.getMessage());
+                        checkVolumes();
+                    }
+                });
+            }
+        }
+    }
+
+    // 从所有卷上同步删除块，返回是否删除了至少一份
+    public boolean delete(String blockId) throws IOException {
+        boolean deleted = false;
+        for (Volume volume : volumes) {
+            if (!volume.isFailed() && volume.getStore().contains(blockId)) {
+                try {
+                    deleted |= volume.call(() -> volume.getStore().delete(blockId));
+                } catch (IOException e) {
+                    checkVolumes();
+                    throw e;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    // 各卷在自己的线程池中并行压缩回收，互不等待
+    public void compact() {
+        for (Volume volume : volumes) {
+            if (!volume.isFailed()) {
+                volume.compactAsync(this::checkVolumes);
+            }
+        }
+    }
+
+    public BlockLocalPathInfo getLocalPathInfo(String blockId) {
+        BlockStore store = storeOf(blockId);
+        return store == null ? null : store.getLocalPathInfo(blockId);
+    }
+
+    // 所有可用卷上的块
+    public List<String> listBlocks() {
+        List<String> blockIds = new ArrayList<>();
+        for (Volume volume : volumes) {
+            if (!volume.isFailed()) {
+                blockIds.addAll(volume.getStore().listBlocks());
+            }
+        }
+        return blockIds;
+    }
+
+    // 检查所有可用卷，不能再读写的卷标记为失效。读写出错后调用，出错的原因也可能只是网络或单个块
+    public void checkVolumes() {
+        for (Volume volume : volumes) {
+            List<String> lost = null;
+            synchronized (this) {
+                if (!volume.isFailed() && !volume.check()) {
+                    lost = volume.getStore().listBlocks();
+                    volume.fail();
+                }
+            }
+            if (lost != null) {
+                Log.info("Volume " + volume.getDir() + " on " + name + " failed, " + lost.size() + " blocks lost, "
+                        + getFailedCount() + " of " + volumes.size() + " volumes failed.");
+                volumeFailed.accept(lost);
+            }
+        }
+    }
+
+    public int getFailedCount() {
+        int failed = 0;
+        for (Volume volume : volumes) {
+            if (volume.isFailed()) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    public List<Volume> getVolumes() {
+        return volumes;
+    }
+
+    public List<StorageReport> getStorageReports() {
+        List<StorageReport> reports = new ArrayList<>(volumes.size());
+        for (Volume volume : volumes) {
+            reports.add(volume.getReport());
+        }
+        return reports;
+    }
+
+    public long getCapacity() {
+        long capacity = 0;
+        for (Volume volume : volumes) {
+            if (!volume.isFailed()) {
+                capacity += volume.getStore().getCapacity();
+            }
+        }
+        return capacity;
+    }
+
+    public long getUsedSpace() {
+        long used = 0;
+        for (Volume volume : volumes) {
+            if (!volume.isFailed()) {
+                used += volume.getStore().getUsedSpace();
+            }
+        }
+        return used;
+    }
+
+    // 剩余空间：各可用卷之和
+    public long getRemaining() {
+        long remaining = 0;
+        for (Volume volume : volumes) {
+            if (!volume.isFailed()) {
+                remaining += volume.getStore().getRemaining();
+            }
+        }
+        return remaining;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Volume volume : volumes) {
+            try {
+                volume.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package common;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CompressedBlockTest {
+    private static final int CHUNK_SIZE = 4096;
+
+    @Test
+    public void roundTripsLz4() throws IOException {
+        roundTrip(CompressionCodec.byName("LZ4"));
+    }
+
+    @Test
+    public void roundTripsDeflate() throws IOException {
+        roundTrip(CompressionCodec.byName("DEFLATE"));
+    }
+
+    // 只有头部的空块
+    @Test
+    public void emptyBlock() throws IOException {
+        byte[] stored = CompressedBlock.compress(CompressionCodec.byName("LZ4"), new byte[0], 0, CHUNK_SIZE);
+        CompressedBlock block = CompressedBlock.parse(stored);
+        assertEquals(CompressedBlock.HEADER_SIZE, stored.length);
+        assertEquals(0, block.getRawLength());
+        assertEquals(0, block.getChunkCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedIndex() throws IOException {
+        byte[] data = new byte[3 * CHUNK_SIZE];
+        byte[] stored = CompressedBlock.compress(CompressionCodec.byName("LZ4"), data, data.length, CHUNK_SIZE);
+        CompressedBlock.parse(Arrays.copyOf(stored, CompressedBlock.HEADER_SIZE + 4));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownCodec() throws IOException {
+        byte[] data = new byte[100];
+        byte[] stored = CompressedBlock.compress(CompressionCodec.byName("LZ4"), data, data.length, CHUNK_SIZE);
+        stored[0] = 127;
+        CompressedBlock.parse(stored);
+    }
+
+    // 可压缩和不可压缩的分片交替出现，最后一个分片不满；从完整块解析头部后逐个解压分片，拼回原始数据
+    private static void roundTrip(CompressionCodec codec) throws IOException {
+        Random random = new Random(5);
+        int length = 7 * CHUNK_SIZE + 1234;
+        byte[] data = new byte[length + 100]; // 只压缩前 length 个字节
+        for (int chunk = 0; chunk * CHUNK_SIZE < data.length; chunk++) {
+            int start = chunk * CHUNK_SIZE;
+            int end = Math.min(data.length, start + CHUNK_SIZE);
+            for (int i = start; i < end; i++) {
+                data[i] = chunk % 2 == 0 ? (byte) ('a' + random.nextInt(3)) : (byte) random.nextInt();
+            }
+        }
+        byte[] stored = CompressedBlock.compress(codec, data, length, CHUNK_SIZE);
+        assertTrue(stored.length < length);
+
+        int headerLength = CompressedBlock.headerLength(Arrays.copyOf(stored, CompressedBlock.HEADER_SIZE));
+        assertTrue(headerLength <= CompressedBlock.maxHeaderLength(length, CHUNK_SIZE));
+        CompressedBlock block = CompressedBlock.parse(Arrays.copyOf(stored, headerLength));
+        assertSame(codec, block.getCodec());
+        assertEquals(length, block.getRawLength());
+        assertEquals(CHUNK_SIZE, block.getChunkSize());
+        assertEquals(8, block.getChunkCount());
+        assertEquals(headerLength, block.storedOffset(0));
+        assertEquals(stored.length, block.storedOffset(block.getChunkCount()));
+
+        byte[] restored = new byte[length];
+        for (int chunk = 0; chunk < block.getChunkCount(); chunk++) {
+            int stored0 = (int) block.storedOffset(chunk);
+            int storedLength = (int) (block.storedOffset(chunk + 1) - stored0);
+            if (chunk % 2 == 1) {
+                assertEquals("random chunk is stored raw", block.rawChunkLength(chunk), storedLength);
+            }
+            // 随机读只取出这一个分片的存储数据
+            byte[] piece = Arrays.copyOfRange(stored, stored0, stored0 + storedLength);
+            block.decompress(chunk, piece, 0, restored, chunk * CHUNK_SIZE);
+        }
+        assertEquals(1234, block.rawChunkLength(7));
+        assertArrayEquals(Arrays.copyOf(data, length), restored);
+    }
+}
@@ -0,0 +1,110 @@
+package common;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class DataChecksumTest {
+    private static final int BYTES_PER_CHECKSUM = 512;
+    private static final int LENGTH = 10 * BYTES_PER_CHECKSUM + 100; // 最后一个校验块不满
+
+    @Test
+    public void calculatesPerChunkCrc() {
+        byte[] data = random(LENGTH);
+        ByteBuffer checksums = checksums(ByteBuffer.wrap(data));
+        assertEquals(DataChecksum.checksumLength(LENGTH, BYTES_PER_CHECKSUM), checksums.remaining());
+        assertEquals(11 * DataChecksum.CHECKSUM_SIZE, checksums.remaining());
+        for (int chunk = 0; chunk < 11; chunk++) {
+            PureJavaCrc32C crc = new PureJavaCrc32C();
+            int start = chunk * BYTES_PER_CHECKSUM;
+            crc.update(data, start, Math.min(BYTES_PER_CHECKSUM, LENGTH - start));
+            assertEquals((int) crc.getValue(), checksums.getInt(chunk * DataChecksum.CHECKSUM_SIZE));
+        }
+    }
+
+    @Test
+    public void verifiesIntactData() throws ChecksumException {
+        byte[] data = random(LENGTH);
+        ByteBuffer heap = ByteBuffer.wrap(data);
+        ByteBuffer checksums = checksums(heap);
+        DataChecksum.verify(heap, BYTES_PER_CHECKSUM, checksums, "1", 0);
+        assertEquals(0, heap.position());
+        assertEquals(0, checksums.position());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(LENGTH);
+        direct.put(data).flip();
+        DataChecksum.verify(direct, BYTES_PER_CHECKSUM, checksums, "1", 0);
+    }
+
+    // 任何一个字节被改动都报告所在校验块的起点，偏移加上 basePosition
+    @Test
+    public void reportsCorruptedChunk() {
+        byte[] data = random(LENGTH);
+        ByteBuffer checksums = checksums(ByteBuffer.wrap(data));
+        for (int position : new int[]{0, 511, 512, 3000, LENGTH - 1}) {
+            byte[] corrupted = data.clone();
+            corrupted[position] ^= 0x10;
+            try {
+                DataChecksum.verify(ByteBuffer.wrap(corrupted), BYTES_PER_CHECKSUM, checksums, "7", 1 << 20);
+                fail("corruption at " + position + " not detected");
+            } catch (ChecksumException e) {
+                assertEquals("7", e.getBlockId());
+                assertEquals((1 << 20) + position / BYTES_PER_CHECKSUM * BYTES_PER_CHECKSUM, e.getPosition());
+            }
+        }
+    }
+
+    @Test
+    public void reportsCorruptedChecksum() {
+        byte[] data = random(LENGTH);
+        ByteBuffer checksums = checksums(ByteBuffer.wrap(data));
+        checksums.put(4 * DataChecksum.CHECKSUM_SIZE, (byte) (checksums.get(4 * DataChecksum.CHECKSUM_SIZE) ^ 1));
+        try {
+            DataChecksum.verify(ByteBuffer.wrap(data), BYTES_PER_CHECKSUM, checksums, "1", 0);
+            fail("corrupted checksum not detected");
+        } catch (ChecksumException e) {
+            assertEquals(4 * BYTES_PER_CHECKSUM, e.getPosition());
+        }
+    }
+
+    // 校验和比数据少时，缺少校验和的校验块视为损坏
+    @Test
+    public void reportsMissingChecksums() {
+        byte[] data = random(LENGTH);
+        ByteBuffer checksums = checksums(ByteBuffer.wrap(data));
+        checksums.limit(checksums.limit() - DataChecksum.CHECKSUM_SIZE);
+        try {
+            DataChecksum.verify(ByteBuffer.wrap(data), BYTES_PER_CHECKSUM, checksums, "1", 0);
+            fail("missing checksum not detected");
+        } catch (ChecksumException e) {
+            assertEquals(10 * BYTES_PER_CHECKSUM, e.getPosition());
+        }
+    }
+
+    // 从块中间的校验块边界开始校验一段数据，checksums 的位置对应第一个校验块
+    @Test
+    public void verifiesSlices() throws ChecksumException {
+        byte[] data = random(LENGTH);
+        ByteBuffer checksums = checksums(ByteBuffer.wrap(data));
+        ByteBuffer slice = ByteBuffer.wrap(data, 3 * BYTES_PER_CHECKSUM, 2 * BYTES_PER_CHECKSUM);
+        checksums.position(3 * DataChecksum.CHECKSUM_SIZE);
+        DataChecksum.verify(slice, BYTES_PER_CHECKSUM, checksums, "1", 3 * BYTES_PER_CHECKSUM);
+    }
+
+    private static ByteBuffer checksums(ByteBuffer data) {
+        ByteBuffer checksums = ByteBuffer.allocate(DataChecksum.checksumLength(data.remaining(), BYTES_PER_CHECKSUM));
+        DataChecksum.calculate(data, BYTES_PER_CHECKSUM, checksums);
+        checksums.flip();
+        return checksums;
+    }
+
+    private static byte[] random(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,104 @@
+package common;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class Lz4Test {
+    private final Random random = new Random(11);
+
+    // 在源和目标缓冲区的随机偏移处压缩、解压，覆盖短于最小匹配长度、刚好越过 MF_LIMIT 和跨多个哈希窗口的长度
+    @Test
+    public void roundTripsAtRandomOffsets() throws IOException {
+        int[] lengths = {0, 1, 4, 5, 12, 13, 14, 100, 4096, 65535, 65536, 70000, 300000};
+        for (int length : lengths) {
+            for (int kind = 0; kind < 4; kind++) {
+                byte[] data = generate(kind, length);
+                roundTrip(data, random.nextInt(64), length);
+            }
+        }
+        for (int i = 0; i < 200; i++) {
+            int length = random.nextInt(5000);
+            roundTrip(generate(random.nextInt(4), length + 64), random.nextInt(64), length);
+        }
+    }
+
+    // 重复 100 次的随机片段只需保存一次字面量，其余都是匹配
+    @Test
+    public void compressesRedundantData() {
+        byte[] pattern = generate(0, 1000);
+        byte[] data = new byte[100 * pattern.length];
+        for (int i = 0; i < 100; i++) {
+            System.arraycopy(pattern, 0, data, i * pattern.length, pattern.length);
+        }
+        byte[] compressed = new byte[Lz4.maxCompressedLength(data.length)];
+        assertTrue(Lz4.compress(data, 0, data.length, compressed, 0) < data.length / 10);
+    }
+
+    // 不可压缩的数据压缩后也不超过 maxCompressedLength
+    @Test
+    public void boundsIncompressibleData() throws IOException {
+        for (int length : new int[]{1, 15, 16, 254, 255, 256, 70000}) {
+            byte[] data = generate(0, length);
+            byte[] compressed = new byte[Lz4.maxCompressedLength(length)];
+            int n = Lz4.compress(data, 0, length, compressed, 0);
+            assertTrue(n <= Lz4.maxCompressedLength(length));
+            byte[] restored = new byte[length];
+            Lz4.decompress(compressed, 0, n, restored, 0, length);
+            assertArrayEquals(data, restored);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsEmptyInput() throws IOException {
+        Lz4.decompress(new byte[16], 3, 0, new byte[10], 0, 10);
+    }
+
+    private void roundTrip(byte[] data, int offset, int length) throws IOException {
+        byte[] src = new byte[offset + data.length + 7];
+        random.nextBytes(src);
+        System.arraycopy(data, 0, src, offset, data.length);
+        int dstOffset = random.nextInt(64);
+        byte[] compressed = new byte[dstOffset + Lz4.maxCompressedLength(length)];
+        int n = Lz4.compress(src, offset, length, compressed, dstOffset);
+
+        int restoredOffset = random.nextInt(64);
+        byte[] restored = new byte[restoredOffset + length + 5];
+        Lz4.decompress(compressed, dstOffset, n, restored, restoredOffset, length);
+        assertArrayEquals("length " + length, Arrays.copyOfRange(src, offset, offset + length),
+                Arrays.copyOfRange(restored, restoredOffset, restoredOffset + length));
+    }
+
+    // 0: 随机字节 1: 小字母表 2: 全零 3: 随机片段的重复，匹配偏移各不相同
+    private byte[] generate(int kind, int length) {
+        byte[] data = new byte[length];
+        switch (kind) {
+            case 0:
+                random.nextBytes(data);
+                break;
+            case 1:
+                for (int i = 0; i < length; i++) {
+                    data[i] = (byte) ('a' + random.nextInt(4));
+                }
+                break;
+            case 2:
+                break;
+            default:
+                byte[] pieces = new byte[256];
+                random.nextBytes(pieces);
+                for (int i = 0; i < length; ) {
+                    int start = random.nextInt(pieces.length);
+                    int n = Math.min(length - i, random.nextInt(pieces.length - start) + 1);
+                    System.arraycopy(pieces, start, data, i, n);
+                    i += n;
+                }
+                break;
+        }
+        return data;
+    }
+}
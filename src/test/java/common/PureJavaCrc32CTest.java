@@ -0,0 +1,92 @@
+package common;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Checksum;
+
+import static org.junit.Assert.assertEquals;
+
+public class PureJavaCrc32CTest {
+    // RFC 3720 附录 B.4 中的标准测试向量
+    @Test
+    public void knownAnswers() {
+        assertEquals(0xE3069283L, crc("123456789".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(0L, crc(new byte[0]));
+        assertEquals(0x8A9136AAL, crc(new byte[32]));
+        byte[] ones = new byte[32];
+        Arrays.fill(ones, (byte) 0xff);
+        assertEquals(0x62A8AB43L, crc(ones));
+        byte[] ascending = new byte[32];
+        for (int i = 0; i < ascending.length; i++) {
+            ascending[i] = (byte) i;
+        }
+        assertEquals(0x46DD794EL, crc(ascending));
+    }
+
+    // 与 JDK 的 CRC32C（Java 9 起才有）逐一比对各种长度和起始偏移，覆盖 8 字节一组的主循环和零散的尾部
+    @Test
+    public void matchesJdk() {
+        Checksum jdk = DataChecksum.newCrc32C();
+        Assume.assumeFalse("JDK has no CRC32C", jdk instanceof PureJavaCrc32C);
+        Random random = new Random(42);
+        byte[] data = new byte[4096];
+        random.nextBytes(data);
+        for (int length = 0; length <= 300; length++) {
+            int offset = random.nextInt(data.length - length);
+            jdk.reset();
+            jdk.update(data, offset, length);
+            PureJavaCrc32C crc = new PureJavaCrc32C();
+            crc.update(data, offset, length);
+            assertEquals("length " + length, jdk.getValue(), crc.getValue());
+        }
+    }
+
+    // 分多次更新、逐字节更新以及堆内和直接 ByteBuffer 的结果都与一次性更新相同
+    @Test
+    public void incrementalUpdates() {
+        Random random = new Random(7);
+        byte[] data = new byte[10000];
+        random.nextBytes(data);
+        long expected = crc(data);
+
+        PureJavaCrc32C pieces = new PureJavaCrc32C();
+        for (int position = 0; position < data.length; ) {
+            int n = Math.min(data.length - position, random.nextInt(50));
+            pieces.update(data, position, n);
+            position += n;
+        }
+        assertEquals(expected, pieces.getValue());
+
+        PureJavaCrc32C bytes = new PureJavaCrc32C();
+        for (byte b : data) {
+            bytes.update(b);
+        }
+        assertEquals(expected, bytes.getValue());
+
+        PureJavaCrc32C heap = new PureJavaCrc32C();
+        heap.update(ByteBuffer.wrap(data));
+        assertEquals(expected, heap.getValue());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        PureJavaCrc32C crc = new PureJavaCrc32C();
+        crc.update(direct);
+        assertEquals(expected, crc.getValue());
+        assertEquals(data.length, direct.position());
+
+        crc.reset();
+        crc.update(data, 0, data.length);
+        assertEquals(expected, crc.getValue());
+    }
+
+    private static long crc(byte[] data) {
+        PureJavaCrc32C crc = new PureJavaCrc32C();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+}
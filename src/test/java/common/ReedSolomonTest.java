@@ -0,0 +1,114 @@
+package common;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class ReedSolomonTest {
+    private static final int UNIT_LENGTH = 1000;
+
+    @Test
+    public void decodesAnyErasures() {
+        checkAllErasures(6, 3);
+        checkAllErasures(3, 2);
+        checkAllErasures(10, 4);
+        checkAllErasures(1, 1);
+    }
+
+    // 编解码按字节位置独立进行，只处理一段区间时区间外的数据不受影响
+    @Test
+    public void decodesRange() {
+        ReedSolomon codec = new ReedSolomon(6, 3);
+        byte[][] expected = encode(codec, 6, 3, new Random(3));
+        byte[][] units = copy(expected);
+        boolean[] present = new boolean[9];
+        Arrays.fill(present, true);
+        int offset = 100;
+        int length = 333;
+        int[] erasedUnits = {0, 4, 7};
+        for (int erased : erasedUnits) {
+            present[erased] = false;
+            Arrays.fill(units[erased], (byte) 0x5a);
+        }
+        codec.decode(units, present, offset, length);
+        for (int u = 0; u < units.length; u++) {
+            assertArrayEquals(Arrays.copyOfRange(expected[u], offset, offset + length),
+                    Arrays.copyOfRange(units[u], offset, offset + length));
+        }
+        byte[] untouched = new byte[UNIT_LENGTH - offset - length];
+        Arrays.fill(untouched, (byte) 0x5a);
+        for (int erased : erasedUnits) {
+            assertArrayEquals(untouched, Arrays.copyOfRange(units[erased], offset + length, UNIT_LENGTH));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooManyErasures() {
+        ReedSolomon codec = new ReedSolomon(3, 2);
+        byte[][] units = encode(codec, 3, 2, new Random(4));
+        codec.decode(units, new boolean[]{true, false, false, false, true}, 0, UNIT_LENGTH);
+    }
+
+    // 擦除 m 个单元的每一种组合（数据单元、校验单元或两者混合），解码后所有单元都与编码结果一致
+    private static void checkAllErasures(int k, int m) {
+        ReedSolomon codec = new ReedSolomon(k, m);
+        byte[][] expected = encode(codec, k, m, new Random(k * 31 + m));
+        int[] erased = new int[m];
+        for (int i = 0; i < m; i++) {
+            erased[i] = i;
+        }
+        while (true) {
+            byte[][] units = copy(expected);
+            boolean[] present = new boolean[k + m];
+            Arrays.fill(present, true);
+            for (int u : erased) {
+                present[u] = false;
+                Arrays.fill(units[u], (byte) 0xa5);
+            }
+            codec.decode(units, present, 0, UNIT_LENGTH);
+            for (int u = 0; u < units.length; u++) {
+                assertArrayEquals("RS-" + k + "-" + m + " erased " + Arrays.toString(erased) + " unit " + u, expected[u], units[u]);
+            }
+            if (!nextCombination(erased, k + m)) {
+                return;
+            }
+        }
+    }
+
+    private static byte[][] encode(ReedSolomon codec, int k, int m, Random random) {
+        byte[][] units = new byte[k + m][UNIT_LENGTH];
+        for (int d = 0; d < k; d++) {
+            random.nextBytes(units[d]);
+        }
+        codec.encode(units, 0, UNIT_LENGTH);
+        return units;
+    }
+
+    private static byte[][] copy(byte[][] units) {
+        byte[][] copy = new byte[units.length][];
+        for (int u = 0; u < units.length; u++) {
+            copy[u] = units[u].clone();
+        }
+        return copy;
+    }
+
+    // 按字典序生成 [0, n) 中下一个大小为 combination.length 的组合，没有下一个时返回 false
+    private static boolean nextCombination(int[] combination, int n) {
+        int r = combination.length;
+        int i = r - 1;
+        while (i >= 0 && combination[i] == n - r + i) {
+            i--;
+        }
+        if (i < 0) {
+            return false;
+        }
+        combination[i]++;
+        for (int j = i + 1; j < r; j++) {
+            combination[j] = combination[j - 1] + 1;
+        }
+        return true;
+    }
+}